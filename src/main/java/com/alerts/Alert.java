@@ -2,11 +2,14 @@ package com.alerts;
 
 import com.alerts.alert_decorator.AlertComponent;
 import com.data_management.DataStorage;
+import com.data_management.IngestLog;
 
 /**
  * Represents a basic alert for a specific patient and condition.
  */
 public class Alert implements AlertComponent {
+    private static final IngestLog LOG = IngestLog.forSource("Alert");
+
     private String patientId;
     private String condition;
     private long timestamp;
@@ -44,7 +47,7 @@ public class Alert implements AlertComponent {
     @Override
     public void trigger(DataStorage dataStorage) {
         // core trigger behavior
-        System.out.println(this);
+        LOG.log(IngestLog.Level.INFO, this);
         dataStorage.saveAlertInLog(this);
     }
 
@@ -5,6 +5,7 @@ import com.alerts.Strategy.BloodPressureStrategy;
 import com.alerts.Strategy.HeartRateStrategy;
 import com.alerts.Strategy.OxygenSaturationStrategy;
 import com.data_management.DataStorage;
+import com.data_management.IngestLog;
 import com.data_management.Patient;
 
 import java.util.ArrayList;
@@ -17,6 +18,8 @@ import java.util.List;
  * based on specific criteria.
  */
 public class AlertGenerator {
+    private static final IngestLog LOG = IngestLog.forSource("AlertGenerator");
+
     private final DataStorage dataStorage;
     private final List<AlertStrategy> alertStrategies;
 
@@ -57,7 +60,7 @@ public class AlertGenerator {
      * @param alert the alert object containing details about the alert condition
      */
     void triggerAlert(Alert alert) {
-        System.out.println(alert);
+        LOG.log(IngestLog.Level.INFO, alert);
         dataStorage.saveAlertInLog(alert);
     }
 }
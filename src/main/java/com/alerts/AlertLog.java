@@ -0,0 +1,351 @@
+package com.alerts;
+
+import com.alerts.alert_decorator.PriorityAlertDecorator.Priority;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Bounded history of triggered alerts with indexes for the usual queries.
+ *
+ * Alerts are kept in a fixed-capacity ring buffer, so an alert storm replaces the
+ * oldest alerts instead of growing the heap. Every logged alert gets an increasing
+ * sequence number, which lets pollers ask for everything after the last alert they saw.
+ * Alerts are also indexed by patient, by priority and by timestamp, and those indexes
+ * drop an alert when the ring does.
+ *
+ * Strategies evaluate a patient's whole history on every run, so they create the same
+ * alert again and again. An alert with the same patient, condition and timestamp as
+ * one that is still in the log is therefore only logged if it is the very same alert
+ * object, which is how {@link com.alerts.alert_decorator.RepeatedAlertDecorator} repeats it.
+ */
+public class AlertLog {
+
+    /** The capacity used by {@link com.data_management.DataStorage}. */
+    public static final int DEFAULT_CAPACITY = 10_000;
+
+    private final ThreadLocal<Priority> triggerPriority = new ThreadLocal<>();
+    private final Entry[] ring;
+    private long nextSequence;
+    private long clearedBefore; // sequences below this were removed by clear()
+
+    // guarded by this, every index holds sequence numbers in ascending order
+    private final Map<String, SequenceQueue> byPatient = new HashMap<>();
+    private final Map<Priority, SequenceQueue> byPriority = new EnumMap<>(Priority.class);
+    private final SequenceQueue withoutPriority = new SequenceQueue();
+    private final TreeMap<Long, SequenceQueue> byTime = new TreeMap<>();
+    private final Map<String, Long> byKey = new HashMap<>(); // latest sequence per patient, condition and time
+
+    /**
+     * Constructs an empty alert log.
+     *
+     * @param capacity the number of alerts kept before the oldest ones are dropped
+     */
+    public AlertLog(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.ring = new Entry[capacity];
+    }
+
+    /**
+     * Runs an action, such as triggering a wrapped alert, so that every alert logged by
+     * it on this thread is recorded with the given priority.
+     *
+     * @param priority the priority to record
+     * @param action   the action that logs alerts
+     */
+    public void withPriority(Priority priority, Runnable action) {
+        Priority outer = triggerPriority.get();
+        triggerPriority.set(priority);
+        try {
+            action.run();
+        } finally {
+            if (outer == null) {
+                triggerPriority.remove();
+            } else {
+                triggerPriority.set(outer);
+            }
+        }
+    }
+
+    /**
+     * Logs an alert, dropping the oldest alert if the log is full.
+     *
+     * @param alert the alert to log
+     * @return true if the alert was logged, false if it repeats an alert already in the log
+     */
+    public boolean add(Alert alert) {
+        Priority priority = triggerPriority.get();
+        String key = alert.getPatientId() + '\u0000' + alert.getCondition() + '\u0000' + alert.getTimestamp();
+        synchronized (this) {
+            Long previous = byKey.get(key);
+            if (previous != null && entryAt(previous).alert != alert) {
+                return false;
+            }
+            if (size() == ring.length) {
+                evict(entryAt(firstSequence()));
+            }
+            long sequence = nextSequence++;
+            Entry entry = new Entry(sequence, alert, priority, key);
+            ring[slot(sequence)] = entry;
+            byKey.put(key, sequence);
+            byPatient.computeIfAbsent(alert.getPatientId(), id -> new SequenceQueue()).add(sequence);
+            priorityQueue(priority).add(sequence);
+            byTime.computeIfAbsent(alert.getTimestamp(), t -> new SequenceQueue()).add(sequence);
+            return true;
+        }
+    }
+
+    /**
+     * @return every alert in the log, oldest first
+     */
+    public synchronized List<Alert> getAlerts() {
+        List<Alert> alerts = new ArrayList<>(size());
+        for (long sequence = firstSequence(); sequence < nextSequence; sequence++) {
+            alerts.add(entryAt(sequence).alert);
+        }
+        return alerts;
+    }
+
+    /**
+     * Retrieves the alerts of one patient whose timestamp lies in [from, to], in the order
+     * they were logged. Only that patient's alerts are looked at.
+     *
+     * @param patientId the patient ID as used by the alerts
+     * @param from      the start time, inclusive, in milliseconds since the Unix epoch
+     * @param to        the end time, inclusive, in milliseconds since the Unix epoch
+     * @return the matching alerts
+     */
+    public synchronized List<Alert> getAlerts(String patientId, long from, long to) {
+        return collect(byPatient.get(patientId), from, to);
+    }
+
+    /**
+     * Retrieves the alerts of one patient whose timestamp lies in [from, to].
+     *
+     * @param patientId the unique identifier of the patient
+     * @param from      the start time, inclusive, in milliseconds since the Unix epoch
+     * @param to        the end time, inclusive, in milliseconds since the Unix epoch
+     * @return the matching alerts
+     */
+    public List<Alert> getAlerts(int patientId, long from, long to) {
+        return getAlerts(String.valueOf(patientId), from, to);
+    }
+
+    /**
+     * Retrieves the alerts that were triggered with the given priority and whose timestamp
+     * lies in [from, to], in the order they were logged.
+     *
+     * @param priority the priority, or null for alerts logged without one
+     * @param from     the start time, inclusive, in milliseconds since the Unix epoch
+     * @param to       the end time, inclusive, in milliseconds since the Unix epoch
+     * @return the matching alerts
+     */
+    public synchronized List<Alert> getAlerts(Priority priority, long from, long to) {
+        return collect(priority == null ? withoutPriority : byPriority.get(priority), from, to);
+    }
+
+    /**
+     * Retrieves every alert whose timestamp lies in [from, to], ordered by timestamp.
+     *
+     * @param from the start time, inclusive, in milliseconds since the Unix epoch
+     * @param to   the end time, inclusive, in milliseconds since the Unix epoch
+     * @return the matching alerts
+     */
+    public synchronized List<Alert> getAlertsBetween(long from, long to) {
+        List<Alert> alerts = new ArrayList<>();
+        if (from > to) {
+            return alerts;
+        }
+        for (SequenceQueue sequences : byTime.subMap(from, true, to, true).values()) {
+            for (int i = 0; i < sequences.size; i++) {
+                alerts.add(entryAt(sequences.get(i)).alert);
+            }
+        }
+        return alerts;
+    }
+
+    /**
+     * Retrieves every entry logged after the given sequence number, oldest first. A poller
+     * passes the sequence of the last entry it saw, or -1 the first time. If entries were
+     * dropped in between, the result starts at the oldest one still in the log, which the
+     * poller can tell from the gap in sequence numbers.
+     *
+     * @param sequence the last sequence number already seen
+     * @return the newer entries
+     */
+    public synchronized List<Entry> getAlertsSince(long sequence) {
+        long first = Math.max(firstSequence(), sequence + 1);
+        List<Entry> entries = new ArrayList<>((int) Math.max(0, nextSequence - first));
+        for (long s = first; s < nextSequence; s++) {
+            entries.add(entryAt(s));
+        }
+        return entries;
+    }
+
+    /**
+     * @return the sequence number of the newest entry, or -1 if nothing was logged yet
+     */
+    public synchronized long getLatestSequence() {
+        return nextSequence - 1;
+    }
+
+    /**
+     * @return the number of alerts in the log
+     */
+    public synchronized int size() {
+        return (int) (nextSequence - firstSequence());
+    }
+
+    /**
+     * @return the number of alerts kept before the oldest ones are dropped
+     */
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    /**
+     * Removes every alert. Sequence numbers continue where they were.
+     */
+    public synchronized void clear() {
+        Arrays.fill(ring, null);
+        clearedBefore = nextSequence;
+        byPatient.clear();
+        byPriority.clear();
+        withoutPriority.clear();
+        byTime.clear();
+        byKey.clear();
+    }
+
+    private long firstSequence() {
+        return Math.max(clearedBefore, nextSequence - ring.length);
+    }
+
+    private List<Alert> collect(SequenceQueue sequences, long from, long to) {
+        List<Alert> alerts = new ArrayList<>();
+        if (sequences == null) {
+            return alerts;
+        }
+        for (int i = 0; i < sequences.size; i++) {
+            Alert alert = entryAt(sequences.get(i)).alert;
+            if (alert.getTimestamp() >= from && alert.getTimestamp() <= to) {
+                alerts.add(alert);
+            }
+        }
+        return alerts;
+    }
+
+    /**
+     * Drops the oldest entry from every index. It is always the first entry of each of them.
+     */
+    private void evict(Entry oldest) {
+        long sequence = oldest.sequence;
+        removeFirst(byPatient, oldest.alert.getPatientId());
+        priorityQueue(oldest.priority).removeFirst();
+        removeFirst(byTime, oldest.alert.getTimestamp());
+        byKey.remove(oldest.key, sequence);
+        ring[slot(sequence)] = null;
+    }
+
+    private static <K> void removeFirst(Map<K, SequenceQueue> index, K key) {
+        SequenceQueue sequences = index.get(key);
+        sequences.removeFirst();
+        if (sequences.size == 0) {
+            index.remove(key);
+        }
+    }
+
+    private SequenceQueue priorityQueue(Priority priority) {
+        if (priority == null) {
+            return withoutPriority;
+        }
+        return byPriority.computeIfAbsent(priority, p -> new SequenceQueue());
+    }
+
+    private Entry entryAt(long sequence) {
+        return ring[slot(sequence)];
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % ring.length);
+    }
+
+    /**
+     * An alert in the log together with its sequence number and priority.
+     */
+    public static final class Entry {
+        private final long sequence;
+        private final Alert alert;
+        private final Priority priority;
+        private final String key;
+
+        private Entry(long sequence, Alert alert, Priority priority, String key) {
+            this.sequence = sequence;
+            this.alert = alert;
+            this.priority = priority;
+            this.key = key;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public Alert getAlert() {
+            return alert;
+        }
+
+        /**
+         * @return the priority the alert was triggered with, or null if it had none
+         */
+        public Priority getPriority() {
+            return priority;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("AlertLog.Entry[seq=%d, priority=%s, %s]", sequence, priority, alert);
+        }
+    }
+
+    /**
+     * Growable FIFO of ascending sequence numbers.
+     */
+    private static final class SequenceQueue {
+        private long[] items = new long[4];
+        private int head;
+        private int size;
+
+        void add(long sequence) {
+            if (size == items.length) {
+                long[] grown = new long[items.length * 2];
+                for (int i = 0; i < size; i++) {
+                    grown[i] = get(i);
+                }
+                items = grown;
+                head = 0;
+            }
+            items[(head + size) % items.length] = sequence;
+            size++;
+        }
+
+        long get(int index) {
+            return items[(head + index) % items.length];
+        }
+
+        void removeFirst() {
+            head = (head + 1) % items.length;
+            size--;
+        }
+
+        void clear() {
+            head = 0;
+            size = 0;
+        }
+    }
+}
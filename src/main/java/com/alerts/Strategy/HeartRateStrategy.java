@@ -18,29 +18,28 @@ public class HeartRateStrategy implements AlertStrategy {
 
     private final int window = 5;
     private final AlertFactory heartRateAlertFactory;
-    private List<PatientRecord> ecg;
-    private String patientId;
 
     public HeartRateStrategy() {
         this.heartRateAlertFactory = new ECGAlertFactory();
-        this.ecg = new ArrayList<>();
 
     }
     @Override
     public void checkAlert(Patient patient, DataStorage dataStorage) {
+        // kept per call, one strategy instance is shared by every patient and evaluation thread
+        List<PatientRecord> ecg = new ArrayList<>();
         List<PatientRecord> records = patient.getRecords(0, System.currentTimeMillis());
         for (PatientRecord r : records) {
             if (Objects.equals(r.getRecordType(), "ECG")){
-                this.ecg.add(r);
+                ecg.add(r);
             }
         }
         Comparator<PatientRecord> byTime = Comparator.comparingLong(PatientRecord::getTimestamp);
-        this.ecg.sort(byTime);
-        patientId = String.valueOf(patient.getPatientId());
-        ECG_window(dataStorage);
+        ecg.sort(byTime);
+        String patientId = String.valueOf(patient.getPatientId());
+        ECG_window(ecg, patientId, dataStorage);
     }
 
-    public void ECG_window(DataStorage dataStorage){
+    public void ECG_window(List<PatientRecord> ecg, String patientId, DataStorage dataStorage){
 
         for (int i = window; i < ecg.size(); i++) {
             double sum = 0;
@@ -2,6 +2,7 @@ package com.alerts.alert_decorator;
 
 
 import com.data_management.DataStorage;
+import com.data_management.IngestLog;
 
 /**
  * Decorator that tags an alert with a priority level.
@@ -10,6 +11,8 @@ import com.data_management.DataStorage;
  * when the alert is triggered.
  */
 public class PriorityAlertDecorator extends AlertDecorator {
+    private static final IngestLog LOG = IngestLog.forSource("PriorityAlertDecorator");
+
     public enum Priority {LOW, MEDIUM, HIGH, CRITICAL}
 
     private final Priority priority;
@@ -37,14 +40,15 @@ public class PriorityAlertDecorator extends AlertDecorator {
 
     /**
      * Triggers the alert, logs the priority level, and delegates
-     * the trigger call to the wrapped alert component.
+     * the trigger call to the wrapped alert component. The alert log records
+     * the priority with every alert the wrapped component logs.
      *
      * @param dataStorage the DataStorage instance providing the data needed to evaluate and trigger the alert
      */
     @Override
     public void trigger(DataStorage dataStorage) {
 
-        System.out.println("Triggering priority: " + priority);
-        wrapped.trigger(dataStorage);
+        LOG.log(IngestLog.Level.INFO, "Triggering priority: ", priority);
+        dataStorage.getAlertHistory().withPriority(priority, () -> wrapped.trigger(dataStorage));
     }
 }
\ No newline at end of file
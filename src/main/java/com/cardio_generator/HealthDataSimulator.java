@@ -1,8 +1,6 @@
 package com.cardio_generator;
 
 import java.net.URISyntaxException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import com.cardio_generator.generators.AlertGenerator;
@@ -11,16 +9,22 @@ import com.cardio_generator.generators.BloodPressureDataGenerator;
 import com.cardio_generator.generators.BloodSaturationDataGenerator;
 import com.cardio_generator.generators.BloodLevelsDataGenerator;
 import com.cardio_generator.generators.ECGDataGenerator;
+import com.cardio_generator.generators.HighRateECGDataGenerator;
+import com.cardio_generator.generators.PatientDataGenerator;
+import com.cardio_generator.outputs.BinaryFileOutputStrategy;
 import com.cardio_generator.outputs.ConsoleOutputStrategy;
 import com.cardio_generator.outputs.FileOutputStrategy;
 import com.cardio_generator.outputs.OutputStrategy;
+import com.cardio_generator.outputs.RecordBatch;
 import com.cardio_generator.outputs.TcpOutputStrategy;
 import com.cardio_generator.outputs.WebSocketOutputStrategy;
 import com.data_management.WebSocketClient;
+import com.data_management.WebSocketCompression;
 
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -36,13 +40,20 @@ public class HealthDataSimulator {
 
     private static HealthDataSimulator instance;
     private static int patientCount = 50; // Default number of patients
-    private static ScheduledExecutorService scheduler;
+    private static TimerWheelScheduler scheduler;
     private static OutputStrategy outputStrategy;
-    private static final Random random = new Random();
+    private static long seed = new SplittableRandom().nextLong(); // printed, so that a run can be repeated
+    private static SplittableRandom random;
+    private static double speed = 1; // of the simulated clock, 1 runs in real time
+    private static long durationMillis = -1; // of simulated time to generate, -1 runs until stopped
+    private static int ecgSampleRate = 0; // samples per second, 0 for one ECG value per second
 
 
     private static final String WS_URI = "ws://localhost:8080";
     private static final int WS_PORT = 8080;
+    private static final long TICK_MILLIS = 10;
+    // one reusable batch per scheduler worker
+    private static final ThreadLocal<RecordBatch> BATCHES = ThreadLocal.withInitial(() -> new RecordBatch(1024));
 
     /**
      * Private constructor for a singleton design pattern
@@ -60,18 +71,41 @@ public class HealthDataSimulator {
         return instance;
     }
 
-    public static void main(String[] args) throws URISyntaxException, InterruptedException
+    public static void main(String[] args) throws URISyntaxException, InterruptedException, IOException
     {
-        outputStrategy = new WebSocketOutputStrategy(WS_PORT);
-        WebSocketClient webSocketClient = new WebSocketClient(WS_URI);
+        parseArguments(args);
+        random = new SplittableRandom(seed);
+        System.out.println("Random seed: " + seed);
+        if (outputStrategy == null) {
+            outputStrategy = new WebSocketOutputStrategy(WS_PORT);
+            WebSocketClient webSocketClient = new WebSocketClient(WS_URI);
 
-        webSocketClient.start();
-        scheduler = Executors.newScheduledThreadPool(patientCount * 4);
+            webSocketClient.start();
+        }
+        int workers = Runtime.getRuntime().availableProcessors();
+        long now = System.currentTimeMillis();
+        if (speed == 1) {
+            scheduler = new TimerWheelScheduler(TICK_MILLIS, workers);
+        } else {
+            // a time-warped history of a given length ends now
+            long from = durationMillis < 0 ? now : now - durationMillis;
+            scheduler = new TimerWheelScheduler(TICK_MILLIS, workers, new VirtualClock(from), speed);
+        }
+        long start = scheduler.getClock().currentTimeMillis();
+        if (durationMillis >= 0) {
+            scheduler.stopAt(start + durationMillis);
+        }
 
         List<Integer> patientIds = initializePatientIds(patientCount);
-        Collections.shuffle(patientIds);
+        Collections.shuffle(patientIds, new Random(random.nextLong()));
 
         scheduleTasksForPatients(patientIds);
+        scheduler.start();
+        if (durationMillis >= 0) {
+            scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            System.out.println("Generated " + durationMillis / 1000 + " s of simulated time in "
+                    + (System.currentTimeMillis() - now) / 1000 + " s");
+        }
     }
 
     /**
@@ -96,6 +130,53 @@ public class HealthDataSimulator {
                         }
                     }
                     break;
+                case "--seed":
+                    if (i + 1 < args.length) {
+                        try {
+                            seed = Long.parseLong(args[++i]);
+                        } catch (NumberFormatException e) {
+                            System.err.println("Error: Invalid seed. Using a random seed.");
+                        }
+                    }
+                    break;
+                case "--ecg-rate":
+                    if (i + 1 < args.length) {
+                        try {
+                            ecgSampleRate = Integer.parseInt(args[++i]);
+                        } catch (NumberFormatException e) {
+                            System.err.println("Error: Invalid ECG sample rate. Using one value per second.");
+                        }
+                        if (ecgSampleRate < 0 || ecgSampleRate > HighRateECGDataGenerator.MAX_SAMPLE_RATE) {
+                            System.err.println("Error: The ECG sample rate must be between 0 and "
+                                    + HighRateECGDataGenerator.MAX_SAMPLE_RATE + " Hz. Using one value per second.");
+                            ecgSampleRate = 0;
+                        }
+                    }
+                    break;
+                case "--speed":
+                    if (i + 1 < args.length) {
+                        String speedArg = args[++i];
+                        try {
+                            speed = speedArg.equals("max") ? TimerWheelScheduler.AS_FAST_AS_POSSIBLE
+                                    : Double.parseDouble(speedArg);
+                        } catch (NumberFormatException e) {
+                            System.err.println("Error: Invalid speed. Running in real time.");
+                        }
+                        if (!(speed > 0)) {
+                            System.err.println("Error: The speed must be positive. Running in real time.");
+                            speed = 1;
+                        }
+                    }
+                    break;
+                case "--duration":
+                    if (i + 1 < args.length) {
+                        try {
+                            durationMillis = parseDuration(args[++i]);
+                        } catch (IllegalArgumentException e) {
+                            System.err.println("Error: " + e.getMessage() + ". Running until stopped.");
+                        }
+                    }
+                    break;
                 case "--output":
                     if (i + 1 < args.length) {
                         String outputArg = args[++i];
@@ -108,10 +189,19 @@ public class HealthDataSimulator {
                                 Files.createDirectories(outputPath);
                             }
                             outputStrategy = new FileOutputStrategy(baseDirectory);
+                        } else if (outputArg.startsWith("binary:")) {
+                            outputStrategy = new BinaryFileOutputStrategy(outputArg.substring(7));
                         } else if (outputArg.startsWith("websocket:")) {
                             try {
-                                int port = Integer.parseInt(outputArg.substring(10));
-                                outputStrategy = new WebSocketOutputStrategy(port);
+                                String portArg = outputArg.substring(10);
+                                int compressThreshold = WebSocketCompression.OFF;
+                                if (portArg.endsWith(":deflate")) {
+                                    portArg = portArg.substring(0, portArg.length() - 8);
+                                    compressThreshold = WebSocketCompression.DEFAULT_THRESHOLD;
+                                }
+                                int port = Integer.parseInt(portArg);
+                                outputStrategy = new WebSocketOutputStrategy(port,
+                                        WebSocketOutputStrategy.DEFAULT_RETAINED_RECORDS, compressThreshold);
                                 System.out.println("WebSocket output will be on port: " + port);
                             } catch (NumberFormatException e) {
                                 System.err.println("Invalid port for WebSocket output. Please specify a valid port number.");
@@ -126,6 +216,7 @@ public class HealthDataSimulator {
                             }
                         } else {
                             System.err.println("Unknown output type. Using default (console).");
+                            outputStrategy = new ConsoleOutputStrategy();
                         }
                     }
                     break;
@@ -136,6 +227,43 @@ public class HealthDataSimulator {
             }
         }
     }
+
+    /**
+     * Parses a duration such as {@code 90s}, {@code 30m}, {@code 12h} or {@code 14d}.
+     *
+     * @param duration The amount followed by its unit.
+     * @return The duration in milliseconds.
+     * @throws IllegalArgumentException if the duration is malformed.
+     */
+    private static long parseDuration(String duration) {
+        TimeUnit unit;
+        switch (duration.isEmpty() ? ' ' : duration.charAt(duration.length() - 1)) {
+            case 's':
+                unit = TimeUnit.SECONDS;
+                break;
+            case 'm':
+                unit = TimeUnit.MINUTES;
+                break;
+            case 'h':
+                unit = TimeUnit.HOURS;
+                break;
+            case 'd':
+                unit = TimeUnit.DAYS;
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid duration '" + duration + "'");
+        }
+        try {
+            long amount = Long.parseLong(duration.substring(0, duration.length() - 1));
+            if (amount < 0) {
+                throw new IllegalArgumentException("Invalid duration '" + duration + "'");
+            }
+            return unit.toMillis(amount);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid duration '" + duration + "'");
+        }
+    }
+
     /**
      * Prints help and usage information to the console.
      */
@@ -145,15 +273,30 @@ public class HealthDataSimulator {
         System.out.println("  -h                       Show help and exit.");
         System.out.println(
                 "  --patient-count <count>  Specify the number of patients to simulate data for (default: 50).");
+        System.out.println(
+                "  --seed <number>          Seed the random data, so that a run can be repeated (default: random).");
+        System.out.println(
+                "  --ecg-rate <hz>          Generate a realistic ECG at this sample rate, such as 250 or 500, in");
+        System.out.println("                           blocks of a second, up to 1000 (default: one value per second).");
+        System.out.println(
+                "  --speed <factor>|max     Run a simulated clock this many times faster than real time, or as fast");
+        System.out.println("                           as possible; samples are stamped with the simulated time.");
+        System.out.println(
+                "  --duration <n>s|m|h|d    Stop after this much simulated time. With --speed the simulated time");
+        System.out.println("                           starts this long before now, so the history ends now.");
         System.out.println("  --output <type>          Define the output method. Options are:");
         System.out.println("                             'console' for console output,");
         System.out.println("                             'file:<directory>' for file output,");
+        System.out.println("                             'binary:<directory>' for a compact binary record file,");
         System.out.println("                             'websocket:<port>' for WebSocket output,");
+        System.out.println("                             'websocket:<port>:deflate' to compress it for clients that ask,");
         System.out.println("                             'tcp:<port>' for TCP socket output.");
         System.out.println("Example:");
         System.out.println("  java HealthDataSimulator --patient-count 100 --output websocket:8080");
         System.out.println(
                 "  This command simulates data for 100 patients and sends the output to WebSocket clients connected to port 8080.");
+        System.out.println("  java HealthDataSimulator --patient-count 1000 --speed max --duration 14d --output binary:data");
+        System.out.println("  This command writes two weeks of history for 1000 patients as fast as possible.");
     }
 
     /**
@@ -176,29 +319,41 @@ public class HealthDataSimulator {
      * @param patientIds The list of patient IDs to generate data for.
      */
     private static void scheduleTasksForPatients(List<Integer> patientIds) {
-        ECGDataGenerator ecgDataGenerator = new ECGDataGenerator(patientCount);
-        BloodSaturationDataGenerator bloodSaturationDataGenerator = new BloodSaturationDataGenerator(patientCount);
-        BloodPressureDataGenerator bloodPressureDataGenerator = new BloodPressureDataGenerator(patientCount);
-        BloodLevelsDataGenerator bloodLevelsDataGenerator = new BloodLevelsDataGenerator(patientCount);
-        AlertGenerator alertGenerator = new AlertGenerator(patientCount);
-
-        for (int patientId : patientIds) {
-            scheduleTask(() -> ecgDataGenerator.generate(patientId, outputStrategy), 1, TimeUnit.SECONDS);
-            scheduleTask(() -> bloodSaturationDataGenerator.generate(patientId, outputStrategy), 1, TimeUnit.SECONDS);
-            scheduleTask(() -> bloodPressureDataGenerator.generate(patientId, outputStrategy), 1, TimeUnit.MINUTES);
-            scheduleTask(() -> bloodLevelsDataGenerator.generate(patientId, outputStrategy), 2, TimeUnit.MINUTES);
-            scheduleTask(() -> alertGenerator.generate(patientId, outputStrategy), 20, TimeUnit.SECONDS);
-        }
+        int[] ids = patientIds.stream().mapToInt(Integer::intValue).toArray();
+        SimulationClock clock = scheduler.getClock();
+
+        PatientDataGenerator ecgDataGenerator = ecgSampleRate > 0
+                ? new HighRateECGDataGenerator(patientCount, clock, random.split(), ecgSampleRate, 1000)
+                : new ECGDataGenerator(patientCount, clock, random.split());
+        scheduleTask("ECG", ecgDataGenerator, ids, 1, TimeUnit.SECONDS);
+        scheduleTask("saturation", new BloodSaturationDataGenerator(patientCount, clock, random.split()),
+                ids, 1, TimeUnit.SECONDS);
+        scheduleTask("blood pressure", new BloodPressureDataGenerator(patientCount, clock, random.split()),
+                ids, 1, TimeUnit.MINUTES);
+        scheduleTask("blood levels", new BloodLevelsDataGenerator(patientCount, clock, random.split()),
+                ids, 2, TimeUnit.MINUTES);
+        scheduleTask("alerts", new AlertGenerator(patientCount, clock, random.split()),
+                ids, 20, TimeUnit.SECONDS);
     }
 
     /**
-     * schedules a repeating fixed task bas on the params with a unit of delay
+     * Schedules a generator for every patient with the given period. The patients start at
+     * random points within the period, so their data is spread evenly over it. The patients
+     * due together are generated and output as one batch.
      *
-     * @param task     The task to be scheduled.
-     * @param period   The period between schedules.
-     * @param timeUnit The time unit of the period.
+     * @param name       The name of the generator, for error messages.
+     * @param generator  The generator to run.
+     * @param patientIds The patients to generate data for.
+     * @param period     The period between two runs for a patient.
+     * @param timeUnit   The time unit of the period.
      */
-    private static void scheduleTask(Runnable task, long period, TimeUnit timeUnit) {
-        scheduler.scheduleAtFixedRate(task, random.nextInt(5), period, timeUnit);
+    private static void scheduleTask(String name, PatientDataGenerator generator, int[] patientIds, long period,
+                                     TimeUnit timeUnit) {
+        scheduler.schedule(name, patientIds, period, timeUnit, random, due -> {
+            RecordBatch batch = BATCHES.get();
+            batch.clear();
+            generator.generateBatch(due, batch);
+            outputStrategy.outputBatch(batch);
+        });
     }
 }
@@ -0,0 +1,18 @@
+package com.cardio_generator;
+
+/**
+ * The time the data generators stamp their samples with.
+ *
+ * By default this is the wall clock. A {@link VirtualClock} lets the simulator run faster
+ * than real time, so that days of data can be generated in minutes.
+ */
+public interface SimulationClock {
+
+    /** The wall clock. */
+    SimulationClock SYSTEM = System::currentTimeMillis;
+
+    /**
+     * @return the current simulated time in milliseconds since the epoch
+     */
+    long currentTimeMillis();
+}
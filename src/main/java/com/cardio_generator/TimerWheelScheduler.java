@@ -0,0 +1,281 @@
+package com.cardio_generator;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs periodic per-patient tasks for any number of patients with a fixed, small number
+ * of threads.
+ *
+ * Time advances in ticks. Every periodic task has its own hashed timer wheel with one slot
+ * per tick of its period, and each patient sits in the slot of its phase within the period,
+ * so a patient is due whenever the tick hashes to its slot and a wheel never holds more
+ * than one entry per patient. On every tick a single ticker thread hands one batch per task
+ * to a worker pool, holding every patient due in that slot. Patients get a random phase,
+ * which spreads their work evenly over the period.
+ *
+ * Ticks keep a fixed rate: if the ticker falls behind, for example after a long GC pause,
+ * it runs the missed ticks back to back. The ticker thread keeps the JVM running until the
+ * scheduler is closed or reaches its stop time.
+ *
+ * A slot has at most one batch in flight. When a slot comes due again while its previous
+ * batch is still queued or running, because the workers fell behind or missed ticks are
+ * caught up, that run is skipped: its patients miss one period rather than being run by
+ * two workers at once, which the per-patient state of the tasks does not allow. This also
+ * bounds the queued batches to one period of slots. {@link #getSkippedBatches()} counts
+ * the skipped runs.
+ *
+ * With a {@link VirtualClock} the scheduler runs a time-warped simulation: the clock is set
+ * to the time of each tick before its batches run, and ticks run a given factor faster than
+ * real time, or as fast as the workers manage. A tick only starts when all batches of the
+ * previous one have finished, so the samples come out in the order of simulated time.
+ */
+public final class TimerWheelScheduler implements Closeable {
+
+    /**
+     * A task run for the patients due in one tick.
+     */
+    public interface BatchTask {
+        /**
+         * @param patientIds the patients due; shared between runs, must not be modified
+         */
+        void run(int[] patientIds);
+    }
+
+    /** The speed of a time-warped simulation that does not wait between ticks. */
+    public static final double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+
+    private static final int[] NONE = new int[0];
+
+    private final long tickMillis;
+    private final long tickNanos;
+    private final SimulationClock clock;
+    private final VirtualClock virtualClock; // null when running in real time
+    private final double nanosPerTick; // of real time
+    private final AtomicInteger pending = new AtomicInteger(); // batches handed out and not finished
+    private volatile long stopAt = Long.MAX_VALUE;
+    private final ExecutorService workers;
+    private final List<Wheel> wheels = new ArrayList<>();
+    private final Thread ticker;
+    private volatile boolean closed;
+    private volatile long ticks;
+    private final LongAdder skipped = new LongAdder();
+
+    /**
+     * Creates a scheduler that runs in real time with the wall clock.
+     *
+     * @param tickMillis    the length of a tick; periods are rounded to whole ticks
+     * @param workerThreads the number of threads running the batches
+     */
+    public TimerWheelScheduler(long tickMillis, int workerThreads) {
+        this(tickMillis, workerThreads, null, 1);
+    }
+
+    /**
+     * @param tickMillis    the length of a tick; periods are rounded to whole ticks
+     * @param workerThreads the number of threads running the batches
+     * @param virtualClock  the clock to advance with the ticks, or null to run in real time
+     * @param speed         how many times faster than real time the virtual clock runs,
+     *                      or {@link #AS_FAST_AS_POSSIBLE}; must be 1 without a virtual clock
+     */
+    public TimerWheelScheduler(long tickMillis, int workerThreads, VirtualClock virtualClock, double speed) {
+        if (tickMillis < 1 || workerThreads < 1) {
+            throw new IllegalArgumentException("Need a tick of at least 1 ms and one worker: " + tickMillis
+                    + ", " + workerThreads);
+        }
+        if (!(speed > 0) || (virtualClock == null && speed != 1)) {
+            throw new IllegalArgumentException("Invalid speed: " + speed
+                    + (virtualClock == null ? ", the wall clock runs in real time" : ""));
+        }
+        this.tickMillis = tickMillis;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.virtualClock = virtualClock;
+        this.clock = virtualClock != null ? virtualClock : SimulationClock.SYSTEM;
+        this.nanosPerTick = tickNanos / speed;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "simulator-worker-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.ticker = new Thread(this::tick, "simulator-ticker"); // keeps the JVM alive until closed
+    }
+
+    /**
+     * Runs a task for every patient once per period. Must be called before {@link #start()}.
+     *
+     * @param name       a name for error messages
+     * @param patientIds the patients
+     * @param period     the period of each patient
+     * @param unit       the unit of the period
+     * @param random     chooses the phase of each patient
+     * @param task       runs the patients due in a tick
+     */
+    public void schedule(String name, int[] patientIds, long period, TimeUnit unit, SplittableRandom random,
+                         BatchTask task) {
+        if (ticker.isAlive()) {
+            throw new IllegalStateException("The scheduler is already running");
+        }
+        int slotCount = (int) Math.max(1, Math.min(Integer.MAX_VALUE, unit.toNanos(period) / tickNanos));
+        int[] phases = new int[patientIds.length];
+        int[] sizes = new int[slotCount];
+        for (int i = 0; i < patientIds.length; i++) {
+            phases[i] = random.nextInt(slotCount);
+            sizes[phases[i]]++;
+        }
+        int[][] slots = new int[slotCount][];
+        for (int slot = 0; slot < slotCount; slot++) {
+            slots[slot] = sizes[slot] == 0 ? NONE : new int[sizes[slot]];
+            sizes[slot] = 0;
+        }
+        for (int i = 0; i < patientIds.length; i++) {
+            slots[phases[i]][sizes[phases[i]]++] = patientIds[i];
+        }
+        wheels.add(new Wheel(name, slots, task));
+    }
+
+    /**
+     * Makes the scheduler stop by itself once its clock reaches the given time.
+     *
+     * @param time the time of the first tick not run, in milliseconds since the epoch
+     */
+    public void stopAt(long time) {
+        stopAt = time;
+    }
+
+    /**
+     * Starts the ticks; the first tick runs at once.
+     */
+    public void start() {
+        ticker.start();
+    }
+
+    /**
+     * @return the clock the generators should stamp their samples with
+     */
+    public SimulationClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Waits until the scheduler has stopped and all batches have finished.
+     *
+     * @param timeout the longest time to wait
+     * @param unit    the unit of the timeout
+     * @return true if the scheduler stopped in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        ticker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        return !ticker.isAlive() && workers.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the number of ticks run so far
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * @return the number of batches skipped because the previous batch of their slot was
+     *         still in flight
+     */
+    public long getSkippedBatches() {
+        return skipped.sum();
+    }
+
+    /**
+     * Stops the ticks; batches already handed to the workers still run.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(ticker);
+        workers.shutdown();
+    }
+
+    private void tick() {
+        long start = System.nanoTime();
+        long startMillis = clock.currentTimeMillis();
+        long tick = 0;
+        while (!closed) {
+            long wait = start + (long) (tick * nanosPerTick) - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            if (virtualClock != null) {
+                virtualClock.advanceTo(startMillis + tick * tickMillis);
+            }
+            if (clock.currentTimeMillis() >= stopAt) {
+                break;
+            }
+            for (Wheel wheel : wheels) {
+                int slot = (int) (tick % wheel.slots.length);
+                int[] due = wheel.slots[slot];
+                if (due.length == 0) {
+                    continue;
+                }
+                if (!wheel.inFlight.compareAndSet(slot, 0, 1)) {
+                    skipped.increment(); // never run the same patients twice at once
+                    continue;
+                }
+                pending.incrementAndGet();
+                try {
+                    workers.execute(() -> {
+                        try {
+                            wheel.run(due);
+                        } finally {
+                            wheel.inFlight.set(slot, 0);
+                        }
+                        if (pending.decrementAndGet() == 0) {
+                            LockSupport.unpark(ticker);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    return; // closed meanwhile
+                }
+            }
+            while (virtualClock != null && pending.get() > 0 && !closed) {
+                LockSupport.park(this); // keeps the samples in the order of simulated time
+            }
+            ticks = ++tick;
+        }
+        workers.shutdown();
+    }
+
+    private static final class Wheel {
+        final String name;
+        final int[][] slots; // the patients of each tick of the period
+        final AtomicIntegerArray inFlight; // 1 while the batch of a slot is queued or running
+        final BatchTask task;
+
+        Wheel(String name, int[][] slots, BatchTask task) {
+            this.name = name;
+            this.slots = slots;
+            this.inFlight = new AtomicIntegerArray(slots.length);
+            this.task = task;
+        }
+
+        void run(int[] due) {
+            try {
+                task.run(due);
+            } catch (RuntimeException e) {
+                System.err.println("An error occurred while running " + name + " for " + due.length + " patients");
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.cardio_generator;
+
+/**
+ * A clock that only moves when it is set, by the {@link TimerWheelScheduler} that
+ * drives a time-warped simulation.
+ */
+public final class VirtualClock implements SimulationClock {
+
+    private volatile long now;
+
+    /**
+     * @param start the time the clock starts at, in milliseconds since the epoch
+     */
+    public VirtualClock(long start) {
+        this.now = start;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return now;
+    }
+
+    /**
+     * @param time the new time; the clock never moves backwards
+     */
+    void advanceTo(long time) {
+        if (time < now) {
+            throw new IllegalArgumentException("The clock cannot move back from " + now + " to " + time);
+        }
+        now = time;
+    }
+}
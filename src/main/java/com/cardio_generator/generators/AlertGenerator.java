@@ -1,23 +1,49 @@
 package com.cardio_generator.generators;
 
-import java.util.Random;
+import java.util.SplittableRandom;
 
+import com.cardio_generator.SimulationClock;
 import com.cardio_generator.outputs.OutputStrategy;
+import com.cardio_generator.outputs.RecordBatch;
 /*
 * generates alerts for patients
  */
 public class AlertGenerator implements PatientDataGenerator {
 
-    public static final Random randomGenerator = new Random();
+    private final SimulationClock clock;
+    private final SplittableRandom[] randoms; // one stream per patient
     // changed all instances to lower camel case
     private boolean[] alertStates; // false = resolved, true = pressed
 
+    /**
+     * Creates the generator with samples stamped with the wall clock.
+     *
+     * @param patientCount The number of patients for which to generate data.
+     */
+    public AlertGenerator(int patientCount) {
+        this(patientCount, SimulationClock.SYSTEM);
+    }
+
+    /**
+     * Creates the generator with an unseeded random stream per patient.
+     *
+     * @param patientCount The number of patients for which to generate data.
+     * @param clock The clock the samples are stamped with.
+     */
+    public AlertGenerator(int patientCount, SimulationClock clock) {
+        this(patientCount, clock, new SplittableRandom());
+    }
+
     /**
      * Constructor of AlertGenerator creates booleans in the length of patientCounts +1
      *
      * @param patientCount The number of patients for which to generate alert data.
+     * @param clock The clock the samples are stamped with.
+     * @param random The generator the random stream of each patient is split from.
      */
-    public AlertGenerator(int patientCount) {
+    public AlertGenerator(int patientCount, SimulationClock clock, SplittableRandom random) {
+        this.clock = clock;
+        this.randoms = PatientRandoms.split(random, patientCount);
         alertStates = new boolean[patientCount + 1];
     }
 
@@ -30,27 +56,54 @@ public class AlertGenerator implements PatientDataGenerator {
     @Override
     public void generate(int patientId, OutputStrategy outputStrategy) {
         try {
-            if (alertStates[patientId]) {
-                if (randomGenerator.nextDouble() < 0.9) { // 90% chance to resolve
-                    alertStates[patientId] = false;
-                    // Output the alert
-                    outputStrategy.output(patientId, System.currentTimeMillis(), "Alert", "resolved");
-                }
-            } else {
-                // changed Lambda in all instances to lambda
-                double lambda = 0.1; // Average rate (alerts per period), adjust based on desired frequency
-                double p = -Math.expm1(-lambda); // Probability of at least one alert in the period
-                boolean alertTriggered = randomGenerator.nextDouble() < p;
-
-                if (alertTriggered) {
-                    alertStates[patientId] = true;
-                    // Output the alert
-                    outputStrategy.output(patientId, System.currentTimeMillis(), "Alert", "triggered");
-                }
+            if (advance(patientId)) {
+                // Output the alert
+                outputStrategy.output(patientId, clock.currentTimeMillis(), "Alert",
+                        alertStates[patientId] ? "triggered" : "resolved");
             }
         } catch (Exception e) {
             System.err.println("An error occurred while generating alert data for patient " + patientId);
             e.printStackTrace();
         }
     }
+
+    /**
+     * Generates the alert data for several patients and adds the changes of their alert
+     * states to a batch, 1 for a triggered and 0 for a resolved alert.
+     *
+     * @param patientIds The IDs of the patients for whom to generate alert data.
+     * @param batch The batch to add the alerts to.
+     */
+    @Override
+    public void generateBatch(int[] patientIds, RecordBatch batch) {
+        long timestamp = clock.currentTimeMillis();
+        for (int patientId : patientIds) {
+            if (advance(patientId)) {
+                batch.add(patientId, timestamp, "Alert", alertStates[patientId] ? 1 : 0);
+            }
+        }
+    }
+
+    /**
+     * Resolves or triggers the alert of a patient at random.
+     *
+     * @return true if the alert state changed
+     */
+    private boolean advance(int patientId) {
+        if (alertStates[patientId]) {
+            if (randoms[patientId].nextDouble() < 0.9) { // 90% chance to resolve
+                alertStates[patientId] = false;
+                return true;
+            }
+            return false;
+        }
+        // changed Lambda in all instances to lambda
+        double lambda = 0.1; // Average rate (alerts per period), adjust based on desired frequency
+        double p = -Math.expm1(-lambda); // Probability of at least one alert in the period
+        if (randoms[patientId].nextDouble() < p) {
+            alertStates[patientId] = true;
+            return true;
+        }
+        return false;
+    }
 }
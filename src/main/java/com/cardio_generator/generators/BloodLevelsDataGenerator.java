@@ -1,45 +1,82 @@
 package com.cardio_generator.generators;
 
-import java.util.Random;
+import java.util.SplittableRandom;
 
+import com.cardio_generator.SimulationClock;
 import com.cardio_generator.outputs.OutputStrategy;
+import com.cardio_generator.outputs.RecordBatch;
 
 public class BloodLevelsDataGenerator implements PatientDataGenerator {
-    private static final Random random = new Random();
+    private final SimulationClock clock;
+    private final SplittableRandom[] randoms; // one stream per patient
     private final double[] baselineCholesterol;
     private final double[] baselineWhiteCells;
     private final double[] baselineRedCells;
+    private final double[] lastCholesterol;
+    private final double[] lastWhiteCells;
+    private final double[] lastRedCells;
 
     public BloodLevelsDataGenerator(int patientCount) {
+        this(patientCount, SimulationClock.SYSTEM);
+    }
+
+    public BloodLevelsDataGenerator(int patientCount, SimulationClock clock) {
+        this(patientCount, clock, new SplittableRandom());
+    }
+
+    public BloodLevelsDataGenerator(int patientCount, SimulationClock clock, SplittableRandom random) {
+        this.clock = clock;
+        this.randoms = PatientRandoms.split(random, patientCount);
         // Initialize arrays to store baseline values for each patient
         baselineCholesterol = new double[patientCount + 1];
         baselineWhiteCells = new double[patientCount + 1];
         baselineRedCells = new double[patientCount + 1];
+        lastCholesterol = new double[patientCount + 1];
+        lastWhiteCells = new double[patientCount + 1];
+        lastRedCells = new double[patientCount + 1];
 
         // Generate baseline values for each patient
         for (int i = 1; i <= patientCount; i++) {
-            baselineCholesterol[i] = 150 + random.nextDouble() * 50; // Initial random baseline
-            baselineWhiteCells[i] = 4 + random.nextDouble() * 6; // Initial random baseline
-            baselineRedCells[i] = 4.5 + random.nextDouble() * 1.5; // Initial random baseline
+            baselineCholesterol[i] = 150 + randoms[i].nextDouble() * 50; // Initial random baseline
+            baselineWhiteCells[i] = 4 + randoms[i].nextDouble() * 6; // Initial random baseline
+            baselineRedCells[i] = 4.5 + randoms[i].nextDouble() * 1.5; // Initial random baseline
         }
     }
 
     @Override
     public void generate(int patientId, OutputStrategy outputStrategy) {
         try {
-            // Generate values around the baseline for realism
-            double cholesterol = baselineCholesterol[patientId] + (random.nextDouble() - 0.5) * 10; // Small variation
-            double whiteCells = baselineWhiteCells[patientId] + (random.nextDouble() - 0.5) * 1; // Small variation
-            double redCells = baselineRedCells[patientId] + (random.nextDouble() - 0.5) * 0.2; // Small variation
+            advance(patientId);
 
             // Output the generated values
-            outputStrategy.output(patientId, System.currentTimeMillis(), "Cholesterol", Double.toString(cholesterol));
-            outputStrategy.output(patientId, System.currentTimeMillis(), "WhiteBloodCells",
-                    Double.toString(whiteCells));
-            outputStrategy.output(patientId, System.currentTimeMillis(), "RedBloodCells", Double.toString(redCells));
+            outputStrategy.output(patientId, clock.currentTimeMillis(), "Cholesterol",
+                    Double.toString(lastCholesterol[patientId]));
+            outputStrategy.output(patientId, clock.currentTimeMillis(), "WhiteBloodCells",
+                    Double.toString(lastWhiteCells[patientId]));
+            outputStrategy.output(patientId, clock.currentTimeMillis(), "RedBloodCells",
+                    Double.toString(lastRedCells[patientId]));
         } catch (Exception e) {
             System.err.println("An error occurred while generating blood levels data for patient " + patientId);
             e.printStackTrace(); // This will print the stack trace to help identify where the error occurred.
         }
     }
+
+    @Override
+    public void generateBatch(int[] patientIds, RecordBatch batch) {
+        long timestamp = clock.currentTimeMillis();
+        for (int patientId : patientIds) {
+            advance(patientId);
+            batch.add(patientId, timestamp, "Cholesterol", lastCholesterol[patientId]);
+            batch.add(patientId, timestamp, "WhiteBloodCells", lastWhiteCells[patientId]);
+            batch.add(patientId, timestamp, "RedBloodCells", lastRedCells[patientId]);
+        }
+    }
+
+    private void advance(int patientId) {
+        // Generate values around the baseline for realism
+        SplittableRandom random = randoms[patientId];
+        lastCholesterol[patientId] = baselineCholesterol[patientId] + (random.nextDouble() - 0.5) * 10; // Small variation
+        lastWhiteCells[patientId] = baselineWhiteCells[patientId] + (random.nextDouble() - 0.5) * 1; // Small variation
+        lastRedCells[patientId] = baselineRedCells[patientId] + (random.nextDouble() - 0.5) * 0.2; // Small variation
+    }
 }
@@ -1,46 +1,71 @@
 package com.cardio_generator.generators;
 
-import java.util.Random;
+import java.util.SplittableRandom;
 
+import com.cardio_generator.SimulationClock;
 import com.cardio_generator.outputs.OutputStrategy;
+import com.cardio_generator.outputs.RecordBatch;
 
 public class BloodPressureDataGenerator implements PatientDataGenerator {
-    private static final Random random = new Random();
+    private final SimulationClock clock;
+    private final SplittableRandom[] randoms; // one stream per patient
 
     private int[] lastSystolicValues;
     private int[] lastDiastolicValues;
 
     public BloodPressureDataGenerator(int patientCount) {
+        this(patientCount, SimulationClock.SYSTEM);
+    }
+
+    public BloodPressureDataGenerator(int patientCount, SimulationClock clock) {
+        this(patientCount, clock, new SplittableRandom());
+    }
+
+    public BloodPressureDataGenerator(int patientCount, SimulationClock clock, SplittableRandom random) {
+        this.clock = clock;
+        this.randoms = PatientRandoms.split(random, patientCount);
         lastSystolicValues = new int[patientCount + 1];
         lastDiastolicValues = new int[patientCount + 1];
 
         // Initialize with baseline values for each patient
         for (int i = 1; i <= patientCount; i++) {
-            lastSystolicValues[i] = 110 + random.nextInt(20); // Random baseline between 110 and 130
-            lastDiastolicValues[i] = 70 + random.nextInt(15); // Random baseline between 70 and 85
+            lastSystolicValues[i] = 110 + randoms[i].nextInt(20); // Random baseline between 110 and 130
+            lastDiastolicValues[i] = 70 + randoms[i].nextInt(15); // Random baseline between 70 and 85
         }
     }
 
     @Override
     public void generate(int patientId, OutputStrategy outputStrategy) {
         try {
-            int systolicVariation = random.nextInt(5) - 2; // -2, -1, 0, 1, or 2
-            int diastolicVariation = random.nextInt(5) - 2;
-            int newSystolicValue = lastSystolicValues[patientId] + systolicVariation;
-            int newDiastolicValue = lastDiastolicValues[patientId] + diastolicVariation;
-            // Ensure the blood pressure stays within a realistic and safe range
-            newSystolicValue = Math.min(Math.max(newSystolicValue, 90), 180);
-            newDiastolicValue = Math.min(Math.max(newDiastolicValue, 60), 120);
-            lastSystolicValues[patientId] = newSystolicValue;
-            lastDiastolicValues[patientId] = newDiastolicValue;
-
-            outputStrategy.output(patientId, System.currentTimeMillis(), "SystolicPressure",
-                    Double.toString(newSystolicValue));
-            outputStrategy.output(patientId, System.currentTimeMillis(), "DiastolicPressure",
-                    Double.toString(newDiastolicValue));
+            advance(patientId);
+            long timestamp = clock.currentTimeMillis();
+            outputStrategy.output(patientId, timestamp, "SystolicPressure",
+                    Double.toString(lastSystolicValues[patientId]));
+            outputStrategy.output(patientId, timestamp, "DiastolicPressure",
+                    Double.toString(lastDiastolicValues[patientId]));
         } catch (Exception e) {
             System.err.println("An error occurred while generating blood pressure data for patient " + patientId);
             e.printStackTrace(); // This will print the stack trace to help identify where the error occurred.
         }
     }
+
+    @Override
+    public void generateBatch(int[] patientIds, RecordBatch batch) {
+        long timestamp = clock.currentTimeMillis();
+        for (int patientId : patientIds) {
+            advance(patientId);
+            batch.add(patientId, timestamp, "SystolicPressure", lastSystolicValues[patientId]);
+            batch.add(patientId, timestamp, "DiastolicPressure", lastDiastolicValues[patientId]);
+        }
+    }
+
+    private void advance(int patientId) {
+        int systolicVariation = randoms[patientId].nextInt(5) - 2; // -2, -1, 0, 1, or 2
+        int diastolicVariation = randoms[patientId].nextInt(5) - 2;
+        int newSystolicValue = lastSystolicValues[patientId] + systolicVariation;
+        int newDiastolicValue = lastDiastolicValues[patientId] + diastolicVariation;
+        // Ensure the blood pressure stays within a realistic and safe range
+        lastSystolicValues[patientId] = Math.min(Math.max(newSystolicValue, 90), 180);
+        lastDiastolicValues[patientId] = Math.min(Math.max(newDiastolicValue, 60), 120);
+    }
 }
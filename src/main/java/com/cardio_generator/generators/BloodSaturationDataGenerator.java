@@ -1,28 +1,54 @@
 package com.cardio_generator.generators;
 
-import java.util.Random;
+import java.util.SplittableRandom;
 
+import com.cardio_generator.SimulationClock;
 import com.cardio_generator.outputs.OutputStrategy;
+import com.cardio_generator.outputs.RecordBatch;
 
 /**
  * Generates simulated blood saturation data for a set of patients.
  */
 public class BloodSaturationDataGenerator implements PatientDataGenerator {
-    private static final Random random = new Random();
+    private final SimulationClock clock;
+    private final SplittableRandom[] randoms; // one stream per patient
     private int[] lastSaturationValues;
 
+    /**
+     * Creates the generator with samples stamped with the wall clock.
+     *
+     * @param patientCount The number of patients for which to generate data.
+     */
+    public BloodSaturationDataGenerator(int patientCount) {
+        this(patientCount, SimulationClock.SYSTEM);
+    }
+
+    /**
+     * Creates the generator with an unseeded random stream per patient.
+     *
+     * @param patientCount The number of patients for which to generate data.
+     * @param clock The clock the samples are stamped with.
+     */
+    public BloodSaturationDataGenerator(int patientCount, SimulationClock clock) {
+        this(patientCount, clock, new SplittableRandom());
+    }
+
     /**
      * Constructs a BloodSaturationDataGenerator for the specified number of patients.
      * Each "patient" has a blood saturation level between 95 and 100%
      *
      * @param patientCount The number of patients for which to generate data.
+     * @param clock The clock the samples are stamped with.
+     * @param random The generator the random stream of each patient is split from.
      */
-    public BloodSaturationDataGenerator(int patientCount) {
+    public BloodSaturationDataGenerator(int patientCount, SimulationClock clock, SplittableRandom random) {
+        this.clock = clock;
+        this.randoms = PatientRandoms.split(random, patientCount);
         lastSaturationValues = new int[patientCount + 1];
 
         // Initialize with baseline saturation values for each patient
         for (int i = 1; i <= patientCount; i++) {
-            lastSaturationValues[i] = 95 + random.nextInt(6); // Initializes with a value between 95 and 100
+            lastSaturationValues[i] = 95 + randoms[i].nextInt(6); // Initializes with a value between 95 and 100
         }
     }
 
@@ -35,18 +61,36 @@ public class BloodSaturationDataGenerator implements PatientDataGenerator {
     @Override
     public void generate(int patientId, OutputStrategy outputStrategy) {
         try {
-            // Simulate blood saturation values
-            int variation = random.nextInt(3) - 1; // -1, 0, or 1 to simulate small fluctuations
-            int newSaturationValue = lastSaturationValues[patientId] + variation;
-
-            // Ensure the saturation stays within a realistic and healthy range
-            newSaturationValue = Math.min(Math.max(newSaturationValue, 90), 100);
-            lastSaturationValues[patientId] = newSaturationValue;
-            outputStrategy.output(patientId, System.currentTimeMillis(), "Saturation",
-                    Double.toString(newSaturationValue) );
+            outputStrategy.output(patientId, clock.currentTimeMillis(), "Saturation",
+                    Double.toString(advance(patientId)) );
         } catch (Exception e) {
             System.err.println("An error occurred while generating blood saturation data for patient " + patientId);
             e.printStackTrace(); // This will print the stack trace to help identify where the error occurred.
         }
     }
+
+    /**
+     * Generates the next blood saturation value for each of the patients and adds it to a batch.
+     *
+     * @param patientIds The IDs of the patients.
+     * @param batch The batch to add the values to.
+     */
+    @Override
+    public void generateBatch(int[] patientIds, RecordBatch batch) {
+        long timestamp = clock.currentTimeMillis();
+        for (int patientId : patientIds) {
+            batch.add(patientId, timestamp, "Saturation", advance(patientId));
+        }
+    }
+
+    private int advance(int patientId) {
+        // Simulate blood saturation values
+        int variation = randoms[patientId].nextInt(3) - 1; // -1, 0, or 1 to simulate small fluctuations
+        int newSaturationValue = lastSaturationValues[patientId] + variation;
+
+        // Ensure the saturation stays within a realistic and healthy range
+        newSaturationValue = Math.min(Math.max(newSaturationValue, 90), 100);
+        lastSaturationValues[patientId] = newSaturationValue;
+        return newSaturationValue;
+    }
 }
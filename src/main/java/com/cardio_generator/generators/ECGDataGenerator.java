@@ -1,15 +1,28 @@
 package com.cardio_generator.generators;
 
-import java.util.Random;
+import java.util.SplittableRandom;
 
+import com.cardio_generator.SimulationClock;
 import com.cardio_generator.outputs.OutputStrategy;
+import com.cardio_generator.outputs.RecordBatch;
 
 public class ECGDataGenerator implements PatientDataGenerator {
-    private static final Random random = new Random();
+    private final SimulationClock clock;
+    private final SplittableRandom[] randoms; // one stream per patient
     private double[] lastEcgValues;
     private static final double PI = Math.PI;
 
     public ECGDataGenerator(int patientCount) {
+        this(patientCount, SimulationClock.SYSTEM);
+    }
+
+    public ECGDataGenerator(int patientCount, SimulationClock clock) {
+        this(patientCount, clock, new SplittableRandom());
+    }
+
+    public ECGDataGenerator(int patientCount, SimulationClock clock, SplittableRandom random) {
+        this.clock = clock;
+        this.randoms = PatientRandoms.split(random, patientCount);
         lastEcgValues = new double[patientCount + 1];
         // Initialize the last ECG value for each patient
         for (int i = 1; i <= patientCount; i++) {
@@ -21,8 +34,9 @@ public class ECGDataGenerator implements PatientDataGenerator {
     public void generate(int patientId, OutputStrategy outputStrategy) {
         // TODO Check how realistic this data is and make it more realistic if necessary
         try {
-            double ecgValue = simulateEcgWaveform(patientId, lastEcgValues[patientId]);
-            outputStrategy.output(patientId, System.currentTimeMillis(), "ECG", Double.toString(ecgValue));
+            long timestamp = clock.currentTimeMillis();
+            double ecgValue = simulateEcgWaveform(patientId, timestamp / 1000.0);
+            outputStrategy.output(patientId, timestamp, "ECG", Double.toString(ecgValue));
             lastEcgValues[patientId] = ecgValue;
         } catch (Exception e) {
             System.err.println("An error occurred while generating ECG data for patient " + patientId);
@@ -30,10 +44,20 @@ public class ECGDataGenerator implements PatientDataGenerator {
         }
     }
 
-    private double simulateEcgWaveform(int patientId, double lastEcgValue) {
+    @Override
+    public void generateBatch(int[] patientIds, RecordBatch batch) {
+        long timestamp = clock.currentTimeMillis();
+        double t = timestamp / 1000.0; // Use the simulation clock as continuous time
+        for (int patientId : patientIds) {
+            double ecgValue = simulateEcgWaveform(patientId, t);
+            lastEcgValues[patientId] = ecgValue;
+            batch.add(patientId, timestamp, "ECG", ecgValue);
+        }
+    }
+
+    private double simulateEcgWaveform(int patientId, double t) {
         // Simplified ECG waveform generation based on sinusoids
-        double hr = 60.0 + random.nextDouble() * 20.0; // Simulate heart rate variability between 60 and 80 bpm
-        double t = System.currentTimeMillis() / 1000.0; // Use system time to simulate continuous time
+        double hr = 60.0 + randoms[patientId].nextDouble() * 20.0; // Simulate heart rate variability between 60 and 80 bpm
         double ecgFrequency = hr / 60.0; // Convert heart rate to Hz
 
         // Simulate different components of the ECG signal
@@ -41,6 +65,6 @@ public class ECGDataGenerator implements PatientDataGenerator {
         double qrsComplex = 0.5 * Math.sin(2 * PI * 3 * ecgFrequency * t); // QRS is higher frequency
         double tWave = 0.2 * Math.sin(2 * PI * 2 * ecgFrequency * t + PI / 4); // T wave is offset
 
-        return pWave + qrsComplex + tWave + random.nextDouble() * 0.05; // Add small noise
+        return pWave + qrsComplex + tWave + randoms[patientId].nextDouble() * 0.05; // Add small noise
     }
 }
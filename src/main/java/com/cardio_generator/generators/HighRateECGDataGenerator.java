@@ -0,0 +1,188 @@
+package com.cardio_generator.generators;
+
+import java.util.SplittableRandom;
+
+import com.cardio_generator.SimulationClock;
+import com.cardio_generator.outputs.OutputStrategy;
+import com.cardio_generator.outputs.RecordBatch;
+
+/**
+ * Generates a realistic ECG stream at a real sample rate, such as 250 or 500 Hz, instead of
+ * one value per second.
+ *
+ * Every beat is drawn from one PQRST template, a sum of Gaussian P, Q, R, S and T waves
+ * over the phase of the beat, which is computed once. A sample only looks up the template
+ * and interpolates, so no transcendental function is called per sample. The beats are
+ * stretched to an RR interval drawn per beat around the heart rate of the patient, which
+ * also follows the breathing (respiratory sinus arrhythmia). Breathing makes the baseline
+ * wander as well; it is a sine oscillator advanced by a rotation per sample. Some noise
+ * is added on top.
+ *
+ * Each call emits the samples of a patient since the previous call as one block, stamped
+ * evenly at the sample rate, so the generator is meant to be run once per block length.
+ * Timestamps are whole milliseconds and storage keeps one ECG value per timestamp, so the
+ * rate is at most {@link #MAX_SAMPLE_RATE}.
+ */
+public class HighRateECGDataGenerator implements PatientDataGenerator {
+
+    /** The highest sample rate, at which every sample still gets its own millisecond. */
+    public static final int MAX_SAMPLE_RATE = 1000;
+
+    private static final int TEMPLATE_SIZE = 1024;
+    private static final double[] TEMPLATE = beatTemplate();
+    private static final double BREATHS_PER_SECOND = 0.25;
+    private static final int MAX_BLOCKS_BEHIND = 10; // older samples are skipped after a stall
+
+    private final SimulationClock clock;
+    private final SplittableRandom[] randoms; // one stream per patient
+    private final int sampleRate;
+    private final long blockMillis;
+    private final double breathCos; // rotation of the breathing oscillator per sample
+    private final double breathSin;
+
+    private final double[] baselineHeartRates;
+    private final double[] beatPhases; // in [0, 1) of the current beat
+    private final double[] phaseSteps; // per sample, from the RR interval of the current beat
+    private final double[] breathCosValues;
+    private final double[] breathSinValues;
+    private final long[] origins; // time of the first sample, or Long.MIN_VALUE before the first block
+    private final long[] samplesEmitted;
+
+    /**
+     * @param patientCount The number of patients for which to generate data.
+     * @param clock The clock the samples are stamped with.
+     * @param random The generator the random stream of each patient is split from.
+     * @param sampleRate The number of samples per second and patient, at most {@link #MAX_SAMPLE_RATE}.
+     * @param blockMillis How often the generator runs for a patient, the length of the first block.
+     */
+    public HighRateECGDataGenerator(int patientCount, SimulationClock clock, SplittableRandom random,
+                                    int sampleRate, long blockMillis) {
+        if (sampleRate < 1 || sampleRate > MAX_SAMPLE_RATE || blockMillis < 1) {
+            throw new IllegalArgumentException("Invalid sample rate or block length: " + sampleRate + " Hz, "
+                    + blockMillis + " ms");
+        }
+        this.clock = clock;
+        this.randoms = PatientRandoms.split(random, patientCount);
+        this.sampleRate = sampleRate;
+        this.blockMillis = blockMillis;
+        this.breathCos = Math.cos(2 * Math.PI * BREATHS_PER_SECOND / sampleRate);
+        this.breathSin = Math.sin(2 * Math.PI * BREATHS_PER_SECOND / sampleRate);
+        baselineHeartRates = new double[patientCount + 1];
+        beatPhases = new double[patientCount + 1];
+        phaseSteps = new double[patientCount + 1];
+        breathCosValues = new double[patientCount + 1];
+        breathSinValues = new double[patientCount + 1];
+        origins = new long[patientCount + 1];
+        samplesEmitted = new long[patientCount + 1];
+
+        for (int i = 1; i <= patientCount; i++) {
+            baselineHeartRates[i] = 60 + randoms[i].nextDouble() * 20; // between 60 and 80 bpm
+            beatPhases[i] = randoms[i].nextDouble();
+            phaseSteps[i] = baselineHeartRates[i] / 60.0 / sampleRate;
+            double breathPhase = 2 * Math.PI * randoms[i].nextDouble();
+            breathCosValues[i] = Math.cos(breathPhase);
+            breathSinValues[i] = Math.sin(breathPhase);
+            origins[i] = Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Generates the ECG samples of a patient since the previous call and outputs them as one block.
+     *
+     * @param patientId The ID of the patient.
+     * @param outputStrategy The strategy used to output the generated data.
+     */
+    @Override
+    public void generate(int patientId, OutputStrategy outputStrategy) {
+        try {
+            RecordBatch block = new RecordBatch((int) (blockMillis * sampleRate / 1000) + 1);
+            addBlock(patientId, clock.currentTimeMillis(), block);
+            outputStrategy.outputBatch(block);
+        } catch (Exception e) {
+            System.err.println("An error occurred while generating ECG data for patient " + patientId);
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void generateBatch(int[] patientIds, RecordBatch batch) {
+        long now = clock.currentTimeMillis();
+        for (int patientId : patientIds) {
+            addBlock(patientId, now, batch);
+        }
+    }
+
+    /**
+     * Adds the samples of a patient from the previous block up to now.
+     */
+    private void addBlock(int patientId, long now, RecordBatch batch) {
+        if (origins[patientId] == Long.MIN_VALUE) {
+            origins[patientId] = now - blockMillis;
+        }
+        long origin = origins[patientId];
+        long due = (now - origin) * sampleRate / 1000;
+        long first = Math.max(samplesEmitted[patientId],
+                due - MAX_BLOCKS_BEHIND * blockMillis * sampleRate / 1000);
+
+        SplittableRandom random = randoms[patientId];
+        double phase = beatPhases[patientId];
+        double step = phaseSteps[patientId];
+        double breathCosValue = breathCosValues[patientId];
+        double breathSinValue = breathSinValues[patientId];
+        for (long sample = first; sample < due; sample++) {
+            // look up the beat template between its two nearest points
+            double position = phase * TEMPLATE_SIZE;
+            int index = (int) position;
+            double fraction = position - index;
+            double beat = TEMPLATE[index] + (TEMPLATE[index + 1] - TEMPLATE[index]) * fraction;
+
+            double value = beat + 0.05 * breathSinValue + (random.nextDouble() - 0.5) * 0.02;
+            batch.add(patientId, origin + sample * 1000 / sampleRate, "ECG", value);
+
+            // advance the breathing by a rotation and the beat by its phase step
+            double nextCos = breathCosValue * breathCos - breathSinValue * breathSin;
+            breathSinValue = breathSinValue * breathCos + breathCosValue * breathSin;
+            breathCosValue = nextCos;
+            phase += step;
+            if (phase >= 1) {
+                phase -= 1;
+                // the next RR interval: variability and a faster rate while breathing in
+                double heartRate = baselineHeartRates[patientId] + 3 * breathSinValue
+                        + (random.nextDouble() - 0.5) * 4;
+                step = heartRate / 60.0 / sampleRate;
+            }
+        }
+        // rounding lets the amplitude of the oscillator drift, so it is reset once per block
+        double amplitude = Math.sqrt(breathCosValue * breathCosValue + breathSinValue * breathSinValue);
+        beatPhases[patientId] = phase;
+        phaseSteps[patientId] = step;
+        breathCosValues[patientId] = breathCosValue / amplitude;
+        breathSinValues[patientId] = breathSinValue / amplitude;
+        samplesEmitted[patientId] = Math.max(samplesEmitted[patientId], due);
+    }
+
+    /**
+     * Computes one beat in millivolts over its phase from 0 to 1, with the R peak at 0.4.
+     * The last point repeats the first, for the interpolation.
+     */
+    private static double[] beatTemplate() {
+        // P, Q, R, S and T waves: centre in phase, amplitude in mV and width in phase
+        double[][] waves = {
+                { 0.22, 0.15, 0.025 },
+                { 0.385, -0.12, 0.008 },
+                { 0.40, 1.20, 0.010 },
+                { 0.415, -0.25, 0.008 },
+                { 0.65, 0.30, 0.045 },
+        };
+        double[] template = new double[TEMPLATE_SIZE + 1];
+        for (int i = 0; i < TEMPLATE_SIZE; i++) {
+            double phase = (double) i / TEMPLATE_SIZE;
+            for (double[] wave : waves) {
+                double distance = (phase - wave[0]) / wave[2];
+                template[i] += wave[1] * Math.exp(-0.5 * distance * distance);
+            }
+        }
+        template[TEMPLATE_SIZE] = template[0];
+        return template;
+    }
+}
@@ -1,6 +1,7 @@
 package com.cardio_generator.generators;
 
 import com.cardio_generator.outputs.OutputStrategy;
+import com.cardio_generator.outputs.RecordBatch;
 
 /**
  * Interface representing a data generator for a patient.
@@ -13,4 +14,17 @@ public interface PatientDataGenerator {
      * @param outputStrategy  The strategy to use for data output.
      */
     void generate(int patientId, OutputStrategy outputStrategy);
+
+    /**
+     * Generates health data for several patients in one pass and adds it to a batch. The
+     * records are the same as {@link #generate} would output for each patient in turn.
+     *
+     * @param patientIds The IDs of the patients to generate data for.
+     * @param batch      The batch to add the records to.
+     */
+    default void generateBatch(int[] patientIds, RecordBatch batch) {
+        for (int patientId : patientIds) {
+            generate(patientId, batch::add);
+        }
+    }
 }
@@ -0,0 +1,30 @@
+package com.cardio_generator.generators;
+
+import java.util.SplittableRandom;
+
+/**
+ * Gives every patient of a generator its own random stream.
+ *
+ * The streams are split from one generator in the order of the patient ids, so the stream
+ * of a patient only depends on the seed and the id, and a run with the same seed produces
+ * the same data. As a patient is only generated by one thread at a time, the streams need
+ * no synchronization, unlike one {@link java.util.Random} shared by all threads.
+ */
+final class PatientRandoms {
+
+    private PatientRandoms() {
+    }
+
+    /**
+     * @param random       the generator to split the streams from
+     * @param patientCount the number of patients, numbered from 1
+     * @return a stream per patient id, index 0 is unused
+     */
+    static SplittableRandom[] split(SplittableRandom random, int patientCount) {
+        SplittableRandom[] randoms = new SplittableRandom[patientCount + 1];
+        for (int i = 1; i <= patientCount; i++) {
+            randoms[i] = random.split();
+        }
+        return randoms;
+    }
+}
@@ -0,0 +1,96 @@
+package com.cardio_generator.outputs;
+
+import com.data_management.RecordFile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * An implementation of the OutputStrategy interface that appends patient data to a
+ * binary {@link RecordFile} instead of text lines.
+ *
+ * Records are buffered per patient and type and written in blocks, when a block is full,
+ * when the first record of a series has waited about half a minute, even if generation
+ * paused, and when the simulator shuts down. The wait keeps the blocks of slow series,
+ * such as one sample per second, large enough that their headers stay small next to the
+ * records. Alerts are not measurements and are not written, as the text readers skip
+ * them as well.
+ */
+public class BinaryFileOutputStrategy implements OutputStrategy {
+
+    /** The name of the record file in the base directory. */
+    public static final String FILE_NAME = "records.bin";
+
+    private static final long MAX_BUFFER_MILLIS = 30_000;
+
+    private final RecordFile.Writer writer;
+
+    /**
+     * Constructor of BinaryFileOutputStrategy.
+     * @param baseDirectory The base directory where the record file will be saved.
+     * @throws IOException if the directory or the record file cannot be created
+     */
+    public BinaryFileOutputStrategy(String baseDirectory) throws IOException {
+        Path directory = Paths.get(baseDirectory);
+        Files.createDirectories(directory);
+        this.writer = new RecordFile.Writer(directory.resolve(FILE_NAME), RecordFile.DEFAULT_BLOCK_RECORDS,
+                MAX_BUFFER_MILLIS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "binary-output-close"));
+    }
+
+    /**
+     * Buffers a record for the record file.
+     *
+     * @param patientId  The ID of the patient for whom data is generated.
+     * @param timestamp  The timestamp of the data.
+     * @param label      The type or label of the data (e.g., "ECG", "Alert").
+     * @param data       The actual data content, a number with an optional trailing '%'.
+     */
+    @Override
+    public void output(int patientId, long timestamp, String label, String data) {
+        if ("Alert".equalsIgnoreCase(label)) {
+            return;
+        }
+        String number = data.endsWith("%") ? data.substring(0, data.length() - 1) : data;
+        try {
+            writer.append(patientId, Double.parseDouble(number), label, timestamp);
+        } catch (NumberFormatException e) {
+            System.err.println("Not a number, skipping " + label + " of patient " + patientId + ": " + data);
+        } catch (UncheckedIOException e) {
+            System.err.println("Error writing to record file: " + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Buffers a batch of records for the record file, without formatting and parsing
+     * their values.
+     *
+     * @param batch The records to write.
+     */
+    @Override
+    public void outputBatch(RecordBatch batch) {
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                if (!"Alert".equalsIgnoreCase(batch.getLabel(i))) {
+                    writer.append(batch.getPatientId(i), batch.getValue(i), batch.getLabel(i), batch.getTimestamp(i));
+                }
+            }
+        } catch (UncheckedIOException e) {
+            System.err.println("Error writing to record file: " + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Writes the buffered records and closes the record file.
+     */
+    public void close() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            System.err.println("Error closing record file: " + e.getMessage());
+        }
+    }
+}
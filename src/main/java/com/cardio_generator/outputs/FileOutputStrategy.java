@@ -5,6 +5,8 @@ import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 /**
  * An implementation of the OutputStrategy interface that writes patient data to files.
@@ -52,4 +54,38 @@ public class FileOutputStrategy implements OutputStrategy {
             System.err.println("Error writing to file " +filePath + ": " + e.getMessage());
         }
     }
+
+    /**
+     * writes a batch of patient data, opening the file of each label once for the whole batch
+     *
+     * @param batch The records to write.
+     */
+    @Override
+    public void outputBatch(RecordBatch batch) {
+        try {
+            Files.createDirectories(Paths.get(baseDirectory));
+        } catch (IOException e) {
+            System.err.println("Error creating base directory: " + e.getMessage());
+            return;
+        }
+        Map<String, StringBuilder> linesByLabel = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            String label = batch.getLabel(i);
+            linesByLabel.computeIfAbsent(label, k -> new StringBuilder())
+                    .append("Patient ID: ").append(batch.getPatientId(i))
+                    .append(", Timestamp: ").append(batch.getTimestamp(i))
+                    .append(", Label: ").append(label)
+                    .append(", Data: ").append(batch.getData(i)).append(System.lineSeparator());
+        }
+        for (Map.Entry<String, StringBuilder> lines : linesByLabel.entrySet()) {
+            String label = lines.getKey();
+            String filePath = fileMap.computeIfAbsent(label, k -> Paths.get(baseDirectory, label + ".txt").toString());
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(filePath),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+                out.print(lines.getValue());
+            } catch (Exception e){
+                System.err.println("Error writing to file " +filePath + ": " + e.getMessage());
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -13,4 +13,16 @@ public interface OutputStrategy {
      * @param data       The data itself to be output.
      */
     void output(int patientId, long timestamp, String label, String data);
+
+    /**
+     * Outputs a batch of generated records. By default every record is output on its own;
+     * strategies override this to handle the whole batch at once.
+     *
+     * @param batch The records, which the caller reuses once this method returns.
+     */
+    default void outputBatch(RecordBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            output(batch.getPatientId(i), batch.getTimestamp(i), batch.getLabel(i), batch.getData(i));
+        }
+    }
 }
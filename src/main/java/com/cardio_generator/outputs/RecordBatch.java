@@ -0,0 +1,109 @@
+package com.cardio_generator.outputs;
+
+import java.util.Arrays;
+
+/**
+ * A reusable buffer of generated records in primitive arrays, filled by
+ * {@code PatientDataGenerator.generateBatch} and handed to {@link OutputStrategy#outputBatch}.
+ *
+ * Values are kept as numbers and only formatted for outputs that need text. An alert is
+ * stored as 1 when it is triggered and as 0 when it is resolved.
+ */
+public final class RecordBatch {
+
+    private int[] patientIds;
+    private long[] timestamps;
+    private String[] labels;
+    private double[] values;
+    private int size;
+
+    /**
+     * @param initialCapacity the number of records the batch holds before it grows
+     */
+    public RecordBatch(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        patientIds = new int[capacity];
+        timestamps = new long[capacity];
+        labels = new String[capacity];
+        values = new double[capacity];
+    }
+
+    /**
+     * Adds a record, growing the batch if it is full.
+     *
+     * @param patientId the ID of the patient
+     * @param timestamp the timestamp of the record
+     * @param label     the type of the record, such as "ECG"
+     * @param value     the value, 1 or 0 for a triggered or resolved alert
+     */
+    public void add(int patientId, long timestamp, String label, double value) {
+        if (size == patientIds.length) {
+            int capacity = size * 2;
+            patientIds = Arrays.copyOf(patientIds, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            labels = Arrays.copyOf(labels, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        patientIds[size] = patientId;
+        timestamps[size] = timestamp;
+        labels[size] = label;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Adds a record given as text, in the form {@link OutputStrategy#output} takes it.
+     *
+     * @param data a number with an optional trailing '%', or the state of an alert
+     * @throws NumberFormatException if the data is not a number
+     */
+    public void add(int patientId, long timestamp, String label, String data) {
+        double value;
+        if ("Alert".equals(label)) {
+            value = "triggered".equals(data) ? 1 : 0;
+        } else {
+            value = Double.parseDouble(data.endsWith("%") ? data.substring(0, data.length() - 1) : data);
+        }
+        add(patientId, timestamp, label, value);
+    }
+
+    /**
+     * @return the number of records in the batch
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Empties the batch, keeping its arrays for the next records.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    public int getPatientId(int index) {
+        return patientIds[index];
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    public String getLabel(int index) {
+        return labels[index];
+    }
+
+    public double getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * @return the value of a record as text, as the generators used to output it
+     */
+    public String getData(int index) {
+        if ("Alert".equals(labels[index])) {
+            return values[index] != 0 ? "triggered" : "resolved";
+        }
+        return Double.toString(values[index]);
+    }
+}
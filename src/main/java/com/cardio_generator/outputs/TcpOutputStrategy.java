@@ -4,16 +4,19 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 
 /**
  * An implementation of link OutputStrategy that sends patient data over a TCP socket.
+ * Clients can connect at any time, also to reconnect after they lost their connection,
+ * and every connected client gets every record.
  */
 public class TcpOutputStrategy implements OutputStrategy {
 
     private ServerSocket serverSocket;
-    private Socket clientSocket;
-    private PrintWriter out;
+    private final List<PrintWriter> clients = new CopyOnWriteArrayList<>();
 
     /**
      * The constructor of TcpOutputStrategy, which start a TCP server at a parsed port
@@ -26,13 +29,21 @@ public class TcpOutputStrategy implements OutputStrategy {
             System.out.println("TCP Server started on port " + port);
 
             // Accept clients in a new thread to not block the main thread
-            Executors.newSingleThreadExecutor().submit(() -> {
-                try {
-                    clientSocket = serverSocket.accept();
-                    out = new PrintWriter(clientSocket.getOutputStream(), true);
-                    System.out.println("Client connected: " + clientSocket.getInetAddress());
-                } catch (IOException e) {
-                    e.printStackTrace();
+            Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "tcp-accept");
+                thread.setDaemon(true);
+                return thread;
+            }).submit(() -> {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        Socket clientSocket = serverSocket.accept();
+                        clients.add(new PrintWriter(clientSocket.getOutputStream(), true));
+                        System.out.println("Client connected: " + clientSocket.getInetAddress());
+                    } catch (IOException e) {
+                        if (!serverSocket.isClosed()) {
+                            e.printStackTrace();
+                        }
+                    }
                 }
             });
         } catch (IOException e) {
@@ -49,9 +60,59 @@ public class TcpOutputStrategy implements OutputStrategy {
      */
     @Override
     public void output(int patientId, long timestamp, String label, String data) {
-        if (out != null) {
-            String message = String.format("%d,%d,%s,%s", patientId, timestamp, label, data);
+        if (clients.isEmpty()) {
+            return;
+        }
+        String message = String.format("%d,%d,%s,%s", patientId, timestamp, label, data);
+        for (PrintWriter out : clients) {
             out.println(message);
+            if (out.checkError()) {
+                System.err.println("TCP client disconnected");
+                clients.remove(out);
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * sends a batch of patient data as one write per client
+     *
+     * @param batch The records to send.
+     */
+    @Override
+    public void outputBatch(RecordBatch batch) {
+        if (clients.isEmpty() || batch.size() == 0) {
+            return;
+        }
+        StringBuilder lines = new StringBuilder(batch.size() * 48);
+        for (int i = 0; i < batch.size(); i++) {
+            lines.append(batch.getPatientId(i)).append(',').append(batch.getTimestamp(i)).append(',')
+                    .append(batch.getLabel(i)).append(',').append(batch.getData(i)).append(System.lineSeparator());
+        }
+        String message = lines.toString();
+        for (PrintWriter out : clients) {
+            out.print(message);
+            out.flush();
+            if (out.checkError()) {
+                System.err.println("TCP client disconnected");
+                clients.remove(out);
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Disconnects the clients and stops accepting new ones.
+     */
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (PrintWriter out : clients) {
+            out.close();
         }
+        clients.clear();
     }
 }
@@ -1,52 +1,316 @@
 package com.cardio_generator.outputs;
 
+import com.data_management.RecordFrames;
+import com.data_management.WebSocketCompression;
 import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ServerHandshakeBuilder;
 import org.java_websocket.server.WebSocketServer;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Sends patient data to every connected WebSocket client.
+ *
+ * Clients that ask for binary frames in their handshake (see {@link RecordFrames}) get the
+ * records in batches: records are collected and sent as one frame once a frame is full or
+ * every few milliseconds. All other clients get one {@code patientId,timestamp,label,data}
+ * text frame per record, as before.
+ *
+ * The most recent records are retained in memory. A client that reconnects with the last
+ * timestamp it has seen of each record type of each patient gets the retained records it
+ * missed before any new one, so a short network outage does not leave gaps in its data.
+ *
+ * Messages can be compressed for clients that ask for it, see {@link WebSocketCompression}.
+ */
 public class WebSocketOutputStrategy implements OutputStrategy {
 
+    private static final int BATCH_RECORDS = 512;
+    private static final long FLUSH_MILLIS = 20;
+    /** The number of recent records retained for reconnecting clients by default. */
+    public static final int DEFAULT_RETAINED_RECORDS = 65_536;
+
     private WebSocketServer server;
+    // guards the batch, the retained records and the attachment of the connections, which
+    // is null until a connection got its replay and then tells whether it is binary
+    private final Object lock = new Object();
+    private final RecordFrames.Encoder batch = new RecordFrames.Encoder(BATCH_RECORDS);
+    private final int[] retainedPatientIds;
+    private final long[] retainedTimestamps;
+    private final String[] retainedLabels;
+    private final String[] retainedData;
+    private long retainedTotal; // records retained since the start; the ring holds the last ones
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "websocket-batch-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public WebSocketOutputStrategy(int port) {
-        server = new SimpleWebSocketServer(new InetSocketAddress(port));
-        System.out.println("WebSocket server created on port: " + port + ", listening for connections...");
+        this(port, DEFAULT_RETAINED_RECORDS);
+    }
+
+    public WebSocketOutputStrategy(int port, int retainedRecords) {
+        this(port, retainedRecords, WebSocketCompression.OFF);
+    }
+
+    /**
+     * @param port              the port to listen on
+     * @param retainedRecords   the number of recent records kept for clients that reconnect
+     * @param compressThreshold the smallest message in bytes that is deflated for clients
+     *                          that ask for compression, or {@link WebSocketCompression#OFF}
+     */
+    public WebSocketOutputStrategy(int port, int retainedRecords, int compressThreshold) {
+        retainedPatientIds = new int[retainedRecords];
+        retainedTimestamps = new long[retainedRecords];
+        retainedLabels = new String[retainedRecords];
+        retainedData = new String[retainedRecords];
+        server = new SimpleWebSocketServer(new InetSocketAddress(port), WebSocketCompression.draft(compressThreshold));
+        System.out.println("WebSocket server created on port: " + port
+                + (compressThreshold < 0 ? "" : ", compressing messages from " + compressThreshold + " bytes")
+                + ", listening for connections...");
         server.start();
+        flusher.scheduleAtFixedRate(this::flush, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public void output(int patientId, long timestamp, String label, String data) {
-        String message;
-        try {
-            message = patientId + "," + timestamp + "," + label + "," + data;
-        } catch (Exception e) {
-            System.err.println("Error building message for patient " + patientId);
-            e.printStackTrace();
-            return;
+        String message = null;
+        boolean anyBinary = false;
+
+        synchronized (lock) {
+            retain(patientId, timestamp, label, data);
+
+            // Broadcast to all active WebSocket connections
+            for (WebSocket conn : server.getConnections()) {
+                Boolean binary = conn.getAttachment();
+                if (binary == null) {
+                    continue; // still opening, it gets this record with its replay
+                }
+                if (binary) {
+                    anyBinary = true;
+                    continue;
+                }
+                try {
+                    if (message == null) {
+                        message = patientId + "," + timestamp + "," + label + "," + data;
+                    }
+                    conn.send(message);
+                } catch (Exception sendEx) {
+                    System.err.println("Failed to send message to " + conn.getRemoteSocketAddress());
+                    sendEx.printStackTrace();
+                }
+            }
+            if (anyBinary) {
+                double value = binaryValue(label, data);
+                if (!Double.isNaN(value) && batch.add(patientId, timestamp, label, value)) {
+                    flush();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends a batch of records, looking at the connections once for the whole batch and
+     * adding the values to the binary frames without parsing them.
+     */
+    @Override
+    public void outputBatch(RecordBatch records) {
+        synchronized (lock) {
+            List<WebSocket> textClients = new ArrayList<>();
+            boolean anyBinary = false;
+            for (WebSocket conn : server.getConnections()) {
+                Boolean binary = conn.getAttachment();
+                if (binary == null) {
+                    continue; // still opening, it gets these records with its replay
+                }
+                if (binary) {
+                    anyBinary = true;
+                } else {
+                    textClients.add(conn);
+                }
+            }
+            for (int i = 0; i < records.size(); i++) {
+                int patientId = records.getPatientId(i);
+                long timestamp = records.getTimestamp(i);
+                String label = records.getLabel(i);
+                String data = records.getData(i);
+                retain(patientId, timestamp, label, data);
+                if (!textClients.isEmpty()) {
+                    String message = patientId + "," + timestamp + "," + label + "," + data;
+                    for (WebSocket conn : textClients) {
+                        try {
+                            conn.send(message);
+                        } catch (Exception sendEx) {
+                            System.err.println("Failed to send message to " + conn.getRemoteSocketAddress());
+                            sendEx.printStackTrace();
+                        }
+                    }
+                }
+                if (anyBinary && batch.add(patientId, timestamp, label, records.getValue(i))) {
+                    flush();
+                }
+            }
         }
+    }
 
-        // Broadcast to all active WebSocket connections
-        for (WebSocket conn : server.getConnections()) {
+    /**
+     * Sends the records collected so far to the binary clients.
+     */
+    public void flush() {
+        synchronized (lock) {
+            if (batch.size() == 0) {
+                return;
+            }
+            ByteBuffer frame = batch.encode();
+            List<WebSocket> binaryClients = new ArrayList<>();
+            for (WebSocket conn : server.getConnections()) {
+                if (Boolean.TRUE.equals(conn.getAttachment())) {
+                    binaryClients.add(conn);
+                }
+            }
             try {
-                conn.send(message);
+                server.broadcast(frame, binaryClients);
             } catch (Exception sendEx) {
-                System.err.println("Failed to send message to " + conn.getRemoteSocketAddress());
+                System.err.println("Failed to send a batch of records");
                 sendEx.printStackTrace();
             }
         }
     }
 
+    /**
+     * Sends the pending batch and stops the server.
+     */
+    public void close() {
+        flusher.shutdown();
+        flush();
+        try {
+            server.stop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-    private static class SimpleWebSocketServer extends WebSocketServer {
+    private void retain(int patientId, long timestamp, String label, String data) {
+        if (retainedPatientIds.length == 0) {
+            return;
+        }
+        int slot = (int) (retainedTotal++ % retainedPatientIds.length);
+        retainedPatientIds[slot] = patientId;
+        retainedTimestamps[slot] = timestamp;
+        retainedLabels[slot] = label;
+        retainedData[slot] = data;
+    }
 
-        public SimpleWebSocketServer(InetSocketAddress address) {
-            super(address);
+    /**
+     * Sends a reconnecting client the retained records from the last timestamp it saw of
+     * their record type and patient on, or from its resume point for any record, and all
+     * retained records of the types it did not see. The records at a resume point are sent
+     * again, in case another record of the type shares their timestamp. Called with
+     * the lock held, so no record is missed or sent twice between the replay and going live.
+     */
+    private void replay(WebSocket conn, boolean binary, Map<String, Long> lastSeen) {
+        int capacity = retainedPatientIds.length;
+        long first = Math.max(0, retainedTotal - capacity);
+        if (first > 0) {
+            long oldest = retainedTimestamps[(int) (first % capacity)];
+            for (long seen : lastSeen.values()) {
+                if (seen < oldest) {
+                    System.err.println("Replay to " + conn.getRemoteSocketAddress()
+                            + " may have gaps, the oldest retained record is from " + oldest);
+                    break;
+                }
+            }
+        }
+        RecordFrames.Encoder frame = binary ? new RecordFrames.Encoder(BATCH_RECORDS) : null;
+        int replayed = 0;
+        Long seenByAny = lastSeen.get(RecordFrames.ANY_RECORD);
+        for (long i = first; i < retainedTotal; i++) {
+            int slot = (int) (i % capacity);
+            int patientId = retainedPatientIds[slot];
+            long timestamp = retainedTimestamps[slot];
+            Long seen = lastSeen.isEmpty() ? null
+                    : lastSeen.getOrDefault(RecordFrames.resumeKey(patientId, retainedLabels[slot]), seenByAny);
+            if (seen != null && timestamp < seen) {
+                continue;
+            }
+            replayed++;
+            if (!binary) {
+                conn.send(patientId + "," + timestamp + "," + retainedLabels[slot] + "," + retainedData[slot]);
+                continue;
+            }
+            double value = binaryValue(retainedLabels[slot], retainedData[slot]);
+            if (!Double.isNaN(value) && frame.add(patientId, timestamp, retainedLabels[slot], value)) {
+                conn.send(frame.encode());
+            }
+        }
+        if (frame != null && frame.size() > 0) {
+            conn.send(frame.encode());
+        }
+        System.out.println("Replayed " + replayed + " records to " + conn.getRemoteSocketAddress());
+    }
+
+    /**
+     * @return the value of a record in a binary frame, or NaN if the data is not a number
+     */
+    private static double binaryValue(String label, String data) {
+        if ("Alert".equalsIgnoreCase(label)) {
+            return "triggered".equalsIgnoreCase(data) ? 1 : 0;
+        }
+        try {
+            return Double.parseDouble(data.endsWith("%") ? data.substring(0, data.length() - 1) : data);
+        } catch (NumberFormatException e) {
+            System.err.println("Not a number, not sent to binary clients: " + label + " " + data);
+            return Double.NaN;
+        }
+    }
+
+
+    private class SimpleWebSocketServer extends WebSocketServer {
+
+        public SimpleWebSocketServer(InetSocketAddress address, Draft draft) {
+            super(address, Collections.singletonList(draft));
+        }
+
+        @Override
+        public ServerHandshakeBuilder onWebsocketHandshakeReceivedAsServer(WebSocket conn, Draft draft,
+                                                                           ClientHandshake request)
+                throws InvalidDataException {
+            ServerHandshakeBuilder response = super.onWebsocketHandshakeReceivedAsServer(conn, draft, request);
+            if (RecordFrames.BINARY_V1.equals(request.getFieldValue(RecordFrames.HANDSHAKE_HEADER))) {
+                response.put(RecordFrames.HANDSHAKE_HEADER, RecordFrames.BINARY_V1);
+            }
+            return response;
         }
 
         @Override
         public void onOpen(WebSocket conn, org.java_websocket.handshake.ClientHandshake handshake) {
-            System.out.println("New connection: " + conn.getRemoteSocketAddress());
+            boolean binary = RecordFrames.BINARY_V1.equals(handshake.getFieldValue(RecordFrames.HANDSHAKE_HEADER));
+            System.out.println("New connection: " + conn.getRemoteSocketAddress() + (binary ? " (binary)" : ""));
+            synchronized (lock) {
+                if (binary) {
+                    flush(); // the pending batch holds records from before this client connected
+                }
+                if (handshake.hasFieldValue(RecordFrames.RESUME_HEADER)) {
+                    try {
+                        replay(conn, binary,
+                                RecordFrames.parseResumePoints(handshake.getFieldValue(RecordFrames.RESUME_HEADER)));
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Not replaying to " + conn.getRemoteSocketAddress() + ": " + e.getMessage());
+                    }
+                }
+                conn.setAttachment(binary);
+            }
         }
 
         @Override
@@ -0,0 +1,82 @@
+package com.data_management;
+
+/**
+ * Summary of the samples of one record type within a time bucket, as returned by
+ * aggregate queries. Buckets can come from raw samples or from rollups that replaced
+ * raw samples after their retention ran out.
+ */
+public class AggregateRecord {
+    private final int patientId;
+    private final String recordType;
+    private final long bucketStart;
+    private final long bucketMillis;
+    private final long count;
+    private final double min;
+    private final double max;
+    private final double sum;
+
+    /**
+     * Constructs a new aggregate record.
+     *
+     * @param patientId    the unique identifier for the patient
+     * @param recordType   the type of measurement that was aggregated
+     * @param bucketStart  the start of the bucket, in milliseconds since epoch
+     * @param bucketMillis the length of the bucket in milliseconds
+     * @param count        the number of samples in the bucket
+     * @param min          the smallest sample value
+     * @param max          the largest sample value
+     * @param sum          the sum of all sample values
+     */
+    public AggregateRecord(int patientId, String recordType, long bucketStart, long bucketMillis,
+                           long count, double min, double max, double sum) {
+        this.patientId = patientId;
+        this.recordType = recordType;
+        this.bucketStart = bucketStart;
+        this.bucketMillis = bucketMillis;
+        this.count = count;
+        this.min = min;
+        this.max = max;
+        this.sum = sum;
+    }
+
+    public int getPatientId() {
+        return patientId;
+    }
+
+    public String getRecordType() {
+        return recordType;
+    }
+
+    public long getBucketStart() {
+        return bucketStart;
+    }
+
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * @return the mean of the sample values in the bucket
+     */
+    public double getMean() {
+        return sum / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AggregateRecord[patient=%d, type=%s, start=%d, length=%dms, count=%d, min=%s, max=%s, mean=%s]",
+                patientId, recordType, bucketStart, bucketMillis, count, min, max, getMean());
+    }
+}
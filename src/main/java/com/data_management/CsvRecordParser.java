@@ -0,0 +1,511 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Parses {@code patientId,measurementValue,recordType,timestamp} lines straight out of a
+ * memory-mapped file, without creating a String per line or field.
+ *
+ * The file is mapped in windows, so files larger than 2 GB are fine. Numbers are parsed
+ * from the bytes directly, and record types are looked up in a dictionary keyed by their
+ * bytes, so every record of a type shares one String. Only unusual input falls back to the
+ * JDK parsers: numbers in a form the fast path does not cover (such as hexadecimal or more
+ * than 18 digits), and the text of lines that are reported as malformed.
+ *
+ * Lines are handled exactly like {@code BufferedReader.readLine} followed by
+ * {@code line.split(",")}, {@code trim()} and the {@code parseInt}/{@code parseDouble}/
+ * {@code parseLong} calls this reader used before: a line needs four fields once trailing
+ * empty fields are dropped, or it is skipped as malformed, and a field that does not parse
+ * skips the line with a parse error.
+ *
+ * Lines written by {@code FileOutputStrategy}, in the form
+ * {@code Patient ID: <id>, Timestamp: <time>, Label: <label>, Data: <value>}, are parsed as
+ * well. A trailing {@code %} of the value is ignored, and {@code Alert} lines are skipped
+ * since they are not measurements.
+ *
+ * A parser created for the output layout reads the {@code patientId,timestamp,label,data}
+ * lines that {@code TcpOutputStrategy} sends instead, from buffers filled by a socket, see
+ * {@link #parseStream}. There a trailing {@code %} is ignored as well, and {@code Alert}
+ * lines are delivered with the value 1 for triggered and 0 for resolved.
+ */
+final class CsvRecordParser {
+
+    private static final long WINDOW_BYTES = 256L << 20;
+    private static final int MAX_FAST_DIGITS = 18;
+    private static final byte[] PATIENT_ID = ascii("Patient ID: ");
+    private static final byte[] TIMESTAMP = ascii(", Timestamp: ");
+    private static final byte[] LABEL = ascii(", Label: ");
+    private static final byte[] DATA = ascii(", Data: ");
+    private static final byte[] TRIGGERED = ascii("triggered");
+
+    private final WriteAheadLog.RecordSink sink;
+    private final IngestLog log;
+    private final boolean outputLayout;
+    private final TypeDictionary types = new TypeDictionary();
+    private final int[] fieldStarts = new int[4];
+    private final int[] fieldEnds = new int[4];
+    private long records;
+
+    // result of the last number parse, to avoid boxing
+    private boolean parsed;
+
+    /**
+     * @param sink receives every parsed record, e.g. {@code dataStorage::addPatientData}
+     * @param log  where malformed lines are reported
+     */
+    CsvRecordParser(WriteAheadLog.RecordSink sink, IngestLog log) {
+        this(sink, log, false);
+    }
+
+    /**
+     * @param outputLayout whether lines are in the {@code patientId,timestamp,label,data}
+     *                     layout of the simulator outputs rather than the file layout
+     */
+    CsvRecordParser(WriteAheadLog.RecordSink sink, IngestLog log, boolean outputLayout) {
+        this.sink = sink;
+        this.log = log;
+        this.outputLayout = outputLayout;
+    }
+
+    /**
+     * Parses a whole file.
+     *
+     * @param file the CSV file
+     * @return the number of records delivered to the sink
+     * @throws IOException if the file cannot be read
+     */
+    long parse(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            parse(channel, 0, channel.size());
+        }
+        return records;
+    }
+
+    /**
+     * Parses the lines in [from, to) of a file. The range has to start at the beginning of
+     * a line and end after a line terminator or at the end of the file.
+     *
+     * @throws IOException if the file cannot be read
+     */
+    void parse(FileChannel channel, long from, long to) throws IOException {
+        long position = from;
+        long window = WINDOW_BYTES;
+        while (position < to) {
+            long length = Math.min(window, to - position);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            int consumed = parseLines(buffer, (int) length, position + length == to);
+            if (consumed == 0) {
+                // a single line longer than the window, map a larger one
+                if (window >= Integer.MAX_VALUE) {
+                    throw new IOException("Line longer than " + Integer.MAX_VALUE + " bytes at offset " + position);
+                }
+                window = Math.min(window * 2, Integer.MAX_VALUE);
+                continue;
+            }
+            position += consumed;
+            window = WINDOW_BYTES;
+        }
+    }
+
+    /**
+     * Parses the complete lines in [0, limit) of a buffer that a stream is read into.
+     *
+     * @return the number of bytes consumed, which stops before an incomplete last line;
+     *         the caller keeps the rest and appends the next read to it
+     */
+    int parseStream(ByteBuffer buffer, int limit) {
+        return parseLines(buffer, limit, false);
+    }
+
+    /**
+     * @return the number of records delivered to the sink so far
+     */
+    long getRecordCount() {
+        return records;
+    }
+
+    /**
+     * Parses every complete line in the buffer.
+     *
+     * @param last whether the buffer ends at the end of the range, so an unterminated
+     *             last line is complete
+     * @return the number of bytes consumed, which stops before an incomplete last line
+     */
+    private int parseLines(ByteBuffer buffer, int limit, boolean last) {
+        int lineStart = 0;
+        int i = 0;
+        while (i < limit) {
+            byte b = buffer.get(i);
+            if (b != '\n' && b != '\r') {
+                i++;
+                continue;
+            }
+            int lineEnd = i;
+            i++;
+            if (b == '\r') {
+                if (i == limit && !last) {
+                    return lineStart; // the '\n' of a "\r\n" may be in the next window
+                }
+                if (i < limit && buffer.get(i) == '\n') {
+                    i++;
+                }
+            }
+            parseLine(buffer, lineStart, lineEnd);
+            lineStart = i;
+        }
+        if (lineStart < limit) {
+            if (!last) {
+                return lineStart;
+            }
+            parseLine(buffer, lineStart, limit);
+        }
+        return limit;
+    }
+
+    private void parseLine(ByteBuffer buffer, int start, int end) {
+        if (!outputLayout && startsWith(buffer, start, end, PATIENT_ID)) {
+            parseLabelledLine(buffer, start, end);
+            return;
+        }
+        // split(",") semantics: count fields, trailing empty fields do not count
+        int field = 0;
+        int fieldStart = start;
+        int lastNonEmpty = -1;
+        for (int i = start; i <= end; i++) {
+            if (i < end && buffer.get(i) != ',') {
+                continue;
+            }
+            if (i > fieldStart) {
+                lastNonEmpty = field;
+            }
+            if (field < 4) {
+                fieldStarts[field] = fieldStart;
+                fieldEnds[field] = i;
+            }
+            field++;
+            fieldStart = i + 1;
+        }
+        int parts = start == end ? 1 : lastNonEmpty + 1;
+        if (parts != 4) {
+            log.log(IngestLog.Level.WARN, "Malformed line (skipping): ", text(buffer, start, end));
+            return;
+        }
+        for (int f = 0; f < 4; f++) {
+            trim(buffer, f);
+        }
+        if (outputLayout) {
+            parseOutputFields(buffer, start, end);
+            return;
+        }
+        try {
+            int patientId = parseInt(buffer, fieldStarts[0], fieldEnds[0]);
+            double measurementValue = parseDouble(buffer, fieldStarts[1], fieldEnds[1]);
+            String recordType = types.get(buffer, fieldStarts[2], fieldEnds[2]);
+            long timestamp = parseLong(buffer, fieldStarts[3], fieldEnds[3]);
+            sink.accept(patientId, measurementValue, recordType, timestamp);
+            records++;
+        } catch (NumberFormatException e) {
+            log.log(IngestLog.Level.ERROR, "Error parsing line: ", text(buffer, start, end), e);
+        }
+    }
+
+    /**
+     * Parses a {@code Patient ID: .., Timestamp: .., Label: .., Data: ..} line.
+     */
+    private void parseLabelledLine(ByteBuffer buffer, int start, int end) {
+        int idStart = start + PATIENT_ID.length;
+        int idEnd = indexOf(buffer, idStart, end, TIMESTAMP);
+        int timeStart = idEnd + TIMESTAMP.length;
+        int timeEnd = idEnd < 0 ? -1 : indexOf(buffer, timeStart, end, LABEL);
+        int labelStart = timeEnd + LABEL.length;
+        int labelEnd = timeEnd < 0 ? -1 : indexOf(buffer, labelStart, end, DATA);
+        if (labelEnd < 0) {
+            log.log(IngestLog.Level.WARN, "Malformed line (skipping): ", text(buffer, start, end));
+            return;
+        }
+        fieldStarts[0] = labelStart;
+        fieldEnds[0] = labelEnd;
+        fieldStarts[1] = labelEnd + DATA.length;
+        fieldEnds[1] = end;
+        trim(buffer, 0);
+        trim(buffer, 1);
+        String recordType = types.get(buffer, fieldStarts[0], fieldEnds[0]);
+        if ("Alert".equalsIgnoreCase(recordType)) {
+            return;
+        }
+        int valueEnd = fieldEnds[1];
+        if (valueEnd > fieldStarts[1] && buffer.get(valueEnd - 1) == '%') {
+            valueEnd--;
+        }
+        try {
+            int patientId = parseInt(buffer, idStart, idEnd);
+            long timestamp = parseLong(buffer, timeStart, timeEnd);
+            double measurementValue = parseDouble(buffer, fieldStarts[1], valueEnd);
+            sink.accept(patientId, measurementValue, recordType, timestamp);
+            records++;
+        } catch (NumberFormatException e) {
+            log.log(IngestLog.Level.ERROR, "Error parsing line: ", text(buffer, start, end), e);
+        }
+    }
+
+    /**
+     * Parses the split fields of a {@code patientId,timestamp,label,data} line.
+     */
+    private void parseOutputFields(ByteBuffer buffer, int start, int end) {
+        String recordType = types.get(buffer, fieldStarts[2], fieldEnds[2]);
+        int valueStart = fieldStarts[3];
+        int valueEnd = fieldEnds[3];
+        try {
+            int patientId = parseInt(buffer, fieldStarts[0], fieldEnds[0]);
+            long timestamp = parseLong(buffer, fieldStarts[1], fieldEnds[1]);
+            double measurementValue;
+            if ("Alert".equalsIgnoreCase(recordType)) {
+                measurementValue = valueEnd - valueStart == TRIGGERED.length
+                        && startsWithIgnoreCase(buffer, valueStart, TRIGGERED) ? 1 : 0;
+            } else {
+                if (valueEnd > valueStart && buffer.get(valueEnd - 1) == '%') {
+                    valueEnd--;
+                }
+                measurementValue = parseDouble(buffer, valueStart, valueEnd);
+            }
+            sink.accept(patientId, measurementValue, recordType, timestamp);
+            records++;
+        } catch (NumberFormatException e) {
+            log.log(IngestLog.Level.ERROR, "Error parsing line: ", text(buffer, start, end), e);
+        }
+    }
+
+    /**
+     * @param lowerCase ASCII letters in lower case
+     */
+    private static boolean startsWithIgnoreCase(ByteBuffer buffer, int start, byte[] lowerCase) {
+        for (int i = 0; i < lowerCase.length; i++) {
+            if ((buffer.get(start + i) | 0x20) != lowerCase[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(start + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the position of the first occurrence of the pattern in [start, end), or -1
+     */
+    private static int indexOf(ByteBuffer buffer, int start, int end, byte[] pattern) {
+        for (int i = start; i + pattern.length <= end; i++) {
+            if (startsWith(buffer, i, end, pattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Narrows a field like {@code String.trim()}, which drops every char up to a space.
+     */
+    private void trim(ByteBuffer buffer, int field) {
+        int s = fieldStarts[field];
+        int e = fieldEnds[field];
+        while (s < e && (buffer.get(s) & 0xFF) <= ' ') {
+            s++;
+        }
+        while (e > s && (buffer.get(e - 1) & 0xFF) <= ' ') {
+            e--;
+        }
+        fieldStarts[field] = s;
+        fieldEnds[field] = e;
+    }
+
+    private int parseInt(ByteBuffer buffer, int start, int end) {
+        long value = parseDecimal(buffer, start, end, 10);
+        if (parsed && value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            return (int) value;
+        }
+        return Integer.parseInt(text(buffer, start, end));
+    }
+
+    private long parseLong(ByteBuffer buffer, int start, int end) {
+        long value = parseDecimal(buffer, start, end, MAX_FAST_DIGITS);
+        if (parsed) {
+            return value;
+        }
+        return Long.parseLong(text(buffer, start, end));
+    }
+
+    /**
+     * Parses {@code [+-]digits} with at most maxDigits digits and sets {@link #parsed}
+     * if the field had that form.
+     */
+    private long parseDecimal(ByteBuffer buffer, int start, int end, int maxDigits) {
+        parsed = false;
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        if (i == end || end - i > maxDigits) {
+            return 0;
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return 0;
+            }
+            value = value * 10 + digit;
+        }
+        parsed = true;
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses plain decimal numbers such as {@code -12.5} or {@code 1.2e3} with up to 19
+     * significant digits in place, see {@link DecimalConversion}, which gives the same
+     * result as {@code Double.parseDouble}. Anything else is handed to {@code Double.parseDouble}.
+     */
+    private double parseDouble(ByteBuffer buffer, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int significant = 0;
+        int exponent = 0;
+        boolean fraction = false;
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b == '.' && !fraction) {
+                fraction = true;
+                continue;
+            }
+            int digit = b - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            digits++;
+            if (significant > 0 || digit != 0) {
+                significant++;
+            }
+            mantissa = mantissa * 10 + digit;
+            if (fraction) {
+                exponent--;
+            }
+        }
+        if (i < end && (buffer.get(i) == 'e' || buffer.get(i) == 'E') && digits > 0) {
+            long explicit = parseDecimal(buffer, i + 1, end, 4);
+            if (parsed) {
+                exponent += (int) explicit;
+                i = end;
+            }
+        }
+        if (i != end || digits == 0 || significant > DecimalConversion.MAX_DIGITS) {
+            return Double.parseDouble(text(buffer, start, end));
+        }
+        double value = DecimalConversion.toDouble(mantissa, exponent, negative);
+        return Double.isNaN(value) ? Double.parseDouble(text(buffer, start, end)) : value;
+    }
+
+    private static String text(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Open-addressing map from the bytes of a record type to its String, so a type is
+     * decoded once per file rather than once per line.
+     */
+    private static final class TypeDictionary {
+        private byte[][] keys = new byte[16][];
+        private String[] values = new String[16];
+        private int size;
+
+        String get(ByteBuffer buffer, int start, int end) {
+            int hash = 1;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + buffer.get(i);
+            }
+            int mask = keys.length - 1;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (keys[slot] != null) {
+                if (matches(keys[slot], buffer, start, end)) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            String type = text(buffer, start, end).intern();
+            byte[] key = new byte[end - start];
+            for (int i = 0; i < key.length; i++) {
+                key[i] = buffer.get(start + i);
+            }
+            keys[slot] = key;
+            values[slot] = type;
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+            return type;
+        }
+
+        private static boolean matches(byte[] key, ByteBuffer buffer, int start, int end) {
+            if (key.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != buffer.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void grow() {
+            byte[][] oldKeys = keys;
+            String[] oldValues = values;
+            keys = new byte[oldKeys.length * 2][];
+            values = new String[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == null) {
+                    continue;
+                }
+                int hash = 1;
+                for (byte b : oldKeys[i]) {
+                    hash = 31 * hash + b;
+                }
+                int slot = (hash ^ (hash >>> 16)) & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -1,9 +1,14 @@
 package com.data_management;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 import com.alerts.Alert;
 import com.alerts.AlertGenerator;
+import com.alerts.AlertLog;
 import com.alerts.alert_decorator.AlertComponent;
 
 /**
@@ -11,20 +16,28 @@ import com.alerts.alert_decorator.AlertComponent;
  * system.
  * This class serves as a repository for all patient records, organized by
  * patient IDs.
+ * It is safe to use from several threads: the WebSocket and file readers can
+ * write while the alert strategies read. Each patient guards its own records, so
+ * writers for different patients do not contend.
  */
 public class DataStorage {
 
+    private static final IngestLog LOG = IngestLog.forSource("DataStorage");
+
     private static DataStorage instance;
-    private Map<Integer, Patient> patientMap; // Stores patient objects indexed by their unique patient ID.
-    private List<Alert> alertLog;
+    private PatientTable patientTable; // Stores patient objects indexed by their unique patient ID.
+    private final AlertLog alertLog = new AlertLog(AlertLog.DEFAULT_CAPACITY);
+    private final Map<String, RetentionPolicy> retentionPolicies = new ConcurrentHashMap<>();
+    private volatile RetentionPolicy defaultRetentionPolicy = RetentionPolicy.UNBOUNDED;
+    private volatile WriteAheadLog writeAheadLog; // null unless durability is enabled
+    private final List<StorageSnapshot> openSnapshots = new ArrayList<>(); // guarded by itself
 
     /**
      * Constructs a new instance of DataStorage, initializing the underlying storage
      * structure.
      */
     private DataStorage() {
-        this.patientMap = new HashMap<>();
-        this.alertLog = new ArrayList<Alert>();
+        this.patientTable = new PatientTable(this::getRetentionPolicy);
     }
 
     /**
@@ -50,16 +63,91 @@ public class DataStorage {
      *                         "BloodPressure"
      * @param timestamp        the time at which the measurement was taken, in
      *                         milliseconds since the Unix epoch
+     * @throws java.io.UncheckedIOException if a write-ahead log is enabled and has failed;
+     *                         the record is then not stored, see {@link WriteAheadLog}
+     * @throws IllegalArgumentException if a write-ahead log is enabled and the record type
+     *                         is too long for it; the record is then not stored
      */
     public void addPatientData(int patientId, double measurementValue, String recordType, long timestamp) {
-        patientMap.compute(patientId, (id, patient) -> {
-            if (patient == null) {
-                patient = new Patient(patientId);
+        WriteAheadLog log = writeAheadLog;
+        if (log != null) {
+            log.append(patientId, measurementValue, recordType, timestamp);
+        }
+        patientTable.getOrCreate(patientId).addOrUpdateRecord(measurementValue, recordType, timestamp);
+        LOG.record(IngestLog.Level.DEBUG, "[DataStorage] Added Patient.", patientId, measurementValue, recordType, timestamp);
+    }
+
+    /**
+     * Replays the given write-ahead log into this storage and appends every record added
+     * from now on to it, so the history survives a restart. The log is enabled before the
+     * replay, so records added concurrently are logged too; the replayed records go to
+     * the patients directly and are not logged again.
+     *
+     * @param log the write-ahead log to replay and write to
+     * @return the number of records replayed from the log
+     * @throws IOException if the log cannot be read
+     */
+    public long enableWriteAheadLog(WriteAheadLog log) throws IOException {
+        WriteAheadLog previous = writeAheadLog;
+        writeAheadLog = log;
+        try {
+            return log.replay((patientId, measurementValue, recordType, timestamp) ->
+                    patientTable.getOrCreate(patientId).addOrUpdateRecord(measurementValue, recordType, timestamp));
+        } catch (IOException | RuntimeException e) {
+            writeAheadLog = previous;
+            throw e;
+        }
+    }
+
+    /**
+     * Stops writing records to the write-ahead log. The log itself is not closed.
+     *
+     * @return the log that was in use, or null if there was none
+     */
+    public WriteAheadLog disableWriteAheadLog() {
+        WriteAheadLog log = writeAheadLog;
+        writeAheadLog = null;
+        return log;
+    }
+
+    /**
+     * Writes every stored record to a snapshot file that {@link #loadSnapshot} can load
+     * quickly after a restart. Once the snapshot is written, write-ahead log segments
+     * older than the snapshot can be removed with {@link WriteAheadLog#deleteSegmentsBefore}.
+     * Rollups of samples that already expired are not written.
+     *
+     * @param file the snapshot file to create or replace
+     * @throws IOException if the file cannot be written
+     */
+    public void writeSnapshot(Path file) throws IOException {
+        StorageSnapshot.write(patientTable, file);
+    }
+
+    /**
+     * Loads a snapshot written by {@link #writeSnapshot}. Only the snapshot's index is read
+     * here; the records of each patient are memory-mapped and copied in the first time the
+     * patient is used. Patients that are already stored get the snapshot's records merged
+     * in right away. If a patient's records cannot be read when it is first used, for
+     * example because the snapshot was closed, that use throws an
+     * {@link java.io.UncheckedIOException} and the next use tries again.
+     *
+     * @param file the snapshot file
+     * @return the number of patients in the snapshot
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public int loadSnapshot(Path file) throws IOException {
+        StorageSnapshot snapshot = StorageSnapshot.open(file);
+        synchronized (openSnapshots) {
+            openSnapshots.add(snapshot);
+        }
+        StorageSnapshot.Entry[] entries = snapshot.entries();
+        for (StorageSnapshot.Entry entry : entries) {
+            Patient lazy = new Patient(entry.getPatientId(), this::getRetentionPolicy, entry);
+            if (!patientTable.putIfAbsent(lazy)) {
+                patientTable.get(entry.getPatientId()).mergeSnapshot(entry);
             }
-            patient.addOrUpdateRecord(measurementValue, recordType, timestamp);
-            return patient;
-        });
-        System.out.println("[DataStorage] Added Patient. PatientId: " + patientId + " MeasurementValue: " + measurementValue + " RecordType: " + recordType + " Timestamp: " + timestamp);
+        }
+        return entries.length;
     }
 
     /**
@@ -76,7 +164,7 @@ public class DataStorage {
      *         range
      */
     public List<PatientRecord> getRecords(int patientId, long startTime, long endTime) {
-        Patient patient = patientMap.get(patientId);
+        Patient patient = patientTable.get(patientId);
         return (patient != null)
                 ? patient.getRecords(startTime, endTime)
                 : Collections.emptyList();
@@ -84,11 +172,85 @@ public class DataStorage {
 
     /**
      * Retrieves a collection of all patients stored in the data storage.
+     * This copies every patient into a new list, use {@link #forEachPatient} to
+     * iterate without the copy.
      *
      * @return a list of all patients
      */
     public List<Patient> getAllPatients() {
-        return new ArrayList<>(patientMap.values());
+        List<Patient> patients = new ArrayList<>(patientTable.size());
+        patientTable.forEach(patients::add);
+        return patients;
+    }
+
+    /**
+     * Runs the given action for every patient in the storage, without copying the
+     * patient table.
+     *
+     * @param action the action to run for each patient
+     */
+    public void forEachPatient(Consumer<? super Patient> action) {
+        patientTable.forEach(action);
+    }
+
+    /**
+     * Retrieves a single patient by ID.
+     *
+     * @param patientId the unique identifier of the patient
+     * @return the patient, or null if no data has been stored for that ID
+     */
+    public Patient getPatient(int patientId) {
+        return patientTable.get(patientId);
+    }
+
+    /**
+     * Summarises one record type of a patient into min/max/mean/count buckets. Unlike
+     * {@link #getRecords}, this also covers history that the retention policy already
+     * rolled up into minute or hour buckets.
+     *
+     * @param patientId    the unique identifier of the patient
+     * @param recordType   the type of record, e.g., "ECG"
+     * @param startTime    the start of the time range, in milliseconds since the Unix epoch
+     * @param endTime      the end of the time range, in milliseconds since the Unix epoch
+     * @param bucketMillis the requested bucket length in milliseconds
+     * @return the buckets in order of their start time
+     */
+    public List<AggregateRecord> getAggregates(int patientId, String recordType, long startTime, long endTime,
+                                               long bucketMillis) {
+        Patient patient = patientTable.get(patientId);
+        return (patient != null)
+                ? patient.getAggregates(recordType, startTime, endTime, bucketMillis)
+                : Collections.emptyList();
+    }
+
+    /**
+     * Sets how long the history of one record type is kept, for existing and future patients.
+     *
+     * @param recordType the type of record, e.g., "ECG"
+     * @param policy     the retention policy for that type
+     */
+    public void setRetentionPolicy(String recordType, RetentionPolicy policy) {
+        retentionPolicies.put(recordType, Objects.requireNonNull(policy));
+        patientTable.forEach(Patient::refreshRetention);
+    }
+
+    /**
+     * Sets the retention of every record type that has no policy of its own.
+     * By default all history is kept.
+     *
+     * @param policy the retention policy
+     */
+    public void setDefaultRetentionPolicy(RetentionPolicy policy) {
+        defaultRetentionPolicy = Objects.requireNonNull(policy);
+        patientTable.forEach(Patient::refreshRetention);
+    }
+
+    /**
+     * @param recordType the type of record, e.g., "ECG"
+     * @return the retention policy that applies to that record type
+     */
+    public RetentionPolicy getRetentionPolicy(String recordType) {
+        return retentionPolicies.getOrDefault(recordType, defaultRetentionPolicy);
     }
 
     /**
@@ -111,21 +273,47 @@ public class DataStorage {
 
         AlertGenerator alertGenerator = new AlertGenerator(storage);
 
-        for (Patient patient : storage.getAllPatients()) {
-            alertGenerator.evaluateData(patient);
-        }
+        storage.forEachPatient(alertGenerator::evaluateData);
     }
+    /**
+     * Logs a triggered alert. The log is bounded, and an alert that repeats one already
+     * in the log from an earlier strategy run is not logged again, see {@link AlertLog}.
+     *
+     * @param alert the alert to log
+     */
     public void saveAlertInLog(AlertComponent alert){
         this.alertLog.add((Alert) alert);
     }
     // method for testing
     public void clearDataForTesting() {
-        patientMap.clear();
+        patientTable.clear();
+        synchronized (openSnapshots) {
+            for (StorageSnapshot snapshot : openSnapshots) {
+                try {
+                    snapshot.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            openSnapshots.clear();
+        }
         alertLog.clear();
+        retentionPolicies.clear();
+        writeAheadLog = null;
+        defaultRetentionPolicy = RetentionPolicy.UNBOUNDED;
     }
 
     public List<Alert> getAlertLog() {
-        // Return an unmodifiable view so nobody else can edit it
-        return Collections.unmodifiableList(alertLog);
+        // Return an unmodifiable snapshot so nobody else can edit it and readers never race with writers
+        return Collections.unmodifiableList(alertLog.getAlerts());
+    }
+
+    /**
+     * Gives access to the alert log for queries by patient, priority, time or sequence number.
+     *
+     * @return the alert log of this storage
+     */
+    public AlertLog getAlertHistory() {
+        return alertLog;
     }
 }
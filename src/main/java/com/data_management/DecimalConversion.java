@@ -0,0 +1,123 @@
+package com.data_management;
+
+import java.math.BigInteger;
+
+/**
+ * Turns the digits of a decimal number into the double that {@code Double.parseDouble}
+ * would return, without building a String first.
+ *
+ * Numbers whose digits and power of ten are both exact in a double are computed with a
+ * single multiplication or division. Others use the Eisel-Lemire algorithm: the digits are
+ * multiplied by a 128-bit approximation of the power of ten, which decides the correctly
+ * rounded result for all but a tiny fraction of inputs. For those, and for numbers out of
+ * range, {@link #toDouble} returns NaN and the caller falls back to {@code Double.parseDouble}.
+ */
+final class DecimalConversion {
+
+    /** The most significant digits {@link #toDouble} accepts, as they must fit in 64 unsigned bits. */
+    static final int MAX_DIGITS = 19;
+
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final int MIN_EXPONENT = -342;
+    private static final int MAX_EXPONENT = 308;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    // 10^e as a 128-bit mantissa with the top bit set, in two halves, for e in [MIN_EXPONENT, MAX_EXPONENT]
+    private static final long[] POWER_HIGH = new long[MAX_EXPONENT - MIN_EXPONENT + 1];
+    private static final long[] POWER_LOW = new long[MAX_EXPONENT - MIN_EXPONENT + 1];
+
+    static {
+        BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+        for (int e = MIN_EXPONENT; e <= MAX_EXPONENT; e++) {
+            BigInteger power;
+            if (e >= 0) {
+                power = BigInteger.valueOf(5).pow(e);
+                power = power.bitLength() < 128 ? power.shiftLeft(128 - power.bitLength())
+                        : power.shiftRight(power.bitLength() - 128);
+            } else {
+                // rounded up, so the product never falls below the exact value
+                BigInteger divisor = BigInteger.valueOf(5).pow(-e);
+                int bits = divisor.bitLength() + (e >= -27 ? 127 : divisor.bitLength() + 128);
+                power = BigInteger.ONE.shiftLeft(bits).divide(divisor).add(BigInteger.ONE);
+                if (power.bitLength() > 128) {
+                    power = power.shiftRight(power.bitLength() - 128);
+                }
+            }
+            POWER_HIGH[e - MIN_EXPONENT] = power.shiftRight(64).longValue();
+            POWER_LOW[e - MIN_EXPONENT] = power.and(mask).longValue();
+        }
+    }
+
+    private DecimalConversion() {
+    }
+
+    /**
+     * @param digits   the decimal digits as an unsigned number, at most {@link #MAX_DIGITS} of them
+     * @param exponent the power of ten to scale the digits by
+     * @param negative whether the number is negative
+     * @return the correctly rounded double, or NaN if the caller has to fall back to
+     *         {@code Double.parseDouble}
+     */
+    static double toDouble(long digits, int exponent, boolean negative) {
+        if (digits == 0) {
+            return negative ? -0.0 : 0.0;
+        }
+        if (digits > 0 && digits <= MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+            double value = exponent < 0 ? digits / POWERS_OF_TEN[-exponent] : digits * POWERS_OF_TEN[exponent];
+            return negative ? -value : value;
+        }
+        if (exponent < MIN_EXPONENT || exponent > MAX_EXPONENT) {
+            return Double.NaN;
+        }
+        int leadingZeros = Long.numberOfLeadingZeros(digits);
+        long mantissa = digits << leadingZeros;
+        long binaryExponent = ((217706L * exponent) >> 16) + 64 + 1023 - leadingZeros;
+        int index = exponent - MIN_EXPONENT;
+
+        long high = unsignedMultiplyHigh(mantissa, POWER_HIGH[index]);
+        long low = mantissa * POWER_HIGH[index];
+        if ((high & 0x1FF) == 0x1FF && Long.compareUnsigned(low + mantissa, mantissa) < 0) {
+            // the lower 64 bits of the power could still carry into the result
+            long lowHigh = unsignedMultiplyHigh(mantissa, POWER_LOW[index]);
+            long lowLow = mantissa * POWER_LOW[index];
+            long mergedHigh = high;
+            long mergedLow = low + lowHigh;
+            if (Long.compareUnsigned(mergedLow, low) < 0) {
+                mergedHigh++;
+            }
+            if ((mergedHigh & 0x1FF) == 0x1FF && mergedLow == -1L
+                    && Long.compareUnsigned(lowLow + mantissa, mantissa) < 0) {
+                return Double.NaN;
+            }
+            high = mergedHigh;
+            low = mergedLow;
+        }
+
+        long topBit = high >>> 63;
+        long significand = high >>> (topBit + 9);
+        binaryExponent -= 1 ^ topBit;
+        if (low == 0 && (high & 0x1FF) == 0 && (significand & 3) == 1) {
+            return Double.NaN; // exactly half-way between two doubles
+        }
+        significand += significand & 1;
+        significand >>>= 1;
+        if ((significand >>> 53) > 0) {
+            significand >>>= 1;
+            binaryExponent++;
+        }
+        if (binaryExponent <= 0 || binaryExponent >= 0x7FF) {
+            return Double.NaN; // subnormal or infinite
+        }
+        long bits = binaryExponent << 52 | significand & 0x000FFFFFFFFFFFFFL;
+        if (negative) {
+            bits |= Long.MIN_VALUE;
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    private static long unsignedMultiplyHigh(long x, long y) {
+        return Math.multiplyHigh(x, y) + ((x >> 63) & y) + ((y >> 63) & x);
+    }
+}
@@ -1,15 +1,26 @@
 package com.data_management;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 
 public class FileDataReader implements DataReader{
+    private static final IngestLog LOG = IngestLog.forSource("FileDataReader");
+
+    private static final long TAIL_POLL_MILLIS = 1000;
 
     private String[] args; // Store the command-line arguments
+    private volatile FileTailer tailer; // set while following files
 
     // Constructor to pass and store args[] when creating the object
     public FileDataReader(String[] args) {
@@ -18,6 +29,14 @@ public class FileDataReader implements DataReader{
 
     /**
      * Reads data from a specified file and stores it in the provided DataStorage object.
+     * The file is memory-mapped and parsed in place, see {@link CsvRecordParser}.
+     * The {@code --output file:} path may also name a directory, in which case every
+     * regular file in it is read, in name order. Binary {@link RecordFile}s are recognised
+     * by their header and read block by block instead of parsed as text.
+     *
+     * With the {@code --parallel} argument, the files are split into line-aligned ranges
+     * and parsed on the common fork-join pool, see {@link ParallelFileIngest}. The records
+     * of each patient are still stored in file order.
      *
      * @param dataStorage the storage where parsed data will be saved
      * @throws IOException if there is an error reading the file
@@ -26,49 +45,81 @@ public class FileDataReader implements DataReader{
     public void readData(DataStorage dataStorage) throws IOException {
         String outputFilePath = getFilePathFromArgs(this.args);
 
-        File file = new File(outputFilePath);
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-
-                String[] parts = line.split(",");
-
-                // Ensuring that the line has exactly 4 parts: patientId, measurementValue, recordType, timestamp
-                if (parts.length == 4) {
-                    try {
-                        // Parsing the components into the appropriate types
-                        int patientId = Integer.parseInt(parts[0].trim());
-                        double measurementValue = Double.parseDouble(parts[1].trim());
-                        String recordType = parts[2].trim();
-                        long timestamp = Long.parseLong(parts[3].trim());
-
-                        dataStorage.addPatientData(patientId, measurementValue, recordType, timestamp);
-
-                    } catch (NumberFormatException e) {
-                        System.err.println("Error parsing line: " + line);
-                        e.printStackTrace();
-                    }
-                } else {
-                    System.err.println("Malformed line (skipping): " + line);
+        try {
+            List<Path> files = listInputFiles(Paths.get(outputFilePath));
+            boolean parallel = Arrays.asList(args).contains("--parallel");
+            List<Path> textFiles = new ArrayList<>();
+            for (Path file : files) {
+                if (!RecordFile.isRecordFile(file)) {
+                    textFiles.add(file);
+                    continue;
                 }
+                readTextFiles(textFiles, parallel, dataStorage);
+                textFiles.clear();
+                RecordFile.read(file, dataStorage::addPatientData);
             }
-
+            readTextFiles(textFiles, parallel, dataStorage);
         } catch (IOException e) {
             // Error for issues with reading the file
             throw new IOException("Error reading file: " + outputFilePath, e);
         }
     }
 
+    private static void readTextFiles(List<Path> files, boolean parallel, DataStorage dataStorage)
+            throws IOException {
+        if (parallel) {
+            new ParallelFileIngest(ForkJoinPool.commonPool(), LOG).ingest(files, dataStorage::addPatientData);
+            return;
+        }
+        for (Path file : files) {
+            new CsvRecordParser(dataStorage::addPatientData, LOG).parse(file);
+        }
+    }
+
+    /**
+     * @return the path itself if it is a file, or the regular files in it sorted by name,
+     *         without the checkpoints left by {@link #readContinuousData}
+     */
+    private static List<Path> listInputFiles(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return Collections.singletonList(path);
+        }
+        try (Stream<Path> entries = Files.list(path)) {
+            return entries.filter(Files::isRegularFile)
+                    .filter(file -> !FileTailer.isCheckpointFile(file))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Follows the input as it grows and stores every appended record, see {@link FileTailer}.
+     * This returns once following has started; {@link #close()} stops it. Both CSV lines and
+     * the lines written by {@code FileOutputStrategy} are understood.
+     *
+     * @param websocketUri a {@code file:} URI of the file or directory to follow, or null to
+     *                     follow the {@code --output file:} path
+     * @param dataStorage  the storage where appended records are stored
+     * @throws IOException if the files cannot be watched
+     */
     @Override
     public void readContinuousData(URI websocketUri, DataStorage dataStorage) throws IOException {
-        // skippy
+        Path path = websocketUri != null && "file".equals(websocketUri.getScheme())
+                ? Paths.get(websocketUri)
+                : Paths.get(getFilePathFromArgs(this.args));
+        close();
+        FileTailer started = new FileTailer(path, TAIL_POLL_MILLIS, dataStorage::addPatientData, LOG);
+        started.start();
+        tailer = started;
     }
 
     @Override
     public void close() throws IOException {
-        //The Bush Roo!!
+        FileTailer current = tailer;
+        tailer = null;
+        if (current != null) {
+            current.close();
+        }
     }
 
     /**
@@ -0,0 +1,312 @@
+package com.data_management;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * Follows a file, or every file in a directory, as it grows and parses the newly appended
+ * lines with a {@link CsvRecordParser}.
+ *
+ * A background thread waits on a {@link WatchService} for changes, and also looks at the
+ * files once per poll interval in case the file system does not report changes (as with
+ * many network shares). For each file it keeps the offset after the last complete line it
+ * parsed, so only appended bytes are read, and an incomplete last line is read once it is
+ * finished.
+ *
+ * Files are recognised by their file key (the inode on Unix), so a file renamed within the
+ * directory during rotation keeps its offset, and a new file under the old name is read
+ * from the start. A file that became shorter than its offset was truncated and is read
+ * again from the start. The offsets are saved to a checkpoint file after every pass that
+ * read something, so a restarted reader resumes where the last one stopped.
+ */
+final class FileTailer implements Closeable {
+
+    private static final String CHECKPOINT_SUFFIX = ".tail-checkpoint";
+    private static final int SCAN_BYTES = 8192;
+
+    private final Path target;
+    private final Path directory;
+    private final Path checkpoint;
+    private final long pollMillis;
+    private final CsvRecordParser parser;
+    private final IngestLog log;
+    private final Map<String, Position> positions = new HashMap<>(); // by file name, guarded by the tail thread
+    private final ByteBuffer scan = ByteBuffer.allocate(SCAN_BYTES);
+    private WatchService watcher;
+    private Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * @param target     the file or directory to follow
+     * @param pollMillis how often files are checked even without a change notification
+     * @param sink       receives the parsed records
+     * @param log        where malformed lines and errors are reported
+     */
+    FileTailer(Path target, long pollMillis, WriteAheadLog.RecordSink sink, IngestLog log) {
+        this.target = target.toAbsolutePath();
+        this.directory = Files.isDirectory(this.target) ? this.target : this.target.getParent();
+        this.checkpoint = Files.isDirectory(this.target)
+                ? this.target.resolve(CHECKPOINT_SUFFIX)
+                : this.target.resolveSibling(this.target.getFileName() + CHECKPOINT_SUFFIX);
+        this.pollMillis = pollMillis;
+        this.parser = new CsvRecordParser(sink, log);
+        this.log = log;
+    }
+
+    /**
+     * @return true if the file is a checkpoint, or its temporary copy, written by a tailer
+     */
+    static boolean isCheckpointFile(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(CHECKPOINT_SUFFIX) || name.endsWith(CHECKPOINT_SUFFIX + ".tmp");
+    }
+
+    /**
+     * Loads the checkpoint, reads everything appended since, and starts following the files.
+     *
+     * @throws IOException if the directory cannot be watched
+     */
+    void start() throws IOException {
+        loadCheckpoint();
+        watcher = directory.getFileSystem().newWatchService();
+        directory.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        thread = new Thread(this::run, "file-tail-" + target.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops following the files. The offsets read so far stay in the checkpoint.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (watcher != null) {
+            watcher.close();
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        while (!closed) {
+            try {
+                if (readAppended()) {
+                    saveCheckpoint();
+                }
+                // events only wake us up, every pass looks at all files anyway
+                WatchKey key = watcher.poll(pollMillis, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    key.pollEvents();
+                    key.reset();
+                }
+            } catch (ClosedWatchServiceException | InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                log.log(IngestLog.Level.ERROR, "Error following files in ", directory, e);
+                try {
+                    Thread.sleep(pollMillis);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the appended lines of every followed file.
+     *
+     * @return true if any offset changed
+     */
+    private boolean readAppended() throws IOException {
+        boolean changed = false;
+        Map<String, Position> byKey = new HashMap<>();
+        for (Position position : positions.values()) {
+            if (position.fileKey != null) {
+                byKey.put(position.fileKey, position);
+            }
+        }
+        Map<String, Position> current = new HashMap<>();
+        for (Path file : followedFiles()) {
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (IOException e) {
+                continue; // removed in the meantime
+            }
+            String name = file.getFileName().toString();
+            String fileKey = attributes.fileKey() == null ? null : attributes.fileKey().toString();
+            Position position = fileKey == null ? positions.get(name) : byKey.get(fileKey);
+            if (position == null) {
+                // a new file, or a new file under the name of a rotated one
+                position = new Position(fileKey, 0);
+            }
+            if (attributes.size() < position.offset) {
+                log.log(IngestLog.Level.WARN, "File was truncated, reading it again: ", file);
+                position.offset = 0;
+                changed = true;
+            }
+            if (attributes.size() > position.offset) {
+                changed |= readLines(file, position, attributes.size());
+            }
+            current.put(name, position);
+        }
+        changed |= !current.keySet().equals(positions.keySet());
+        positions.clear();
+        positions.putAll(current);
+        return changed;
+    }
+
+    /**
+     * Parses the complete lines between the saved offset and the current size.
+     */
+    private boolean readLines(Path file, Position position, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (endsInsideLineBreak(channel, position.offset)) {
+                position.offset++; // the '\n' of a "\r\n" whose '\r' ended the last pass
+            }
+            long end = lastLineEnd(channel, position.offset, size);
+            if (end <= position.offset) {
+                return false;
+            }
+            parser.parse(channel, position.offset, end);
+            position.offset = end;
+            return true;
+        }
+    }
+
+    /**
+     * @return true if the offset lies between the '\r' and the '\n' of a "\r\n"
+     */
+    private boolean endsInsideLineBreak(FileChannel channel, long offset) throws IOException {
+        if (offset == 0) {
+            return false;
+        }
+        scan.clear().limit(2);
+        int read = 0;
+        while (scan.hasRemaining()) {
+            int n = channel.read(scan, offset - 1 + read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        return read == 2 && scan.get(0) == '\r' && scan.get(1) == '\n';
+    }
+
+    /**
+     * @return the offset just after the last line break, '\n' or a lone '\r', in [from, size),
+     *         or from if there is none
+     */
+    private long lastLineEnd(FileChannel channel, long from, long size) throws IOException {
+        long blockEnd = size;
+        while (blockEnd > from) {
+            long blockStart = Math.max(from, blockEnd - SCAN_BYTES);
+            scan.clear().limit((int) (blockEnd - blockStart));
+            int read = 0;
+            while (scan.hasRemaining()) {
+                int n = channel.read(scan, blockStart + read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            for (int i = read - 1; i >= 0; i--) {
+                byte b = scan.get(i);
+                if (b == '\n' || b == '\r') {
+                    return blockStart + i + 1;
+                }
+            }
+            blockEnd = blockStart;
+        }
+        return from;
+    }
+
+    private List<Path> followedFiles() throws IOException {
+        if (!Files.isDirectory(target)) {
+            List<Path> single = new ArrayList<>(1);
+            if (Files.isRegularFile(target)) {
+                single.add(target);
+            }
+            return single;
+        }
+        try (Stream<Path> entries = Files.list(directory)) {
+            return entries.filter(Files::isRegularFile)
+                    .filter(file -> !isCheckpointFile(file))
+                    .filter(file -> !RecordFile.isRecordFile(file)) // binary, not lines
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Reads {@code offset \t fileKey \t name} lines written by {@link #saveCheckpoint()}.
+     */
+    private void loadCheckpoint() throws IOException {
+        if (!Files.exists(checkpoint)) {
+            return;
+        }
+        for (String line : Files.readAllLines(checkpoint)) {
+            String[] parts = line.split("\t", 3);
+            if (parts.length != 3) {
+                continue;
+            }
+            try {
+                String fileKey = parts[1].isEmpty() ? null : parts[1];
+                positions.put(parts[2], new Position(fileKey, Long.parseLong(parts[0])));
+            } catch (NumberFormatException e) {
+                log.log(IngestLog.Level.WARN, "Ignoring bad checkpoint line: ", line);
+            }
+        }
+    }
+
+    private void saveCheckpoint() throws IOException {
+        Path temporary = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temporary)) {
+            for (Map.Entry<String, Position> entry : positions.entrySet()) {
+                Position position = entry.getValue();
+                out.write(position.offset + "\t" + (position.fileKey == null ? "" : position.fileKey)
+                        + "\t" + entry.getKey());
+                out.newLine();
+            }
+        }
+        Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static final class Position {
+        final String fileKey; // null if the file system has no file keys
+        long offset;
+
+        Position(String fileKey, long offset) {
+            this.fileKey = fileKey;
+            this.offset = offset;
+        }
+    }
+}
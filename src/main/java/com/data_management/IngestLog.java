@@ -0,0 +1,363 @@
+package com.data_management;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Logging for the paths that run once per record or message, such as storing a sample,
+ * parsing a reader message or triggering an alert.
+ *
+ * Callers hand over the raw parts of a log line (text, an optional detail object and, for
+ * stored records, the primitive record fields). A call whose level is disabled returns
+ * after a counter increment and allocates nothing. Enabled calls copy their arguments into
+ * a preallocated slot of a bounded ring buffer, and a single background thread formats
+ * and writes the lines, so callers never wait for or contend on {@code System.out}. When
+ * the ring is full, lines are dropped and counted instead of blocking the caller.
+ *
+ * Behaviour is configured with system properties:
+ * <ul>
+ *   <li>{@code ingest.log.level}: TRACE, DEBUG, INFO (default), WARN, ERROR or OFF</li>
+ *   <li>{@code ingest.log.sample}: write only every n-th DEBUG and TRACE line (default 1)</li>
+ *   <li>{@code ingest.log.backend}: {@code console} (default) or {@code slf4j}, which hands
+ *       the lines to the slf4j-simple binding</li>
+ *   <li>{@code ingest.log.mode}: {@code production} turns DEBUG and TRACE lines off and
+ *       writes a summary of the number of calls per source once a second instead</li>
+ * </ul>
+ */
+public final class IngestLog {
+
+    public enum Level { TRACE, DEBUG, INFO, WARN, ERROR, OFF }
+
+    private static final int RING_CAPACITY = 8192; // a power of two
+    private static final long SUMMARY_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final Map<String, IngestLog> LOGS = new ConcurrentHashMap<>();
+    private static final boolean USE_SLF4J = "slf4j".equalsIgnoreCase(System.getProperty("ingest.log.backend"));
+    private static final boolean PRODUCTION = "production".equalsIgnoreCase(System.getProperty("ingest.log.mode"));
+    private static volatile Level level = parseLevel(System.getProperty("ingest.log.level"));
+    private static volatile int sampleEvery = Math.max(1, Integer.getInteger("ingest.log.sample", 1));
+    private static final Appender APPENDER = new Appender();
+
+    private final String source;
+    private final LongAdder calls = new LongAdder();
+    private long summarisedCalls; // only used by the appender thread
+    private int sampled; // racy on purpose, a lost increment only shifts the sample
+    private Object slf4jLogger; // created by the appender thread on first use
+
+    private IngestLog(String source) {
+        this.source = source;
+    }
+
+    /**
+     * @param source the name of the component that logs, e.g. "DataStorage"
+     * @return the log of that component
+     */
+    public static IngestLog forSource(String source) {
+        return LOGS.computeIfAbsent(source, IngestLog::new);
+    }
+
+    /**
+     * Changes the level of every log at runtime.
+     *
+     * @param newLevel the lowest level that is written
+     */
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    /**
+     * @param every write only every n-th DEBUG and TRACE line, 1 writes all of them
+     */
+    public static void setSampleEvery(int every) {
+        if (every < 1) {
+            throw new IllegalArgumentException("Sample rate must be at least 1: " + every);
+        }
+        sampleEvery = every;
+    }
+
+    /**
+     * Waits until every line logged so far has been written.
+     */
+    public static void flush() {
+        APPENDER.flush();
+    }
+
+    /**
+     * @return true if lines of the given level are written
+     */
+    public boolean isEnabled(Level l) {
+        Level current = level;
+        return current != Level.OFF && l.ordinal() >= current.ordinal();
+    }
+
+    /**
+     * Logs a stored record as {@code <text> PatientId: .. MeasurementValue: .. RecordType: .. Timestamp: ..}.
+     */
+    public void record(Level l, String text, int patientId, double measurementValue, String recordType,
+                       long timestamp) {
+        if (admit(l)) {
+            APPENDER.publish(this, l, text, null, null, true, patientId, measurementValue, recordType, timestamp);
+        }
+    }
+
+    /**
+     * Logs a message. Its {@code toString()} is only called if the line is written.
+     */
+    public void log(Level l, Object message) {
+        if (admit(l)) {
+            APPENDER.publish(this, l, null, message, null, false, 0, 0, null, 0);
+        }
+    }
+
+    /**
+     * Logs {@code text} followed by {@code detail}, which are only joined if the line is written.
+     */
+    public void log(Level l, String text, Object detail) {
+        if (admit(l)) {
+            APPENDER.publish(this, l, text, detail, null, false, 0, 0, null, 0);
+        }
+    }
+
+    /**
+     * Logs {@code text} followed by {@code detail}, and the stack trace of {@code thrown}.
+     */
+    public void log(Level l, String text, Object detail, Throwable thrown) {
+        if (admit(l)) {
+            APPENDER.publish(this, l, text, detail, thrown, false, 0, 0, null, 0);
+        }
+    }
+
+    private boolean admit(Level l) {
+        calls.increment();
+        if (!isEnabled(l) || (PRODUCTION && l.ordinal() <= Level.DEBUG.ordinal())) {
+            return false;
+        }
+        int every = sampleEvery;
+        return every == 1 || l.ordinal() > Level.DEBUG.ordinal() || sampled++ % every == 0;
+    }
+
+    private static Level parseLevel(String name) {
+        if (name == null) {
+            return Level.INFO;
+        }
+        try {
+            return Level.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown ingest.log.level '" + name + "', using INFO");
+            return Level.INFO;
+        }
+    }
+
+    /**
+     * One preallocated log line. Slots are swapped between the ring and the appender's
+     * batch, never created on the logging path.
+     */
+    private static final class Slot {
+        IngestLog log;
+        Level level;
+        String text;
+        Object detail;
+        Throwable thrown;
+        boolean isRecord;
+        int patientId;
+        double measurementValue;
+        String recordType;
+        long timestamp;
+    }
+
+    /**
+     * Bounded ring of slots drained by a single daemon thread.
+     */
+    private static final class Appender implements Runnable {
+        private final Slot[] ring = newSlots(RING_CAPACITY);
+        private final Slot[] batch = newSlots(RING_CAPACITY);
+        private final StringBuilder line = new StringBuilder(128);
+        // guarded by this
+        private int head;
+        private int size;
+        private long published;
+        private long written;
+        private long dropped;
+        private long droppedReported;
+        private long lastSummary = System.nanoTime();
+
+        Appender() {
+            Thread thread = new Thread(this, "ingest-log");
+            thread.setDaemon(true);
+            thread.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "ingest-log-flush"));
+        }
+
+        synchronized void publish(IngestLog log, Level level, String text, Object detail, Throwable thrown,
+                                  boolean isRecord, int patientId, double measurementValue, String recordType,
+                                  long timestamp) {
+            if (size == ring.length) {
+                dropped++;
+                return;
+            }
+            Slot slot = ring[(head + size) & (ring.length - 1)];
+            slot.log = log;
+            slot.level = level;
+            slot.text = text;
+            slot.detail = detail;
+            slot.thrown = thrown;
+            slot.isRecord = isRecord;
+            slot.patientId = patientId;
+            slot.measurementValue = measurementValue;
+            slot.recordType = recordType;
+            slot.timestamp = timestamp;
+            size++;
+            published++;
+            if (size == ring.length / 2) {
+                notifyAll(); // wake the appender early under bursts
+            }
+        }
+
+        synchronized void flush() {
+            long target = published;
+            notifyAll();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (written < target && System.nanoTime() < deadline) {
+                try {
+                    wait(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                int count;
+                long newlyDropped;
+                synchronized (this) {
+                    if (size == 0) {
+                        try {
+                            wait(10);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    count = size;
+                    for (int i = 0; i < count; i++) {
+                        int index = (head + i) & (ring.length - 1);
+                        Slot full = ring[index];
+                        ring[index] = batch[i];
+                        batch[i] = full;
+                    }
+                    head = (head + count) & (ring.length - 1);
+                    size = 0;
+                    newlyDropped = dropped - droppedReported;
+                    droppedReported = dropped;
+                }
+                for (int i = 0; i < count; i++) {
+                    write(batch[i]);
+                    batch[i].detail = null; // do not keep logged objects reachable
+                    batch[i].thrown = null;
+                }
+                if (newlyDropped > 0) {
+                    System.err.println("[IngestLog] dropped " + newlyDropped + " lines, the log buffer was full");
+                }
+                if (PRODUCTION && System.nanoTime() - lastSummary >= SUMMARY_INTERVAL_NANOS) {
+                    lastSummary = System.nanoTime();
+                    summarise();
+                }
+                synchronized (this) {
+                    written += count;
+                    if (count > 0) {
+                        notifyAll();
+                    }
+                }
+            }
+        }
+
+        private void write(Slot slot) {
+            line.setLength(0);
+            if (slot.text != null) {
+                line.append(slot.text);
+            }
+            if (slot.isRecord) {
+                line.append(" PatientId: ").append(slot.patientId)
+                        .append(" MeasurementValue: ").append(slot.measurementValue)
+                        .append(" RecordType: ").append(slot.recordType)
+                        .append(" Timestamp: ").append(slot.timestamp);
+            } else if (slot.detail != null) {
+                line.append(slot.detail);
+            }
+            if (USE_SLF4J) {
+                writeSlf4j(slot, line.toString());
+                return;
+            }
+            PrintStream out = slot.level.ordinal() >= Level.WARN.ordinal() ? System.err : System.out;
+            out.println(line);
+            if (slot.thrown != null) {
+                slot.thrown.printStackTrace(out);
+            }
+        }
+
+        private void writeSlf4j(Slot slot, String message) {
+            if (slot.log.slf4jLogger == null) {
+                slot.log.slf4jLogger = org.slf4j.LoggerFactory.getLogger(slot.log.source);
+            }
+            org.slf4j.Logger logger = (org.slf4j.Logger) slot.log.slf4jLogger;
+            switch (slot.level) {
+                case TRACE:
+                    logger.trace(message, slot.thrown);
+                    break;
+                case DEBUG:
+                    logger.debug(message, slot.thrown);
+                    break;
+                case INFO:
+                    logger.info(message, slot.thrown);
+                    break;
+                case WARN:
+                    logger.warn(message, slot.thrown);
+                    break;
+                default:
+                    logger.error(message, slot.thrown);
+                    break;
+            }
+        }
+
+        /**
+         * Writes how many calls each source made since the last summary.
+         */
+        private void summarise() {
+            line.setLength(0);
+            for (IngestLog log : LOGS.values()) {
+                long total = log.calls.sum();
+                long delta = total - log.summarisedCalls;
+                log.summarisedCalls = total;
+                if (delta > 0) {
+                    line.append(line.length() == 0 ? "[IngestLog] last second:" : ",")
+                            .append(' ').append(log.source).append('=').append(delta);
+                }
+            }
+            if (line.length() > 0 && level != Level.OFF) {
+                if (USE_SLF4J) {
+                    org.slf4j.LoggerFactory.getLogger(IngestLog.class).info(line.toString());
+                } else {
+                    System.out.println(line);
+                }
+            }
+        }
+
+        private static Slot[] newSlots(int capacity) {
+            Slot[] slots = new Slot[capacity];
+            for (int i = 0; i < capacity; i++) {
+                slots[i] = new Slot();
+            }
+            return slots;
+        }
+    }
+}
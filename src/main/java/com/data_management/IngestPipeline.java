@@ -0,0 +1,464 @@
+package com.data_management;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Moves the decoding and storing of received frames off the network thread.
+ *
+ * The network thread calls {@link #submit(String)}, which only looks up the patient ID
+ * of the frame and puts the frame into the ring of the worker that owns the patient. Each
+ * worker drains its ring in batches and hands the frames to its own handler, which decodes
+ * and stores them. Records that arrive already decoded, as in binary frames, are queued
+ * with {@link #submitRecord} and handed to the record sink instead. As a patient always maps to the same worker, its records are stored in
+ * the order they arrived, while different patients are stored in parallel.
+ *
+ * The rings are preallocated arrays with a single consumer. {@code submit} and
+ * {@code submitRecord} may be called by several threads, such as the read threads of
+ * several connections: producers that hit the same ring take turns on a lock of the ring,
+ * which costs little when only one connection feeds it, while the worker drains without
+ * locking. When a ring is full, the {@link OverloadPolicy} decides what happens.
+ * {@link #getMetrics()} reports the queue depth, the number of dropped frames and how
+ * long frames waited before they were handled.
+ */
+public final class IngestPipeline implements Closeable {
+
+    /**
+     * What {@link #submit(String)} does when the ring of a worker is full.
+     */
+    public enum OverloadPolicy {
+        /** Wait for room, which slows down the connection and lets the sender buffer. */
+        BLOCK,
+        /** Drop the oldest queued frame to make room for the new one. */
+        DROP_OLDEST,
+        /** Drop low-priority frames once a ring is three quarters full, wait for room for the others. */
+        SHED_LOW_PRIORITY
+    }
+
+    /**
+     * Looks at a frame on the network thread, so it must be cheap and must not allocate.
+     */
+    public interface FrameFormat {
+        /**
+         * @return the patient ID of the frame, or -1 if it has none
+         */
+        int patientId(String frame);
+
+        /**
+         * @return true if the frame may be shed under {@link OverloadPolicy#SHED_LOW_PRIORITY}
+         */
+        boolean isLowPriority(String frame);
+
+        /**
+         * @return true if records of the type may be shed, for records submitted already decoded
+         */
+        default boolean isLowPriorityType(String recordType) {
+            return false;
+        }
+    }
+
+    private static final int BATCH = 256;
+    private static final int IDLE_SPINS = 64;
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(20);
+    private static final IngestLog LOG = IngestLog.forSource("IngestPipeline");
+
+    private final OverloadPolicy policy;
+    private final FrameFormat format;
+    private final WriteAheadLog.RecordSink records;
+    private final Worker[] workers;
+    private final int capacity;
+    private final int shedDepth;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder blockedNanos = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * Starts the workers.
+     *
+     * @param name     a name for the worker threads
+     * @param workers  the number of workers
+     * @param capacity the number of frames each worker can queue, rounded up to a power of two
+     * @param policy   what to do when a worker's ring is full
+     * @param format   finds the patient ID and priority of a frame
+     * @param handlers creates the handler of each worker, which decodes and stores frames;
+     *                 each handler is only called by its worker
+     */
+    public IngestPipeline(String name, int workers, int capacity, OverloadPolicy policy, FrameFormat format,
+                          Supplier<? extends Consumer<String>> handlers) {
+        this(name, workers, capacity, policy, format, handlers, null);
+    }
+
+    /**
+     * Starts the workers of a pipeline that also takes decoded records.
+     *
+     * @param records receives the records queued with {@link #submitRecord}; called by
+     *                several workers, but never concurrently for the same patient
+     * @see #IngestPipeline(String, int, int, OverloadPolicy, FrameFormat, Supplier)
+     */
+    public IngestPipeline(String name, int workers, int capacity, OverloadPolicy policy, FrameFormat format,
+                          Supplier<? extends Consumer<String>> handlers, WriteAheadLog.RecordSink records) {
+        if (workers < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Need at least one worker and one slot: " + workers + ", " + capacity);
+        }
+        this.policy = policy;
+        this.format = format;
+        this.records = records;
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.shedDepth = this.capacity - this.capacity / 4;
+        this.workers = new Worker[workers];
+        for (int i = 0; i < workers; i++) {
+            this.workers[i] = new Worker(this.capacity, handlers.get());
+        }
+        for (int i = 0; i < workers; i++) {
+            Thread thread = new Thread(this.workers[i], name + "-ingest-" + i);
+            thread.setDaemon(true);
+            this.workers[i].thread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Queues a frame for its worker. Called by the network threads.
+     *
+     * @param frame the received frame
+     * @return true if the frame was queued, false if it was shed or the pipeline is closed
+     */
+    public boolean submit(String frame) {
+        int patientId = format.patientId(frame);
+        Worker worker = workers[patientId < 0 ? 0 : patientId % workers.length];
+        synchronized (worker.producerLock) {
+            long tail = reserve(worker, frame, null);
+            if (tail < 0) {
+                return false;
+            }
+            int slot = (int) tail & (capacity - 1);
+            worker.frames[slot] = frame;
+            publish(worker, tail, slot);
+            return true;
+        }
+    }
+
+    /**
+     * Queues a decoded record for the worker of its patient. Called by the network threads.
+     *
+     * @return true if the record was queued, false if it was shed or the pipeline is closed
+     * @throws IllegalStateException if the pipeline has no record sink
+     */
+    public boolean submitRecord(int patientId, double measurementValue, String recordType, long timestamp) {
+        if (records == null) {
+            throw new IllegalStateException("This pipeline only takes frames");
+        }
+        Worker worker = workers[patientId < 0 ? 0 : patientId % workers.length];
+        synchronized (worker.producerLock) {
+            long tail = reserve(worker, null, recordType);
+            if (tail < 0) {
+                return false;
+            }
+            int slot = (int) tail & (capacity - 1);
+            worker.frames[slot] = null;
+            worker.patientIds[slot] = patientId;
+            worker.values[slot] = measurementValue;
+            worker.types[slot] = recordType;
+            worker.timestamps[slot] = timestamp;
+            publish(worker, tail, slot);
+            return true;
+        }
+    }
+
+    /**
+     * Waits for or makes room in the ring as the overload policy says. Called with the
+     * producer lock of the worker held.
+     *
+     * @return the index to write to, or -1 if the frame or record is not queued
+     */
+    private long reserve(Worker worker, String frame, String recordType) {
+        if (closed) {
+            dropped.increment();
+            return -1;
+        }
+        long tail = worker.tail.get();
+        if (policy == OverloadPolicy.SHED_LOW_PRIORITY && tail - worker.head.get() >= shedDepth
+                && (frame != null ? format.isLowPriority(frame) : format.isLowPriorityType(recordType))) {
+            shed.increment();
+            return -1;
+        }
+        while (tail - worker.head.get() >= capacity) {
+            if (closed) {
+                dropped.increment();
+                return -1;
+            }
+            if (policy == OverloadPolicy.DROP_OLDEST) {
+                long head = worker.head.get();
+                if (tail - head >= capacity && worker.head.compareAndSet(head, head + 1)) {
+                    dropped.increment();
+                }
+                continue;
+            }
+            long start = System.nanoTime();
+            worker.wake();
+            LockSupport.parkNanos(BLOCK_PARK_NANOS);
+            blockedNanos.add(System.nanoTime() - start);
+        }
+        return tail;
+    }
+
+    private void publish(Worker worker, long tail, int slot) {
+        worker.enqueuedNanos[slot] = System.nanoTime();
+        worker.tail.set(tail + 1);
+        submitted.increment();
+        worker.wake();
+    }
+
+    /**
+     * @return a snapshot of the counters; read from any thread
+     */
+    public Metrics getMetrics() {
+        long depth = 0;
+        long processed = 0;
+        long latency = 0;
+        long maxLatency = 0;
+        for (Worker worker : workers) {
+            depth += Math.max(0, worker.tail.get() - worker.head.get());
+            processed += worker.processed;
+            latency += worker.latencyNanos;
+            maxLatency = Math.max(maxLatency, worker.maxLatencyNanos);
+        }
+        return new Metrics(depth, capacity * (long) workers.length, submitted.sum(), processed, dropped.sum(),
+                shed.sum(), blockedNanos.sum(), processed == 0 ? 0 : latency / processed, maxLatency);
+    }
+
+    /**
+     * Stops accepting frames, lets the workers handle what is queued and waits for them.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+        for (Worker worker : workers) {
+            if (worker.thread == Thread.currentThread()) {
+                continue;
+            }
+            try {
+                worker.thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private final class Worker implements Runnable {
+        final String[] frames; // null in the slot of a decoded record
+        final int[] patientIds;
+        final double[] values;
+        final String[] types;
+        final long[] timestamps;
+        final long[] enqueuedNanos;
+        final Object producerLock = new Object(); // held while a producer reserves and fills a slot
+        // consumed up to here; also advanced by the producer when it drops the oldest frame
+        final AtomicLong head = new AtomicLong();
+        final AtomicLong tail = new AtomicLong(); // published up to here
+        final Consumer<String> handler;
+        final String[] batch = new String[BATCH];
+        final int[] batchPatientIds = new int[BATCH];
+        final double[] batchValues = new double[BATCH];
+        final String[] batchTypes = new String[BATCH];
+        final long[] batchTimestamps = new long[BATCH];
+        final long[] batchNanos = new long[BATCH];
+        volatile boolean parked;
+        volatile long processed;
+        volatile long latencyNanos;
+        volatile long maxLatencyNanos;
+        Thread thread;
+
+        Worker(int capacity, Consumer<String> handler) {
+            this.frames = new String[capacity];
+            this.patientIds = new int[capacity];
+            this.values = new double[capacity];
+            this.types = new String[capacity];
+            this.timestamps = new long[capacity];
+            this.enqueuedNanos = new long[capacity];
+            this.handler = handler;
+        }
+
+        void wake() {
+            if (parked) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (true) {
+                int count = drain();
+                if (count > 0) {
+                    handle(count);
+                    idle = 0;
+                    continue;
+                }
+                if (closed) {
+                    return;
+                }
+                if (++idle < IDLE_SPINS) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                parked = true;
+                if (tail.get() == head.get() && !closed) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+                }
+                parked = false;
+            }
+        }
+
+        /**
+         * Copies up to a batch of frames out of the ring and then claims them. If the
+         * producer dropped the oldest frame in the meantime, the copy is discarded.
+         */
+        private int drain() {
+            while (true) {
+                long from = head.get();
+                int count = (int) Math.min(BATCH, tail.get() - from);
+                if (count <= 0) {
+                    return 0;
+                }
+                for (int i = 0; i < count; i++) {
+                    int slot = (int) (from + i) & (frames.length - 1);
+                    batch[i] = frames[slot];
+                    batchPatientIds[i] = patientIds[slot];
+                    batchValues[i] = values[slot];
+                    batchTypes[i] = types[slot];
+                    batchTimestamps[i] = timestamps[slot];
+                    batchNanos[i] = enqueuedNanos[slot];
+                }
+                // slots are not cleared: the producer may already reuse them once head moves
+                if (head.compareAndSet(from, from + count)) {
+                    return count;
+                }
+            }
+        }
+
+        private void handle(int count) {
+            for (int i = 0; i < count; i++) {
+                try {
+                    if (batch[i] != null) {
+                        handler.accept(batch[i]);
+                    } else {
+                        records.accept(batchPatientIds[i], batchValues[i], batchTypes[i], batchTimestamps[i]);
+                    }
+                } catch (RuntimeException e) {
+                    LOG.log(IngestLog.Level.ERROR, "Failed to handle frame: ",
+                            batch[i] != null ? batch[i] : batchTypes[i] + " of patient " + batchPatientIds[i], e);
+                }
+            }
+            long now = System.nanoTime();
+            long waited = 0;
+            long max = maxLatencyNanos;
+            for (int i = 0; i < count; i++) {
+                long latency = now - batchNanos[i];
+                waited += latency;
+                max = Math.max(max, latency);
+                batch[i] = null;
+                batchTypes[i] = null;
+            }
+            latencyNanos += waited;
+            maxLatencyNanos = max;
+            processed += count; // single writer, volatile for the metrics readers
+        }
+    }
+
+    /**
+     * Counters of a pipeline at one point in time.
+     */
+    public static final class Metrics {
+        private final long queueDepth;
+        private final long queueCapacity;
+        private final long submitted;
+        private final long processed;
+        private final long dropped;
+        private final long shed;
+        private final long blockedNanos;
+        private final long meanLatencyNanos;
+        private final long maxLatencyNanos;
+
+        Metrics(long queueDepth, long queueCapacity, long submitted, long processed, long dropped, long shed,
+                long blockedNanos, long meanLatencyNanos, long maxLatencyNanos) {
+            this.queueDepth = queueDepth;
+            this.queueCapacity = queueCapacity;
+            this.submitted = submitted;
+            this.processed = processed;
+            this.dropped = dropped;
+            this.shed = shed;
+            this.blockedNanos = blockedNanos;
+            this.meanLatencyNanos = meanLatencyNanos;
+            this.maxLatencyNanos = maxLatencyNanos;
+        }
+
+        /** @return the frames queued in all rings */
+        public long getQueueDepth() {
+            return queueDepth;
+        }
+
+        /** @return the frames all rings can hold */
+        public long getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        /** @return the frames queued since the start */
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        /** @return the frames handed to a handler since the start */
+        public long getProcessed() {
+            return processed;
+        }
+
+        /** @return the frames dropped as oldest, or because the pipeline was closed */
+        public long getDropped() {
+            return dropped;
+        }
+
+        /** @return the low-priority frames shed under overload */
+        public long getShed() {
+            return shed;
+        }
+
+        /** @return how long the network threads waited for room, added up */
+        public long getBlockedNanos() {
+            return blockedNanos;
+        }
+
+        /** @return the mean time from submit until the handler returned */
+        public long getMeanLatencyNanos() {
+            return meanLatencyNanos;
+        }
+
+        /** @return the longest time from submit until the handler returned */
+        public long getMaxLatencyNanos() {
+            return maxLatencyNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "depth=" + queueDepth + "/" + queueCapacity + " submitted=" + submitted + " processed=" + processed
+                    + " dropped=" + dropped + " shed=" + shed
+                    + " blockedMs=" + TimeUnit.NANOSECONDS.toMillis(blockedNanos)
+                    + " meanLatencyUs=" + TimeUnit.NANOSECONDS.toMicros(meanLatencyNanos)
+                    + " maxLatencyUs=" + TimeUnit.NANOSECONDS.toMicros(maxLatencyNanos);
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package com.data_management;
+
+/**
+ * Decodes the JSON messages of a WebSocket feed, such as
+ * {@code {"patientId": 1, "timestamp": 1700000000000, "recordType": "ECG", "measurementValue": 0.25}},
+ * in a single pass and without allocating.
+ *
+ * The decoder only knows this schema. Keys may come in any order, unknown keys are
+ * skipped, and values may be quoted or not; string values cannot contain escapes. Each of
+ * the four fields must appear exactly once. The first character that does not fit stops
+ * decoding, and {@link #getError()} tells what was wrong. Record types are looked up in a
+ * small dictionary, so every message of a type shares one String. A measurement value may
+ * end in {@code %}. For {@code Alert} messages the value is not a number, and
+ * {@link #getRawValue()} returns it as text.
+ *
+ * One decoder keeps the fields of the last message, so it is meant to be used by the one
+ * thread that receives the messages of a connection.
+ */
+public final class JsonRecordDecoder {
+
+    public static final String CORRUPTED = "Corrupted message (skipped): ";
+    public static final String MISSING_FIELD = "Message lacks a field (skipped): ";
+    public static final String DUPLICATE_FIELD = "Message repeats a field (skipped): ";
+    public static final String INVALID_NUMBER = "Invalid number in message (skipped): ";
+    public static final String INVALID_MEASUREMENT = "Invalid measurement value in message: ";
+
+    private static final int PATIENT_ID = 1;
+    private static final int TIMESTAMP = 2;
+    private static final int RECORD_TYPE = 4;
+    private static final int MEASUREMENT_VALUE = 8;
+    private static final int ALL_FIELDS = PATIENT_ID | TIMESTAMP | RECORD_TYPE | MEASUREMENT_VALUE;
+    private static final int MAX_TYPES = 256;
+
+    private final String[] types = new String[2 * MAX_TYPES]; // open addressing, at most half full
+    private int typeCount;
+
+    private String message;
+    private int position;
+    private String error;
+    private int patientId;
+    private long timestamp;
+    private String recordType;
+    private double measurementValue;
+    private int valueStart; // of the value just read
+    private int valueEnd;
+    private int measurementStart;
+    private int measurementEnd;
+
+    /**
+     * Decodes one message. Afterwards the getters return its fields, or {@link #getError()}
+     * tells why it was rejected.
+     *
+     * @param text the message
+     * @return true if the message had all fields and they were valid
+     */
+    public boolean decode(String text) {
+        message = text;
+        position = 0;
+        error = null;
+        recordType = null;
+        if (text == null) {
+            return fail(CORRUPTED);
+        }
+        skipWhitespace();
+        if (!consume('{')) {
+            return fail(CORRUPTED);
+        }
+        int seen = 0;
+        while (true) {
+            skipWhitespace();
+            int field = readKey();
+            if (field < 0) {
+                return false;
+            }
+            skipWhitespace();
+            if (!consume(':')) {
+                return fail(CORRUPTED);
+            }
+            skipWhitespace();
+            if (!readValue()) {
+                return false;
+            }
+            if ((seen & field) != 0) {
+                return fail(DUPLICATE_FIELD);
+            }
+            seen |= field;
+            if (!store(field)) {
+                return false;
+            }
+            skipWhitespace();
+            if (consume(',')) {
+                continue;
+            }
+            if (!consume('}')) {
+                return fail(CORRUPTED);
+            }
+            break;
+        }
+        skipWhitespace();
+        if (position != message.length()) {
+            return fail(CORRUPTED);
+        }
+        if (seen != ALL_FIELDS) {
+            return fail(MISSING_FIELD);
+        }
+        return isAlert() || parseMeasurement();
+    }
+
+    /**
+     * @return the reason the last message was rejected, a text that ends in ": " so the
+     *         message can be logged after it, or null if it was decoded
+     */
+    public String getError() {
+        return error;
+    }
+
+    public int getPatientId() {
+        return patientId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getRecordType() {
+        return recordType;
+    }
+
+    /**
+     * @return the measurement value; not set for alerts
+     */
+    public double getMeasurementValue() {
+        return measurementValue;
+    }
+
+    /**
+     * @return true if the message is an alert rather than a measurement
+     */
+    public boolean isAlert() {
+        return "Alert".equalsIgnoreCase(recordType);
+    }
+
+    /**
+     * @return the measurement value as it appeared in the message, without quotes; this
+     *         allocates and is meant for alerts, whose value is a condition
+     */
+    public String getRawValue() {
+        int start = trimStart(measurementStart, measurementEnd);
+        return message.substring(start, trimEnd(start, measurementEnd));
+    }
+
+    /**
+     * @return the field of the key at the current position, 0 for an unknown key, or -1
+     */
+    private int readKey() {
+        int start;
+        int end;
+        if (consume('"')) {
+            start = position;
+            end = message.indexOf('"', start);
+            if (end < 0) {
+                fail(CORRUPTED);
+                return -1;
+            }
+            position = end + 1;
+        } else {
+            start = position;
+            while (position < message.length() && message.charAt(position) != ':') {
+                position++;
+            }
+            end = position;
+            while (end > start && message.charAt(end - 1) <= ' ') {
+                end--;
+            }
+        }
+        int length = end - start;
+        if (length == 9 && message.startsWith("patientId", start)) {
+            return PATIENT_ID;
+        }
+        if (length == 9 && message.startsWith("timestamp", start)) {
+            return TIMESTAMP;
+        }
+        if (length == 10 && message.startsWith("recordType", start)) {
+            return RECORD_TYPE;
+        }
+        if (length == 16 && message.startsWith("measurementValue", start)) {
+            return MEASUREMENT_VALUE;
+        }
+        if (length == 0) {
+            fail(CORRUPTED);
+            return -1;
+        }
+        return 0;
+    }
+
+    /**
+     * Finds the value at the current position and sets {@link #valueStart} and {@link #valueEnd}.
+     */
+    private boolean readValue() {
+        if (consume('"')) {
+            valueStart = position;
+            while (position < message.length()) {
+                char c = message.charAt(position);
+                if (c == '"') {
+                    valueEnd = position++;
+                    return true;
+                }
+                if (c == '\\') {
+                    return fail(CORRUPTED);
+                }
+                position++;
+            }
+            return fail(CORRUPTED);
+        }
+        valueStart = position;
+        while (position < message.length()) {
+            char c = message.charAt(position);
+            if (c == ',' || c == '}') {
+                break;
+            }
+            if (c == '"' || c == '{' || c == '[') {
+                return fail(CORRUPTED);
+            }
+            position++;
+        }
+        valueEnd = position;
+        while (valueEnd > valueStart && message.charAt(valueEnd - 1) <= ' ') {
+            valueEnd--;
+        }
+        return valueEnd > valueStart || fail(CORRUPTED);
+    }
+
+    private boolean store(int field) {
+        switch (field) {
+            case PATIENT_ID:
+                long id = parseInteger(valueStart, valueEnd);
+                if (error != null) {
+                    return false;
+                }
+                if (id < Integer.MIN_VALUE || id > Integer.MAX_VALUE) {
+                    return fail(INVALID_NUMBER);
+                }
+                patientId = (int) id;
+                return true;
+            case TIMESTAMP:
+                timestamp = parseInteger(valueStart, valueEnd);
+                return error == null;
+            case RECORD_TYPE:
+                int start = trimStart(valueStart, valueEnd);
+                recordType = type(start, trimEnd(start, valueEnd));
+                return true;
+            case MEASUREMENT_VALUE:
+                // parsed once the record type is known, alerts carry text here
+                measurementStart = valueStart;
+                measurementEnd = valueEnd;
+                return true;
+            default:
+                return true; // unknown keys are skipped
+        }
+    }
+
+    private long parseInteger(int start, int end) {
+        int i = trimStart(start, end);
+        end = trimEnd(i, end);
+        boolean negative = false;
+        if (i < end && (message.charAt(i) == '-' || message.charAt(i) == '+')) {
+            negative = message.charAt(i) == '-';
+            i++;
+        }
+        if (i == end) {
+            fail(INVALID_NUMBER);
+            return 0;
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = message.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+                fail(INVALID_NUMBER);
+                return 0;
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses {@code [+-]digits[.digits][e[+-]digits][%]} into {@link #measurementValue}.
+     */
+    private boolean parseMeasurement() {
+        int start = trimStart(measurementStart, measurementEnd);
+        int end = trimEnd(start, measurementEnd);
+        if (end > start && message.charAt(end - 1) == '%') {
+            end = trimEnd(start, end - 1);
+        }
+        int i = start;
+        boolean negative = false;
+        if (i < end && (message.charAt(i) == '-' || message.charAt(i) == '+')) {
+            negative = message.charAt(i) == '-';
+            i++;
+        }
+        long digits = 0;
+        int count = 0;
+        int significant = 0;
+        int exponent = 0;
+        boolean fraction = false;
+        for (; i < end; i++) {
+            char c = message.charAt(i);
+            if (c == '.' && !fraction) {
+                fraction = true;
+                continue;
+            }
+            int digit = c - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            count++;
+            if (significant > 0 || digit != 0) {
+                significant++;
+            }
+            if (significant <= DecimalConversion.MAX_DIGITS) {
+                digits = digits * 10 + digit;
+                if (fraction) {
+                    exponent--;
+                }
+            }
+        }
+        if (count == 0) {
+            return fail(INVALID_MEASUREMENT);
+        }
+        if (i < end && (message.charAt(i) == 'e' || message.charAt(i) == 'E')) {
+            // unlike the fields, the exponent must follow the 'e' without any whitespace
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (message.charAt(i) == '-' || message.charAt(i) == '+')) {
+                negativeExponent = message.charAt(i) == '-';
+                i++;
+            }
+            int exponentStart = i;
+            int explicit = 0;
+            for (; i < end; i++) {
+                int digit = message.charAt(i) - '0';
+                if (digit < 0 || digit > 9 || explicit > 9999) {
+                    break;
+                }
+                explicit = explicit * 10 + digit;
+            }
+            if (i == exponentStart || explicit > 9999) {
+                return fail(INVALID_MEASUREMENT);
+            }
+            exponent += negativeExponent ? -explicit : explicit;
+        }
+        if (i != end) {
+            return fail(INVALID_MEASUREMENT);
+        }
+        double value = significant > DecimalConversion.MAX_DIGITS
+                ? Double.NaN : DecimalConversion.toDouble(digits, exponent, negative);
+        if (Double.isNaN(value)) {
+            try {
+                value = Double.parseDouble(message.substring(start, end)); // rare: many digits or extreme exponents
+            } catch (NumberFormatException e) {
+                return fail(INVALID_MEASUREMENT);
+            }
+        }
+        measurementValue = value;
+        return true;
+    }
+
+    /**
+     * @return the String of the record type between start and end, shared by all messages
+     */
+    private String type(int start, int end) {
+        int hash = 1;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + message.charAt(i);
+        }
+        int mask = types.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (types[slot] != null) {
+            String candidate = types[slot];
+            if (candidate.length() == end - start && message.startsWith(candidate, start)) {
+                return candidate;
+            }
+            slot = (slot + 1) & mask;
+        }
+        String type = message.substring(start, end);
+        if (typeCount < MAX_TYPES) {
+            types[slot] = type;
+            typeCount++;
+        }
+        return type;
+    }
+
+    private int trimStart(int start, int end) {
+        while (start < end && message.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private int trimEnd(int start, int end) {
+        while (end > start && message.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private void skipWhitespace() {
+        while (position < message.length() && message.charAt(position) <= ' ') {
+            position++;
+        }
+    }
+
+    private boolean consume(char expected) {
+        if (position < message.length() && message.charAt(position) == expected) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean fail(String reason) {
+        error = reason;
+        return false;
+    }
+}
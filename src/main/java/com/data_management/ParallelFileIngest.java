@@ -0,0 +1,217 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Ingests one or more CSV files on a fork-join pool.
+ *
+ * Every file is cut into byte ranges that end right after a {@code '\n'}, and the ranges
+ * are processed in rounds of a few ranges per worker. In a round, each range is parsed by
+ * its own {@link CsvRecordParser} into batches partitioned by patient ID. Then each
+ * partition is applied by a single task, taking the batches of the ranges in file order,
+ * so the records of one patient reach the sink in the same order as in the files while
+ * different patients are stored in parallel. Only one round of parsed records is held in
+ * memory at a time.
+ */
+final class ParallelFileIngest {
+
+    private static final long MIN_RANGE_BYTES = 1L << 20;
+    private static final long MAX_RANGE_BYTES = 64L << 20;
+    private static final int ALIGN_SCAN_BYTES = 4096;
+
+    private final ForkJoinPool pool;
+    private final IngestLog log;
+    private final int partitions;
+
+    /**
+     * @param pool the pool that parses and applies the records
+     * @param log  where malformed lines are reported
+     */
+    ParallelFileIngest(ForkJoinPool pool, IngestLog log) {
+        this.pool = pool;
+        this.log = log;
+        this.partitions = pool.getParallelism();
+    }
+
+    /**
+     * Parses every file and delivers the records to the sink. The sink is called from
+     * several threads, but never concurrently for the same patient.
+     *
+     * @param files the files, applied in this order for records of the same patient
+     * @param sink  receives the records, e.g. {@code dataStorage::addPatientData}
+     * @return the number of records delivered
+     * @throws IOException if a file cannot be read
+     */
+    long ingest(List<Path> files, WriteAheadLog.RecordSink sink) throws IOException {
+        List<FileChannel> channels = new ArrayList<>();
+        try {
+            List<Range> ranges = new ArrayList<>();
+            for (Path file : files) {
+                FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                channels.add(channel);
+                split(channel, ranges);
+            }
+            long records = 0;
+            int roundSize = Math.max(1, pool.getParallelism() * 2);
+            for (int first = 0; first < ranges.size(); first += roundSize) {
+                records += ingestRound(ranges.subList(first, Math.min(first + roundSize, ranges.size())), sink);
+            }
+            return records;
+        } finally {
+            for (FileChannel channel : channels) {
+                channel.close();
+            }
+        }
+    }
+
+    private long ingestRound(List<Range> round, WriteAheadLog.RecordSink sink) throws IOException {
+        List<Callable<RecordBatch[]>> parsing = new ArrayList<>(round.size());
+        for (Range range : round) {
+            parsing.add(() -> parse(range));
+        }
+        List<RecordBatch[]> parsed = await(pool.invokeAll(parsing));
+
+        List<Callable<Long>> applying = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            int partition = p;
+            applying.add(() -> {
+                long applied = 0;
+                for (RecordBatch[] batches : parsed) {
+                    applied += batches[partition].applyTo(sink);
+                }
+                return applied;
+            });
+        }
+        long records = 0;
+        for (long applied : await(pool.invokeAll(applying))) {
+            records += applied;
+        }
+        return records;
+    }
+
+    private RecordBatch[] parse(Range range) throws IOException {
+        RecordBatch[] batches = new RecordBatch[partitions];
+        for (int p = 0; p < partitions; p++) {
+            batches[p] = new RecordBatch();
+        }
+        new CsvRecordParser((patientId, measurementValue, recordType, timestamp) ->
+                batches[Math.floorMod(patientId, partitions)].add(patientId, measurementValue, recordType, timestamp),
+                log).parse(range.channel, range.from, range.to);
+        return batches;
+    }
+
+    /**
+     * Cuts a file into ranges of roughly equal size, each ending after a line terminator.
+     */
+    private void split(FileChannel channel, List<Range> ranges) throws IOException {
+        long size = channel.size();
+        long target = Math.max(MIN_RANGE_BYTES,
+                Math.min(MAX_RANGE_BYTES, size / Math.max(1, pool.getParallelism() * 4L)));
+        ByteBuffer scan = ByteBuffer.allocate(ALIGN_SCAN_BYTES);
+        long from = 0;
+        while (from < size) {
+            long to = from + target >= size ? size : lineEndAfter(channel, from + target, size, scan);
+            ranges.add(new Range(channel, from, to));
+            from = to;
+        }
+    }
+
+    /**
+     * @return the offset just after the first '\n' at or after the given position, or the file size
+     */
+    private static long lineEndAfter(FileChannel channel, long position, long size, ByteBuffer scan)
+            throws IOException {
+        while (position < size) {
+            scan.clear();
+            int read = channel.read(scan, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (scan.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static <T> List<T> await(List<Future<T>> futures) throws IOException {
+        List<T> results = new ArrayList<>(futures.size());
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while ingesting", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+        return results;
+    }
+
+    private static final class Range {
+        final FileChannel channel;
+        final long from;
+        final long to;
+
+        Range(FileChannel channel, long from, long to) {
+            this.channel = channel;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Parsed records of one partition of one range, kept in primitive columns.
+     */
+    private static final class RecordBatch {
+        private int[] patientIds = new int[64];
+        private double[] values = new double[64];
+        private String[] types = new String[64];
+        private long[] timestamps = new long[64];
+        private int size;
+
+        void add(int patientId, double measurementValue, String recordType, long timestamp) {
+            if (size == patientIds.length) {
+                int capacity = size * 2;
+                patientIds = Arrays.copyOf(patientIds, capacity);
+                values = Arrays.copyOf(values, capacity);
+                types = Arrays.copyOf(types, capacity);
+                timestamps = Arrays.copyOf(timestamps, capacity);
+            }
+            patientIds[size] = patientId;
+            values[size] = measurementValue;
+            types[size] = recordType;
+            timestamps[size] = timestamp;
+            size++;
+        }
+
+        long applyTo(WriteAheadLog.RecordSink sink) {
+            for (int i = 0; i < size; i++) {
+                sink.accept(patientIds[i], values[i], types[i], timestamps[i]);
+            }
+            return size;
+        }
+    }
+}
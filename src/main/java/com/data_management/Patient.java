@@ -1,26 +1,63 @@
 package com.data_management;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
 
 /**
  * Represents a patient and manages their medical records.
  * This class stores patient-specific data, allowing for the addition and retrieval
  * of medical records based on specified criteria.
+ * Records are kept per record type in a columnar {@link RecordSeries}, and
+ * {@link PatientRecord} objects are only created when records are retrieved.
+ *
+ * A patient is safe to use from several threads. Writers take the write lock of a
+ * {@link StampedLock}, and readers first try an optimistic, lock-free read that is
+ * only repeated under the read lock if a write happened in between.
  */
 public class Patient {
-    private int patientId;
-    private List<PatientRecord> patientRecords;
+    private final int patientId;
+    private final StampedLock lock = new StampedLock();
+    private final Function<String, RetentionPolicy> retentionLookup;
+    private RecordSeries[] series = new RecordSeries[0]; // one per record type, in order of first use
+    private volatile StorageSnapshot.Entry snapshotEntry; // records still waiting in a snapshot file, or null
 
     /**
      * Constructs a new Patient with a specified ID.
-     * Initializes an empty list of patient records.
+     * Initializes an empty set of record series that keep every record.
      *
      * @param patientId the unique identifier for the patient
      */
     public Patient(int patientId) {
+        this(patientId, recordType -> RetentionPolicy.UNBOUNDED);
+    }
+
+    /**
+     * Constructs a new Patient whose record series follow the retention policies of a storage.
+     *
+     * @param patientId       the unique identifier for the patient
+     * @param retentionLookup gives the retention policy for a record type
+     */
+    Patient(int patientId, Function<String, RetentionPolicy> retentionLookup) {
         this.patientId = patientId;
-        this.patientRecords = new ArrayList<>();
+        this.retentionLookup = retentionLookup;
+    }
+
+    /**
+     * Constructs a patient whose records are loaded from a snapshot the first time it is used.
+     *
+     * @param patientId       the unique identifier for the patient
+     * @param retentionLookup gives the retention policy for a record type
+     * @param snapshotEntry   the snapshot entry holding the patient's records
+     */
+    Patient(int patientId, Function<String, RetentionPolicy> retentionLookup, StorageSnapshot.Entry snapshotEntry) {
+        this(patientId, retentionLookup);
+        this.snapshotEntry = snapshotEntry;
     }
 
     /**
@@ -33,30 +70,40 @@ public class Patient {
      * @param timestamp the time at which the measurement was taken, in milliseconds since UNIX epoch
      */
     public void addRecord(double measurementValue, String recordType, long timestamp) {
-        PatientRecord record = new PatientRecord(this.patientId, measurementValue, recordType, timestamp);
-        this.patientRecords.add(record);
+        ensureLoaded();
+        long stamp = lock.writeLock();
+        try {
+            seriesFor(recordType).insert(timestamp, measurementValue);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
 
     /**
      * Retrieves a list of PatientRecord objects for this patient that fall within a specified time range.
-     * Filters records based on the start and end times provided.
+     * Each record type is searched with a binary search on its series, and the results are
+     * returned in timestamp order. The returned records are copies, changing them does not
+     * change the stored data.
      *
      * @param startTime the start time of the range (milliseconds since Unix epoch)
      * @param endTime the end time of the range (milliseconds since Unix epoch)
      * @return a list of PatientRecord objects that fall within the specified time range
      */
     public List<PatientRecord> getRecords(long startTime, long endTime) {
-        List<PatientRecord> filteredRecords = new ArrayList<>();
-
-        // Loop through all patient records and add those within the time range
-        for (PatientRecord record : patientRecords) {
-            long recordTimestamp = record.getTimestamp();
-            if (recordTimestamp >= startTime && recordTimestamp <= endTime) {
-                filteredRecords.add(record);
-            }
-        }
+        return read(null, startTime, endTime);
+    }
 
-        return filteredRecords;
+    /**
+     * Retrieves the records of a single type that fall within a specified time range,
+     * in timestamp order.
+     *
+     * @param recordType the type of record, e.g, "ECG"
+     * @param startTime the start time of the range (milliseconds since Unix epoch)
+     * @param endTime the end time of the range (milliseconds since Unix epoch)
+     * @return a list of PatientRecord objects of that type within the time range
+     */
+    public List<PatientRecord> getRecords(String recordType, long startTime, long endTime) {
+        return read(recordType, startTime, endTime);
     }
 
     /**
@@ -67,13 +114,99 @@ public class Patient {
      * @param timestamp time in milliseconds since the UNIX epoch
      */
     public void addOrUpdateRecord(double measurementValue, String recordType, long timestamp) {
-        for (PatientRecord rec : patientRecords) {
-            if (rec.getRecordType().equals(recordType) && rec.getTimestamp() == timestamp) {
-                rec.setMeasurementValue(measurementValue);
-                return;
+        ensureLoaded();
+        long stamp = lock.writeLock();
+        try {
+            seriesFor(recordType).upsert(timestamp, measurementValue);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Summarises the records of one type in [startTime, endTime] into min/max/mean/count
+     * buckets of the given length. This also covers history whose raw records were already
+     * rolled up by the retention policy; such rollups keep their own bucket length when it is
+     * longer than the requested one.
+     *
+     * @param recordType   the type of record, e.g, "ECG"
+     * @param startTime    the start time of the range (milliseconds since Unix epoch)
+     * @param endTime      the end time of the range (milliseconds since Unix epoch)
+     * @param bucketMillis the requested bucket length in milliseconds, e.g. one minute
+     * @return the buckets in order of their start time
+     */
+    public List<AggregateRecord> getAggregates(String recordType, long startTime, long endTime, long bucketMillis) {
+        if (bucketMillis <= 0) {
+            throw new IllegalArgumentException("Bucket length must be positive: " + bucketMillis);
+        }
+        ensureLoaded();
+        RollupSeries.Accumulator accumulator = new RollupSeries.Accumulator();
+        long stamp = lock.readLock();
+        try {
+            RecordSeries match = find(series, recordType);
+            if (match != null) {
+                match.aggregate(startTime, endTime, bucketMillis, accumulator);
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return accumulator.toRecords(patientId, recordType);
+    }
+
+    /**
+     * Looks up the retention policy of every record series again, after the policies
+     * of the storage changed.
+     */
+    void refreshRetention() {
+        ensureLoaded();
+        long stamp = lock.writeLock();
+        try {
+            for (RecordSeries s : series) {
+                s.setRetention(retentionLookup.apply(s.getRecordType()));
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Writes this patient's records to a snapshot, under the read lock so the written
+     * series are consistent.
+     */
+    void writeSnapshot(StorageSnapshot.Writer writer) {
+        ensureLoaded();
+        long stamp = lock.readLock();
+        try {
+            writer.writePatient(patientId, series);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Adds the records of a snapshot entry to the records this patient already has.
+     * Records with the same type and timestamp take the value from the snapshot.
+     *
+     * @throws IOException if the snapshot cannot be read
+     */
+    void mergeSnapshot(StorageSnapshot.Entry entry) throws IOException {
+        ensureLoaded();
+        RecordSeries[] loaded = entry.load();
+        long stamp = lock.writeLock();
+        try {
+            for (RecordSeries source : loaded) {
+                RecordSeries target = seriesFor(source.getRecordType());
+                for (int c = 0; c < source.chunkCount(); c++) {
+                    long[] timestamps = source.chunkTimestamps(c);
+                    double[] values = source.chunkValues(c);
+                    for (int i = 0; i < source.chunkSize(c); i++) {
+                        target.upsert(timestamps[i], values[i]);
+                    }
+                }
             }
+        } finally {
+            lock.unlockWrite(stamp);
         }
-        patientRecords.add(new PatientRecord(patientId, measurementValue, recordType, timestamp));
     }
 
     /**
@@ -84,4 +217,109 @@ public class Patient {
     public int getPatientId() {
         return patientId;
     }
+
+    /**
+     * Copies the matching records, optimistically first and under the read lock if a
+     * writer got in the way.
+     *
+     * @param recordType the record type to read, or null for all types
+     */
+    private List<PatientRecord> read(String recordType, long startTime, long endTime) {
+        ensureLoaded();
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                List<PatientRecord> records = collect(recordType, startTime, endTime);
+                if (lock.validate(stamp)) {
+                    return records;
+                }
+            } catch (RuntimeException e) {
+                // a concurrent write left the arrays half updated, fall through to the locked read
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return collect(recordType, startTime, endTime);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Copies the records of a snapshot entry into this patient if that has not happened yet.
+     * Only the first use after a snapshot was loaded takes the write lock here. The entry is
+     * kept until it loaded, so a failed load is tried again by the next use rather than
+     * leaving the patient with an empty history.
+     *
+     * @throws UncheckedIOException if the snapshot cannot be read, for example after it was closed
+     */
+    private void ensureLoaded() {
+        if (snapshotEntry == null) {
+            return;
+        }
+        long stamp = lock.writeLock();
+        try {
+            StorageSnapshot.Entry entry = snapshotEntry;
+            if (entry != null) {
+                RecordSeries[] loaded = entry.load();
+                for (RecordSeries s : loaded) {
+                    s.setRetention(retentionLookup.apply(s.getRecordType()));
+                }
+                // a patient is only created from a snapshot entry, so it has no series of its own yet
+                series = loaded;
+                snapshotEntry = null;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load patient " + patientId + " from snapshot", e);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private List<PatientRecord> collect(String recordType, long startTime, long endTime) {
+        List<PatientRecord> filteredRecords = new ArrayList<>();
+        RecordSeries[] current = series;
+        if (recordType != null) {
+            RecordSeries match = find(current, recordType);
+            if (match != null) {
+                match.collect(patientId, startTime, endTime, filteredRecords);
+            }
+            return filteredRecords;
+        }
+        for (RecordSeries s : current) {
+            s.collect(patientId, startTime, endTime, filteredRecords);
+        }
+        if (current.length > 1) {
+            // every series is already sorted, so this only merges the sorted runs
+            filteredRecords.sort(Comparator.comparingLong(PatientRecord::getTimestamp));
+        }
+        return filteredRecords;
+    }
+
+    /**
+     * Returns the series of the given type, adding a new one if needed.
+     * Must be called while holding the write lock.
+     */
+    private RecordSeries seriesFor(String recordType) {
+        RecordSeries match = find(series, recordType);
+        if (match == null) {
+            match = new RecordSeries(recordType);
+            match.setRetention(retentionLookup.apply(recordType));
+            RecordSeries[] grown = Arrays.copyOf(series, series.length + 1);
+            grown[series.length] = match;
+            series = grown;
+        }
+        return match;
+    }
+
+    private static RecordSeries find(RecordSeries[] all, String recordType) {
+        // patients only have a handful of record types, a scan beats hashing here
+        for (RecordSeries s : all) {
+            String type = s.getRecordType();
+            if (type == recordType || type.equals(recordType)) {
+                return s;
+            }
+        }
+        return null;
+    }
 }
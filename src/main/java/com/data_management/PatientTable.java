@@ -0,0 +1,248 @@
+package com.data_management;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Patient lookup table keyed by the primitive patient ID, so lookups on the ingest
+ * path neither box the ID nor call {@code Integer.hashCode}/{@code equals}.
+ * IDs that are small and contiguous (the usual 1..N bed numbering) live in a dense
+ * array indexed by the ID itself. Any other ID goes into an open-addressing int map
+ * with linear probing, and moves into the dense array once the array grows over it.
+ *
+ * Lookups of existing patients are lock-free. Adding a patient is serialized on the
+ * table, and a lookup that misses is repeated under the same lock so a patient that
+ * is being added concurrently is never reported as missing. Patients are stored into
+ * the live arrays with release and read with acquire semantics, so a lock-free reader
+ * that finds a patient also sees the state it was constructed with.
+ */
+final class PatientTable {
+
+    private static final int MIN_DENSE_CAPACITY = 1024;
+    private static final int MIN_SPARSE_CAPACITY = 16;
+    private static final VarHandle PATIENTS = MethodHandles.arrayElementVarHandle(Patient[].class);
+
+    /**
+     * Open-addressing part of the table. Keys and values are replaced together when
+     * the map is rehashed, so readers always see a matching pair of arrays.
+     */
+    private static final class Sparse {
+        final int[] keys;
+        final Patient[] values; // a null value marks a free slot
+        int count;
+
+        Sparse(int capacity) {
+            this.keys = new int[capacity];
+            this.values = new Patient[capacity];
+        }
+    }
+
+    private final Function<String, RetentionPolicy> retentionLookup;
+    private volatile Patient[] dense;
+    private volatile Sparse sparse;
+    private int size;
+
+    /**
+     * @param retentionLookup gives the retention policy for a record type to new patients
+     */
+    PatientTable(Function<String, RetentionPolicy> retentionLookup) {
+        this.retentionLookup = retentionLookup;
+        this.dense = new Patient[MIN_DENSE_CAPACITY];
+        this.sparse = new Sparse(MIN_SPARSE_CAPACITY);
+    }
+
+    /**
+     * @param patientId the unique identifier of the patient
+     * @return the patient with that ID, or null if it is not stored
+     */
+    Patient get(int patientId) {
+        Patient patient = find(patientId);
+        if (patient == null) {
+            synchronized (this) {
+                patient = find(patientId);
+            }
+        }
+        return patient;
+    }
+
+    /**
+     * Returns the patient with the given ID, creating and storing a new one first if needed.
+     *
+     * @param patientId the unique identifier of the patient
+     * @return the stored patient
+     */
+    Patient getOrCreate(int patientId) {
+        Patient patient = find(patientId);
+        if (patient != null) {
+            return patient;
+        }
+        synchronized (this) {
+            patient = find(patientId);
+            if (patient == null) {
+                patient = new Patient(patientId, retentionLookup);
+                put(patient);
+            }
+            return patient;
+        }
+    }
+
+    /**
+     * Stores a patient unless one with the same ID is already stored.
+     *
+     * @param patient the patient to store
+     * @return true if the patient was stored, false if its ID was taken
+     */
+    synchronized boolean putIfAbsent(Patient patient) {
+        if (find(patient.getPatientId()) != null) {
+            return false;
+        }
+        put(patient);
+        return true;
+    }
+
+    /**
+     * Calls the action for every stored patient without copying the table.
+     * Dense IDs are visited in ascending order, followed by the sparse ones.
+     * Patients added during the iteration may or may not be visited.
+     *
+     * @param action the action to run for each patient
+     */
+    void forEach(Consumer<? super Patient> action) {
+        Patient[] currentDense = dense;
+        for (int i = 0; i < currentDense.length; i++) {
+            Patient patient = (Patient) PATIENTS.getAcquire(currentDense, i);
+            if (patient != null) {
+                action.accept(patient);
+            }
+        }
+        Patient[] values = sparse.values;
+        for (int i = 0; i < values.length; i++) {
+            Patient patient = (Patient) PATIENTS.getAcquire(values, i);
+            if (patient != null) {
+                action.accept(patient);
+            }
+        }
+    }
+
+    /**
+     * @return the number of stored patients
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Removes every patient and shrinks the table back to its initial capacity.
+     */
+    synchronized void clear() {
+        dense = new Patient[MIN_DENSE_CAPACITY];
+        sparse = new Sparse(MIN_SPARSE_CAPACITY);
+        size = 0;
+    }
+
+    /**
+     * Lock-free lookup. May miss a patient that another thread is adding right now.
+     */
+    private Patient find(int patientId) {
+        Patient[] currentDense = dense;
+        if (patientId >= 0 && patientId < currentDense.length) {
+            return (Patient) PATIENTS.getAcquire(currentDense, patientId);
+        }
+        Sparse current = sparse;
+        int mask = current.keys.length - 1;
+        for (int slot = hash(patientId) & mask; ; slot = (slot + 1) & mask) {
+            Patient patient = (Patient) PATIENTS.getAcquire(current.values, slot);
+            if (patient == null) {
+                return null;
+            }
+            // the key was written before the value was released, so it is visible here
+            if (current.keys[slot] == patientId) {
+                return patient;
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding the table lock.
+     */
+    private void put(Patient patient) {
+        int patientId = patient.getPatientId();
+        size++;
+        if (patientId >= dense.length && patientId >= 0) {
+            int needed = Integer.highestOneBit(patientId) << 1;
+            // only grow while at least a quarter of the dense slots would be used
+            if (needed > 0 && needed <= 4 * size) {
+                growDense(needed);
+            }
+        }
+        Patient[] currentDense = dense;
+        if (patientId >= 0 && patientId < currentDense.length) {
+            PATIENTS.setRelease(currentDense, patientId, patient);
+        } else {
+            putSparse(patientId, patient);
+        }
+    }
+
+    /**
+     * Grows the dense array and moves every sparse patient it now covers into it.
+     * The new arrays are filled completely before they are published.
+     */
+    private void growDense(int capacity) {
+        Patient[] grown = Arrays.copyOf(dense, capacity);
+        Sparse old = sparse;
+        if (old.count == 0) {
+            dense = grown;
+            return;
+        }
+        Sparse remaining = new Sparse(old.keys.length);
+        for (int i = 0; i < old.values.length; i++) {
+            if (old.values[i] == null) {
+                continue;
+            }
+            int key = old.keys[i];
+            if (key >= 0 && key < capacity) {
+                grown[key] = old.values[i];
+            } else {
+                insert(remaining, key, old.values[i]);
+            }
+        }
+        dense = grown;
+        sparse = remaining;
+    }
+
+    private void putSparse(int patientId, Patient patient) {
+        Sparse current = sparse;
+        if ((current.count + 1) * 2 > current.keys.length) {
+            Sparse rehashed = new Sparse(current.keys.length * 2);
+            for (int i = 0; i < current.values.length; i++) {
+                if (current.values[i] != null) {
+                    insert(rehashed, current.keys[i], current.values[i]);
+                }
+            }
+            insert(rehashed, patientId, patient);
+            sparse = rehashed;
+        } else {
+            insert(current, patientId, patient);
+        }
+    }
+
+    private static void insert(Sparse table, int patientId, Patient patient) {
+        int mask = table.keys.length - 1;
+        int slot = hash(patientId) & mask;
+        while (table.values[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        // the value is released after the key, so a reader that acquires the value also sees its key
+        table.keys[slot] = patientId;
+        PATIENTS.setRelease(table.values, slot, patient);
+        table.count++;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
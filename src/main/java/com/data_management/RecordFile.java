@@ -0,0 +1,552 @@
+package com.data_management;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+/**
+ * A compact binary file of patient records, used to archive simulator output and to
+ * reload it much faster than text.
+ *
+ * The file starts with {@code [magic][version]} and is followed by blocks. Each block
+ * holds up to a few thousand records of one patient and one record type, and starts
+ * with a header:
+ * <pre>
+ *   int   patientId
+ *   long  minTimestamp
+ *   long  maxTimestamp
+ *   int   count
+ *   int   payloadBytes
+ *   short typeLength, followed by the UTF-8 bytes of the record type
+ * </pre>
+ * The payload holds the two columns of the block: the timestamps as zig-zag varints,
+ * each the difference to the previous one (the first to {@code minTimestamp}), then the
+ * values as fixed-width doubles. Everything is little-endian.
+ *
+ * A reader looks only at the headers of blocks it does not need and skips their payload,
+ * so reading one patient or one time range out of a large archive touches little data.
+ * Records of one patient and type keep their order, but records of different series are
+ * grouped by block, so they come back in a different order than they were written.
+ *
+ * Blocks are only ever appended whole. If a writer died in the middle of a block, the
+ * block runs past the end of the file; readers stop before it and the next {@link Writer}
+ * cuts it off. A block header that makes no sense but fits in the file is corruption
+ * rather than a torn write, and readers and writers refuse the file instead of cutting
+ * off the valid blocks that follow.
+ */
+public final class RecordFile {
+
+    /** Records per block unless a writer is configured otherwise. */
+    public static final int DEFAULT_BLOCK_RECORDS = 4096;
+
+    private static final IngestLog LOG = IngestLog.forSource("RecordFile");
+    private static final int MAGIC = 0x46435250; // "PRCF" in file order
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_BYTES = 8;
+    private static final int BLOCK_HEADER_BYTES = 30; // without the type bytes
+    private static final int MAX_VARINT_BYTES = 10;
+
+    private RecordFile() {
+    }
+
+    /**
+     * @param file any file
+     * @return true if the file starts like a record file
+     */
+    public static boolean isRecordFile(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            return readFully(channel, header, 0) && header.getInt(0) == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads every record of a file.
+     *
+     * @param file the record file
+     * @param sink receives the records, e.g. {@code dataStorage::addPatientData}
+     * @return the number of records delivered
+     * @throws IOException if the file cannot be read or is not a record file
+     */
+    public static long read(Path file, WriteAheadLog.RecordSink sink) throws IOException {
+        return read(file, patientId -> true, Long.MIN_VALUE, Long.MAX_VALUE, sink);
+    }
+
+    /**
+     * Reads the records of some patients within a time range. Blocks of other patients
+     * and blocks outside the range are skipped without reading their payload.
+     *
+     * @param file          the record file
+     * @param patients      which patient IDs to read
+     * @param fromTimestamp the earliest timestamp to read, inclusive
+     * @param toTimestamp   the latest timestamp to read, inclusive
+     * @param sink          receives the records
+     * @return the number of records delivered
+     * @throws IOException if the file cannot be read, is not a record file or has a corrupt block
+     */
+    public static long read(Path file, IntPredicate patients, long fromTimestamp, long toTimestamp,
+                            WriteAheadLog.RecordSink sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            BlockReader reader = new BlockReader(channel, file);
+            long records = 0;
+            while (reader.next()) {
+                if (!patients.test(reader.patientId)
+                        || reader.maxTimestamp < fromTimestamp || reader.minTimestamp > toTimestamp) {
+                    reader.skip();
+                    continue;
+                }
+                records += reader.deliver(fromTimestamp, toTimestamp, sink);
+            }
+            return records;
+        }
+    }
+
+    /**
+     * Converts a text file to a record file. Both CSV lines and the lines written by
+     * {@code FileOutputStrategy} are understood, see {@link CsvRecordParser}.
+     *
+     * @param csv    the text file
+     * @param target the record file to create; records are appended if it exists
+     * @return the number of records converted
+     * @throws IOException if a file cannot be read or written
+     */
+    public static long fromCsv(Path csv, Path target) throws IOException {
+        try (Writer writer = new Writer(target)) {
+            return new CsvRecordParser(writer::append, LOG).parse(csv);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Converts a record file to {@code patientId,measurementValue,recordType,timestamp} lines.
+     *
+     * @param source the record file
+     * @param csv    the text file to create or replace
+     * @return the number of records converted
+     * @throws IOException if a file cannot be read or written
+     */
+    public static long toCsv(Path source, Path csv) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(csv)) {
+            StringBuilder line = new StringBuilder(64);
+            IOException[] failure = new IOException[1];
+            long records = read(source, (patientId, measurementValue, recordType, timestamp) -> {
+                if (failure[0] != null) {
+                    return;
+                }
+                line.setLength(0);
+                line.append(patientId).append(',').append(measurementValue).append(',')
+                        .append(recordType).append(',').append(timestamp).append('\n');
+                try {
+                    out.append(line);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            return records;
+        }
+    }
+
+    /**
+     * Converts between the formats: {@code RecordFile to-binary <csv> <binary>} or
+     * {@code RecordFile to-csv <binary> <csv>}.
+     */
+    public static void main(String[] args) {
+        if (args.length != 3 || !(args[0].equals("to-binary") || args[0].equals("to-csv"))) {
+            System.err.println("Usage: RecordFile to-binary <csv file> <record file>");
+            System.err.println("       RecordFile to-csv <record file> <csv file>");
+            System.exit(1);
+        }
+        try {
+            long records = args[0].equals("to-binary")
+                    ? fromCsv(Paths.get(args[1]), Paths.get(args[2]))
+                    : toCsv(Paths.get(args[1]), Paths.get(args[2]));
+            System.out.println("Converted " + records + " records to " + args[2]);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        IngestLog.flush();
+    }
+
+    /**
+     * Appends records to a record file. Records are buffered per patient and type, and a
+     * block is written once a series has {@code blockRecords} records, and on {@link #flush()}
+     * and {@link #close()}. With a {@code maxBufferMillis}, a background thread also writes
+     * each series whose first buffered record has waited that long, even if no records
+     * arrive any more; the other series keep filling their blocks. The methods are
+     * synchronized, so one writer can be shared by the threads that produce records.
+     */
+    public static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final int blockRecords;
+        private final long maxBufferMillis;
+        private final Map<Integer, Map<String, Series>> pending = new HashMap<>();
+        private final ScheduledExecutorService flusher; // null without a maxBufferMillis
+        private ByteBuffer staging = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+        /**
+         * Opens a writer that only writes blocks when they are full or on flush and close.
+         */
+        public Writer(Path file) throws IOException {
+            this(file, DEFAULT_BLOCK_RECORDS, Long.MAX_VALUE);
+        }
+
+        /**
+         * @param file            the file to create, or to append to if it exists
+         * @param blockRecords    the number of records in a full block
+         * @param maxBufferMillis about how long a record may stay buffered before its series is
+         *                        written, or Long.MAX_VALUE to only write full blocks
+         * @throws IOException if the file cannot be opened, is not a record file or has a corrupt block
+         */
+        public Writer(Path file, int blockRecords, long maxBufferMillis) throws IOException {
+            if (blockRecords < 1 || maxBufferMillis < 1) {
+                throw new IllegalArgumentException("Block size and buffer time must be at least 1: " + blockRecords
+                        + ", " + maxBufferMillis);
+            }
+            this.blockRecords = blockRecords;
+            this.maxBufferMillis = maxBufferMillis;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            try {
+                long end;
+                if (channel.size() == 0) {
+                    ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                    header.putInt(MAGIC).putInt(VERSION).flip();
+                    writeFully(header, 0);
+                    end = FILE_HEADER_BYTES;
+                } else {
+                    BlockReader reader = new BlockReader(channel, file);
+                    while (reader.next()) {
+                        reader.skip();
+                    }
+                    end = reader.position;
+                    if (end < channel.size()) {
+                        channel.truncate(end);
+                    }
+                }
+                channel.position(end);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            if (maxBufferMillis == Long.MAX_VALUE) {
+                this.flusher = null;
+            } else {
+                this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "record-file-flush");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                long interval = Math.max(1, maxBufferMillis / 4);
+                flusher.scheduleWithFixedDelay(this::flushExpiredQuietly, interval, interval, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Buffers one record. Its signature matches {@link WriteAheadLog.RecordSink}.
+         *
+         * @throws UncheckedIOException if a block cannot be written
+         */
+        public synchronized void append(int patientId, double measurementValue, String recordType, long timestamp) {
+            Series series = pending.computeIfAbsent(patientId, id -> new HashMap<>())
+                    .computeIfAbsent(recordType, Series::new);
+            if (series.size == 0 && flusher != null) {
+                series.firstBufferedMillis = System.currentTimeMillis();
+            }
+            series.add(timestamp, measurementValue);
+            if (series.size == blockRecords) {
+                try {
+                    writeBlock(patientId, series);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        /**
+         * Writes every buffered record.
+         */
+        public synchronized void flush() throws IOException {
+            for (Map.Entry<Integer, Map<String, Series>> patient : pending.entrySet()) {
+                for (Series series : patient.getValue().values()) {
+                    if (series.size > 0) {
+                        writeBlock(patient.getKey(), series);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (flusher != null) {
+                flusher.shutdown();
+            }
+            synchronized (this) {
+                if (!channel.isOpen()) {
+                    return;
+                }
+                try {
+                    flush();
+                } finally {
+                    channel.close();
+                }
+            }
+        }
+
+        /**
+         * Writes the series whose first buffered record is older than maxBufferMillis.
+         */
+        private synchronized void flushExpiredQuietly() {
+            if (!channel.isOpen()) {
+                return;
+            }
+            long expired = System.currentTimeMillis() - maxBufferMillis;
+            try {
+                for (Map.Entry<Integer, Map<String, Series>> patient : pending.entrySet()) {
+                    for (Series series : patient.getValue().values()) {
+                        if (series.size > 0 && series.firstBufferedMillis <= expired) {
+                            writeBlock(patient.getKey(), series);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                LOG.log(IngestLog.Level.ERROR, "Error writing buffered records to a record file: ", e.getMessage());
+            }
+        }
+
+        private void writeBlock(int patientId, Series series) throws IOException {
+            int count = series.size;
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < count; i++) {
+                min = Math.min(min, series.timestamps[i]);
+                max = Math.max(max, series.timestamps[i]);
+            }
+            int capacity = BLOCK_HEADER_BYTES + series.typeBytes.length + count * (MAX_VARINT_BYTES + 8);
+            if (staging.capacity() < capacity) {
+                staging = ByteBuffer.allocateDirect(Integer.highestOneBit(capacity) << 1).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            staging.clear();
+            staging.putInt(patientId).putLong(min).putLong(max).putInt(count);
+            int payloadBytesAt = staging.position();
+            staging.putInt(0).putShort((short) series.typeBytes.length).put(series.typeBytes);
+            int payloadStart = staging.position();
+            long previous = min;
+            for (int i = 0; i < count; i++) {
+                long delta = series.timestamps[i] - previous;
+                putVarLong(staging, (delta << 1) ^ (delta >> 63));
+                previous = series.timestamps[i];
+            }
+            for (int i = 0; i < count; i++) {
+                staging.putDouble(series.values[i]);
+            }
+            staging.putInt(payloadBytesAt, staging.position() - payloadStart);
+            staging.flip();
+            writeFully(staging, channel.position());
+            channel.position(channel.position() + staging.limit());
+            series.size = 0;
+        }
+
+        private void writeFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+
+        private static void putVarLong(ByteBuffer buffer, long value) {
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+    }
+
+    /**
+     * The records of one patient and type waiting for their block.
+     */
+    private static final class Series {
+        final byte[] typeBytes;
+        long[] timestamps = new long[16];
+        double[] values = new double[16];
+        int size;
+        long firstBufferedMillis; // when the first of the buffered records was added
+
+        Series(String recordType) {
+            this.typeBytes = recordType.getBytes(StandardCharsets.UTF_8);
+            if (typeBytes.length > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Record type is too long: " + recordType.length());
+            }
+        }
+
+        void add(long timestamp, double value) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            timestamps[size] = timestamp;
+            values[size] = value;
+            size++;
+        }
+    }
+
+    /**
+     * Walks the blocks of a file. After {@link #next()} returned true, the header fields
+     * describe the current block, and either {@link #skip()} or {@link #deliver} moves on.
+     */
+    private static final class BlockReader {
+        private final FileChannel channel;
+        private final Path file;
+        private final long size;
+        private final ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private final Map<String, String> types = new HashMap<>();
+        private ByteBuffer payload = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        private byte[] typeBytes = new byte[64];
+        long position; // start of the current block, or of the next one after skip and deliver
+        private long payloadStart;
+        int patientId;
+        long minTimestamp;
+        long maxTimestamp;
+        int count;
+        int payloadBytes;
+        String recordType;
+
+        BlockReader(FileChannel channel, Path file) throws IOException {
+            this.channel = channel;
+            this.file = file;
+            this.size = channel.size();
+            ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (!readFully(channel, fileHeader, 0) || fileHeader.getInt(0) != MAGIC) {
+                throw new IOException("Not a record file: " + file);
+            }
+            if (fileHeader.getInt(4) != VERSION) {
+                throw new IOException("Unsupported record file version " + fileHeader.getInt(4) + ": " + file);
+            }
+            this.position = FILE_HEADER_BYTES;
+        }
+
+        /**
+         * @return true if a complete block starts at the current position, false at the end
+         *         of the file or before a block cut off by the end of the file
+         * @throws IOException if the block header is corrupt
+         */
+        boolean next() throws IOException {
+            if (position >= size) {
+                return false;
+            }
+            header.clear();
+            if (position + BLOCK_HEADER_BYTES > size || !readFully(channel, header, position)) {
+                return incomplete();
+            }
+            patientId = header.getInt(0);
+            minTimestamp = header.getLong(4);
+            maxTimestamp = header.getLong(12);
+            count = header.getInt(20);
+            payloadBytes = header.getInt(24);
+            int typeLength = header.getShort(28);
+            payloadStart = position + BLOCK_HEADER_BYTES + typeLength;
+            if (count < 0 || typeLength < 0 || payloadBytes < count * 9L || maxTimestamp < minTimestamp) {
+                throw new IOException("Corrupt block header at offset " + position + " in " + file);
+            }
+            if (payloadStart + payloadBytes > size) {
+                return incomplete();
+            }
+            if (typeBytes.length < typeLength) {
+                typeBytes = new byte[typeLength];
+            }
+            ByteBuffer type = ByteBuffer.wrap(typeBytes, 0, typeLength);
+            if (!readFully(channel, type, position + BLOCK_HEADER_BYTES)) {
+                return incomplete();
+            }
+            String decoded = new String(typeBytes, 0, typeLength, StandardCharsets.UTF_8);
+            recordType = types.computeIfAbsent(decoded, t -> t);
+            return true;
+        }
+
+        void skip() {
+            position = payloadStart + payloadBytes;
+        }
+
+        /**
+         * Decodes the current block and delivers its records within the time range.
+         *
+         * @throws IOException if the block cannot be read, or its timestamps run past its values
+         */
+        long deliver(long fromTimestamp, long toTimestamp, WriteAheadLog.RecordSink sink) throws IOException {
+            if (payload.capacity() < payloadBytes) {
+                payload = ByteBuffer.allocateDirect(Integer.highestOneBit(payloadBytes) << 1)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+            }
+            payload.clear().limit(payloadBytes);
+            if (!readFully(channel, payload, payloadStart)) {
+                throw new IOException("Block of patient " + patientId + " was cut short in " + file);
+            }
+            int valuesAt = payloadBytes - count * 8;
+            int cursor = 0;
+            long timestamp = minTimestamp;
+            long delivered = 0;
+            for (int i = 0; i < count; i++) {
+                long encoded = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    if (cursor >= valuesAt || shift >= 64) {
+                        throw new IOException("Corrupt block of patient " + patientId + " at offset " + position
+                                + " in " + file);
+                    }
+                    b = payload.get(cursor++);
+                    encoded |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                timestamp += (encoded >>> 1) ^ -(encoded & 1);
+                if (timestamp >= fromTimestamp && timestamp <= toTimestamp) {
+                    sink.accept(patientId, payload.getDouble(valuesAt + i * 8), recordType, timestamp);
+                    delivered++;
+                }
+            }
+            skip();
+            return delivered;
+        }
+
+        private boolean incomplete() {
+            LOG.log(IngestLog.Level.WARN, "Ignoring an incomplete block at the end of ",
+                    file + " (offset " + position + ")");
+            return false;
+        }
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,278 @@
+package com.data_management;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary WebSocket frames that carry a batch of records, sent by
+ * {@code WebSocketOutputStrategy} to clients that ask for them.
+ *
+ * A client asks for binary frames by sending the {@link #HANDSHAKE_HEADER} header with the
+ * value {@link #BINARY_V1} when it connects, and the server answers with the same header
+ * if it will send them. Clients that do not send the header, and servers that do not know
+ * it, keep using one text frame per record.
+ *
+ * A frame is big-endian and laid out as
+ * <pre>
+ *   int   magic
+ *   short typeCount, then per type: short length, UTF-8 bytes
+ *   int   recordCount, then per record:
+ *         int patientId, long timestamp, short typeCode, double value
+ * </pre>
+ * where a type code is an index into the types of the same frame, so every frame can be
+ * decoded on its own. Alerts are sent as records of type {@code Alert} with the value 1
+ * for triggered and 0 for resolved.
+ *
+ * A client that reconnects can also send the {@link #RESUME_HEADER} header with the last
+ * timestamp it has seen of each record type of each patient. The server then replays the
+ * records it still retains from those timestamps on, before it sends new ones. The record
+ * at a resume point itself is sent again, since another record of its type may share its
+ * timestamp; storing it twice is harmless, as storage keeps one record per type and timestamp. The
+ * header is kept short: when the resume points would not fit in
+ * {@link #MAX_RESUME_HEADER_CHARS}, only the oldest of their timestamps is sent, under
+ * {@link #ANY_RECORD}, and the server replays everything from then on.
+ */
+public final class RecordFrames {
+
+    /** The handshake header a client uses to ask for binary frames. */
+    public static final String HANDSHAKE_HEADER = "X-Record-Frames";
+    /** The value of {@link #HANDSHAKE_HEADER} for this version of the frames. */
+    public static final String BINARY_V1 = "binary-v1";
+    /** The handshake header with which a client asks for the records it missed. */
+    public static final String RESUME_HEADER = "X-Resume-From";
+    /** The longest {@link #RESUME_HEADER} value that lists patients one by one. */
+    public static final int MAX_RESUME_HEADER_CHARS = 4096;
+    /** The key of a resume point that holds for every record type without its own. */
+    public static final String ANY_RECORD = "*";
+
+    private static final int MAGIC = 0x52464231; // "RFB1"
+    private static final int RECORD_BYTES = 4 + 8 + 2 + 8;
+
+    private RecordFrames() {
+    }
+
+    /**
+     * @return the handshake headers with which a client asks for binary frames
+     */
+    public static Map<String, String> handshakeHeaders() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put(HANDSHAKE_HEADER, BINARY_V1);
+        return headers;
+    }
+
+    /**
+     * @return the key of the resume point of a record type of a patient
+     */
+    public static String resumeKey(int patientId, String recordType) {
+        return patientId + ":" + recordType;
+    }
+
+    /**
+     * Formats the value of the {@link #RESUME_HEADER} header: {@code key:timestamp} pairs
+     * separated by commas, with the keys made by {@link #resumeKey}. If that would be longer
+     * than {@link #MAX_RESUME_HEADER_CHARS}, or a record type holds a comma, the value is the
+     * single pair {@code *:timestamp} with the oldest timestamp instead.
+     *
+     * @param lastSeen the last timestamp seen of each record type of each patient, by key
+     * @return the header value, empty if nothing was seen
+     */
+    public static String formatResumePoints(Map<String, Long> lastSeen) {
+        StringBuilder value = new StringBuilder(Math.min(lastSeen.size() * 32, MAX_RESUME_HEADER_CHARS));
+        long oldest = Long.MAX_VALUE;
+        boolean listed = true;
+        for (Map.Entry<String, Long> entry : lastSeen.entrySet()) {
+            oldest = Math.min(oldest, entry.getValue());
+            if (!listed) {
+                continue;
+            }
+            if (value.length() > 0) {
+                value.append(',');
+            }
+            value.append(entry.getKey()).append(':').append(entry.getValue());
+            listed = value.length() <= MAX_RESUME_HEADER_CHARS && entry.getKey().indexOf(',') < 0;
+        }
+        return listed ? value.toString() : ANY_RECORD + ":" + oldest;
+    }
+
+    /**
+     * Parses the value of the {@link #RESUME_HEADER} header.
+     *
+     * @param value the header value
+     * @return the last timestamp seen of each record type of each patient, by {@link #resumeKey},
+     *         and under {@link #ANY_RECORD} the timestamp of the records not listed, if given
+     * @throws IllegalArgumentException if the value is malformed
+     */
+    public static Map<String, Long> parseResumePoints(String value) {
+        Map<String, Long> lastSeen = new HashMap<>();
+        if (value.trim().isEmpty()) {
+            return lastSeen;
+        }
+        for (String pair : value.split(",")) {
+            int colon = pair.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Bad resume point: " + pair);
+            }
+            String key = pair.substring(0, colon).trim();
+            try {
+                if (!ANY_RECORD.equals(key)) {
+                    int typeColon = key.indexOf(':');
+                    if (typeColon < 0 || typeColon == key.length() - 1) {
+                        throw new IllegalArgumentException("Bad resume point: " + pair);
+                    }
+                    key = resumeKey(Integer.parseInt(key.substring(0, typeColon)), key.substring(typeColon + 1));
+                }
+                lastSeen.put(key, Long.parseLong(pair.substring(colon + 1).trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad resume point: " + pair, e);
+            }
+        }
+        return lastSeen;
+    }
+
+    /**
+     * Decodes a frame. The whole frame is checked before the first record is delivered,
+     * so a corrupt frame delivers nothing.
+     *
+     * @param frame the received frame; its position is not changed
+     * @param sink  receives the records
+     * @return the number of records delivered
+     * @throws IllegalArgumentException if the frame is not a valid record frame
+     */
+    public static int decode(ByteBuffer frame, WriteAheadLog.RecordSink sink) {
+        ByteBuffer in = frame.duplicate(); // big-endian
+        if (in.remaining() < 10 || in.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a record frame");
+        }
+        int typeCount = in.getShort();
+        if (typeCount < 0) {
+            throw new IllegalArgumentException("Bad type count " + typeCount);
+        }
+        String[] types = new String[typeCount];
+        for (int t = 0; t < typeCount; t++) {
+            int length = in.remaining() < 2 ? -1 : in.getShort();
+            if (length < 0 || in.remaining() < length) {
+                throw new IllegalArgumentException("Type table is cut short");
+            }
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            types[t] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        int count = in.remaining() < 4 ? -1 : in.getInt();
+        if (count < 0 || in.remaining() != (long) count * RECORD_BYTES) {
+            throw new IllegalArgumentException("Record count " + count + " does not match " + in.remaining() + " bytes");
+        }
+        int start = in.position();
+        for (int i = 0; i < count; i++) {
+            int code = in.getShort(start + i * RECORD_BYTES + 12);
+            if (code < 0 || code >= typeCount) {
+                throw new IllegalArgumentException("Bad type code " + code);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            int at = start + i * RECORD_BYTES;
+            sink.accept(in.getInt(at), in.getDouble(at + 14), types[in.getShort(at + 12)], in.getLong(at + 4));
+        }
+        return count;
+    }
+
+    /**
+     * Collects records and encodes them as one frame. Not thread-safe.
+     */
+    public static final class Encoder {
+        private final int maxRecords;
+        private final int[] patientIds;
+        private final long[] timestamps;
+        private final short[] typeCodes;
+        private final double[] values;
+        private String[] types = new String[8];
+        private byte[][] typeBytes = new byte[8][];
+        private int typeCount;
+        private int typeTableBytes;
+        private int size;
+
+        /**
+         * @param maxRecords the number of records at which a frame is full
+         */
+        public Encoder(int maxRecords) {
+            this.maxRecords = maxRecords;
+            this.patientIds = new int[maxRecords];
+            this.timestamps = new long[maxRecords];
+            this.typeCodes = new short[maxRecords];
+            this.values = new double[maxRecords];
+        }
+
+        /**
+         * Adds a record to the frame.
+         *
+         * @return true if the frame is full now and should be encoded
+         * @throws IllegalStateException if the frame was already full
+         */
+        public boolean add(int patientId, long timestamp, String recordType, double value) {
+            if (size == maxRecords) {
+                throw new IllegalStateException("Frame is full");
+            }
+            patientIds[size] = patientId;
+            timestamps[size] = timestamp;
+            typeCodes[size] = typeCode(recordType);
+            values[size] = value;
+            return ++size == maxRecords;
+        }
+
+        /**
+         * @return the number of records added since the last {@link #encode()}
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Encodes the records added so far into a new buffer and starts an empty frame.
+         *
+         * @return the frame, ready to be sent
+         */
+        public ByteBuffer encode() {
+            ByteBuffer out = ByteBuffer.allocate(4 + 2 + typeTableBytes + 4 + size * RECORD_BYTES);
+            out.putInt(MAGIC).putShort((short) typeCount);
+            for (int t = 0; t < typeCount; t++) {
+                out.putShort((short) typeBytes[t].length).put(typeBytes[t]);
+            }
+            out.putInt(size);
+            for (int i = 0; i < size; i++) {
+                out.putInt(patientIds[i]).putLong(timestamps[i]).putShort(typeCodes[i]).putDouble(values[i]);
+            }
+            out.flip();
+            Arrays.fill(types, 0, typeCount, null);
+            Arrays.fill(typeBytes, 0, typeCount, null);
+            typeCount = 0;
+            typeTableBytes = 0;
+            size = 0;
+            return out;
+        }
+
+        private short typeCode(String recordType) {
+            for (int t = 0; t < typeCount; t++) {
+                if (types[t].equals(recordType)) {
+                    return (short) t;
+                }
+            }
+            if (typeCount == Short.MAX_VALUE) {
+                throw new IllegalStateException("Too many record types in one frame");
+            }
+            if (typeCount == types.length) {
+                types = Arrays.copyOf(types, typeCount * 2);
+                typeBytes = Arrays.copyOf(typeBytes, typeCount * 2);
+            }
+            byte[] bytes = recordType.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Record type is too long: " + recordType.length());
+            }
+            types[typeCount] = recordType;
+            typeBytes[typeCount] = bytes;
+            typeTableBytes += 2 + bytes.length;
+            return (short) typeCount++;
+        }
+    }
+}
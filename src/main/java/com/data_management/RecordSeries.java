@@ -0,0 +1,516 @@
+package com.data_management;
+
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Columnar time series holding all samples of one record type for one patient.
+ * Samples are kept sorted by timestamp in chunks of up to {@link #CHUNK_CAPACITY}
+ * primitive {@code long[]} timestamps and {@code double[]} values, so a stored sample costs
+ * about 16 bytes instead of a full {@link PatientRecord} object.
+ * Range lookups binary search the chunk boundaries first and then the chunk itself.
+ * In-order appends and updates of the newest sample skip the search entirely, so
+ * {@link #upsert} costs constant time for live data and logarithmic time otherwise.
+ *
+ * With a bounded {@link RetentionPolicy} the series drops raw samples once they are
+ * older than the raw retention and rolls them into minute and hour rollups. Evicted
+ * chunks are recycled for new samples, so the raw part works like a ring buffer.
+ */
+final class RecordSeries {
+
+    static final int CHUNK_CAPACITY = 1024;
+    private static final int INITIAL_CHUNK_CAPACITY = 16;
+
+    private final String recordType;
+    private long[][] chunkTimestamps;
+    private double[][] chunkValues;
+    private int[] chunkSizes;
+    private int chunkCount;
+    private int size;
+    private long lastTimestamp; // newest timestamp in the series, valid when size > 0
+
+    private RetentionPolicy retention = RetentionPolicy.UNBOUNDED;
+    private RollupSeries minuteRollup; // created on first eviction, like hourRollup
+    private RollupSeries hourRollup;
+    private long[] spareTimestamps; // evicted chunk kept for reuse
+    private double[] spareValues;
+
+    /**
+     * Creates an empty series for the given record type.
+     *
+     * @param recordType the type of record stored in this series, e.g. "ECG"
+     */
+    RecordSeries(String recordType) {
+        this.recordType = recordType;
+        this.chunkTimestamps = new long[4][];
+        this.chunkValues = new double[4][];
+        this.chunkSizes = new int[4];
+    }
+
+    /**
+     * Builds a series from sorted timestamp and value columns, such as the ones stored
+     * in a snapshot. Both buffers are read in bulk from their current positions.
+     *
+     * @param recordType the type of record stored in the series
+     * @param timestamps the sorted timestamps
+     * @param values     the values, in the same order
+     * @param count      the number of samples to read
+     * @return the new series
+     */
+    static RecordSeries fromColumns(String recordType, LongBuffer timestamps, DoubleBuffer values, int count) {
+        RecordSeries series = new RecordSeries(recordType);
+        for (int remaining = count; remaining > 0; ) {
+            int length = Math.min(remaining, CHUNK_CAPACITY);
+            int chunk = series.chunkCount;
+            series.addChunk(chunk, Math.max(length, INITIAL_CHUNK_CAPACITY));
+            timestamps.get(series.chunkTimestamps[chunk], 0, length);
+            values.get(series.chunkValues[chunk], 0, length);
+            series.chunkSizes[chunk] = length;
+            remaining -= length;
+        }
+        series.size = count;
+        if (count > 0) {
+            int tail = series.chunkCount - 1;
+            series.lastTimestamp = series.chunkTimestamps[tail][series.chunkSizes[tail] - 1];
+        }
+        return series;
+    }
+
+    String getRecordType() {
+        return recordType;
+    }
+
+    int chunkCount() {
+        return chunkCount;
+    }
+
+    int chunkSize(int chunk) {
+        return chunkSizes[chunk];
+    }
+
+    /**
+     * @return the timestamp array of a chunk; only the first {@link #chunkSize} entries are used
+     */
+    long[] chunkTimestamps(int chunk) {
+        return chunkTimestamps[chunk];
+    }
+
+    /**
+     * @return the value array of a chunk; only the first {@link #chunkSize} entries are used
+     */
+    double[] chunkValues(int chunk) {
+        return chunkValues[chunk];
+    }
+
+    /**
+     * @return the number of samples stored in this series
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Inserts a sample at its sorted position. Samples with an equal timestamp are
+     * kept and the new one is placed after them.
+     *
+     * @param timestamp the time of the sample in milliseconds since the Unix epoch
+     * @param value     the measurement value
+     */
+    void insert(long timestamp, double value) {
+        if (size > 0 && timestamp >= lastTimestamp) {
+            append(timestamp, value);
+            enforceRetention();
+            return;
+        }
+        if (isExpired(timestamp)) {
+            rollUp(timestamp, value);
+            return;
+        }
+        int chunk = findChunk(timestamp);
+        int index = upperBound(chunk, timestamp);
+        insertAt(chunk, index, timestamp, value);
+    }
+
+    /**
+     * Updates the value of a sample with exactly this timestamp, or inserts a
+     * new sample at its sorted position if there is none.
+     *
+     * @param timestamp the time of the sample in milliseconds since the Unix epoch
+     * @param value     the measurement value
+     */
+    void upsert(long timestamp, double value) {
+        if (size > 0 && timestamp >= lastTimestamp) {
+            // fast path for live data, which almost always arrives in timestamp order
+            if (timestamp == lastTimestamp) {
+                int tail = chunkCount - 1;
+                chunkValues[tail][chunkSizes[tail] - 1] = value;
+            } else {
+                append(timestamp, value);
+                enforceRetention();
+            }
+            return;
+        }
+        if (isExpired(timestamp)) {
+            // too late for the raw samples, count it in the rollups instead
+            rollUp(timestamp, value);
+            return;
+        }
+        int chunk = findChunk(timestamp);
+        int index = lowerBound(chunk, timestamp);
+        if (chunk >= 0 && index < chunkSizes[chunk] && chunkTimestamps[chunk][index] == timestamp) {
+            chunkValues[chunk][index] = value;
+            return;
+        }
+        insertAt(chunk, index, timestamp, value);
+    }
+
+    /**
+     * Appends every sample with a timestamp in [startTime, endTime] to the given list,
+     * in timestamp order.
+     *
+     * @param patientId the patient the created records belong to
+     * @param startTime the start of the range, inclusive
+     * @param endTime   the end of the range, inclusive
+     * @param out       the list receiving the records
+     */
+    void collect(int patientId, long startTime, long endTime, List<PatientRecord> out) {
+        if (size == 0 || startTime > endTime) {
+            return;
+        }
+        int chunk = Math.max(findChunk(startTime), 0);
+        int index = lowerBound(chunk, startTime);
+        for (; chunk < chunkCount; chunk++, index = 0) {
+            long[] timestamps = chunkTimestamps[chunk];
+            double[] values = chunkValues[chunk];
+            int chunkSize = chunkSizes[chunk];
+            for (; index < chunkSize; index++) {
+                long timestamp = timestamps[index];
+                if (timestamp > endTime) {
+                    return;
+                }
+                out.add(new PatientRecord(patientId, values[index], recordType, timestamp));
+            }
+        }
+    }
+
+    /**
+     * Changes the retention of this series. A tighter policy takes effect with the
+     * next sample that is added. Changing the policy discards the existing rollups.
+     */
+    void setRetention(RetentionPolicy retention) {
+        if (retention != this.retention) {
+            this.retention = retention;
+            minuteRollup = null;
+            hourRollup = null;
+        }
+    }
+
+    /**
+     * Summarises the samples and rollups overlapping [startTime, endTime] into buckets of
+     * the given resolution. Rollups coarser than the resolution keep their own bucket length.
+     *
+     * @param startTime   the start of the range, inclusive
+     * @param endTime     the end of the range, inclusive
+     * @param resolution  the requested bucket length in milliseconds
+     * @param accumulator receives the buckets
+     */
+    void aggregate(long startTime, long endTime, long resolution, RollupSeries.Accumulator accumulator) {
+        if (hourRollup != null) {
+            hourRollup.aggregate(startTime, endTime, resolution, accumulator);
+        }
+        if (minuteRollup != null) {
+            minuteRollup.aggregate(startTime, endTime, resolution, accumulator);
+        }
+        if (size == 0 || startTime > endTime) {
+            return;
+        }
+        int chunk = Math.max(findChunk(startTime), 0);
+        int index = lowerBound(chunk, startTime);
+        long bucketStart = Long.MIN_VALUE;
+        long count = 0;
+        double min = 0;
+        double max = 0;
+        double sum = 0;
+        for (; chunk < chunkCount; chunk++, index = 0) {
+            long[] timestamps = chunkTimestamps[chunk];
+            double[] values = chunkValues[chunk];
+            for (; index < chunkSizes[chunk]; index++) {
+                long timestamp = timestamps[index];
+                if (timestamp > endTime) {
+                    chunk = chunkCount;
+                    break;
+                }
+                long bucket = Math.floorDiv(timestamp, resolution) * resolution;
+                double value = values[index];
+                if (bucket != bucketStart) {
+                    if (count > 0) {
+                        accumulator.add(bucketStart, resolution, count, min, max, sum);
+                    }
+                    bucketStart = bucket;
+                    count = 0;
+                    min = value;
+                    max = value;
+                    sum = 0;
+                }
+                count++;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+                sum += value;
+            }
+        }
+        if (count > 0) {
+            accumulator.add(bucketStart, resolution, count, min, max, sum);
+        }
+    }
+
+    /**
+     * Adds a sample that is not older than any stored sample to the end of the tail chunk.
+     */
+    private void append(long timestamp, double value) {
+        int tail = chunkCount - 1;
+        int tailSize = chunkSizes[tail];
+        if (tailSize < chunkTimestamps[tail].length) {
+            chunkTimestamps[tail][tailSize] = timestamp;
+            chunkValues[tail][tailSize] = value;
+            chunkSizes[tail] = tailSize + 1;
+            size++;
+            lastTimestamp = timestamp;
+        } else {
+            insertAt(tail, tailSize, timestamp, value);
+        }
+    }
+
+    private boolean isExpired(long timestamp) {
+        return size > 0 && retention.isBounded() && timestamp < lastTimestamp - retention.getRawRetentionMillis();
+    }
+
+    /**
+     * Evicts expired raw samples once at least half of the first chunk has expired,
+     * which keeps the check on the append path constant time.
+     */
+    private void enforceRetention() {
+        if (!retention.isBounded()) {
+            return;
+        }
+        long horizon = lastTimestamp - retention.getRawRetentionMillis();
+        if (chunkTimestamps[0][chunkSizes[0] / 2] >= horizon) {
+            return;
+        }
+        while (chunkTimestamps[0][chunkSizes[0] - 1] < horizon) {
+            // the newest sample is never expired, so this never removes the last chunk
+            rollUp(0, chunkSizes[0]);
+            removeFirstChunk();
+        }
+        int expired = lowerBound(0, horizon);
+        if (expired > 0) {
+            rollUp(0, expired);
+            int remaining = chunkSizes[0] - expired;
+            System.arraycopy(chunkTimestamps[0], expired, chunkTimestamps[0], 0, remaining);
+            System.arraycopy(chunkValues[0], expired, chunkValues[0], 0, remaining);
+            chunkSizes[0] = remaining;
+            size -= expired;
+        }
+        if (minuteRollup != null) {
+            minuteRollup.expireBefore(lastTimestamp - retention.getMinuteRetentionMillis());
+        }
+        if (hourRollup != null) {
+            hourRollup.expireBefore(lastTimestamp - retention.getHourRetentionMillis());
+        }
+    }
+
+    /**
+     * Rolls {@code count} samples of the first chunk, starting at {@code from}, into the rollups.
+     */
+    private void rollUp(int from, int count) {
+        long[] timestamps = chunkTimestamps[0];
+        double[] values = chunkValues[0];
+        for (int i = from; i < from + count; i++) {
+            rollUp(timestamps[i], values[i]);
+        }
+    }
+
+    private void rollUp(long timestamp, double value) {
+        if (hourRollup == null && retention.getHourRetentionMillis() > 0) {
+            hourRollup = new RollupSeries(RetentionPolicy.HOUR_MILLIS, retention.getHourRetentionMillis(), null);
+        }
+        if (minuteRollup == null && retention.getMinuteRetentionMillis() > 0) {
+            minuteRollup = new RollupSeries(RetentionPolicy.MINUTE_MILLIS, retention.getMinuteRetentionMillis(), hourRollup);
+        }
+        if (minuteRollup != null) {
+            minuteRollup.add(timestamp, value);
+        } else if (hourRollup != null) {
+            hourRollup.add(timestamp, value);
+        }
+    }
+
+    private void removeFirstChunk() {
+        size -= chunkSizes[0];
+        if (chunkTimestamps[0].length == CHUNK_CAPACITY) {
+            spareTimestamps = chunkTimestamps[0];
+            spareValues = chunkValues[0];
+        }
+        chunkCount--;
+        System.arraycopy(chunkTimestamps, 1, chunkTimestamps, 0, chunkCount);
+        System.arraycopy(chunkValues, 1, chunkValues, 0, chunkCount);
+        System.arraycopy(chunkSizes, 1, chunkSizes, 0, chunkCount);
+        chunkTimestamps[chunkCount] = null;
+        chunkValues[chunkCount] = null;
+    }
+
+    /**
+     * Finds the last chunk whose first timestamp is not greater than the given one.
+     *
+     * @return the chunk index, or -1 if the timestamp is before every chunk (or the series is empty)
+     */
+    private int findChunk(long timestamp) {
+        int low = 0;
+        int high = chunkCount - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (chunkTimestamps[mid][0] <= timestamp) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the index of the first sample in the chunk whose timestamp is not lower than the given one
+     */
+    private int lowerBound(int chunk, long timestamp) {
+        if (chunk < 0) {
+            return 0;
+        }
+        long[] timestamps = chunkTimestamps[chunk];
+        int low = 0;
+        int high = chunkSizes[chunk];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the first sample in the chunk whose timestamp is greater than the given one
+     */
+    private int upperBound(int chunk, long timestamp) {
+        if (chunk < 0) {
+            return 0;
+        }
+        long[] timestamps = chunkTimestamps[chunk];
+        int low = 0;
+        int high = chunkSizes[chunk];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Inserts a sample at the given position, starting or splitting chunks as needed.
+     * A chunk index of -1 means the sample goes in front of the whole series.
+     */
+    private void insertAt(int chunk, int index, long timestamp, double value) {
+        if (chunk < 0) {
+            if (chunkCount == 0) {
+                addChunk(0, INITIAL_CHUNK_CAPACITY);
+            }
+            chunk = 0;
+            index = 0;
+        }
+        if (chunkSizes[chunk] == CHUNK_CAPACITY) {
+            if (chunk == chunkCount - 1 && index == CHUNK_CAPACITY) {
+                // in-order append to a full tail chunk: start a new one instead of splitting
+                addChunk(chunkCount, CHUNK_CAPACITY);
+                chunk = chunkCount - 1;
+                index = 0;
+            } else {
+                splitChunk(chunk);
+                int leftSize = chunkSizes[chunk];
+                if (index > leftSize) {
+                    chunk++;
+                    index -= leftSize;
+                }
+            }
+        }
+        int chunkSize = chunkSizes[chunk];
+        if (chunkSize == chunkTimestamps[chunk].length) {
+            // small series start with short chunks that grow up to the full capacity
+            int newCapacity = Math.min(chunkSize * 2, CHUNK_CAPACITY);
+            chunkTimestamps[chunk] = Arrays.copyOf(chunkTimestamps[chunk], newCapacity);
+            chunkValues[chunk] = Arrays.copyOf(chunkValues[chunk], newCapacity);
+        }
+        long[] timestamps = chunkTimestamps[chunk];
+        double[] values = chunkValues[chunk];
+        System.arraycopy(timestamps, index, timestamps, index + 1, chunkSize - index);
+        System.arraycopy(values, index, values, index + 1, chunkSize - index);
+        timestamps[index] = timestamp;
+        values[index] = value;
+        chunkSizes[chunk] = chunkSize + 1;
+        if (size == 0 || timestamp > lastTimestamp) {
+            lastTimestamp = timestamp;
+        }
+        size++;
+    }
+
+    private void addChunk(int position, int capacity) {
+        ensureChunkSlots();
+        shiftChunks(position);
+        if (capacity == CHUNK_CAPACITY && spareTimestamps != null) {
+            chunkTimestamps[position] = spareTimestamps;
+            chunkValues[position] = spareValues;
+            spareTimestamps = null;
+            spareValues = null;
+        } else {
+            chunkTimestamps[position] = new long[capacity];
+            chunkValues[position] = new double[capacity];
+        }
+        chunkSizes[position] = 0;
+    }
+
+    /**
+     * Moves the upper half of a full chunk into a new chunk directly after it.
+     */
+    private void splitChunk(int chunk) {
+        addChunk(chunk + 1, CHUNK_CAPACITY);
+        int half = CHUNK_CAPACITY / 2;
+        int moved = chunkSizes[chunk] - half;
+        System.arraycopy(chunkTimestamps[chunk], half, chunkTimestamps[chunk + 1], 0, moved);
+        System.arraycopy(chunkValues[chunk], half, chunkValues[chunk + 1], 0, moved);
+        chunkSizes[chunk + 1] = moved;
+        chunkSizes[chunk] = half;
+    }
+
+    private void ensureChunkSlots() {
+        if (chunkCount == chunkSizes.length) {
+            int newLength = chunkSizes.length * 2;
+            chunkTimestamps = Arrays.copyOf(chunkTimestamps, newLength);
+            chunkValues = Arrays.copyOf(chunkValues, newLength);
+            chunkSizes = Arrays.copyOf(chunkSizes, newLength);
+        }
+    }
+
+    private void shiftChunks(int position) {
+        int moved = chunkCount - position;
+        System.arraycopy(chunkTimestamps, position, chunkTimestamps, position + 1, moved);
+        System.arraycopy(chunkValues, position, chunkValues, position + 1, moved);
+        System.arraycopy(chunkSizes, position, chunkSizes, position + 1, moved);
+        chunkCount++;
+    }
+}
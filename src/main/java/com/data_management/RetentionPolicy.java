@@ -0,0 +1,69 @@
+package com.data_management;
+
+/**
+ * Describes how long the history of one record type is kept.
+ * Raw samples are kept for {@code rawRetentionMillis}. Older samples are rolled
+ * into 1-minute min/max/mean/count buckets, which are kept for
+ * {@code minuteRetentionMillis} and then rolled into 1-hour buckets, which are kept
+ * for {@code hourRetentionMillis}. A retention of 0 skips that tier.
+ *
+ * Ages are measured against the newest sample of the series rather than the wall
+ * clock, so replayed or simulated data ages the same way as live data.
+ */
+public final class RetentionPolicy {
+
+    public static final long MINUTE_MILLIS = 60_000L;
+    public static final long HOUR_MILLIS = 60 * MINUTE_MILLIS;
+
+    /**
+     * Keeps every raw sample forever, the behaviour of a storage without retention.
+     */
+    public static final RetentionPolicy UNBOUNDED = new RetentionPolicy(Long.MAX_VALUE, 0, 0);
+
+    private final long rawRetentionMillis;
+    private final long minuteRetentionMillis;
+    private final long hourRetentionMillis;
+
+    /**
+     * Constructs a retention policy.
+     *
+     * @param rawRetentionMillis    how long raw samples are kept, in milliseconds
+     * @param minuteRetentionMillis how long 1-minute rollups are kept, in milliseconds (0 for none)
+     * @param hourRetentionMillis   how long 1-hour rollups are kept, in milliseconds (0 for none)
+     * @throws IllegalArgumentException if a retention is negative or the raw retention is 0
+     */
+    public RetentionPolicy(long rawRetentionMillis, long minuteRetentionMillis, long hourRetentionMillis) {
+        if (rawRetentionMillis <= 0 || minuteRetentionMillis < 0 || hourRetentionMillis < 0) {
+            throw new IllegalArgumentException("Invalid retention: raw=" + rawRetentionMillis
+                    + " minute=" + minuteRetentionMillis + " hour=" + hourRetentionMillis);
+        }
+        this.rawRetentionMillis = rawRetentionMillis;
+        this.minuteRetentionMillis = minuteRetentionMillis;
+        this.hourRetentionMillis = hourRetentionMillis;
+    }
+
+    public long getRawRetentionMillis() {
+        return rawRetentionMillis;
+    }
+
+    public long getMinuteRetentionMillis() {
+        return minuteRetentionMillis;
+    }
+
+    public long getHourRetentionMillis() {
+        return hourRetentionMillis;
+    }
+
+    /**
+     * @return true if raw samples are ever evicted under this policy
+     */
+    public boolean isBounded() {
+        return rawRetentionMillis != Long.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RetentionPolicy[raw=%dms, minute=%dms, hour=%dms]",
+                rawRetentionMillis, minuteRetentionMillis, hourRetentionMillis);
+    }
+}
@@ -0,0 +1,227 @@
+package com.data_management;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Fixed-resolution min/max/sum/count buckets for one record type, used to keep a
+ * summary of samples after their raw retention ran out.
+ * Buckets are stored sorted by start time in primitive arrays that act as a bounded
+ * ring: the oldest bucket is dropped (or folded into the next coarser rollup) once it
+ * is older than the retention or the ring is full.
+ */
+final class RollupSeries {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final long bucketMillis;
+    private final int maxBuckets;
+    private final RollupSeries coarser; // receives expired buckets, may be null
+
+    // live buckets are at [head, head + size)
+    private long[] starts;
+    private double[] mins;
+    private double[] maxs;
+    private double[] sums;
+    private long[] counts;
+    private int head;
+    private int size;
+
+    /**
+     * @param bucketMillis    the length of one bucket in milliseconds
+     * @param retentionMillis how long buckets are kept, in milliseconds
+     * @param coarser         the rollup that receives expired buckets, or null to drop them
+     */
+    RollupSeries(long bucketMillis, long retentionMillis, RollupSeries coarser) {
+        this.bucketMillis = bucketMillis;
+        this.maxBuckets = (int) Math.min(Integer.MAX_VALUE - 8, retentionMillis / bucketMillis + 2);
+        this.coarser = coarser;
+        int capacity = Math.min(INITIAL_CAPACITY, maxBuckets);
+        this.starts = new long[capacity];
+        this.mins = new double[capacity];
+        this.maxs = new double[capacity];
+        this.sums = new double[capacity];
+        this.counts = new long[capacity];
+    }
+
+    long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    /**
+     * Adds a single sample to its bucket.
+     */
+    void add(long timestamp, double value) {
+        addBucket(timestamp, 1, value, value, value);
+    }
+
+    /**
+     * Merges a pre-aggregated bucket into this rollup. The start is aligned down to
+     * this rollup's resolution first, so finer buckets can be merged into coarser ones.
+     */
+    void addBucket(long start, long count, double min, double max, double sum) {
+        long aligned = Math.floorDiv(start, bucketMillis) * bucketMillis;
+        int tail = head + size - 1;
+        if (size > 0 && starts[tail] == aligned) {
+            merge(tail, count, min, max, sum);
+            return;
+        }
+        int position = size == 0 || aligned > starts[tail] ? head + size : search(aligned);
+        if (position < head + size && starts[position] == aligned) {
+            merge(position, count, min, max, sum);
+            return;
+        }
+        if (size == maxBuckets) {
+            if (position == head) {
+                // older than everything a full ring keeps
+                if (coarser != null) {
+                    coarser.addBucket(aligned, count, min, max, sum);
+                }
+                return;
+            }
+            expire(1);
+        }
+        position = makeRoom(position);
+        starts[position] = aligned;
+        counts[position] = count;
+        mins[position] = min;
+        maxs[position] = max;
+        sums[position] = sum;
+        size++;
+    }
+
+    /**
+     * Drops every bucket that ends before the horizon, folding it into the coarser
+     * rollup when there is one.
+     */
+    void expireBefore(long horizon) {
+        int expired = 0;
+        while (expired < size && starts[head + expired] + bucketMillis <= horizon) {
+            expired++;
+        }
+        expire(expired);
+    }
+
+    /**
+     * Adds every bucket overlapping [startTime, endTime] to the accumulator.
+     */
+    void aggregate(long startTime, long endTime, long resolution, Accumulator accumulator) {
+        for (int i = head; i < head + size; i++) {
+            long start = starts[i];
+            if (start + bucketMillis <= startTime) {
+                continue;
+            }
+            if (start > endTime) {
+                break;
+            }
+            long length = Math.max(resolution, bucketMillis);
+            accumulator.add(Math.floorDiv(start, length) * length, length, counts[i], mins[i], maxs[i], sums[i]);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void merge(int index, long count, double min, double max, double sum) {
+        counts[index] += count;
+        mins[index] = Math.min(mins[index], min);
+        maxs[index] = Math.max(maxs[index], max);
+        sums[index] += sum;
+    }
+
+    private void expire(int count) {
+        for (int i = head; i < head + count; i++) {
+            if (coarser != null) {
+                coarser.addBucket(starts[i], counts[i], mins[i], maxs[i], sums[i]);
+            }
+        }
+        head += count;
+        size -= count;
+        if (size == 0) {
+            head = 0;
+        }
+    }
+
+    /**
+     * @return the index of the first bucket starting at or after the given start
+     */
+    private int search(long aligned) {
+        int index = Arrays.binarySearch(starts, head, head + size, aligned);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Opens a free slot at the given array index, compacting or growing the arrays if
+     * the tail has reached their end.
+     *
+     * @return the index of the free slot, which moves if the arrays were compacted
+     */
+    private int makeRoom(int position) {
+        if (head + size == starts.length) {
+            int capacity = size < starts.length / 2 ? starts.length : Math.min(starts.length * 2, maxBuckets);
+            position -= head;
+            starts = copy(starts, capacity);
+            mins = copy(mins, capacity);
+            maxs = copy(maxs, capacity);
+            sums = copy(sums, capacity);
+            counts = copy(counts, capacity);
+            head = 0;
+        }
+        int moved = head + size - position;
+        if (moved > 0) {
+            System.arraycopy(starts, position, starts, position + 1, moved);
+            System.arraycopy(mins, position, mins, position + 1, moved);
+            System.arraycopy(maxs, position, maxs, position + 1, moved);
+            System.arraycopy(sums, position, sums, position + 1, moved);
+            System.arraycopy(counts, position, counts, position + 1, moved);
+        }
+        return position;
+    }
+
+    private long[] copy(long[] source, int capacity) {
+        long[] target = new long[capacity];
+        System.arraycopy(source, head, target, 0, size);
+        return target;
+    }
+
+    private double[] copy(double[] source, int capacity) {
+        double[] target = new double[capacity];
+        System.arraycopy(source, head, target, 0, size);
+        return target;
+    }
+
+    /**
+     * Collects buckets from raw samples and rollups into aggregate records, merging
+     * buckets that share a start time.
+     */
+    static final class Accumulator {
+        private final TreeMap<Long, double[]> buckets = new TreeMap<>(); // length, count, min, max, sum
+
+        void add(long start, long length, long count, double min, double max, double sum) {
+            double[] bucket = buckets.get(start);
+            if (bucket == null) {
+                buckets.put(start, new double[] {length, count, min, max, sum});
+                return;
+            }
+            bucket[0] = Math.max(bucket[0], length);
+            bucket[1] += count;
+            bucket[2] = Math.min(bucket[2], min);
+            bucket[3] = Math.max(bucket[3], max);
+            bucket[4] += sum;
+        }
+
+        List<AggregateRecord> toRecords(int patientId, String recordType) {
+            List<AggregateRecord> records = new ArrayList<>(buckets.size());
+            for (Map.Entry<Long, double[]> entry : buckets.entrySet()) {
+                double[] b = entry.getValue();
+                records.add(new AggregateRecord(patientId, recordType, entry.getKey(), (long) b[0],
+                        (long) b[1], b[2], b[3], b[4]));
+            }
+            return records;
+        }
+    }
+}
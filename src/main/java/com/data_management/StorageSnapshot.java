@@ -0,0 +1,366 @@
+package com.data_management;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Binary snapshot of the records held by a {@link DataStorage}, laid out so that a
+ * restart does not have to parse or replay anything.
+ *
+ * The file starts with {@code [magic][version]}, followed by one data block per patient.
+ * A block holds every record series of the patient as two little-endian columns: all
+ * timestamps, then all values. An index at the end of the file lists, for each patient,
+ * the block offset and the type and sample count of every series, and a 16 byte footer
+ * {@code [indexOffset][patientCount][magic]} points to it.
+ *
+ * Opening a snapshot only reads the index, so it takes time in proportion to the number
+ * of patients rather than the number of records. A patient's block is memory-mapped and
+ * copied into its series the first time the patient is used, which only faults in the
+ * pages of that block. Rollups of expired samples are not part of a snapshot.
+ */
+final class StorageSnapshot implements Closeable {
+
+    private static final int MAGIC = 0x504E5350; // "PSNP"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int FOOTER_BYTES = 16;
+    private static final int SAMPLE_BYTES = 16; // a long timestamp and a double value
+    private static final int STAGING_BYTES = 1 << 20;
+
+    private final FileChannel channel;
+    private final Entry[] entries;
+    private final AtomicInteger pending; // entries that were not loaded yet
+
+    private StorageSnapshot(FileChannel channel, Entry[] entries) {
+        this.channel = channel;
+        this.entries = entries;
+        this.pending = new AtomicInteger(entries.length);
+    }
+
+    /**
+     * Writes every patient of the table to a snapshot file. The file is first written
+     * under a temporary name and then moved into place, so a crash never leaves a
+     * half-written snapshot behind.
+     *
+     * @param table the patients to write
+     * @param file  the snapshot file to create or replace
+     * @throws IOException if the file cannot be written
+     */
+    static void write(PatientTable table, Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = new Writer(FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+            try {
+                table.forEach(patient -> patient.writeSnapshot(writer));
+            } catch (Writer.Failure e) {
+                throw e.getCause();
+            }
+            writer.finish();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Opens a snapshot file and reads its index. The file stays open until every patient
+     * has been loaded or the snapshot is closed.
+     *
+     * @param file the snapshot file
+     * @return the opened snapshot
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    static StorageSnapshot open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < HEADER_BYTES + FOOTER_BYTES) {
+                throw new IOException("Not a storage snapshot: " + file);
+            }
+            ByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, size - FOOTER_BYTES, FOOTER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            long indexOffset = footer.getLong();
+            int patientCount = footer.getInt();
+            if (footer.getInt() != MAGIC || indexOffset < HEADER_BYTES || indexOffset > size - FOOTER_BYTES) {
+                throw new IOException("Not a storage snapshot or incomplete: " + file);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Unsupported storage snapshot: " + file);
+            }
+            MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset,
+                    size - FOOTER_BYTES - indexOffset);
+            index.order(ByteOrder.LITTLE_ENDIAN);
+            Entry[] entries = new Entry[patientCount];
+            StorageSnapshot snapshot = new StorageSnapshot(channel, entries);
+            for (int i = 0; i < patientCount; i++) {
+                int patientId = index.getInt();
+                long offset = index.getLong();
+                int seriesCount = index.getShort();
+                if (seriesCount < 0) {
+                    throw new IOException("Corrupt index of patient " + patientId + " in storage snapshot: " + file);
+                }
+                String[] types = new String[seriesCount];
+                int[] counts = new int[types.length];
+                long blockBytes = 0;
+                for (int s = 0; s < types.length; s++) {
+                    int typeLength = index.getShort();
+                    if (typeLength < 0 || typeLength > index.remaining()) {
+                        throw new IOException("Corrupt index of patient " + patientId + " in storage snapshot: "
+                                + file);
+                    }
+                    byte[] type = new byte[typeLength];
+                    index.get(type);
+                    types[s] = new String(type, StandardCharsets.UTF_8).intern();
+                    counts[s] = index.getInt();
+                    if (counts[s] < 0) {
+                        throw new IOException("Corrupt index of patient " + patientId + " in storage snapshot: "
+                                + file);
+                    }
+                    blockBytes += (long) counts[s] * SAMPLE_BYTES;
+                }
+                // a block is mapped as one buffer, so it must fit in one and in the file
+                if (blockBytes > Integer.MAX_VALUE || offset < HEADER_BYTES || offset + blockBytes > indexOffset) {
+                    throw new IOException("Block of patient " + patientId + " is too large or outside "
+                            + "the storage snapshot: " + file);
+                }
+                entries[i] = snapshot.new Entry(patientId, offset, types, counts);
+            }
+            return snapshot;
+        } catch (BufferUnderflowException e) {
+            channel.close();
+            throw new IOException("Storage snapshot index is cut short: " + file, e);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return one entry per patient in the snapshot
+     */
+    Entry[] entries() {
+        return entries;
+    }
+
+    /**
+     * Closes the file. Entries that were not loaded yet can no longer be loaded.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * The index entry of one patient, which loads the patient's record series on demand.
+     */
+    final class Entry {
+        private final int patientId;
+        private final long offset;
+        private final String[] types;
+        private final int[] counts;
+
+        private Entry(int patientId, long offset, String[] types, int[] counts) {
+            this.patientId = patientId;
+            this.offset = offset;
+            this.types = types;
+            this.counts = counts;
+        }
+
+        int getPatientId() {
+            return patientId;
+        }
+
+        /**
+         * Maps the patient's data block and copies it into new record series. Each entry
+         * should be loaded once, the file is closed after the last entry was loaded. An
+         * entry that failed to load can be loaded again.
+         *
+         * @return the record series of the patient, in snapshot order
+         * @throws IOException if the block cannot be read
+         */
+        RecordSeries[] load() throws IOException {
+            // open() checked that the block fits in one buffer, so the int offsets cannot overflow
+            long bytes = 0;
+            for (int count : counts) {
+                bytes += (long) count * SAMPLE_BYTES;
+            }
+            RecordSeries[] loaded = new RecordSeries[types.length];
+            if (bytes == 0) {
+                for (int s = 0; s < types.length; s++) {
+                    loaded[s] = new RecordSeries(types[s]);
+                }
+            } else {
+                MappedByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY, offset, bytes);
+                block.order(ByteOrder.LITTLE_ENDIAN);
+                int position = 0;
+                for (int s = 0; s < types.length; s++) {
+                    int count = counts[s];
+                    ByteBuffer timestamps = block.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(position);
+                    ByteBuffer values = block.duplicate().order(ByteOrder.LITTLE_ENDIAN)
+                            .position(position + count * 8);
+                    loaded[s] = RecordSeries.fromColumns(types[s], timestamps.asLongBuffer(),
+                            values.asDoubleBuffer(), count);
+                    position += count * SAMPLE_BYTES;
+                }
+            }
+            // only a successful load counts, so a failed entry keeps the file open for a retry
+            if (pending.decrementAndGet() == 0) {
+                channel.close();
+            }
+            return loaded;
+        }
+    }
+
+    /**
+     * Appends patient blocks to a snapshot file through a direct staging buffer and
+     * collects the index in memory until {@link #finish()}.
+     */
+    static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer staging = ByteBuffer.allocateDirect(STAGING_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        private final DataOutputStream index = new DataOutputStream(indexBytes);
+        private long position; // bytes already written to the file, the staging buffer follows
+        private int patientCount;
+
+        private Writer(FileChannel channel) {
+            this.channel = channel;
+            staging.putInt(MAGIC).putInt(VERSION);
+        }
+
+        /**
+         * Writes the data block and index entry of one patient.
+         * Must be called while the patient's series cannot change.
+         *
+         * @throws Failure wrapping the IOException if the block cannot be written, or the
+         *                 patient has more series or a longer record type than the index can hold
+         */
+        void writePatient(int patientId, RecordSeries[] series) {
+            try {
+                if (series.length > Short.MAX_VALUE) {
+                    throw new IOException("Too many record types for a snapshot: patient " + patientId);
+                }
+                for (RecordSeries s : series) {
+                    if (s.getRecordType().getBytes(StandardCharsets.UTF_8).length > Short.MAX_VALUE) {
+                        throw new IOException("Record type is too long for a snapshot: patient " + patientId
+                                + ", " + s.getRecordType().length() + " chars");
+                    }
+                }
+                indexEntry(patientId, series);
+                for (RecordSeries s : series) {
+                    for (int c = 0; c < s.chunkCount(); c++) {
+                        putLongs(s.chunkTimestamps(c), s.chunkSize(c));
+                    }
+                    for (int c = 0; c < s.chunkCount(); c++) {
+                        putDoubles(s.chunkValues(c), s.chunkSize(c));
+                    }
+                }
+                patientCount++;
+            } catch (IOException e) {
+                throw new Failure(e);
+            }
+        }
+
+        /**
+         * Writes the index and footer after the last patient block.
+         */
+        void finish() throws IOException {
+            index.flush();
+            long indexOffset = position + staging.position();
+            byte[] indexData = indexBytes.toByteArray();
+            for (int written = 0; written < indexData.length; ) {
+                if (!staging.hasRemaining()) {
+                    drain();
+                }
+                int length = Math.min(staging.remaining(), indexData.length - written);
+                staging.put(indexData, written, length);
+                written += length;
+            }
+            if (staging.remaining() < FOOTER_BYTES) {
+                drain();
+            }
+            staging.putLong(indexOffset).putInt(patientCount).putInt(MAGIC);
+            drain();
+            channel.force(true);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private void indexEntry(int patientId, RecordSeries[] series) throws IOException {
+            // the index is written little-endian like the rest of the file
+            index.writeInt(Integer.reverseBytes(patientId));
+            index.writeLong(Long.reverseBytes(position + staging.position()));
+            index.writeShort(Short.reverseBytes((short) series.length));
+            for (RecordSeries s : series) {
+                byte[] type = s.getRecordType().getBytes(StandardCharsets.UTF_8);
+                index.writeShort(Short.reverseBytes((short) type.length));
+                index.write(type);
+                index.writeInt(Integer.reverseBytes(s.size()));
+            }
+        }
+
+        private void putLongs(long[] source, int length) throws IOException {
+            for (int written = 0; written < length; ) {
+                if (staging.remaining() < 8) {
+                    drain();
+                }
+                int n = Math.min(staging.remaining() / 8, length - written);
+                staging.asLongBuffer().put(source, written, n);
+                staging.position(staging.position() + n * 8);
+                written += n;
+            }
+        }
+
+        private void putDoubles(double[] source, int length) throws IOException {
+            for (int written = 0; written < length; ) {
+                if (staging.remaining() < 8) {
+                    drain();
+                }
+                int n = Math.min(staging.remaining() / 8, length - written);
+                staging.asDoubleBuffer().put(source, written, n);
+                staging.position(staging.position() + n * 8);
+                written += n;
+            }
+        }
+
+        private void drain() throws IOException {
+            staging.flip();
+            while (staging.hasRemaining()) {
+                position += channel.write(staging);
+            }
+            staging.clear();
+        }
+
+        /**
+         * Carries an IOException out of {@link PatientTable#forEach}.
+         */
+        static final class Failure extends RuntimeException {
+            private static final long serialVersionUID = 1L;
+
+            Failure(IOException cause) {
+                super(cause);
+            }
+
+            @Override
+            public synchronized IOException getCause() {
+                return (IOException) super.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Implementation of DataReader for the {@code patientId,timestamp,label,data} lines that
+ * {@code TcpOutputStrategy} sends over a plain TCP socket, given as {@code tcp://host:port}.
+ *
+ * One background thread drives a non-blocking {@link SocketChannel} with a {@link Selector}.
+ * It reads into a reusable direct buffer and parses the complete lines in place with a
+ * {@link CsvRecordParser}, so no String is created per line; an incomplete last line is
+ * kept and finished by the next read. Alert lines are fired with MEDIUM priority, as the
+ * WebSocket reader does.
+ *
+ * When the connection fails or closes, the thread waits in the selector for an exponential
+ * backoff with jitter and connects again, until the reader is closed.
+ */
+public class TcpDataReader implements DataReader {
+    private static final IngestLog LOG = IngestLog.forSource("TcpDataReader");
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final long baseDelayMs = 1000;
+    private final long maxDelayMs = 30_000;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES); // used by the reader thread only
+    private volatile boolean closed;
+    private volatile boolean connected;
+    private volatile long records;
+    private Selector selector;
+    private Thread thread;
+
+    @Override
+    public void readData(DataStorage dataStorage) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("Batch read not supported by TcpDataReader");
+    }
+
+    /**
+     * Starts reading from uri and returns once the first attempt to connect has succeeded
+     * or failed. A failed or lost connection is retried in the background until the reader
+     * is closed.
+     *
+     * @param uri     the server, as {@code tcp://host:port}
+     * @param storage target DataStorage
+     * @throws IOException if the reader already reads, or the selector cannot be opened
+     */
+    @Override
+    public synchronized void readContinuousData(URI uri, DataStorage storage) throws IOException {
+        if (thread != null) {
+            throw new IOException("Already reading from a server");
+        }
+        if (uri.getHost() == null || uri.getPort() < 0) {
+            throw new IllegalArgumentException("Expected tcp://host:port, got " + uri);
+        }
+        InetSocketAddress address = new InetSocketAddress(uri.getHost(), uri.getPort());
+        CsvRecordParser parser = new CsvRecordParser((patientId, measurementValue, recordType, timestamp) -> {
+            WebSocketDataReader.storeRecord(patientId, measurementValue, recordType, timestamp, storage);
+            records++;
+        }, LOG, true);
+        CountDownLatch firstAttempt = new CountDownLatch(1);
+        selector = Selector.open();
+        thread = new Thread(() -> run(address, parser, firstAttempt), "tcp-reader");
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            firstAttempt.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while connecting", e);
+        }
+    }
+
+    /**
+     * @return true if the reader is connected to its server
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * @return the number of records stored since the reader was started
+     */
+    public long getRecordCount() {
+        return records;
+    }
+
+    private void run(InetSocketAddress address, CsvRecordParser parser, CountDownLatch firstAttempt) {
+        int attempt = 0;
+        try {
+            while (!closed) {
+                SocketChannel channel = SocketChannel.open();
+                try {
+                    channel.configureBlocking(false);
+                    channel.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
+                    if (channel.connect(address)) {
+                        channel.register(selector, SelectionKey.OP_READ);
+                        opened(address);
+                    } else {
+                        channel.register(selector, SelectionKey.OP_CONNECT);
+                    }
+                    buffer.clear();
+                    attempt = read(channel, parser, firstAttempt, address) ? 0 : attempt;
+                } catch (IOException e) {
+                    if (!closed) {
+                        System.err.println("TCP connection to " + address + " failed: " + e.getMessage());
+                    }
+                } finally {
+                    connected = false;
+                    firstAttempt.countDown();
+                    channel.close();
+                    selector.selectNow(); // deregisters the closed channel
+                }
+                waitBeforeReconnect(attempt++);
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (!closed) {
+                LOG.log(IngestLog.Level.ERROR, "TCP reader stopped: ", e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Connects and reads until the server closes the connection or the reader is closed.
+     *
+     * @return true if the connection was established
+     */
+    private boolean read(SocketChannel channel, CsvRecordParser parser, CountDownLatch firstAttempt,
+                         InetSocketAddress address) throws IOException {
+        boolean established = channel.isConnected();
+        if (established) {
+            firstAttempt.countDown();
+        }
+        boolean discarding = false; // skipping a line longer than the buffer
+        while (!closed) {
+            selector.select();
+            for (SelectionKey key : selector.selectedKeys()) {
+                if (key.isConnectable()) {
+                    channel.finishConnect();
+                    key.interestOps(SelectionKey.OP_READ);
+                    opened(address);
+                    established = true;
+                    firstAttempt.countDown();
+                }
+                if (!key.isValid() || !key.isReadable()) {
+                    continue;
+                }
+                int read;
+                while ((read = channel.read(buffer)) > 0) {
+                    int limit = buffer.position();
+                    int consumed = 0;
+                    if (discarding) {
+                        consumed = lineEnd(limit);
+                        discarding = consumed < 0;
+                        consumed = discarding ? limit : consumed;
+                    }
+                    if (!discarding) {
+                        ByteBuffer lines = consumed == 0 ? buffer : buffer.duplicate().position(consumed).slice();
+                        consumed += parser.parseStream(lines, limit - consumed);
+                    }
+                    if (consumed == 0 && limit == buffer.capacity()) {
+                        LOG.log(IngestLog.Level.WARN, "Line longer than the buffer (skipping): ", BUFFER_BYTES);
+                        discarding = true;
+                        consumed = limit;
+                    }
+                    buffer.limit(limit).position(consumed);
+                    buffer.compact();
+                }
+                if (read < 0) {
+                    System.err.println("TCP connection to " + address + " closed by the server");
+                    selector.selectedKeys().clear();
+                    return established;
+                }
+            }
+            selector.selectedKeys().clear();
+        }
+        return established;
+    }
+
+    /**
+     * @return the index after the first line terminator in [0, limit), or -1
+     */
+    private int lineEnd(int limit) {
+        for (int i = 0; i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private void opened(InetSocketAddress address) {
+        connected = true;
+        System.out.println("Connected to TCP server: " + address);
+    }
+
+    /**
+     * Waits in the selector for an exponential backoff with jitter, so that {@link #close()}
+     * ends the wait at once.
+     */
+    private void waitBeforeReconnect(int attempt) throws IOException {
+        long delay = Math.min(maxDelayMs, baseDelayMs << Math.min(attempt, 20));
+        delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        long left;
+        while (!closed && (left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())) > 0) {
+            selector.select(left);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        Thread running;
+        synchronized (this) {
+            running = thread;
+        }
+        if (running == null) {
+            return;
+        }
+        selector.wakeup();
+        try {
+            running.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        selector.close();
+    }
+}
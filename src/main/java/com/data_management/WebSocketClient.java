@@ -3,14 +3,25 @@ package com.data_management;
 import org.java_websocket.handshake.ServerHandshake;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.Set;
 
 /**
  * PatientWebSocketClient connects to a WebSocket server URI,
  * parses incoming CSV-formatted patient data, and stores it via DataStorage.
+ *
+ * By default each message is parsed and stored on the read thread of the connection.
+ * A client created with a worker count hands the messages to an {@link IngestPipeline}
+ * instead, so a slow storage step does not stall the socket.
+ *
+ * The client asks the server for binary frames of batched records, see {@link RecordFrames},
+ * and also understands text frames from servers that do not send them.
  */
 public class WebSocketClient extends org.java_websocket.client.WebSocketClient {
 
     private final DataStorage dataStorage;
+    private final IngestPipeline pipeline; // null when messages are stored on the read thread
+    private final WriteAheadLog.RecordSink frameRecords = this::receiveRecord;
 
     /**
      * Constructs the WebSocket client with the given server URI.
@@ -19,8 +30,39 @@ public class WebSocketClient extends org.java_websocket.client.WebSocketClient {
      * @throws URISyntaxException if the URI string is invalid
      */
     public WebSocketClient(String serverUri) throws URISyntaxException {
-        super(new URI(serverUri));
+        super(new URI(serverUri), RecordFrames.handshakeHeaders());
         this.dataStorage = DataStorage.getInstance();
+        this.pipeline = null;
+    }
+
+    /**
+     * Constructs a WebSocket client that parses and stores messages on worker threads.
+     *
+     * @param serverUri         the endpoint
+     * @param workers           the number of worker threads; a patient is always handled by the same one
+     * @param capacity          the number of messages each worker can queue
+     * @param policy            what to do when a worker's queue is full
+     * @param lowPriorityLabels labels that may be shed under {@link IngestPipeline.OverloadPolicy#SHED_LOW_PRIORITY}
+     * @throws URISyntaxException if the URI string is invalid
+     */
+    public WebSocketClient(String serverUri, int workers, int capacity, IngestPipeline.OverloadPolicy policy,
+                           Set<String> lowPriorityLabels) throws URISyntaxException {
+        this(serverUri, workers, capacity, policy, lowPriorityLabels, WebSocketCompression.OFF);
+    }
+
+    /**
+     * Constructs a WebSocket client that can ask the server for compressed messages.
+     *
+     * @param workers           the number of worker threads, or 0 to store messages on the read thread
+     * @param compressThreshold the smallest message in bytes that is deflated, or {@link WebSocketCompression#OFF}
+     * @see #WebSocketClient(String, int, int, IngestPipeline.OverloadPolicy, Set)
+     */
+    public WebSocketClient(String serverUri, int workers, int capacity, IngestPipeline.OverloadPolicy policy,
+                           Set<String> lowPriorityLabels, int compressThreshold) throws URISyntaxException {
+        super(new URI(serverUri), WebSocketCompression.draft(compressThreshold), RecordFrames.handshakeHeaders());
+        this.dataStorage = DataStorage.getInstance();
+        this.pipeline = workers == 0 ? null : new IngestPipeline("websocket-client", workers, capacity, policy,
+                new CsvFrames(lowPriorityLabels), () -> this::store, dataStorage::addPatientData);
     }
 
     /**
@@ -38,6 +80,52 @@ public class WebSocketClient extends org.java_websocket.client.WebSocketClient {
 
     @Override
     public void onMessage(String message) {
+        if (pipeline != null) {
+            pipeline.submit(message);
+            return;
+        }
+        store(message);
+    }
+
+    /**
+     * Stores the records of a binary frame; alerts are skipped as in text frames.
+     */
+    @Override
+    public void onMessage(ByteBuffer bytes) {
+        try {
+            RecordFrames.decode(bytes, frameRecords);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Corrupted binary frame (skipped): " + e.getMessage());
+        }
+    }
+
+    private void receiveRecord(int patientId, double measurementValue, String label, long timestamp) {
+        if (label.equalsIgnoreCase("Alert")) return;
+        if (pipeline != null) {
+            pipeline.submitRecord(patientId, measurementValue, label, timestamp);
+            return;
+        }
+        dataStorage.addPatientData(patientId, measurementValue, label, timestamp);
+    }
+
+    /**
+     * @return the pipeline of this client, or null if messages are stored on the read thread
+     */
+    public IngestPipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * Stores the messages still queued in the pipeline and stops its workers. The
+     * connection itself is closed with {@link #close()}.
+     */
+    public void closePipeline() {
+        if (pipeline != null) {
+            pipeline.close();
+        }
+    }
+
+    private void store(String message) {
         String[] parts = message.split(",");
         int patientId = Integer.parseInt(parts[0]);
         long timestamp = Long.parseLong(parts[1]);
@@ -58,5 +146,57 @@ public class WebSocketClient extends org.java_websocket.client.WebSocketClient {
         System.err.println("WebSocket error:");
         ex.printStackTrace();
     }
-    
+
+    /**
+     * Finds the patient ID and label of {@code patientId,timestamp,label,data} messages.
+     */
+    private static final class CsvFrames implements IngestPipeline.FrameFormat {
+        private final String[] lowPriorityLabels;
+
+        CsvFrames(Set<String> lowPriorityLabels) {
+            this.lowPriorityLabels = lowPriorityLabels.toArray(new String[0]);
+        }
+
+        @Override
+        public boolean isLowPriorityType(String recordType) {
+            for (String label : lowPriorityLabels) {
+                if (label.equals(recordType)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int patientId(String frame) {
+            int id = 0;
+            int i = 0;
+            for (; i < frame.length() && i < 10; i++) {
+                int digit = frame.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                id = id * 10 + digit;
+            }
+            return i > 0 && i < frame.length() && frame.charAt(i) == ',' && id >= 0 ? id : -1;
+        }
+
+        @Override
+        public boolean isLowPriority(String frame) {
+            int first = frame.indexOf(',');
+            int second = first < 0 ? -1 : frame.indexOf(',', first + 1);
+            if (second < 0) {
+                return false;
+            }
+            int end = frame.indexOf(',', second + 1);
+            int length = (end < 0 ? frame.length() : end) - second - 1;
+            for (String label : lowPriorityLabels) {
+                if (label.length() == length && frame.startsWith(label, second + 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
 }
@@ -0,0 +1,116 @@
+package com.data_management;
+
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.exceptions.InvalidFrameException;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.framing.Framedata;
+
+/**
+ * Opt-in permessage-deflate compression for the WebSocket connections between
+ * {@code WebSocketOutputStrategy} and the readers.
+ *
+ * Compression pays off on links where bandwidth rather than CPU is short, and for large
+ * messages such as batched binary frames. Messages smaller than the threshold are sent
+ * uncompressed, as RFC 7692 allows, since deflating a short text record costs more CPU
+ * than it saves bytes. Compression is only used when both sides ask for it; a side that
+ * does not falls back to uncompressed messages.
+ *
+ * The permessage-deflate extension of Java-WebSocket 1.5.2 inflates every received
+ * message, even one sent uncompressed, so both sides must use {@link #draft(int)}.
+ */
+public final class WebSocketCompression {
+
+    /** The threshold that turns compression off. */
+    public static final int OFF = -1;
+    /** Messages shorter than this many bytes are not compressed by default. */
+    public static final int DEFAULT_THRESHOLD = 256;
+
+    private WebSocketCompression() {
+    }
+
+    /**
+     * @param threshold the smallest message in bytes that is compressed, or {@link #OFF}
+     * @return the draft to create a server or client with
+     */
+    public static Draft draft(int threshold) {
+        if (threshold < 0) {
+            return new Draft_6455();
+        }
+        return new Draft_6455(new ThresholdDeflateExtension(threshold));
+    }
+
+    /**
+     * Deflates messages of at least the threshold and inflates only the messages that
+     * were sent compressed. One instance is copied for every connection.
+     */
+    private static final class ThresholdDeflateExtension extends PerMessageDeflateExtension {
+        private final int threshold;
+        private boolean receivingCompressed; // of the message whose frames are being received
+
+        ThresholdDeflateExtension(int threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void encodeFrame(Framedata frame) {
+            // only whole messages are left uncompressed, a fragment must follow its first frame
+            if (frame.isFin() && frame.getOpcode() != Opcode.CONTINUOUS
+                    && frame.getPayloadData().remaining() < threshold) {
+                return;
+            }
+            super.encodeFrame(frame);
+        }
+
+        @Override
+        public void decodeFrame(Framedata frame) throws InvalidDataException {
+            Opcode opcode = frame.getOpcode();
+            if (opcode == Opcode.TEXT || opcode == Opcode.BINARY) {
+                receivingCompressed = frame.isRSV1();
+            } else if (opcode != Opcode.CONTINUOUS) {
+                return; // control frames are never compressed
+            }
+            if (receivingCompressed) {
+                super.decodeFrame(frame);
+            }
+        }
+
+        @Override
+        public void isFrameValid(Framedata frame) throws InvalidDataException {
+            Opcode opcode = frame.getOpcode();
+            if ((opcode == Opcode.TEXT || opcode == Opcode.BINARY) && !frame.isRSV1()) {
+                // an uncompressed message, which the base class would reject
+                if (frame.isRSV2() || frame.isRSV3()) {
+                    throw new InvalidFrameException("bad rsv RSV2: " + frame.isRSV2() + " RSV3: " + frame.isRSV3());
+                }
+                return;
+            }
+            super.isFrameValid(frame);
+        }
+
+        @Override
+        public IExtension copyInstance() {
+            return new ThresholdDeflateExtension(threshold);
+        }
+
+        // WebSocketServer.broadcast creates the frames once per equal draft, and every
+        // connection deflates with its own context, so no two connections may share frames
+        @Override
+        public boolean equals(Object o) {
+            return this == o;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+
+        @Override
+        public String toString() {
+            return "ThresholdDeflateExtension(" + threshold + ")";
+        }
+    }
+}
@@ -2,136 +2,683 @@ package com.data_management;
 
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
-import java.util.concurrent.TimeUnit;
 
 import java.io.IOException;
 import java.net.URI;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Implementation of DataReader for real-time WebSocket data streams.
+ *
+ * One reader can read from several servers at once, for example the gateways of several
+ * wards: every {@link #readContinuousData} or {@link #addEndpoint} call adds an endpoint,
+ * and {@link #removeEndpoint} drops one while the others keep running. Each endpoint has
+ * its own connection, and {@link #getEndpointHealth()} reports how each one is doing.
+ *
+ * By default messages are decoded and stored on the read thread of their connection. A
+ * reader created with a worker count hands the messages of all its connections to one
+ * {@link IngestPipeline} instead, which is kept across reconnects and closed with the
+ * reader. When its workers fall behind, the read threads block or drop as the overload
+ * policy says, which each endpoint reports as busy time and rejected messages.
+ *
+ * The reader asks the server for binary frames of batched records, see {@link RecordFrames}.
+ * Servers that do not know them keep sending JSON text messages. It can also ask for
+ * compressed messages, see {@link WebSocketCompression}.
+ *
+ * When a connection closes the reader reconnects from a scheduler thread, after an
+ * exponential backoff with jitter, until the endpoint is removed or the reader is closed.
+ * Each endpoint remembers the newest timestamp it received of each patient and sends them
+ * when it reconnects, so that a server which retains recent records can replay the ones
+ * that were sent while the connection was down.
  */
 public class WebSocketDataReader implements DataReader {
-    private WebSocketClient client;
+    private static final IngestLog LOG = IngestLog.forSource("WebSocketDataReader");
+
+    private volatile boolean closed;
     private final long baseDelayMs = 1000;
+    private final long maxDelayMs = 30_000;
+    private final ScheduledExecutorService reconnector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "websocket-reconnect");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ConcurrentHashMap<URI, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final int workers; // 0 to store on the read thread
+    private final int capacity;
+    private final IngestPipeline.OverloadPolicy policy;
+    private final int compressThreshold;
+    private final JsonFrames frames;
+    private volatile IngestPipeline pipeline;
+    private DataStorage pipelineStorage; // guarded by endpoints, where the pipeline stores
+
+    public WebSocketDataReader() {
+        this(0, 0, IngestPipeline.OverloadPolicy.BLOCK, Collections.emptySet());
+    }
+
+    /**
+     * Creates a reader that decodes and stores messages on worker threads.
+     *
+     * @param workers          the number of worker threads; a patient is always handled by the same one
+     * @param capacity         the number of messages each worker can queue
+     * @param policy           what to do when a worker's queue is full
+     * @param lowPriorityTypes record types that may be shed under
+     *                         {@link IngestPipeline.OverloadPolicy#SHED_LOW_PRIORITY}
+     */
+    public WebSocketDataReader(int workers, int capacity, IngestPipeline.OverloadPolicy policy,
+                               Set<String> lowPriorityTypes) {
+        this(workers, capacity, policy, lowPriorityTypes, WebSocketCompression.OFF);
+    }
+
+    /**
+     * Creates a reader that asks its servers for compressed messages.
+     *
+     * @param workers           the number of worker threads, or 0 to store messages on the read thread
+     * @param compressThreshold the smallest message in bytes that is deflated, or {@link WebSocketCompression#OFF}
+     * @see #WebSocketDataReader(int, int, IngestPipeline.OverloadPolicy, Set)
+     */
+    public WebSocketDataReader(int workers, int capacity, IngestPipeline.OverloadPolicy policy,
+                               Set<String> lowPriorityTypes, int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+        this.workers = workers;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.frames = new JsonFrames(lowPriorityTypes);
+    }
+
+    /**
+     * @return the pipeline of this reader, or null if messages are stored on the read thread
+     *         or no connection was opened yet
+     */
+    public IngestPipeline getPipeline() {
+        return pipeline;
+    }
 
     @Override
     public void readData(DataStorage dataStorage) throws UnsupportedOperationException {
         throw new UnsupportedOperationException("Batch read not supported by WebSocketDataReader");
     }
 
+    /**
+     * Adds uri as an endpoint and returns once the first attempt to connect has succeeded
+     * or failed. A failed or lost connection is retried in the background until the
+     * endpoint is removed or the reader is closed. Does nothing if uri is already read.
+     */
     @Override
     public void readContinuousData(URI uri, DataStorage storage) throws IOException {
-        connectWithRetry(uri, storage, 0);
+        Endpoint endpoint = add(uri, storage);
+        if (endpoint == null) {
+            return;
+        }
+        try {
+            endpoint.open().connectBlocking();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while connecting", ie);
+        }
+    }
+
+    /**
+     * Adds uri as an endpoint and connects to it in the background.
+     *
+     * @param uri     endpoint to connect to
+     * @param storage target DataStorage; with a pipeline, the one of the first endpoint
+     * @return false if uri is already read
+     * @throws IllegalArgumentException if the pipeline stores into another DataStorage
+     */
+    public boolean addEndpoint(URI uri, DataStorage storage) {
+        Endpoint endpoint = add(uri, storage);
+        if (endpoint == null) {
+            return false;
+        }
+        endpoint.open().connect();
+        return true;
     }
 
     /**
-     * Opens (or re-opens) a WebSocket to uri as logn as the maxRetries are not reached
+     * Closes the connection to uri and stops reconnecting to it. Messages of the endpoint
+     * that are already queued in the pipeline are still stored.
      *
-     * @param uri endpoint to connect to
+     * @return false if uri was not read
+     */
+    public boolean removeEndpoint(URI uri) {
+        Endpoint endpoint = endpoints.remove(uri);
+        if (endpoint == null) {
+            return false;
+        }
+        endpoint.close();
+        return true;
+    }
+
+    /**
+     * @return the health of each endpoint, in no particular order
+     */
+    public List<EndpointHealth> getEndpointHealth() {
+        List<EndpointHealth> health = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints.values()) {
+            health.add(endpoint.health());
+        }
+        return health;
+    }
+
+    /**
+     * @return the number of reconnects scheduled since the last successful connection,
+     *         added up over all endpoints
+     */
+    public int getReconnectAttempts() {
+        int attempts = 0;
+        for (Endpoint endpoint : endpoints.values()) {
+            attempts += endpoint.attempts.get();
+        }
+        return attempts;
+    }
+
+    private Endpoint add(URI uri, DataStorage storage) {
+        if (closed) {
+            throw new IllegalStateException("The reader is closed");
+        }
+        synchronized (endpoints) {
+            if (pipeline != null && storage != pipelineStorage) {
+                throw new IllegalArgumentException("The endpoints of a pipeline must share one DataStorage");
+            }
+            if (workers > 0 && pipeline == null) {
+                pipelineStorage = storage;
+                pipeline = new IngestPipeline("websocket-reader", workers, capacity, policy, frames, () -> {
+                    JsonRecordDecoder decoder = new JsonRecordDecoder(); // one per worker
+                    return message -> store(decoder, message, storage);
+                }, (patientId, measurementValue, recordType, timestamp) ->
+                        storeRecord(patientId, measurementValue, recordType, timestamp, storage));
+            }
+        }
+        Endpoint endpoint = new Endpoint(uri, storage);
+        return endpoints.putIfAbsent(uri, endpoint) == null ? endpoint : null;
+    }
+
+    /**
+     * Decodes one message and stores its record. Alert messages are fired with MEDIUM
+     * priority instead of being stored as measurements.
+     *
+     * @param decoder the decoder of the connection
+     * @param message the received JSON message
      * @param storage target DataStorage
-     * @param attempt current attempt counter
-     * @throws IOException when attempt > maxRetries
+     * @return false if the message could not be decoded
      */
-    private void connectWithRetry(URI uri, DataStorage storage, int attempt) throws IOException {
-        int maxRetries = 5;
-        if (attempt > maxRetries) {
-            throw new IOException("Max reconnect attempts reached for " + uri);
+    private static boolean store(JsonRecordDecoder decoder, String message, DataStorage storage) {
+        if (!decoder.decode(message)) {
+            LOG.log(IngestLog.Level.WARN, decoder.getError(), message);
+            return false;
         }
+        try {
+            //handling Alert messages separately
+            if (decoder.isAlert()) {
+                fireAlert(decoder.getPatientId(), decoder.getRawValue(), decoder.getTimestamp(), storage);
+                return true;
+            }
+            storage.addPatientData(decoder.getPatientId(), decoder.getMeasurementValue(),
+                    decoder.getRecordType(), decoder.getTimestamp());
+        } catch (Exception e) {
+            LOG.log(IngestLog.Level.ERROR, "Failed to store message: ", message, e);
+        }
+        return true;
+    }
 
-        client = new WebSocketClient(uri) {
-            @Override
-            public void onOpen(ServerHandshake handshake) {
-                System.out.println("Connected to WebSocket server: " + uri);
+    /**
+     * Stores one record of a binary frame. Alerts carry 1 for triggered and 0 for resolved.
+     */
+    static void storeRecord(int patientId, double measurementValue, String recordType, long timestamp,
+                            DataStorage storage) {
+        try {
+            if ("Alert".equalsIgnoreCase(recordType)) {
+                fireAlert(patientId, measurementValue != 0 ? "triggered" : "resolved", timestamp, storage);
+                return;
             }
+            storage.addPatientData(patientId, measurementValue, recordType, timestamp);
+        } catch (Exception e) {
+            LOG.log(IngestLog.Level.ERROR, "Failed to store record of patient ", patientId, e);
+        }
+    }
 
-            @Override
-            public void onMessage(String message) {
+    private static void fireAlert(int patientId, String condition, long timestamp, DataStorage storage) {
+        com.alerts.Alert alert = new com.alerts.Alert(
+                String.valueOf(patientId),
+                condition,
+                timestamp
+        );
+        com.alerts.AlertUtils.fireWithPriority(
+                alert,
+                storage,
+                com.alerts.alert_decorator.PriorityAlertDecorator.Priority.MEDIUM,
+                1,
+                0L
+        );
+    }
 
-                if (message == null || !message.startsWith("{") || !message.endsWith("}")) {
-                    System.err.println("Corrupted message (skipped): " + message);
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        reconnector.shutdownNow();
+        for (URI uri : new ArrayList<>(endpoints.keySet())) {
+            removeEndpoint(uri);
+        }
+        IngestPipeline current = pipeline;
+        pipeline = null;
+        if (current != null) {
+            current.close();
+            LOG.log(IngestLog.Level.INFO, "Ingest pipeline closed: ", current.getMetrics());
+        }
+    }
+
+    /**
+     * One server the reader reads from. Its counters are written by the read thread of its
+     * current connection only.
+     */
+    private final class Endpoint {
+        final URI uri;
+        final DataStorage storage;
+        final AtomicInteger attempts = new AtomicInteger();
+        // the newest timestamp accepted of each record type, by patient
+        final ConcurrentHashMap<Integer, ConcurrentHashMap<String, AtomicLong>> lastSeen = new ConcurrentHashMap<>();
+        volatile WebSocketClient client;
+        volatile boolean removed;
+        volatile boolean connected;
+        volatile long messages;
+        volatile long records;
+        volatile long rejected;
+        volatile long corrupted;
+        volatile long busyNanos;
+        volatile long lastMessageMillis;
+
+        Endpoint(URI uri, DataStorage storage) {
+            this.uri = uri;
+            this.storage = storage;
+        }
+
+        /**
+         * Creates a client that asks the server to replay what this endpoint missed, and
+         * schedules the next attempt when its connection closes. The caller connects it.
+         *
+         * @return the new client, not connected yet
+         */
+        WebSocketClient open() {
+            Map<String, String> headers = RecordFrames.handshakeHeaders();
+            if (!lastSeen.isEmpty()) {
+                Map<String, Long> resumeFrom = new HashMap<>();
+                lastSeen.forEach((patientId, types) -> types.forEach((recordType, timestamp) ->
+                        resumeFrom.put(RecordFrames.resumeKey(patientId, recordType), timestamp.get())));
+                headers.put(RecordFrames.RESUME_HEADER, RecordFrames.formatResumePoints(resumeFrom));
+            }
+            JsonRecordDecoder decoder = new JsonRecordDecoder(); // used by this client's read thread only
+            WriteAheadLog.RecordSink frameRecords = (patientId, measurementValue, recordType, timestamp) -> {
+                IngestPipeline current = pipeline;
+                if (current == null) {
+                    storeRecord(patientId, measurementValue, recordType, timestamp, storage);
+                } else if (!current.submitRecord(patientId, measurementValue, recordType, timestamp)) {
+                    rejected++;
                     return;
                 }
-                try {
-                    //parsing simple JSON object into a Map<String,String>
-                    Map<String, String> map = Arrays.stream(
-                                    message.substring(1, message.length() - 1).split(","))
-                            .map(s -> s.split(":", 2))
-                            .collect(Collectors.toMap(
-                                    a -> a[0].replaceAll("\"", "").trim(),
-                                    a -> a[1].replaceAll("\"", "").trim()
-                            ));
-
-                    int    patientId  = Integer.parseInt(map.get("patientId"));
-                    long   timestamp  = Long.parseLong(map.get("timestamp"));
-                    String recordType = map.get("recordType");
-                    String rawValue   = map.get("measurementValue");
-
-                    //handling Alert messages separately
-                    if ("Alert".equalsIgnoreCase(recordType)) {
-                        com.alerts.Alert alert = new com.alerts.Alert(
-                                String.valueOf(patientId),
-                                rawValue,
-                                timestamp
-                        );
-                        com.alerts.AlertUtils.fireWithPriority(
-                                alert,
-                                storage,
-                                com.alerts.alert_decorator.PriorityAlertDecorator.Priority.MEDIUM,
-                                1,
-                                0L
-                        );
+                seen(patientId, recordType, timestamp);
+            };
+            WebSocketClient connecting = new WebSocketClient(uri, WebSocketCompression.draft(compressThreshold),
+                    headers) {
+                @Override
+                public void onOpen(ServerHandshake handshake) {
+                    if (removed) {
+                        close(); // removed while connecting, after the endpoint closed its client
                         return;
                     }
+                    attempts.set(0);
+                    connected = true;
+                    System.out.println("Connected to WebSocket server: " + uri);
+                }
+
+                @Override
+                public void onMessage(String message) {
+                    long start = System.nanoTime();
+                    IngestPipeline current = pipeline;
+                    if (current != null) {
+                        if (current.submit(message)) {
+                            seen(message);
+                        } else {
+                            rejected++;
+                        }
+                    } else if (store(decoder, message, storage)) {
+                        seen(decoder.getPatientId(), decoder.getRecordType(), decoder.getTimestamp());
+                    } else {
+                        corrupted++;
+                    }
+                    received(1, start);
+                }
+
+                @Override
+                public void onMessage(ByteBuffer bytes) {
+                    long start = System.nanoTime();
+                    try {
+                        received(RecordFrames.decode(bytes, frameRecords), start);
+                    } catch (IllegalArgumentException e) {
+                        corrupted++;
+                        LOG.log(IngestLog.Level.WARN, "Corrupted binary frame (skipped): ", e.getMessage());
+                    }
+                }
+
+                @Override
+                public void onClose(int code, String reason, boolean remote) {
+                    connected = false;
+                    System.err.println("WebSocket closed (" + code + "): " + reason);
+                    scheduleReconnect();
+                }
+
+                @Override
+                public void onError(Exception ex) {
+                    System.err.println("WebSocket error:");
+                    ex.printStackTrace();
+                }
+            };
+            client = connecting;
+            return connecting;
+        }
+
+        private void received(int count, long startNanos) {
+            messages++;
+            records += count;
+            lastMessageMillis = System.currentTimeMillis();
+            busyNanos += System.nanoTime() - startNanos;
+        }
+
+        /**
+         * Remembers the newest timestamp accepted of a record type of a patient, which is where
+         * a reconnect resumes. Records are only seen once stored or queued in the pipeline, so
+         * rejected ones are replayed; ones that {@link IngestPipeline.OverloadPolicy#DROP_OLDEST}
+         * drops from the queue later are not.
+         */
+        private void seen(int patientId, String recordType, long timestamp) {
+            if (patientId < 0 || recordType == null) {
+                return;
+            }
+            advance(typesOf(patientId).computeIfAbsent(recordType, type -> new AtomicLong(Long.MIN_VALUE)),
+                    timestamp);
+        }
+
+        /**
+         * Remembers the timestamp of a JSON message queued in the pipeline, without decoding it.
+         */
+        private void seen(String message) {
+            int patientId = frames.patientId(message);
+            long timestamp = JsonFrames.timestamp(message);
+            if (patientId < 0 || timestamp == Long.MIN_VALUE) {
+                return;
+            }
+            ConcurrentHashMap<String, AtomicLong> types = typesOf(patientId);
+            String recordType = JsonFrames.recordType(message, types.keySet());
+            if (recordType != null) {
+                advance(types.computeIfAbsent(recordType, type -> new AtomicLong(Long.MIN_VALUE)), timestamp);
+            }
+        }
+
+        private ConcurrentHashMap<String, AtomicLong> typesOf(int patientId) {
+            ConcurrentHashMap<String, AtomicLong> types = lastSeen.get(patientId);
+            return types != null ? types : lastSeen.computeIfAbsent(patientId, id -> new ConcurrentHashMap<>());
+        }
 
-                    String cleaned = rawValue.replaceAll("[^0-9.]+", "");
-                    if (cleaned.isEmpty()) {
-                        System.err.println("Invalid measurement value in message: " + message);
+        private void advance(AtomicLong last, long timestamp) {
+            if (timestamp > last.get()) {
+                last.set(timestamp); // only the read thread of the current connection writes
+            }
+        }
+
+        /**
+         * Schedules the next connection attempt after an exponential backoff with jitter, so
+         * that readers which lost the same server do not all come back at the same moment.
+         */
+        private void scheduleReconnect() {
+            if (closed || removed) {
+                return;
+            }
+            int attempt = attempts.getAndIncrement();
+            long delay = Math.min(maxDelayMs, baseDelayMs << Math.min(attempt, 20));
+            delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+            try {
+                reconnector.schedule(() -> {
+                    if (closed || removed) {
                         return;
                     }
-                    double measurement = Double.parseDouble(cleaned);
-                    storage.addPatientData(patientId, measurement, recordType, timestamp);
+                    WebSocketClient reconnecting = open();
+                    if (removed) {
+                        // close() may have closed the previous client instead of this one
+                        reconnecting.close();
+                        return;
+                    }
+                    reconnecting.connect();
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // the reader was closed meanwhile
+            }
+        }
+
+        void close() {
+            removed = true;
+            WebSocketClient open = client;
+            if (open != null && !open.isClosed()) {
+                open.close();
+            }
+        }
 
-                } catch (Exception e) {
-                    System.err.println("Failed to parse/store message: " + message);
-                    e.printStackTrace();
+        EndpointHealth health() {
+            return new EndpointHealth(uri, connected, attempts.get(), messages, records, rejected, corrupted,
+                    busyNanos, lastMessageMillis);
+        }
+    }
+
+    /**
+     * The state and counters of one endpoint at one point in time.
+     */
+    public static final class EndpointHealth {
+        private final URI uri;
+        private final boolean connected;
+        private final int reconnectAttempts;
+        private final long messages;
+        private final long records;
+        private final long rejected;
+        private final long corrupted;
+        private final long busyNanos;
+        private final long lastMessageMillis;
+
+        EndpointHealth(URI uri, boolean connected, int reconnectAttempts, long messages, long records,
+                       long rejected, long corrupted, long busyNanos, long lastMessageMillis) {
+            this.uri = uri;
+            this.connected = connected;
+            this.reconnectAttempts = reconnectAttempts;
+            this.messages = messages;
+            this.records = records;
+            this.rejected = rejected;
+            this.corrupted = corrupted;
+            this.busyNanos = busyNanos;
+            this.lastMessageMillis = lastMessageMillis;
+        }
+
+        /** @return the endpoint */
+        public URI getUri() {
+            return uri;
+        }
+
+        /** @return true if the endpoint is connected */
+        public boolean isConnected() {
+            return connected;
+        }
+
+        /** @return the reconnects scheduled since the last successful connection */
+        public int getReconnectAttempts() {
+            return reconnectAttempts;
+        }
+
+        /** @return the text and binary messages received since the endpoint was added */
+        public long getMessages() {
+            return messages;
+        }
+
+        /** @return the records in the binary frames and text messages received */
+        public long getRecords() {
+            return records;
+        }
+
+        /** @return the messages and records the pipeline did not take, because they were shed or it is closed */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /** @return the messages that could not be decoded */
+        public long getCorrupted() {
+            return corrupted;
+        }
+
+        /**
+         * @return how long the read thread spent handling messages, including the time it
+         *         waited for room in the pipeline; close to the connected time means the
+         *         endpoint is held back
+         */
+        public long getBusyNanos() {
+            return busyNanos;
+        }
+
+        /** @return when the last message was received, in milliseconds since the epoch, or 0 */
+        public long getLastMessageMillis() {
+            return lastMessageMillis;
+        }
+
+        @Override
+        public String toString() {
+            return uri + (connected ? " connected" : " disconnected") + " attempts=" + reconnectAttempts
+                    + " messages=" + messages + " records=" + records + " rejected=" + rejected
+                    + " corrupted=" + corrupted + " busyMs=" + TimeUnit.NANOSECONDS.toMillis(busyNanos)
+                    + " lastMessage=" + lastMessageMillis;
+        }
+    }
+
+    /**
+     * Finds the patient ID and record type of JSON messages without decoding them.
+     */
+    private static final class JsonFrames implements IngestPipeline.FrameFormat {
+        private static final String PATIENT_ID = "\"patientId\"";
+        private static final String RECORD_TYPE = "\"recordType\"";
+        private static final String TIMESTAMP = "\"timestamp\"";
+
+        private final String[] lowPriorityTypes;
+
+        JsonFrames(Set<String> lowPriorityTypes) {
+            this.lowPriorityTypes = lowPriorityTypes.toArray(new String[0]);
+        }
+
+        @Override
+        public boolean isLowPriorityType(String recordType) {
+            for (String type : lowPriorityTypes) {
+                if (type.equals(recordType)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int patientId(String frame) {
+            int i = valueStart(frame, PATIENT_ID);
+            if (i < 0) {
+                return -1;
+            }
+            int id = 0;
+            int digits = 0;
+            for (; i < frame.length() && digits < 10; i++, digits++) {
+                int digit = frame.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
                 }
+                id = id * 10 + digit;
+            }
+            return digits > 0 && id >= 0 ? id : -1;
+        }
 
+        /**
+         * @return the timestamp of the frame, or Long.MIN_VALUE if it has none
+         */
+        static long timestamp(String frame) {
+            int i = valueStart(frame, TIMESTAMP);
+            if (i < 0) {
+                return Long.MIN_VALUE;
+            }
+            long timestamp = 0;
+            int digits = 0;
+            for (; i < frame.length() && digits < 18; i++, digits++) {
+                int digit = frame.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                timestamp = timestamp * 10 + digit;
             }
+            return digits > 0 ? timestamp : Long.MIN_VALUE;
+        }
 
-            @Override
-            public void onClose(int code, String reason, boolean remote) {
-                System.err.println("WebSocket closed (" + code + "): " + reason);
-                long delay = baseDelayMs * (1L << attempt);
-                try {
-                    TimeUnit.MILLISECONDS.sleep(delay);
-                    connectWithRetry(uri, storage, attempt + 1);
-                } catch (Exception e) {
-                    System.err.println("Reconnect attempt failed: " + e.getMessage());
+        @Override
+        public boolean isLowPriority(String frame) {
+            int start = valueStart(frame, RECORD_TYPE);
+            if (start < 0) {
+                return false;
+            }
+            for (String type : lowPriorityTypes) {
+                if (typeAt(frame, start, type)) {
+                    return true;
                 }
             }
+            return false;
+        }
 
-            @Override
-            public void onError(Exception ex) {
-                System.err.println("WebSocket error:");
-                ex.printStackTrace();
+        /**
+         * @param known types to return instead of a copy, so a known type costs no allocation
+         * @return the record type of the frame, or null if it has none
+         */
+        static String recordType(String frame, Iterable<String> known) {
+            int start = valueStart(frame, RECORD_TYPE);
+            if (start < 0) {
+                return null;
+            }
+            for (String type : known) {
+                if (typeAt(frame, start, type)) {
+                    return type;
+                }
             }
-        };
+            int end = frame.indexOf('"', start);
+            return end > start ? frame.substring(start, end) : null;
+        }
 
-        try {
-            client.connectBlocking();
-        } catch (InterruptedException ie) {
-            Thread.currentThread().interrupt();
-            throw new IOException("Interrupted while connecting", ie);
+        private static boolean typeAt(String frame, int start, String type) {
+            int end = start + type.length();
+            return frame.startsWith(type, start) && end < frame.length()
+                    && (frame.charAt(end) == '"' || frame.charAt(end) == ',' || frame.charAt(end) == '}');
         }
-    }
 
-    @Override
-    public void close() throws IOException {
-        if (client != null && !client.isClosed()) {
-            client.close();
+        /**
+         * @return the index after the colon, blanks and opening quote that follow the key, or -1
+         */
+        private static int valueStart(String frame, String key) {
+            int i = frame.indexOf(key);
+            if (i < 0) {
+                return -1;
+            }
+            i += key.length();
+            while (i < frame.length() && (frame.charAt(i) <= ' ' || frame.charAt(i) == ':' || frame.charAt(i) == '"')) {
+                i++;
+            }
+            return i;
         }
     }
 }
@@ -0,0 +1,343 @@
+package com.data_management;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, binary write-ahead log for the records accepted by {@link DataStorage}.
+ *
+ * Records are appended to an in-memory buffer, and a background thread writes the
+ * buffer to the current segment file through a {@link FileChannel} and forces it to
+ * disk every {@code fsyncIntervalMillis}. All records appended within one interval
+ * therefore share a single write and fsync (group commit), and appending never waits
+ * for the disk unless the buffer fills up first. A crash can lose at most the last
+ * interval of records.
+ *
+ * Each time period of {@code segmentMillis} gets its own segment file named
+ * {@code wal-<periodStart>.log}. A record is stored as
+ * {@code [length][crc32][patientId][timestamp][value][typeLength][type bytes]}, so a
+ * torn write at the end of a segment is detected and skipped on replay.
+ *
+ * The log fails closed: once a write or fsync has failed, every later {@link #append}
+ * throws, and {@link DataStorage} then rejects the records instead of storing records
+ * that would not survive a restart. To keep accepting records, disable the log with
+ * {@link DataStorage#disableWriteAheadLog()} or enable a new one.
+ */
+public class WriteAheadLog implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_BYTES = 8; // length and checksum
+    private static final int FIXED_BODY_BYTES = 4 + 8 + 8 + 2;
+    private static final int DEFAULT_BUFFER_BYTES = 1 << 20;
+
+    private final Path directory;
+    private final long segmentMillis;
+    private final Map<String, byte[]> encodedTypes = new ConcurrentHashMap<>();
+    private final CRC32 crc = new CRC32();
+    private final ScheduledExecutorService flusher;
+
+    // guarded by this, the buffer that appends go to
+    private ByteBuffer active;
+    // guarded by channelLock, written to disk by the flusher; lock order is this, then channelLock
+    private ByteBuffer standby;
+    private final ReentrantLock channelLock = new ReentrantLock();
+    private FileChannel channel;
+    private long segmentStart = Long.MIN_VALUE;
+    private volatile IOException failure;
+    private boolean closed;
+
+    /**
+     * Opens a write-ahead log in the given directory, creating the directory if needed.
+     *
+     * @param directory           the directory holding the segment files
+     * @param segmentMillis       the time period covered by one segment file, in milliseconds
+     * @param fsyncIntervalMillis how often buffered records are written and forced to disk
+     * @throws IOException if the directory cannot be created
+     */
+    public WriteAheadLog(Path directory, long segmentMillis, long fsyncIntervalMillis) throws IOException {
+        this(directory, segmentMillis, fsyncIntervalMillis, DEFAULT_BUFFER_BYTES);
+    }
+
+    /**
+     * Opens a write-ahead log with a custom buffer size. When the buffer fills up before
+     * the next fsync, the appending thread writes it to the file itself.
+     *
+     * @param directory           the directory holding the segment files
+     * @param segmentMillis       the time period covered by one segment file, in milliseconds
+     * @param fsyncIntervalMillis how often buffered records are written and forced to disk
+     * @param bufferBytes         the size of each of the two record buffers
+     * @throws IOException if the directory cannot be created
+     */
+    public WriteAheadLog(Path directory, long segmentMillis, long fsyncIntervalMillis, int bufferBytes)
+            throws IOException {
+        if (segmentMillis <= 0 || fsyncIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Segment length and fsync interval must be positive");
+        }
+        this.directory = directory;
+        this.segmentMillis = segmentMillis;
+        this.active = ByteBuffer.allocateDirect(bufferBytes);
+        this.standby = ByteBuffer.allocateDirect(bufferBytes);
+        Files.createDirectories(directory);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "wal-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, fsyncIntervalMillis, fsyncIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Appends a record to the log. The record is durable after the next fsync.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param measurementValue the value of the health metric
+     * @param recordType       the type of record
+     * @param timestamp        the time of the measurement in milliseconds since the Unix epoch
+     * @throws UncheckedIOException if the log failed to write earlier, or the buffer could not be written;
+     *                              the log stays failed from then on
+     * @throws IllegalArgumentException if the record type is longer than 32767 UTF-8 bytes
+     */
+    public synchronized void append(int patientId, double measurementValue, String recordType, long timestamp) {
+        if (closed) {
+            throw new IllegalStateException("Write-ahead log is closed");
+        }
+        IOException earlier = failure;
+        if (earlier != null) {
+            throw new UncheckedIOException("Write-ahead log failed earlier", earlier);
+        }
+        byte[] type = encodedTypes.computeIfAbsent(recordType, t -> t.getBytes(StandardCharsets.UTF_8));
+        if (type.length > Short.MAX_VALUE) {
+            encodedTypes.remove(recordType);
+            throw new IllegalArgumentException("Record type is too long: " + recordType.length());
+        }
+        int bodyBytes = FIXED_BODY_BYTES + type.length;
+        if (active.remaining() < HEADER_BYTES + bodyBytes) {
+            channelLock.lock();
+            try {
+                writeToSegment(active);
+            } catch (IOException e) {
+                failure = e;
+                throw new UncheckedIOException("Could not write to the write-ahead log", e);
+            } finally {
+                channelLock.unlock();
+            }
+        }
+        int start = active.position();
+        active.position(start + HEADER_BYTES);
+        active.putInt(patientId).putLong(timestamp).putDouble(measurementValue)
+                .putShort((short) type.length).put(type);
+        crc.reset();
+        crc.update(active.duplicate().position(start + HEADER_BYTES).limit(active.position()));
+        active.putInt(start, bodyBytes);
+        active.putInt(start + 4, (int) crc.getValue());
+    }
+
+    /**
+     * Writes every appended record to disk and forces it to the storage device.
+     *
+     * @throws IOException if writing or forcing fails
+     */
+    public void sync() throws IOException {
+        synchronized (this) {
+            // take the channel before letting appends continue, so records reach the file in order
+            channelLock.lock();
+            ByteBuffer full = active;
+            active = standby;
+            standby = full;
+        }
+        try {
+            // appends carry on into the other buffer while this one is written and forced
+            writeToSegment(standby);
+            if (channel != null) {
+                channel.force(false);
+            }
+        } finally {
+            channelLock.unlock();
+        }
+    }
+
+    /**
+     * Replays every record in the log directory, oldest segment first.
+     * A segment is read up to its first incomplete or corrupted record, including a record
+     * whose type length does not match its length.
+     *
+     * @param sink receives each record in log order
+     * @return the number of replayed records
+     * @throws IOException if a segment cannot be read
+     */
+    public long replay(RecordSink sink) throws IOException {
+        long replayed = 0;
+        for (Path segment : listSegments()) {
+            try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+                if (in.size() == 0) {
+                    continue;
+                }
+                MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+                CRC32 check = new CRC32();
+                while (buffer.remaining() >= HEADER_BYTES) {
+                    int bodyBytes = buffer.getInt();
+                    int checksum = buffer.getInt();
+                    if (bodyBytes < FIXED_BODY_BYTES || bodyBytes > buffer.remaining()) {
+                        System.err.println("Truncated write-ahead log record in " + segment + " (skipping rest)");
+                        break;
+                    }
+                    check.reset();
+                    check.update(buffer.duplicate().limit(buffer.position() + bodyBytes));
+                    if ((int) check.getValue() != checksum) {
+                        System.err.println("Corrupted write-ahead log record in " + segment + " (skipping rest)");
+                        break;
+                    }
+                    int patientId = buffer.getInt();
+                    long timestamp = buffer.getLong();
+                    double value = buffer.getDouble();
+                    int typeLength = buffer.getShort();
+                    if (typeLength != bodyBytes - FIXED_BODY_BYTES) {
+                        System.err.println("Corrupted write-ahead log record in " + segment + " (skipping rest)");
+                        break;
+                    }
+                    byte[] type = new byte[typeLength];
+                    buffer.get(type);
+                    sink.accept(patientId, value, new String(type, StandardCharsets.UTF_8).intern(), timestamp);
+                    replayed++;
+                }
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * Deletes the segments of every period that started before the given time, for
+     * example after the storage was checkpointed.
+     *
+     * @param time the time in milliseconds since the Unix epoch
+     * @throws IOException if a segment cannot be deleted
+     */
+    public void deleteSegmentsBefore(long time) throws IOException {
+        channelLock.lock();
+        try {
+            for (Path segment : listSegments()) {
+                long start = periodOf(segment);
+                if (start + segmentMillis <= time && start != segmentStart) {
+                    Files.deleteIfExists(segment);
+                }
+            }
+        } finally {
+            channelLock.unlock();
+        }
+    }
+
+    /**
+     * Writes and forces the remaining records, then closes the current segment.
+     *
+     * @throws IOException if the final write fails
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sync();
+        channelLock.lock();
+        try {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        } finally {
+            channelLock.unlock();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            failure = e;
+            System.err.println("Error writing write-ahead log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a filled buffer to the segment of the current period and clears it.
+     * Must be called while holding channelLock.
+     */
+    private void writeToSegment(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        if (buffer.hasRemaining()) {
+            long period = Math.floorDiv(System.currentTimeMillis(), segmentMillis) * segmentMillis;
+            if (channel == null || period != segmentStart) {
+                if (channel != null) {
+                    channel.force(false);
+                    channel.close();
+                }
+                channel = FileChannel.open(directory.resolve(SEGMENT_PREFIX + period + SEGMENT_SUFFIX),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                segmentStart = period;
+            }
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        buffer.clear();
+    }
+
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path segment : stream) {
+                segments.add(segment);
+            }
+        }
+        Collections.sort(segments, (a, b) -> Long.compare(periodOf(a), periodOf(b)));
+        return segments;
+    }
+
+    private static long periodOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Receives records read back from storage files.
+     */
+    @FunctionalInterface
+    public interface RecordSink {
+        /**
+         * @param patientId        the unique identifier of the patient
+         * @param measurementValue the value of the health metric
+         * @param recordType       the type of record
+         * @param timestamp        the time of the measurement in milliseconds since the Unix epoch
+         */
+        void accept(int patientId, double measurementValue, String recordType, long timestamp);
+    }
+}
@@ -0,0 +1,65 @@
+package com.alerts;
+
+import com.alerts.alert_decorator.PriorityAlertDecorator;
+import com.alerts.alert_decorator.PriorityAlertDecorator.Priority;
+import com.data_management.DataStorage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AlertLogTest {
+
+    @BeforeEach
+    void clearStorage() {
+        DataStorage.getInstance().clearDataForTesting();
+    }
+
+    @Test
+    void staysBoundedAndKeepsIndexesInStep() {
+        AlertLog log = new AlertLog(100);
+        for (int i = 0; i < 1_000; i++) {
+            log.add(new Alert(String.valueOf(i % 10), "Low SpO2", i));
+        }
+        assertEquals(100, log.size());
+        assertEquals(999, log.getLatestSequence());
+        // patient 3 only has the alerts at 903, 913, ... left
+        List<Alert> patientAlerts = log.getAlerts(3, 0L, 950L);
+        assertEquals(5, patientAlerts.size());
+        assertEquals(903L, patientAlerts.get(0).getTimestamp());
+        assertEquals(10, log.getAlertsBetween(990L, 2_000L).size());
+        assertTrue(log.getAlertsBetween(0L, 899L).isEmpty());
+        assertEquals(100, log.getAlerts((Priority) null, 0L, 2_000L).size());
+    }
+
+    @Test
+    void pollersSeeOnlyNewEntries() {
+        AlertLog log = new AlertLog(10);
+        log.add(new Alert("1", "Critical Systolic BP", 1L));
+        log.add(new Alert("1", "Critical Diastolic BP", 2L));
+        List<AlertLog.Entry> first = log.getAlertsSince(-1L);
+        assertEquals(2, first.size());
+
+        log.add(new Alert("2", "Low SpO2", 3L));
+        List<AlertLog.Entry> next = log.getAlertsSince(first.get(1).getSequence());
+        assertEquals(1, next.size());
+        assertEquals("2", next.get(0).getAlert().getPatientId());
+    }
+
+    @Test
+    void recordsPriorityAndSkipsAlertsFromEarlierRuns() {
+        DataStorage storage = DataStorage.getInstance();
+        Alert alert = new Alert("4", "Low SpO2", 5L);
+        new PriorityAlertDecorator(alert, Priority.HIGH).trigger(storage);
+        // the same alert object is a deliberate repeat
+        new PriorityAlertDecorator(alert, Priority.HIGH).trigger(storage);
+        // a later strategy run detects the same alert again
+        storage.saveAlertInLog(new Alert("4", "Low SpO2", 5L));
+
+        assertEquals(2, storage.getAlertLog().size());
+        assertEquals(2, storage.getAlertHistory().getAlerts(Priority.HIGH, 0L, 10L).size());
+        assertTrue(storage.getAlertHistory().getAlerts(Priority.LOW, 0L, 10L).isEmpty());
+    }
+}
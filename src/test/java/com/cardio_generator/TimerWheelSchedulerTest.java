@@ -0,0 +1,132 @@
+package com.cardio_generator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimerWheelSchedulerTest {
+
+    @Test
+    void runsEveryPatientOncePerPeriodInBatches() throws Exception {
+        int patients = 10_000;
+        int[] ids = new int[patients];
+        for (int i = 0; i < patients; i++) {
+            ids[i] = i + 1;
+        }
+        AtomicIntegerArray runs = new AtomicIntegerArray(patients + 1);
+        AtomicLong batches = new AtomicLong();
+        // virtual time, so the counts do not depend on how busy the machine is
+        VirtualClock clock = new VirtualClock(0);
+        TimerWheelScheduler scheduler = new TimerWheelScheduler(5, 2, clock, TimerWheelScheduler.AS_FAST_AS_POSSIBLE);
+        scheduler.schedule("test", ids, 100, TimeUnit.MILLISECONDS, new SplittableRandom(1), due -> {
+            batches.incrementAndGet();
+            for (int id : due) {
+                runs.incrementAndGet(id);
+            }
+        });
+        scheduler.stopAt(1_000);
+        scheduler.start();
+        assertTrue(scheduler.awaitTermination(30, TimeUnit.SECONDS));
+
+        // ten periods of 20 ticks, and one batch per tick covered all patients due in it
+        assertEquals(200, scheduler.getTicks());
+        for (int id = 1; id <= patients; id++) {
+            assertEquals(10, runs.get(id), "patient " + id);
+        }
+        assertTrue(batches.get() <= scheduler.getTicks(), batches.get() + " batches in " + scheduler.getTicks()
+                + " ticks");
+        assertEquals(0, scheduler.getSkippedBatches());
+    }
+
+    @Test
+    void runsVirtualTimeInOrderAsFastAsPossible() throws Exception {
+        int patients = 100;
+        int[] ids = new int[patients];
+        for (int i = 0; i < patients; i++) {
+            ids[i] = i + 1;
+        }
+        VirtualClock clock = new VirtualClock(1_000_000L);
+        List<Long> timestamps = Collections.synchronizedList(new ArrayList<>());
+        TimerWheelScheduler scheduler = new TimerWheelScheduler(10, 4, clock,
+                TimerWheelScheduler.AS_FAST_AS_POSSIBLE);
+        scheduler.schedule("test", ids, 1, TimeUnit.SECONDS, new SplittableRandom(1), due -> {
+            for (int id : due) {
+                timestamps.add(clock.currentTimeMillis());
+            }
+        });
+        scheduler.stopAt(1_000_000L + TimeUnit.HOURS.toMillis(1));
+        scheduler.start();
+        // an hour of simulated time is far quicker than real time
+        assertTrue(scheduler.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(patients * 3600, timestamps.size());
+        for (int i = 1; i < timestamps.size(); i++) {
+            assertTrue(timestamps.get(i - 1) <= timestamps.get(i), "out of order at " + i);
+        }
+        long last = timestamps.get(timestamps.size() - 1);
+        assertTrue(last < 1_000_000L + TimeUnit.HOURS.toMillis(1), "ran past the stop time: " + last);
+        assertTrue(last >= 1_000_000L + TimeUnit.HOURS.toMillis(1) - 1_000, "stopped early: " + last);
+    }
+
+    @Test
+    void skipsASlotWhoseBatchIsStillRunningInsteadOfRunningItTwice() throws Exception {
+        int[] ids = { 1, 2, 3, 4 };
+        AtomicIntegerArray running = new AtomicIntegerArray(ids.length + 1);
+        AtomicIntegerArray overlaps = new AtomicIntegerArray(ids.length + 1);
+        try (TimerWheelScheduler scheduler = new TimerWheelScheduler(1, 4)) {
+            // every run takes far longer than the period of 2 ms
+            scheduler.schedule("slow", ids, 2, TimeUnit.MILLISECONDS, new SplittableRandom(1), due -> {
+                for (int id : due) {
+                    if (running.incrementAndGet(id) > 1) {
+                        overlaps.incrementAndGet(id);
+                    }
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (int id : due) {
+                    running.decrementAndGet(id);
+                }
+            });
+            scheduler.start();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (scheduler.getSkippedBatches() < 10 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertTrue(scheduler.getSkippedBatches() >= 10, "skipped " + scheduler.getSkippedBatches());
+        }
+        for (int id : ids) {
+            assertEquals(0, overlaps.get(id), "patient " + id + " ran on two workers at once");
+        }
+    }
+
+    @Test
+    void keepsTicksGoingWhenATaskFails() throws Exception {
+        AtomicLong runs = new AtomicLong();
+        try (TimerWheelScheduler scheduler = new TimerWheelScheduler(1, 1)) {
+            scheduler.schedule("failing", new int[] { 1 }, 1, TimeUnit.MILLISECONDS, new SplittableRandom(1), due -> {
+                if (runs.incrementAndGet() == 1) {
+                    throw new IllegalStateException("expected by the test");
+                }
+            });
+            scheduler.start();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (runs.get() < 3 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertThrows(IllegalStateException.class, () -> scheduler.schedule("late", new int[0], 1,
+                    TimeUnit.SECONDS, new SplittableRandom(), due -> { }));
+        }
+        assertTrue(runs.get() >= 3);
+    }
+}
@@ -0,0 +1,72 @@
+package com.cardio_generator.generators;
+
+import com.cardio_generator.SimulationClock;
+import com.cardio_generator.VirtualClock;
+import com.cardio_generator.outputs.OutputStrategy;
+import com.cardio_generator.outputs.RecordBatch;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.BiFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeneratorBatchTest {
+
+    private static final int PATIENTS = 50;
+
+    @Test
+    void batchesHoldTheRecordsThatGenerateOutputs() {
+        List<BiFunction<SimulationClock, SplittableRandom, PatientDataGenerator>> factories = List.of(
+                (clock, random) -> new ECGDataGenerator(PATIENTS, clock, random),
+                (clock, random) -> new BloodSaturationDataGenerator(PATIENTS, clock, random),
+                (clock, random) -> new BloodPressureDataGenerator(PATIENTS, clock, random),
+                (clock, random) -> new BloodLevelsDataGenerator(PATIENTS, clock, random),
+                (clock, random) -> new AlertGenerator(PATIENTS, clock, random));
+        int[] ids = new int[PATIENTS];
+        for (int i = 0; i < PATIENTS; i++) {
+            ids[i] = i + 1;
+        }
+        for (BiFunction<SimulationClock, SplittableRandom, PatientDataGenerator> factory : factories) {
+            SimulationClock clock = new VirtualClock(1_700_000_000_000L);
+            PatientDataGenerator single = factory.apply(clock, new SplittableRandom(5));
+            PatientDataGenerator batched = factory.apply(clock, new SplittableRandom(5));
+
+            List<String> expected = new ArrayList<>();
+            OutputStrategy output = (patientId, timestamp, label, data) ->
+                    expected.add(patientId + "," + timestamp + "," + label + "," + data);
+            List<String> actual = new ArrayList<>();
+            RecordBatch batch = new RecordBatch(1); // grows as needed
+            for (int round = 0; round < 20; round++) {
+                for (int id : ids) {
+                    single.generate(id, output);
+                }
+                batch.clear();
+                batched.generateBatch(ids, batch);
+                for (int i = 0; i < batch.size(); i++) {
+                    actual.add(batch.getPatientId(i) + "," + batch.getTimestamp(i) + "," + batch.getLabel(i)
+                            + "," + batch.getData(i));
+                }
+            }
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, actual, single.getClass().getSimpleName());
+        }
+    }
+
+    @Test
+    void defaultBatchCollectsTheOutputOfGenerate() {
+        PatientDataGenerator generator = (patientId, output) -> {
+            output.output(patientId, 10, "Saturation", "97%");
+            output.output(patientId, 10, "Alert", "triggered");
+        };
+        RecordBatch batch = new RecordBatch(4);
+        generator.generateBatch(new int[] { 3, 4 }, batch);
+        assertEquals(4, batch.size());
+        assertEquals(97, batch.getValue(0));
+        assertEquals(1, batch.getValue(1));
+        assertEquals("triggered", batch.getData(1));
+        assertEquals(4, batch.getPatientId(3));
+    }
+}
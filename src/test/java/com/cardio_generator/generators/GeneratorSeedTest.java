@@ -0,0 +1,55 @@
+package com.cardio_generator.generators;
+
+import com.cardio_generator.SimulationClock;
+import com.cardio_generator.VirtualClock;
+import com.cardio_generator.outputs.OutputStrategy;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeneratorSeedTest {
+
+    private static final int PATIENTS = 20;
+
+    @Test
+    void sameSeedGivesSameData() {
+        assertEquals(generate(42, false), generate(42, false));
+        assertNotEquals(generate(42, false), generate(43, false));
+    }
+
+    @Test
+    void dataOfAPatientDoesNotDependOnTheOthers() {
+        // patient by patient gives the same data as round by round
+        List<String> roundByRound = generate(7, false);
+        List<String> patientByPatient = generate(7, true);
+        roundByRound.sort(null);
+        patientByPatient.sort(null);
+        assertEquals(roundByRound, patientByPatient);
+    }
+
+    private static List<String> generate(long seed, boolean patientByPatient) {
+        SimulationClock clock = new VirtualClock(1_700_000_000_000L);
+        SplittableRandom random = new SplittableRandom(seed);
+        List<PatientDataGenerator> generators = List.of(
+                new ECGDataGenerator(PATIENTS, clock, random.split()),
+                new BloodSaturationDataGenerator(PATIENTS, clock, random.split()),
+                new BloodPressureDataGenerator(PATIENTS, clock, random.split()),
+                new BloodLevelsDataGenerator(PATIENTS, clock, random.split()),
+                new AlertGenerator(PATIENTS, clock, random.split()));
+        List<String> records = new ArrayList<>();
+        OutputStrategy output = (patientId, timestamp, label, data) ->
+                records.add(patientId + "," + timestamp + "," + label + "," + data);
+        for (PatientDataGenerator generator : generators) {
+            for (int outer = 1; outer <= (patientByPatient ? PATIENTS : 50); outer++) {
+                for (int inner = 1; inner <= (patientByPatient ? 50 : PATIENTS); inner++) {
+                    generator.generate(patientByPatient ? outer : inner, output);
+                }
+            }
+        }
+        return records;
+    }
+}
@@ -0,0 +1,92 @@
+package com.cardio_generator.generators;
+
+import com.cardio_generator.SimulationClock;
+import com.cardio_generator.outputs.RecordBatch;
+import com.data_management.DataStorage;
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HighRateECGDataGeneratorTest {
+
+    @Test
+    void emitsContiguousBlocksWithRealisticBeats() {
+        long[] now = { 1_700_000_000_000L };
+        SimulationClock clock = () -> now[0];
+        HighRateECGDataGenerator generator = new HighRateECGDataGenerator(2, clock, new SplittableRandom(3),
+                500, 1000);
+        RecordBatch batch = new RecordBatch(1024);
+        long previous = Long.MIN_VALUE;
+        int samples = 0;
+        int rPeaks = 0;
+        boolean inPeak = false;
+        double min = Double.MAX_VALUE;
+        for (int block = 0; block < 60; block++) {
+            now[0] += 1000;
+            batch.clear();
+            generator.generateBatch(new int[] { 1 }, batch);
+            assertEquals(500, batch.size(), "samples in block " + block);
+            for (int i = 0; i < batch.size(); i++) {
+                assertEquals(1, batch.getPatientId(i));
+                assertEquals("ECG", batch.getLabel(i));
+                long timestamp = batch.getTimestamp(i);
+                assertTrue(previous == Long.MIN_VALUE || timestamp == previous + 2, "gap at " + timestamp);
+                assertTrue(timestamp < now[0]);
+                previous = timestamp;
+                samples++;
+
+                double value = batch.getValue(i);
+                min = Math.min(min, value);
+                if (!inPeak && value > 0.8) {
+                    rPeaks++;
+                    inPeak = true;
+                } else if (value < 0.4) {
+                    inPeak = false;
+                }
+            }
+        }
+        assertEquals(30_000, samples);
+        // a minute at 60 to 80 bpm, with some variability
+        assertTrue(rPeaks >= 55 && rPeaks <= 90, rPeaks + " beats");
+        assertTrue(min < -0.1, "no S wave: " + min);
+    }
+
+    @Test
+    void storesEverySampleOfABlockAtTheHighestRate() {
+        DataStorage storage = DataStorage.getInstance();
+        storage.clearDataForTesting();
+        long[] now = { 1_700_000_001_000L };
+        HighRateECGDataGenerator generator = new HighRateECGDataGenerator(1, () -> now[0], new SplittableRandom(3),
+                HighRateECGDataGenerator.MAX_SAMPLE_RATE, 1000);
+        RecordBatch batch = new RecordBatch(16);
+        generator.generateBatch(new int[] { 1 }, batch);
+        for (int i = 0; i < batch.size(); i++) {
+            storage.addPatientData(batch.getPatientId(i), batch.getValue(i), batch.getLabel(i), batch.getTimestamp(i));
+        }
+        // no two samples share a timestamp, so none overwrites another
+        assertEquals(1000, storage.getRecords(1, 0, Long.MAX_VALUE).size());
+        storage.clearDataForTesting();
+
+        assertThrows(IllegalArgumentException.class, () -> new HighRateECGDataGenerator(1, () -> 0,
+                new SplittableRandom(3), HighRateECGDataGenerator.MAX_SAMPLE_RATE + 1, 1000));
+    }
+
+    @Test
+    void skipsSamplesAfterALongStall() {
+        long[] now = { 0 };
+        HighRateECGDataGenerator generator = new HighRateECGDataGenerator(1, () -> now[0], new SplittableRandom(3),
+                250, 1000);
+        RecordBatch batch = new RecordBatch(16);
+        now[0] = 1000;
+        generator.generateBatch(new int[] { 1 }, batch);
+        assertEquals(250, batch.size());
+
+        batch.clear();
+        now[0] = 61_000;
+        generator.generateBatch(new int[] { 1 }, batch);
+        assertEquals(2_500, batch.size()); // the last ten blocks
+        assertEquals(61_000 - 10_000, batch.getTimestamp(0));
+    }
+}
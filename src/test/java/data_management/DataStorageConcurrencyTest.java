@@ -0,0 +1,115 @@
+package data_management;
+
+import com.alerts.AlertGenerator;
+import com.data_management.DataStorage;
+import com.data_management.Patient;
+import com.data_management.PatientRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DataStorageConcurrencyTest {
+
+    private static final int WRITERS = 4;
+    private static final int READERS = 2;
+    private static final int PATIENTS = 40;
+    private static final int SAMPLES_PER_WRITER = 150;
+
+    private final DataStorage storage = DataStorage.getInstance();
+
+    @BeforeEach
+    void resetStorage() {
+        storage.clearDataForTesting();
+    }
+
+    @AfterEach
+    void tearDown() {
+        storage.clearDataForTesting();
+    }
+
+    @Test
+    void concurrentWritersAndStrategyReadersKeepDataConsistent() throws Exception {
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch writersDone = new CountDownLatch(WRITERS);
+
+        Thread[] writers = new Thread[WRITERS];
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            writers[w] = new Thread(() -> {
+                try {
+                    start.await();
+                    // every writer touches every patient, with its own timestamps
+                    for (int i = 0; i < SAMPLES_PER_WRITER; i++) {
+                        long timestamp = 1_000L + (long) i * WRITERS + writer;
+                        for (int patientId = 1; patientId <= PATIENTS; patientId++) {
+                            storage.addPatientData(patientId, 70.0, "ECG", timestamp);
+                            storage.addPatientData(patientId, 98.0, "Saturation", timestamp);
+                        }
+                    }
+                } catch (Throwable t) {
+                    failures.add(t);
+                } finally {
+                    writersDone.countDown();
+                }
+            });
+        }
+
+        Thread[] readers = new Thread[READERS];
+        for (int r = 0; r < READERS; r++) {
+            readers[r] = new Thread(() -> {
+                AlertGenerator alertGenerator = new AlertGenerator(storage);
+                try {
+                    start.await();
+                    while (writing.get()) {
+                        storage.forEachPatient(patient -> {
+                            alertGenerator.evaluateData(patient);
+                            assertSorted(patient.getRecords(0L, Long.MAX_VALUE));
+                        });
+                    }
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            });
+        }
+
+        for (Thread thread : writers) {
+            thread.start();
+        }
+        for (Thread thread : readers) {
+            thread.start();
+        }
+        start.countDown();
+        assertTrue(writersDone.await(60, TimeUnit.SECONDS), "writers did not finish");
+        writing.set(false);
+        for (Thread thread : readers) {
+            thread.join(10_000);
+        }
+
+        assertTrue(failures.isEmpty(), () -> "concurrent access failed: " + failures.peek());
+        assertEquals(PATIENTS, storage.getAllPatients().size());
+        for (int patientId = 1; patientId <= PATIENTS; patientId++) {
+            Patient patient = storage.getPatient(patientId);
+            assertEquals(WRITERS * SAMPLES_PER_WRITER, patient.getRecords("ECG", 0L, Long.MAX_VALUE).size());
+            assertEquals(WRITERS * SAMPLES_PER_WRITER, patient.getRecords("Saturation", 0L, Long.MAX_VALUE).size());
+        }
+        // the steady values above must not trigger any alert
+        assertTrue(storage.getAlertLog().isEmpty());
+    }
+
+    private static void assertSorted(List<PatientRecord> records) {
+        for (int i = 1; i < records.size(); i++) {
+            assertTrue(records.get(i - 1).getTimestamp() <= records.get(i).getTimestamp());
+        }
+    }
+}
@@ -5,8 +5,10 @@ import static org.junit.jupiter.api.Assertions.*;
 import com.data_management.DataReader;
 import org.junit.jupiter.api.Test;
 
+import com.data_management.AggregateRecord;
 import com.data_management.DataStorage;
 import com.data_management.PatientRecord;
+import com.data_management.RetentionPolicy;
 
 import java.io.IOException;
 import java.net.URI;
@@ -44,6 +46,76 @@ class DataStorageTest implements DataReader {
         assertEquals(100.0, records.get(0).getMeasurementValue()); // Validate first record
     }
 
+    @Test
+    void testDenseAndSparsePatientIds() {
+        DataStorage storage = DataStorage.getInstance();
+        storage.clearDataForTesting();
+        int[] ids = {5, 1, 3_000, -7, 1_000_000_007, 2_048, 42};
+        for (int id : ids) {
+            storage.addPatientData(id, id, "HeartRate", 1000L);
+        }
+        // enough contiguous IDs to grow the dense part over the sparse ones
+        for (int id = 1; id <= 5_000; id++) {
+            storage.addPatientData(id, id, "Saturation", 2000L);
+        }
+        for (int id : ids) {
+            assertEquals(id, storage.getPatient(id).getPatientId());
+            assertEquals(id, storage.getRecords(id, 1000L, 1000L).get(0).getMeasurementValue());
+        }
+        assertNull(storage.getPatient(6_000));
+        assertTrue(storage.getRecords(6_000, 0L, 5000L).isEmpty());
+
+        int[] visited = new int[1];
+        storage.forEachPatient(patient -> visited[0]++);
+        assertEquals(5_002, visited[0]);
+        assertEquals(5_002, storage.getAllPatients().size());
+        storage.clearDataForTesting();
+    }
+
+    @Test
+    void testRetentionRollsOldSamplesIntoAggregates() {
+        DataStorage storage = DataStorage.getInstance();
+        storage.clearDataForTesting();
+        storage.setRetentionPolicy("ECG", new RetentionPolicy(
+                10 * RetentionPolicy.MINUTE_MILLIS, RetentionPolicy.HOUR_MILLIS, 24 * RetentionPolicy.HOUR_MILLIS));
+
+        // three hours of 1 Hz samples
+        int samples = 3 * 3600;
+        for (int i = 0; i < samples; i++) {
+            storage.addPatientData(1, i % 100, "ECG", i * 1000L);
+        }
+        long newest = (samples - 1) * 1000L;
+
+        List<PatientRecord> raw = storage.getRecords(1, 0L, newest);
+        assertTrue(raw.size() >= 600 && raw.size() < 2_000, "raw samples kept: " + raw.size());
+        assertTrue(raw.get(0).getTimestamp() >= newest - 20 * RetentionPolicy.MINUTE_MILLIS);
+
+        List<AggregateRecord> hourly = storage.getAggregates(1, "ECG", 0L, newest, RetentionPolicy.HOUR_MILLIS);
+        assertEquals(3, hourly.size());
+        long total = 0;
+        for (AggregateRecord bucket : hourly) {
+            assertEquals(RetentionPolicy.HOUR_MILLIS, bucket.getBucketMillis());
+            assertEquals(0.0, bucket.getMin());
+            assertEquals(99.0, bucket.getMax());
+            total += bucket.getCount();
+        }
+        assertEquals(samples, total);
+
+        // the first hour only survives as an hour rollup, the last one has minute detail
+        List<AggregateRecord> minutes = storage.getAggregates(1, "ECG", 0L, newest, RetentionPolicy.MINUTE_MILLIS);
+        assertEquals(RetentionPolicy.HOUR_MILLIS, minutes.get(0).getBucketMillis());
+        AggregateRecord last = minutes.get(minutes.size() - 1);
+        assertEquals(RetentionPolicy.MINUTE_MILLIS, last.getBucketMillis());
+        assertEquals(60, last.getCount());
+        assertEquals(minutes.stream().mapToLong(AggregateRecord::getCount).sum(), samples);
+
+        // other record types keep everything
+        storage.addPatientData(1, 1.0, "Saturation", 0L);
+        storage.addPatientData(1, 1.0, "Saturation", newest);
+        assertEquals(2, storage.getPatient(1).getRecords("Saturation", 0L, newest).size());
+        storage.clearDataForTesting();
+    }
+
     @Override
     public void readData(DataStorage dataStorage) throws IOException {
 
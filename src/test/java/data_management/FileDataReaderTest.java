@@ -1,15 +1,23 @@
 package data_management;
 
 
+import com.cardio_generator.outputs.BinaryFileOutputStrategy;
 import com.data_management.DataStorage;
 import com.data_management.FileDataReader;
+import com.data_management.IngestLog;
 import com.data_management.PatientRecord;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.ByteArrayOutputStream;
 import java.io.FileWriter;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -47,6 +55,148 @@ class FileDataReaderTest {
         assertEquals(1, recs2.size());
     }
 
+    @Test
+    void readDataKeepsLineRulesOfTheOldReader() throws Exception {
+        File temp = File.createTempFile("data", ".csv");
+        try (FileWriter w = new FileWriter(temp)) {
+            w.write("1,72.5,HeartRate,1000\r\n");
+            w.write("1, -1.25e2 ,HeartRate,2000,,\n");   // trailing empty fields are ignored
+            w.write("1,98.5,HeartRate,\n");             // only three fields
+            w.write("1,,HeartRate,3000\n");             // empty value does not parse
+            w.write("1,0x1p3,HeartRate,4000\r");        // hexadecimal values still parse
+            w.write("\n");
+            w.write("1,12345678901234567890.5,HeartRate,5000"); // no line terminator at the end
+        }
+        FileDataReader reader = new FileDataReader(new String[] { "--output file:" + temp.getAbsolutePath() });
+
+        reader.readData(storage);
+
+        List<PatientRecord> recs = storage.getRecords(1, 0, 10_000);
+        assertEquals(4, recs.size());
+        assertEquals(72.5, recs.get(0).getMeasurementValue());
+        assertEquals(-125.0, recs.get(1).getMeasurementValue());
+        assertEquals(8.0, recs.get(2).getMeasurementValue());
+        assertEquals(12345678901234567890.5, recs.get(3).getMeasurementValue());
+        assertSame(recs.get(0).getRecordType(), recs.get(3).getRecordType());
+    }
+
+    @Test
+    void parallelReadKeepsPatientOrderAcrossRanges() throws Exception {
+        Path directory = Files.createTempDirectory("data");
+        // large enough to be split into several ranges
+        try (BufferedWriter w = Files.newBufferedWriter(directory.resolve("a.csv"))) {
+            w.write("7,1.0,HeartRate,1000\n");
+            for (int i = 0; i < 200_000; i++) {
+                w.write((i % 50) + "," + i + ",ECG," + (10_000 + i) + "\n");
+            }
+            w.write("7,2.0,HeartRate,1000\n"); // a later update of the first record
+        }
+        try (BufferedWriter w = Files.newBufferedWriter(directory.resolve("b.csv"))) {
+            w.write("100,98.0,Saturation,1000\n");
+        }
+        FileDataReader reader = new FileDataReader(new String[] { "--output file:" + directory, "--parallel" });
+
+        reader.readData(storage);
+
+        assertEquals(2.0, storage.getRecords(7, 1000, 1000).get(0).getMeasurementValue());
+        assertEquals(4_001, storage.getRecords(7, 0, Long.MAX_VALUE).size());
+        assertEquals(1, storage.getRecords(100, 0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void readDataLoadsBinaryRecordFilesNextToTextFiles() throws Exception {
+        Path dir = Files.createTempDirectory("records");
+        BinaryFileOutputStrategy binary = new BinaryFileOutputStrategy(dir.toString());
+        binary.output(1, 1000L, "ECG", "0.25");
+        binary.output(1, 2000L, "Saturation", "97.0%");
+        binary.output(1, 3000L, "Alert", "triggered");
+        binary.close();
+        Files.write(dir.resolve("more.csv"), "1,0.5,ECG,4000\n".getBytes());
+
+        new FileDataReader(new String[] { "--output file:" + dir }).readData(storage);
+
+        List<PatientRecord> records = storage.getRecords(1, 0, 5000);
+        assertEquals(3, records.size());
+        assertEquals(97.0, records.stream().filter(r -> r.getRecordType().equals("Saturation"))
+                .findFirst().get().getMeasurementValue());
+    }
+
+    @Test
+    void continuousReadFollowsAppendsAndResumesFromCheckpoint() throws Exception {
+        Path directory = Files.createTempDirectory("tail");
+        Path file = directory.resolve("HeartRate.txt");
+        Files.write(file, "Patient ID: 1, Timestamp: 1000, Label: HeartRate, Data: 70.0\n".getBytes());
+        FileDataReader reader = new FileDataReader(new String[] { "--output file:" + directory });
+
+        reader.readContinuousData(directory.toUri(), storage);
+        try {
+            Files.write(file, ("Patient ID: 1, Timestamp: 2000, Label: HeartRate, Data: 71.0\n"
+                    + "1,72.0,HeartRate,3000\n"
+                    + "Patient ID: 1, Timestamp: 4000, Label: Alert, Data: triggered\n"
+                    + "1,73.0,Heart").getBytes(), StandardOpenOption.APPEND); // the last line is not complete yet
+            awaitRecords(1, 3);
+        } finally {
+            reader.close();
+        }
+
+        // a restarted reader only reads what was appended since
+        storage.clearDataForTesting();
+        Files.write(file, "Rate,5000\n".getBytes(), StandardOpenOption.APPEND);
+        reader.readContinuousData(directory.toUri(), storage);
+        try {
+            awaitRecords(1, 1);
+            assertEquals(73.0, storage.getRecords(1, 0, 10_000).get(0).getMeasurementValue());
+
+            // truncation starts the file over
+            Files.write(file, "1,60.0,HeartRate,6000\n".getBytes(), StandardOpenOption.TRUNCATE_EXISTING);
+            awaitRecords(1, 2);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    void continuousReadTakesLoneCarriageReturnsAndLeavesItsCheckpointOutOfReadData() throws Exception {
+        Path directory = Files.createTempDirectory("tail");
+        Path file = directory.resolve("HeartRate.txt");
+        Files.write(file, "1,70.0,HeartRate,1000\r".getBytes());
+        FileDataReader reader = new FileDataReader(new String[] { "--output file:" + directory });
+
+        reader.readContinuousData(directory.toUri(), storage);
+        try {
+            awaitRecords(1, 1);
+            // the '\n' completing a "\r\n" split across passes is not an empty line
+            Files.write(file, "\n1,71.0,HeartRate,2000\r\n1,72.0,HeartRate,3000\r".getBytes(),
+                    StandardOpenOption.APPEND);
+            awaitRecords(1, 3);
+        } finally {
+            reader.close();
+        }
+
+        storage.clearDataForTesting();
+        PrintStream originalOut = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        IngestLog.flush();
+        System.setOut(new PrintStream(captured, true));
+        try {
+            reader.readData(storage);
+            IngestLog.flush();
+        } finally {
+            System.setOut(originalOut);
+        }
+        assertEquals(3, storage.getRecords(1, 0, Long.MAX_VALUE).size());
+        assertFalse(captured.toString().contains("Malformed"), captured.toString());
+    }
+
+    private void awaitRecords(int patientId, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (storage.getRecords(patientId, 0, Long.MAX_VALUE).size() < expected
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(expected, storage.getRecords(patientId, 0, Long.MAX_VALUE).size());
+    }
+
     @Test
     void readDataThrowsOnMissingArgs() {
         FileDataReader reader = new FileDataReader(new String[0]);
@@ -0,0 +1,60 @@
+package data_management;
+
+import com.data_management.IngestLog;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngestLogTest {
+
+    private final PrintStream originalOut = System.out;
+    private final IngestLog.Level originalLevel = IngestLog.getLevel();
+
+    @AfterEach
+    void restore() {
+        System.setOut(originalOut);
+        IngestLog.setLevel(originalLevel);
+        IngestLog.setSampleEvery(1);
+    }
+
+    @Test
+    void writesSampledRecordsAsynchronously() {
+        IngestLog.flush();
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true));
+        IngestLog.setLevel(IngestLog.Level.DEBUG);
+        IngestLog.setSampleEvery(2);
+
+        IngestLog log = IngestLog.forSource("IngestLogTest");
+        for (int i = 0; i < 4; i++) {
+            log.record(IngestLog.Level.DEBUG, "[Test] Added Patient.", 7, 1.5, "ECG", 1000L + i);
+        }
+        IngestLog.flush();
+
+        String[] lines = captured.toString().trim().split("\\R");
+        assertEquals(2, lines.length);
+        assertEquals("[Test] Added Patient. PatientId: 7 MeasurementValue: 1.5 RecordType: ECG Timestamp: 1000",
+                lines[0]);
+    }
+
+    @Test
+    void disabledLevelsWriteNothing() {
+        IngestLog.flush();
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true));
+        IngestLog.setLevel(IngestLog.Level.WARN);
+
+        IngestLog log = IngestLog.forSource("IngestLogTest");
+        log.record(IngestLog.Level.DEBUG, "[Test] Added Patient.", 7, 1.5, "ECG", 1000L);
+        log.log(IngestLog.Level.INFO, "Triggering priority: ", "HIGH");
+        IngestLog.flush();
+
+        assertEquals("", captured.toString());
+        assertTrue(log.isEnabled(IngestLog.Level.ERROR));
+        assertFalse(log.isEnabled(IngestLog.Level.INFO));
+    }
+}
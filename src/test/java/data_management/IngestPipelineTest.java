@@ -0,0 +1,156 @@
+package data_management;
+
+import com.data_management.IngestPipeline;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngestPipelineTest {
+
+    /** Frames look like {@code patientId,sequence,type}. */
+    private static final IngestPipeline.FrameFormat FRAMES = new IngestPipeline.FrameFormat() {
+        @Override
+        public int patientId(String frame) {
+            return Integer.parseInt(frame.substring(0, frame.indexOf(',')));
+        }
+
+        @Override
+        public boolean isLowPriority(String frame) {
+            return frame.endsWith(",low");
+        }
+    };
+
+    @Test
+    void keepsTheOrderOfEachPatientAcrossWorkers() {
+        int patients = 50;
+        long[] last = new long[patients];
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        IngestPipeline pipeline = new IngestPipeline("test", 4, 64, IngestPipeline.OverloadPolicy.BLOCK, FRAMES,
+                () -> frame -> {
+                    String[] parts = frame.split(",");
+                    int patientId = Integer.parseInt(parts[0]);
+                    long sequence = Long.parseLong(parts[1]);
+                    if (sequence != last[patientId] + 1) {
+                        errors.add(frame + " after " + last[patientId]);
+                    }
+                    last[patientId] = sequence;
+                });
+        for (int sequence = 1; sequence <= 2000; sequence++) {
+            for (int patientId = 0; patientId < patients; patientId++) {
+                assertTrue(pipeline.submit(patientId + "," + sequence + ",high"));
+            }
+        }
+        pipeline.close();
+
+        assertEquals(Collections.emptyList(), errors);
+        IngestPipeline.Metrics metrics = pipeline.getMetrics();
+        assertEquals(100_000, metrics.getSubmitted());
+        assertEquals(100_000, metrics.getProcessed());
+        assertEquals(0, metrics.getQueueDepth());
+        assertEquals(0, metrics.getDropped());
+        assertFalse(pipeline.submit("1,1,high"));
+    }
+
+    @Test
+    void takesFramesFromSeveralProducers() throws Exception {
+        int producers = 4;
+        int patients = 40; // producer p sends the patients with patientId % producers == p
+        long[] last = new long[patients];
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        IngestPipeline pipeline = new IngestPipeline("test", 3, 16, IngestPipeline.OverloadPolicy.BLOCK, FRAMES,
+                () -> frame -> {
+                    String[] parts = frame.split(",");
+                    int patientId = Integer.parseInt(parts[0]);
+                    long sequence = Long.parseLong(parts[1]);
+                    if (sequence != last[patientId] + 1) {
+                        errors.add(frame + " after " + last[patientId]);
+                    }
+                    last[patientId] = sequence;
+                });
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                for (int sequence = 1; sequence <= 1000; sequence++) {
+                    for (int patientId = producer; patientId < patients; patientId += producers) {
+                        pipeline.submit(patientId + "," + sequence + ",high");
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        pipeline.close();
+
+        assertEquals(Collections.emptyList(), errors);
+        assertEquals(40_000, pipeline.getMetrics().getProcessed());
+    }
+
+    @Test
+    void dropOldestKeepsTheNewestFrames() throws Exception {
+        CountDownLatch busy = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> handled = Collections.synchronizedList(new ArrayList<>());
+        IngestPipeline pipeline = new IngestPipeline("test", 1, 4, IngestPipeline.OverloadPolicy.DROP_OLDEST,
+                FRAMES, () -> frame -> {
+                    handled.add(frame);
+                    if (frame.equals("1,0,high")) {
+                        busy.countDown();
+                        await(release);
+                    }
+                });
+        pipeline.submit("1,0,high");
+        assertTrue(busy.await(5, TimeUnit.SECONDS));
+        for (int sequence = 1; sequence <= 10; sequence++) {
+            assertTrue(pipeline.submit("1," + sequence + ",high"));
+        }
+        assertEquals(4, pipeline.getMetrics().getQueueDepth());
+        release.countDown();
+        pipeline.close();
+
+        assertEquals(List.of("1,0,high", "1,7,high", "1,8,high", "1,9,high", "1,10,high"), handled);
+        assertEquals(6, pipeline.getMetrics().getDropped());
+    }
+
+    @Test
+    void shedsLowPriorityFramesBeforeTheRingIsFull() throws Exception {
+        CountDownLatch busy = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        IngestPipeline pipeline = new IngestPipeline("test", 1, 4, IngestPipeline.OverloadPolicy.SHED_LOW_PRIORITY,
+                FRAMES, () -> frame -> {
+                    if (frame.equals("1,0,high")) {
+                        busy.countDown();
+                        await(release);
+                    }
+                });
+        pipeline.submit("1,0,high");
+        assertTrue(busy.await(5, TimeUnit.SECONDS));
+        assertTrue(pipeline.submit("1,1,low"));
+        assertTrue(pipeline.submit("1,2,high"));
+        assertTrue(pipeline.submit("1,3,high"));
+        assertFalse(pipeline.submit("1,4,low"));   // three quarters full
+        assertTrue(pipeline.submit("1,5,high"));
+        release.countDown();
+        pipeline.close();
+
+        assertEquals(1, pipeline.getMetrics().getShed());
+        assertEquals(5, pipeline.getMetrics().getProcessed());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package data_management;
+
+import com.data_management.JsonRecordDecoder;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * Manual benchmark of the WebSocket message decoding. It compares JsonRecordDecoder with
+ * the split and regex parsing WebSocketDataReader used before, in time and in bytes
+ * allocated per message.
+ * Not part of the unit tests, run it with the test classpath:
+ * java -cp target/classes:target/test-classes data_management.JsonDecodeBenchmark
+ */
+public class JsonDecodeBenchmark {
+
+    private static final int MESSAGES = 4096;
+    private static final int ROUNDS = 200;
+
+    private static double sink; // keeps the results alive
+
+    public static void main(String[] args) {
+        String[] messages = new String[MESSAGES];
+        Random random = new Random(1);
+        String[] types = { "ECG", "Saturation", "SystolicPressure", "DiastolicPressure" };
+        for (int i = 0; i < MESSAGES; i++) {
+            messages[i] = "{\"patientId\":" + (1 + random.nextInt(100)) + ",\"timestamp\":" + (1_700_000_000_000L + i)
+                    + ",\"recordType\":\"" + types[i % types.length] + "\",\"measurementValue\":"
+                    + (i % 4 == 1 ? "\"" + (90 + random.nextInt(10)) + ".0%\"" : Double.toString(random.nextDouble()))
+                    + "}";
+        }
+        JsonRecordDecoder decoder = new JsonRecordDecoder();
+
+        // warm up the JIT before measuring
+        for (int round = 0; round < ROUNDS / 4; round++) {
+            runLegacy(messages);
+            runDecoder(decoder, messages);
+        }
+
+        System.out.println("decoder           | ns/message | bytes allocated/message");
+        measure("split + regex", () -> runLegacy(messages));
+        measure("JsonRecordDecoder", () -> runDecoder(decoder, messages));
+    }
+
+    private static void measure(String name, Runnable round) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            round.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        double messages = (double) ROUNDS * MESSAGES;
+        System.out.printf("%-17s | %10.1f | %23.1f%n", name, elapsed / messages, allocated / messages);
+    }
+
+    private static void runDecoder(JsonRecordDecoder decoder, String[] messages) {
+        for (String message : messages) {
+            if (decoder.decode(message)) {
+                sink += decoder.getMeasurementValue() + decoder.getPatientId() + decoder.getTimestamp();
+            }
+        }
+    }
+
+    /**
+     * The parsing WebSocketDataReader.onMessage did before JsonRecordDecoder.
+     */
+    private static void runLegacy(String[] messages) {
+        for (String message : messages) {
+            Map<String, String> map = Arrays.stream(
+                            message.substring(1, message.length() - 1).split(","))
+                    .map(s -> s.split(":", 2))
+                    .collect(Collectors.toMap(
+                            a -> a[0].replaceAll("\"", "").trim(),
+                            a -> a[1].replaceAll("\"", "").trim()
+                    ));
+            int patientId = Integer.parseInt(map.get("patientId"));
+            long timestamp = Long.parseLong(map.get("timestamp"));
+            String cleaned = map.get("measurementValue").replaceAll("[^0-9.]+", "");
+            sink += Double.parseDouble(cleaned) + patientId + timestamp;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package data_management;
+
+import com.data_management.JsonRecordDecoder;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonRecordDecoderTest {
+
+    private final JsonRecordDecoder decoder = new JsonRecordDecoder();
+
+    @Test
+    void decodesTheFieldsInAnyOrderQuotedOrNot() {
+        assertTrue(decoder.decode(
+                "{\"timestamp\": 1700000000000, \"recordType\": \"ECG\", \"source\": \"bed 4\", \"patientId\": \"7\", "
+                        + "\"measurementValue\": -0.25}"));
+        assertEquals(7, decoder.getPatientId());
+        assertEquals(1700000000000L, decoder.getTimestamp());
+        assertEquals("ECG", decoder.getRecordType());
+        assertEquals(-0.25, decoder.getMeasurementValue());
+        assertFalse(decoder.isAlert());
+
+        assertTrue(decoder.decode("{patientId:3,timestamp:5,recordType:Saturation,measurementValue:\"97.5%\"}"));
+        assertEquals("Saturation", decoder.getRecordType());
+        assertEquals(97.5, decoder.getMeasurementValue());
+
+        assertTrue(decoder.decode("{\"patientId\":3,\"timestamp\":6,\"recordType\":\"Alert\",\"measurementValue\":\"triggered\"}"));
+        assertTrue(decoder.isAlert());
+        assertEquals("triggered", decoder.getRawValue());
+    }
+
+    @Test
+    void rejectsCorruptMessagesWithAReason() {
+        assertFalse(decoder.decode(null));
+        assertEquals(JsonRecordDecoder.CORRUPTED, decoder.getError());
+        assertFalse(decoder.decode("{\"patientId\":1,\"timestamp\":2,\"recordType\":\"ECG\",\"measurementValue\":1"));
+        assertEquals(JsonRecordDecoder.CORRUPTED, decoder.getError());
+        assertFalse(decoder.decode("{\"patientId\":1,\"timestamp\":2,\"recordType\":\"ECG\"}"));
+        assertEquals(JsonRecordDecoder.MISSING_FIELD, decoder.getError());
+        assertFalse(decoder.decode("{\"patientId\":1,\"patientId\":1,\"timestamp\":2,\"recordType\":\"ECG\",\"measurementValue\":1}"));
+        assertEquals(JsonRecordDecoder.DUPLICATE_FIELD, decoder.getError());
+        assertFalse(decoder.decode("{\"patientId\":1x,\"timestamp\":2,\"recordType\":\"ECG\",\"measurementValue\":1}"));
+        assertEquals(JsonRecordDecoder.INVALID_NUMBER, decoder.getError());
+        assertFalse(decoder.decode("{\"patientId\":1,\"timestamp\":2,\"recordType\":\"ECG\",\"measurementValue\":\"high\"}"));
+        assertEquals(JsonRecordDecoder.INVALID_MEASUREMENT, decoder.getError());
+        // whitespace inside the exponent, with an exponent that is in range and one that is not
+        assertFalse(decoder.decode("{\"patientId\":1,\"timestamp\":2,\"recordType\":\"ECG\",\"measurementValue\":1e 5}"));
+        assertEquals(JsonRecordDecoder.INVALID_MEASUREMENT, decoder.getError());
+        assertFalse(decoder.decode("{\"patientId\":1,\"timestamp\":2,\"recordType\":\"ECG\",\"measurementValue\":1e 400}"));
+        assertEquals(JsonRecordDecoder.INVALID_MEASUREMENT, decoder.getError());
+        assertFalse(decoder.decode("{\"patientId\":1,\"timestamp\":2,\"recordType\":\"ECG\",\"measurementValue\":1e}"));
+        assertEquals(JsonRecordDecoder.INVALID_MEASUREMENT, decoder.getError());
+        assertTrue(decoder.decode("{\"patientId\":1,\"timestamp\":2,\"recordType\":\"ECG\",\"measurementValue\":1e400}"));
+        assertEquals(Double.POSITIVE_INFINITY, decoder.getMeasurementValue());
+        assertTrue(decoder.decode("{\"patientId\":1,\"timestamp\":2,\"recordType\":\"ECG\",\"measurementValue\":2.5E-3}"));
+        assertEquals(0.0025, decoder.getMeasurementValue());
+    }
+
+    @Test
+    void measurementValuesMatchDoubleParseDouble() {
+        Random random = new Random(11);
+        for (int i = 0; i < 100_000; i++) {
+            double value = i % 2 == 0 ? random.nextGaussian() : random.nextDouble() * Math.pow(10, random.nextInt(40) - 20);
+            String text = Double.toString(value);
+            assertTrue(decoder.decode("{\"patientId\":1,\"timestamp\":" + i
+                    + ",\"recordType\":\"ECG\",\"measurementValue\":" + text + "}"), text);
+            assertEquals(Double.parseDouble(text), decoder.getMeasurementValue(), text);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package data_management;
+
+import com.data_management.Patient;
+
+/**
+ * Manual benchmark for Patient.addOrUpdateRecord. It measures the average cost of an
+ * insert after the history has grown to different sizes, which should stay flat.
+ * Not part of the unit tests, run it with the test classpath:
+ * java -cp target/classes:target/test-classes data_management.PatientInsertBenchmark
+ */
+public class PatientInsertBenchmark {
+
+    private static final int BATCH = 100_000;
+
+    public static void main(String[] args) {
+        int maxHistory = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+
+        // warm up the JIT before measuring
+        runInOrder(new Patient(0), 500_000);
+
+        System.out.println("history size | in-order ns/insert | duplicate ns/update | late ns/insert");
+        for (int history = BATCH; history <= maxHistory; history *= 2) {
+            Patient patient = new Patient(1);
+            runInOrder(patient, history);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < BATCH; i++) {
+                patient.addOrUpdateRecord(i, "ECG", 2L * (history + i));
+            }
+            double inOrder = (System.nanoTime() - start) / (double) BATCH;
+
+            start = System.nanoTime();
+            for (int i = 0; i < BATCH; i++) {
+                patient.addOrUpdateRecord(i, "ECG", 2L * ((i * 7L) % history));
+            }
+            double duplicate = (System.nanoTime() - start) / (double) BATCH;
+
+            start = System.nanoTime();
+            for (int i = 0; i < BATCH; i++) {
+                // late arrivals land between existing samples
+                patient.addOrUpdateRecord(i, "ECG", 2L * ((i * 13L) % history) + 1);
+            }
+            double late = (System.nanoTime() - start) / (double) BATCH;
+
+            System.out.printf("%12d | %18.1f | %19.1f | %14.1f%n", history, inOrder, duplicate, late);
+        }
+    }
+
+    private static void runInOrder(Patient patient, int count) {
+        for (int i = 0; i < count; i++) {
+            patient.addOrUpdateRecord(i, "ECG", 2L * i);
+        }
+    }
+}
@@ -37,6 +37,57 @@ class PatientTest {
         assertEquals(65.0, records.get(0).getMeasurementValue());
     }
 
+    @Test
+    void getRecordsReturnsRangeAcrossChunksInOrder() {
+        // insert out of order so several chunks get split
+        for (int i = 4_999; i >= 0; i -= 2) {
+            patient.addRecord(i, "ECG", i);
+        }
+        for (int i = 0; i < 5_000; i += 2) {
+            patient.addRecord(i, "ECG", i);
+        }
+        List<PatientRecord> records = patient.getRecords(1_000L, 3_999L);
+        assertEquals(3_000, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(1_000L + i, records.get(i).getTimestamp());
+            assertEquals(records.get(i).getTimestamp(), records.get(i).getMeasurementValue());
+        }
+    }
+
+    @Test
+    void addOrUpdateRecordKeepsOneRecordPerTimestamp() {
+        for (int i = 0; i < 3_000; i++) {
+            patient.addOrUpdateRecord(i, "ECG", 10L * i);
+        }
+        // update old, newest and missing timestamps
+        patient.addOrUpdateRecord(-1.0, "ECG", 10L);
+        patient.addOrUpdateRecord(-2.0, "ECG", 29_990L);
+        patient.addOrUpdateRecord(-3.0, "ECG", 15L);
+        patient.addOrUpdateRecord(-4.0, "HeartRate", 10L);
+
+        List<PatientRecord> records = patient.getRecords("ECG", 0L, 30_000L);
+        assertEquals(3_001, records.size());
+        assertEquals(-1.0, records.get(1).getMeasurementValue());
+        assertEquals(-3.0, records.get(2).getMeasurementValue());
+        assertEquals(-2.0, records.get(3_000).getMeasurementValue());
+    }
+
+    @Test
+    void getRecordsMergesRecordTypesByTimestamp() {
+        patient.addRecord(1.0, "Saturation", 3_000L);
+        patient.addRecord(2.0, "ECG", 1_000L);
+        patient.addRecord(3.0, "ECG", 4_000L);
+        patient.addRecord(4.0, "Saturation", 2_000L);
+        List<PatientRecord> records = patient.getRecords(0L, 10_000L);
+        assertEquals(4, records.size());
+        assertEquals(1_000L, records.get(0).getTimestamp());
+        assertEquals(2_000L, records.get(1).getTimestamp());
+        assertEquals(3_000L, records.get(2).getTimestamp());
+        assertEquals(4_000L, records.get(3).getTimestamp());
+        assertEquals(2, patient.getRecords("ECG", 0L, 10_000L).size());
+        assertTrue(patient.getRecords("Cholesterol", 0L, 10_000L).isEmpty());
+    }
+
     @Test
     void getPatientIdReturnsConstructorValue() {
         assertEquals(7, patient.getPatientId());
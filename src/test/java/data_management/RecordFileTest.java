@@ -0,0 +1,157 @@
+package data_management;
+
+import com.data_management.RecordFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void convertsSimulatorOutputToBinaryAndBackToCsv() throws Exception {
+        Path text = dir.resolve("ECG.txt");
+        Random random = new Random(7);
+        List<String> expected = new ArrayList<>();
+        try (BufferedWriter out = Files.newBufferedWriter(text)) {
+            for (int i = 0; i < 2000; i++) {
+                int patientId = 1 + i % 4;
+                long timestamp = 1_700_000_000_000L + i * 250L;
+                double value = random.nextGaussian();
+                out.write(String.format("Patient ID: %d, Timestamp: %d, Label: %s, Data: %s%n",
+                        patientId, timestamp, "ECG", Double.toString(value)));
+                expected.add(patientId + "," + value + ",ECG," + timestamp);
+            }
+            out.write("Patient ID: 1, Timestamp: 1700000000000, Label: Alert, Data: triggered\n");
+            out.write("Patient ID: 2, Timestamp: 1700000000000, Label: Saturation, Data: 97.0%\n");
+            expected.add("2,97.0,Saturation,1700000000000");
+        }
+
+        Path binary = dir.resolve("records.bin");
+        assertEquals(2001, RecordFile.fromCsv(text, binary));
+        assertTrue(RecordFile.isRecordFile(binary));
+        assertFalse(RecordFile.isRecordFile(text));
+        assertTrue(Files.size(binary) * 5 < Files.size(text),
+                "binary " + Files.size(binary) + " bytes, text " + Files.size(text) + " bytes");
+
+        Path csv = dir.resolve("records.csv");
+        assertEquals(2001, RecordFile.toCsv(binary, csv));
+        List<String> lines = Files.readAllLines(csv);
+        lines.sort(null);
+        expected.sort(null);
+        assertEquals(expected, lines);
+    }
+
+    @Test
+    void readSkipsBlocksOutsideTheQueryAndStopsBeforeACutOffBlock() throws Exception {
+        Path binary = dir.resolve("records.bin");
+        try (RecordFile.Writer writer = new RecordFile.Writer(binary, 10, Long.MAX_VALUE)) {
+            for (int t = 0; t < 100; t++) {
+                for (int patientId = 1; patientId <= 3; patientId++) {
+                    writer.append(patientId, t, "HeartRate", 1000L * t);
+                }
+            }
+        }
+
+        List<Long> timestamps = new ArrayList<>();
+        long read = RecordFile.read(binary, patientId -> patientId == 2, 15_000, 34_000,
+                (patientId, value, type, timestamp) -> {
+                    assertEquals(2, patientId);
+                    assertEquals(timestamp / 1000.0, value);
+                    timestamps.add(timestamp);
+                });
+        assertEquals(20, read);
+        assertEquals(15_000L, timestamps.get(0));
+        assertEquals(34_000L, timestamps.get(19));
+
+        // a writer that died halfway through its last block
+        try (FileChannel channel = FileChannel.open(binary, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 5);
+        }
+        assertEquals(290, RecordFile.read(binary, (patientId, value, type, timestamp) -> { }));
+
+        try (RecordFile.Writer writer = new RecordFile.Writer(binary)) {
+            writer.append(4, 1.0, "HeartRate", 1000L);
+        }
+        assertEquals(291, RecordFile.read(binary, (patientId, value, type, timestamp) -> { }));
+    }
+
+    @Test
+    void writesBufferedSeriesAfterTheirMaximumWaitWithoutFurtherAppends() throws Exception {
+        Path binary = dir.resolve("records.bin");
+        try (RecordFile.Writer writer = new RecordFile.Writer(binary, 1000, 50)) {
+            for (int t = 0; t < 3; t++) {
+                writer.append(1, t, "HeartRate", 1000L * t);
+            }
+            // generation paused, the background flush still writes the series as one block
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            long read = 0;
+            while (read < 3 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+                read = RecordFile.read(binary, (patientId, value, type, timestamp) -> { });
+            }
+            assertEquals(3, read);
+        }
+    }
+
+    @Test
+    void aCorruptBlockInTheMiddleIsRefusedInsteadOfCutOff() throws Exception {
+        Path binary = dir.resolve("records.bin");
+        try (RecordFile.Writer writer = new RecordFile.Writer(binary, 10, Long.MAX_VALUE)) {
+            for (int t = 0; t < 30; t++) {
+                writer.append(1, t, "HeartRate", 1000L * t);
+            }
+        }
+        long size = Files.size(binary);
+
+        // a negative count in the header of the first of three blocks
+        try (FileChannel channel = FileChannel.open(binary, StandardOpenOption.WRITE)) {
+            ByteBuffer count = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(-1);
+            channel.write(count.flip(), 8 + 20);
+        }
+        assertThrows(IOException.class, () -> RecordFile.read(binary, (patientId, value, type, timestamp) -> { }));
+        assertThrows(IOException.class, () -> new RecordFile.Writer(binary));
+        assertEquals(size, Files.size(binary));
+    }
+
+    @Test
+    void readRejectsABlockWhoseTimestampsRunIntoItsValues() throws Exception {
+        Path binary = dir.resolve("records.bin");
+        try (RecordFile.Writer writer = new RecordFile.Writer(binary)) {
+            for (int t = 0; t < 10; t++) {
+                writer.append(1, t, "HeartRate", 1000L * t);
+            }
+        }
+
+        // every timestamp byte says another byte follows
+        try (FileChannel channel = FileChannel.open(binary, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 8);
+            int count = header.getInt(20);
+            int payloadBytes = header.getInt(24);
+            long payloadStart = 8 + 30 + header.getShort(28);
+            ByteBuffer continued = ByteBuffer.allocate(payloadBytes - count * 8);
+            while (continued.hasRemaining()) {
+                continued.put((byte) 0xFF);
+            }
+            channel.write(continued.flip(), payloadStart);
+        }
+        assertThrows(IOException.class, () -> RecordFile.read(binary, (patientId, value, type, timestamp) -> { }));
+    }
+}
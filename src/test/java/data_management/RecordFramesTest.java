@@ -0,0 +1,80 @@
+package data_management;
+
+import com.data_management.RecordFrames;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordFramesTest {
+
+    @Test
+    void decodesWhatTheEncoderWrote() {
+        RecordFrames.Encoder encoder = new RecordFrames.Encoder(4);
+        assertFalse(encoder.add(1, 1000L, "ECG", 0.25));
+        assertFalse(encoder.add(2, 1001L, "Saturation", 97.0));
+        assertFalse(encoder.add(1, 1002L, "ECG", -0.5));
+        assertTrue(encoder.add(3, 1003L, "Alert", 1));
+        ByteBuffer frame = encoder.encode();
+        assertEquals(0, encoder.size());
+
+        List<String> records = new ArrayList<>();
+        int count = RecordFrames.decode(frame, (patientId, value, type, timestamp) ->
+                records.add(patientId + "," + timestamp + "," + type + "," + value));
+        assertEquals(4, count);
+        assertEquals(List.of("1,1000,ECG,0.25", "2,1001,Saturation,97.0", "1,1002,ECG,-0.5", "3,1003,Alert,1.0"),
+                records);
+        assertEquals(0, frame.position());
+
+        // the encoder starts a new type table for the next frame
+        encoder.add(4, 2000L, "HeartRate", 72);
+        records.clear();
+        RecordFrames.decode(encoder.encode(), (patientId, value, type, timestamp) -> records.add(type));
+        assertEquals(List.of("HeartRate"), records);
+    }
+
+    @Test
+    void resumePointsFallBackToTheOldestTimestampWhenThereAreManyPatients() {
+        Map<String, Long> few = new HashMap<>();
+        few.put(RecordFrames.resumeKey(1, "SystolicPressure"), 1000L);
+        few.put(RecordFrames.resumeKey(1, "DiastolicPressure"), 990L);
+        few.put(RecordFrames.resumeKey(2, "ECG"), 2000L);
+        assertEquals(few, RecordFrames.parseResumePoints(RecordFrames.formatResumePoints(few)));
+
+        Map<String, Long> many = new HashMap<>();
+        for (int patientId = 1; patientId <= 100_000; patientId++) {
+            many.put(RecordFrames.resumeKey(patientId, "ECG"), 1_700_000_000_000L + patientId);
+        }
+        String value = RecordFrames.formatResumePoints(many);
+        assertTrue(value.length() <= RecordFrames.MAX_RESUME_HEADER_CHARS, value.length() + " chars");
+        assertEquals(Map.of(RecordFrames.ANY_RECORD, 1_700_000_000_001L), RecordFrames.parseResumePoints(value));
+    }
+
+    @Test
+    void corruptFramesDeliverNothing() {
+        RecordFrames.Encoder encoder = new RecordFrames.Encoder(8);
+        encoder.add(1, 1000L, "ECG", 0.25);
+        encoder.add(1, 1001L, "ECG", 0.5);
+        ByteBuffer frame = encoder.encode();
+        List<Integer> delivered = new ArrayList<>();
+
+        ByteBuffer truncated = ByteBuffer.wrap(frame.array(), 0, frame.limit() - 3);
+        assertThrows(IllegalArgumentException.class,
+                () -> RecordFrames.decode(truncated, (patientId, value, type, timestamp) -> delivered.add(patientId)));
+
+        ByteBuffer badTypeCode = ByteBuffer.wrap(frame.array().clone());
+        badTypeCode.putShort(badTypeCode.limit() - 8 - 2, (short) 5);
+        assertThrows(IllegalArgumentException.class,
+                () -> RecordFrames.decode(badTypeCode, (patientId, value, type, timestamp) -> delivered.add(patientId)));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> RecordFrames.decode(ByteBuffer.wrap("1,1000,ECG,0.25".getBytes()),
+                        (patientId, value, type, timestamp) -> delivered.add(patientId)));
+        assertTrue(delivered.isEmpty());
+    }
+}
@@ -0,0 +1,121 @@
+package data_management;
+
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StorageSnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    private final DataStorage storage = DataStorage.getInstance();
+
+    @AfterEach
+    void tearDown() {
+        storage.clearDataForTesting();
+    }
+
+    @Test
+    void recordsSurviveRestartThroughSnapshot() throws Exception {
+        storage.clearDataForTesting();
+        // more samples than fit in one chunk, and a sparse patient ID
+        for (int i = 0; i < 3000; i++) {
+            storage.addPatientData(1, i * 0.5, "ECG", 1_000L + i);
+        }
+        storage.addPatientData(1, 120.0, "SystolicPressure", 1_500L);
+        storage.addPatientData(5_000_000, 98.0, "Saturation", 2_000L);
+        Path file = directory.resolve("storage.snapshot");
+        storage.writeSnapshot(file);
+
+        // simulate the restart
+        storage.clearDataForTesting();
+        assertEquals(2, storage.loadSnapshot(file));
+        List<PatientRecord> ecg = storage.getPatient(1).getRecords("ECG", 0L, 10_000L);
+        assertEquals(3000, ecg.size());
+        assertEquals(1_000L, ecg.get(0).getTimestamp());
+        assertEquals(2999 * 0.5, ecg.get(2999).getMeasurementValue());
+        assertEquals(3001, storage.getRecords(1, 0L, 10_000L).size());
+        assertEquals(98.0, storage.getRecords(5_000_000, 0L, 10_000L).get(0).getMeasurementValue());
+
+        // loaded patients keep accepting records in order
+        storage.addPatientData(5_000_000, 97.0, "Saturation", 3_000L);
+        assertEquals(2, storage.getRecords(5_000_000, 0L, 10_000L).size());
+    }
+
+    @Test
+    void snapshotMergesIntoExistingPatients() throws Exception {
+        storage.clearDataForTesting();
+        storage.addPatientData(3, 60.0, "HeartRate", 1_000L);
+        Path file = directory.resolve("storage.snapshot");
+        storage.writeSnapshot(file);
+
+        storage.clearDataForTesting();
+        storage.addPatientData(3, 70.0, "HeartRate", 2_000L);
+        storage.loadSnapshot(file);
+        assertEquals(2, storage.getRecords(3, 0L, 10_000L).size());
+    }
+
+    @Test
+    void rejectsTypeLengthsTheIndexCannotHold() throws Exception {
+        storage.clearDataForTesting();
+        storage.addPatientData(1, 1.0, String.join("", Collections.nCopies(40_000, "x")), 1_000L);
+        assertThrows(IOException.class, () -> storage.writeSnapshot(directory.resolve("long.snapshot")));
+
+        storage.clearDataForTesting();
+        storage.addPatientData(1, 1.0, "ECG", 1_000L);
+        Path file = directory.resolve("storage.snapshot");
+        storage.writeSnapshot(file);
+        // the type length of the first series, as a short that went negative
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer footer = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(footer, channel.size() - 16);
+            ByteBuffer length = ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN).putShort((short) 40_000);
+            channel.write(length.flip(), footer.getLong(0) + 4 + 8 + 2);
+        }
+        storage.clearDataForTesting();
+        assertThrows(IOException.class, () -> storage.loadSnapshot(file));
+    }
+
+    @Test
+    void failedLoadsAreReportedInsteadOfLeavingAnEmptyHistory() throws Exception {
+        storage.clearDataForTesting();
+        for (int i = 0; i < 100; i++) {
+            storage.addPatientData(1, i, "ECG", 1_000L + i);
+        }
+        Path file = directory.resolve("storage.snapshot");
+        storage.writeSnapshot(file);
+        storage.clearDataForTesting();
+        storage.loadSnapshot(file);
+
+        // the block of the patient is gone before the patient is first used
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(8);
+        }
+        assertThrows(UncheckedIOException.class, () -> storage.getRecords(1, 0L, 10_000L));
+        // the entry is kept, so the next use fails again rather than seeing no records
+        assertThrows(UncheckedIOException.class, () -> storage.addPatientData(1, 1.0, "ECG", 5_000L));
+    }
+
+    @Test
+    void rejectsFilesThatAreNotSnapshots() throws Exception {
+        Path file = directory.resolve("broken.snapshot");
+        Files.write(file, new byte[64]);
+        assertThrows(IOException.class, () -> storage.loadSnapshot(file));
+    }
+}
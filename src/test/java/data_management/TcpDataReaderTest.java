@@ -0,0 +1,82 @@
+package data_management;
+
+import com.cardio_generator.outputs.TcpOutputStrategy;
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+import com.data_management.TcpDataReader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static data_management.TestSupport.freePort;
+import static data_management.TestSupport.waitFor;
+import static org.junit.jupiter.api.Assertions.*;
+
+class TcpDataReaderTest {
+
+    @AfterEach
+    void tearDown() {
+        DataStorage.getInstance().clearDataForTesting();
+    }
+
+    @Test
+    void readsTheLinesOfTcpOutputStrategy() throws Exception {
+        int port = freePort();
+        TcpOutputStrategy output = new TcpOutputStrategy(port);
+        TcpDataReader reader = new TcpDataReader();
+        try {
+            reader.readContinuousData(new URI("tcp://localhost:" + port), DataStorage.getInstance());
+            waitFor(reader::isConnected);
+            waitFor(() -> {
+                output.output(40, 1, "HeartRate", "72.0"); // until the server has accepted the reader
+                return !DataStorage.getInstance().getRecords(40, 0, 10).isEmpty();
+            });
+            for (int i = 0; i < 20_000; i++) {
+                output.output(41, 1000 + i, i % 2 == 0 ? "Saturation" : "ECG", i % 2 == 0 ? "97.0%" : "0." + i);
+            }
+            waitFor(() -> DataStorage.getInstance().getRecords(41, 0, Long.MAX_VALUE).size() == 20_000);
+            List<PatientRecord> records = DataStorage.getInstance().getRecords(41, 1000, 1001);
+            assertEquals(97.0, records.get(0).getMeasurementValue());
+            assertEquals("Saturation", records.get(0).getRecordType());
+            assertEquals(0.1, records.get(1).getMeasurementValue());
+        } finally {
+            reader.close();
+            output.close();
+        }
+    }
+
+    @Test
+    void reconnectsAndFinishesNoLineFromABrokenConnection() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            TcpDataReader reader = new TcpDataReader();
+            try {
+                reader.readContinuousData(new URI("tcp://localhost:" + server.getLocalPort()),
+                        DataStorage.getInstance());
+                try (Socket first = server.accept()) {
+                    send(first, "42,1000,HeartRate,70\n42,2000,Heart");
+                }
+                try (Socket second = server.accept()) {
+                    send(second, "42,3000,HeartRate,71\r\n42,4000,HeartRate,72");
+                    send(second, "\n");
+                    waitFor(() -> DataStorage.getInstance().getRecords(42, 0, 5000).size() == 3);
+                }
+                assertEquals(3, reader.getRecordCount());
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    private static void send(Socket socket, String text) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(text.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+}
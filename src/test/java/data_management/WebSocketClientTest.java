@@ -1,10 +1,15 @@
 package data_management;
 
 import com.data_management.DataStorage;
+import com.data_management.IngestPipeline;
+import com.data_management.RecordFrames;
 import com.data_management.WebSocketClient;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -23,6 +28,32 @@ class WebSocketClientTest {
         assertFalse(DataStorage.getInstance().getRecords(3, 0, 20000).isEmpty());
     }
 
+    @Test
+    void onMessageWithPipelineStoresOnWorkerThreads() throws Exception {
+        WebSocketClient client = new WebSocketClient("ws://localhost:8080", 2, 16,
+                IngestPipeline.OverloadPolicy.BLOCK, Collections.emptySet());
+        client.onMessage("5,10000,HeartRate,72.5");
+        client.onMessage("6,10000,Alert,triggered");
+        client.closePipeline();
+        assertEquals(1, DataStorage.getInstance().getRecords(5, 0, 20000).size());
+        assertTrue(DataStorage.getInstance().getRecords(6, 0, 20000).isEmpty());
+        assertEquals(2, client.getPipeline().getMetrics().getProcessed());
+    }
+
+    @Test
+    void onMessageStoresBinaryFramesAndSkipsAlerts() throws Exception {
+        RecordFrames.Encoder encoder = new RecordFrames.Encoder(8);
+        encoder.add(7, 10000L, "HeartRate", 72.5);
+        encoder.add(7, 10001L, "Alert", 1);
+        encoder.add(8, 10000L, "Saturation", 97.0);
+        WebSocketClient client = new WebSocketClient("ws://localhost:8080");
+        client.onMessage(encoder.encode());
+        assertEquals(1, DataStorage.getInstance().getRecords(7, 0, 20000).size());
+        assertEquals(1, DataStorage.getInstance().getRecords(8, 0, 20000).size());
+
+        client.onMessage(ByteBuffer.wrap(new byte[] { 1, 2, 3 })); // logged and skipped
+    }
+
     @Test
     void onMessageIgnoresAlertLabel() throws Exception {
         WebSocketClient client = new WebSocketClient("ws://localhost:8080");
@@ -1,16 +1,48 @@
 package data_management;
 
+import com.cardio_generator.outputs.WebSocketOutputStrategy;
 import com.data_management.DataStorage;
+import com.data_management.IngestPipeline;
+import com.data_management.RecordFrames;
 import com.data_management.WebSocketDataReader;
+import org.java_websocket.WebSocket;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
 
-
+import static data_management.TestSupport.freePort;
+import static data_management.TestSupport.waitFor;
 import static org.junit.jupiter.api.Assertions.*;
 
 class WebSocketDataReaderTest {
 
+    @AfterEach
+    void tearDown() {
+        DataStorage.getInstance().clearDataForTesting();
+    }
+
     @Test
     void readDataThrowsUnsupported() {
         WebSocketDataReader reader = new WebSocketDataReader();
@@ -22,4 +54,281 @@ class WebSocketDataReaderTest {
         WebSocketDataReader reader = new WebSocketDataReader();
         reader.close();
     }
+
+    @Test
+    void reconnectsAfterTheServerDropsTheConnectionAndSendsItsResumePoints() throws Exception {
+        List<String> resumeHeaders = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch reconnected = new CountDownLatch(1);
+        TestServer server = new TestServer((conn, handshake) -> {
+            resumeHeaders.add(handshake.getFieldValue(RecordFrames.RESUME_HEADER));
+            if (resumeHeaders.size() == 1) {
+                // dropped between two records with the same timestamp
+                conn.send(json(1, 1000, "SystolicPressure", 120));
+                conn.close();
+            } else {
+                conn.send(json(1, 1000, "DiastolicPressure", 80));
+                reconnected.countDown();
+            }
+        });
+        WebSocketDataReader reader = new WebSocketDataReader();
+        try {
+            reader.readContinuousData(server.uri(), DataStorage.getInstance());
+            assertTrue(reconnected.await(10, TimeUnit.SECONDS));
+            assertEquals(List.of("", "1:SystolicPressure:1000"), resumeHeaders);
+            waitFor(() -> DataStorage.getInstance().getRecords(1, 0, 5000).size() == 2);
+            assertEquals(0, reader.getReconnectAttempts());
+        } finally {
+            reader.close();
+            server.stop();
+        }
+    }
+
+    @Test
+    void readsFromSeveralEndpointsIntoOnePipeline() throws Exception {
+        TestServer wardA = new TestServer((conn, handshake) -> {
+            for (int i = 0; i < 100; i++) {
+                conn.send(json(10, 1000 + i, 70));
+            }
+        });
+        TestServer wardB = new TestServer((conn, handshake) -> {
+            for (int i = 0; i < 100; i++) {
+                conn.send(json(20, 1000 + i, 80));
+            }
+        });
+        WebSocketDataReader reader = new WebSocketDataReader(2, 64, IngestPipeline.OverloadPolicy.BLOCK,
+                Collections.emptySet());
+        try {
+            reader.readContinuousData(wardA.uri(), DataStorage.getInstance());
+            assertTrue(reader.addEndpoint(wardB.uri(), DataStorage.getInstance()));
+            assertFalse(reader.addEndpoint(wardA.uri(), DataStorage.getInstance()));
+            assertThrows(IllegalArgumentException.class, () -> reader.addEndpoint(new URI("ws://localhost:1"), null));
+            waitFor(() -> DataStorage.getInstance().getRecords(10, 0, 5000).size() == 100
+                    && DataStorage.getInstance().getRecords(20, 0, 5000).size() == 100);
+
+            List<WebSocketDataReader.EndpointHealth> health = reader.getEndpointHealth();
+            assertEquals(2, health.size());
+            for (WebSocketDataReader.EndpointHealth endpoint : health) {
+                assertTrue(endpoint.isConnected(), endpoint.toString());
+                assertEquals(100, endpoint.getMessages());
+                assertEquals(0, endpoint.getRejected());
+            }
+
+            assertTrue(reader.removeEndpoint(wardA.uri()));
+            assertFalse(reader.removeEndpoint(wardA.uri()));
+            assertEquals(List.of(wardB.uri()), reader.getEndpointHealth().stream()
+                    .map(WebSocketDataReader.EndpointHealth::getUri).collect(Collectors.toList()));
+        } finally {
+            reader.close();
+            wardA.stop();
+            wardB.stop();
+        }
+    }
+
+    @Test
+    void outputStrategyReplaysTheRecordsAClientMissed() throws Exception {
+        int port = freePort();
+        WebSocketOutputStrategy output = new WebSocketOutputStrategy(port, 100);
+        for (long timestamp = 1; timestamp <= 5; timestamp++) {
+            output.output(1, timestamp, "HeartRate", "7" + timestamp);
+        }
+        output.output(1, 5, "SystolicPressure", "120");
+        output.output(1, 5, "DiastolicPressure", "80");
+        output.output(2, 1, "Saturation", "97.0%");
+        List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        Map<String, String> headers = new HashMap<>();
+        // the client saw the systolic pressure and lost the connection before the diastolic one
+        headers.put(RecordFrames.RESUME_HEADER, "1:HeartRate:3,1:SystolicPressure:5");
+        WebSocketClient client = new WebSocketClient(new URI("ws://localhost:" + port), headers) {
+            @Override
+            public void onOpen(ServerHandshake handshake) {
+            }
+
+            @Override
+            public void onMessage(String message) {
+                messages.add(message);
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+            }
+
+            @Override
+            public void onError(Exception ex) {
+            }
+        };
+        try {
+            boolean connected = client.connectBlocking(5, TimeUnit.SECONDS);
+            for (int i = 0; !connected && i < 50; i++) { // the server starts listening in the background
+                Thread.sleep(100);
+                connected = client.reconnectBlocking();
+            }
+            assertTrue(connected);
+            output.output(1, 6, "HeartRate", "76");
+            waitFor(() -> messages.size() == 7);
+            // the records at a resume point are sent again, storing them twice is harmless
+            assertEquals(List.of("1,3,HeartRate,73", "1,4,HeartRate,74", "1,5,HeartRate,75",
+                    "1,5,SystolicPressure,120", "1,5,DiastolicPressure,80", "2,1,Saturation,97.0%",
+                    "1,6,HeartRate,76"), messages);
+        } finally {
+            client.closeBlocking();
+            output.close();
+        }
+    }
+
+    @Test
+    void readsCompressedAndUncompressedFramesFromTheOutputStrategy() throws Exception {
+        int port = freePort();
+        WebSocketOutputStrategy output = new WebSocketOutputStrategy(port, 0, 64);
+        WebSocketDataReader reader = new WebSocketDataReader(0, 0, IngestPipeline.OverloadPolicy.BLOCK,
+                Collections.emptySet(), 64);
+        try {
+            reader.addEndpoint(new URI("ws://localhost:" + port), DataStorage.getInstance());
+            try (FrameRecorder wire = new FrameRecorder(port)) {
+                assertTrue(wire.extensions.startsWith("permessage-deflate"), wire.extensions);
+                long timestamp = 0;
+                while ((DataStorage.getInstance().getRecords(31, 0, Long.MAX_VALUE).isEmpty()
+                        || wire.uncompressed.get() == 0) && timestamp < 500) {
+                    output.output(31, ++timestamp, "HeartRate", "72"); // small frames, sent uncompressed
+                    Thread.sleep(20);
+                }
+                assertTrue(wire.uncompressed.get() > 0);
+                assertEquals(0, wire.compressed.get());
+                for (int i = 0; i < 1500; i++) {
+                    output.output(30, 1000 + i, "ECG", Double.toString(Math.sin(i / 10.0)));
+                }
+                waitFor(() -> DataStorage.getInstance().getRecords(30, 0, Long.MAX_VALUE).size() == 1500);
+                waitFor(() -> wire.compressed.get() > 0); // the full batches
+                assertEquals(Math.sin(0.1), DataStorage.getInstance().getRecords(30, 1001, 1001).get(0)
+                        .getMeasurementValue());
+            }
+        } finally {
+            reader.close();
+            output.close();
+        }
+    }
+
+    private static String json(int patientId, long timestamp, double value) {
+        return json(patientId, timestamp, "HeartRate", value);
+    }
+
+    private static String json(int patientId, long timestamp, String recordType, double value) {
+        return "{\"patientId\":" + patientId + ",\"timestamp\":" + timestamp
+                + ",\"recordType\":\"" + recordType + "\",\"measurementValue\":" + value + "}";
+    }
+
+    /**
+     * A server on a free local port that runs a script for every connection it accepts.
+     */
+    private static final class TestServer extends WebSocketServer {
+        private final BiConsumer<WebSocket, ClientHandshake> script;
+        private final CountDownLatch started = new CountDownLatch(1);
+
+        TestServer(BiConsumer<WebSocket, ClientHandshake> script) throws Exception {
+            super(new InetSocketAddress("localhost", freePort()));
+            this.script = script;
+            start();
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+        }
+
+        URI uri() throws Exception {
+            return new URI("ws://localhost:" + getPort());
+        }
+
+        @Override
+        public void onOpen(WebSocket conn, ClientHandshake handshake) {
+            script.accept(conn, handshake);
+        }
+
+        @Override
+        public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onMessage(WebSocket conn, String message) {
+        }
+
+        @Override
+        public void onError(WebSocket conn, Exception ex) {
+        }
+
+        @Override
+        public void onStart() {
+            started.countDown();
+        }
+    }
+
+    /**
+     * A binary client that asks for permessage-deflate and counts the data frames it
+     * receives with and without the RSV1 bit, which marks a compressed message.
+     */
+    private static final class FrameRecorder implements AutoCloseable {
+        final String extensions;
+        final AtomicInteger compressed = new AtomicInteger();
+        final AtomicInteger uncompressed = new AtomicInteger();
+        private final Socket socket;
+        private final DataInputStream in;
+
+        FrameRecorder(int port) throws IOException {
+            socket = new Socket("localhost", port);
+            String request = "GET / HTTP/1.1\r\n"
+                    + "Host: localhost:" + port + "\r\n"
+                    + "Upgrade: websocket\r\n"
+                    + "Connection: Upgrade\r\n"
+                    + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+                    + "Sec-WebSocket-Version: 13\r\n"
+                    + "Sec-WebSocket-Extensions: permessage-deflate\r\n"
+                    + RecordFrames.HANDSHAKE_HEADER + ": " + RecordFrames.BINARY_V1 + "\r\n\r\n";
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            String status = readLine();
+            assertTrue(status.contains(" 101 "), status);
+            String negotiated = "";
+            for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+                if (line.toLowerCase(Locale.ROOT).startsWith("sec-websocket-extensions:")) {
+                    negotiated = line.substring(line.indexOf(':') + 1).trim();
+                }
+            }
+            extensions = negotiated;
+            Thread thread = new Thread(this::readFrames, "frame-recorder");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            for (int b = in.read(); b != '\n'; b = in.read()) {
+                if (b < 0) {
+                    throw new IOException("Connection closed during the handshake");
+                }
+                if (b != '\r') {
+                    line.append((char) b);
+                }
+            }
+            return line.toString();
+        }
+
+        private void readFrames() {
+            try {
+                while (true) {
+                    int first = in.readUnsignedByte();
+                    int length = in.readUnsignedByte() & 0x7F; // frames from a server are not masked
+                    long payload = length == 126 ? in.readUnsignedShort() : length == 127 ? in.readLong() : length;
+                    int opcode = first & 0x0F;
+                    if (opcode == 0x1 || opcode == 0x2) {
+                        ((first & 0x40) != 0 ? compressed : uncompressed).incrementAndGet();
+                    }
+                    for (long skipped = 0; skipped < payload; skipped++) {
+                        in.readByte();
+                    }
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
 }
@@ -0,0 +1,180 @@
+package data_management;
+
+import com.cardio_generator.outputs.WebSocketOutputStrategy;
+import com.data_management.RecordFrames;
+import com.data_management.WebSocketCompression;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+
+import javax.net.SocketFactory;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static data_management.TestSupport.freePort;
+
+/**
+ * Manual benchmark of the WebSocket wire formats. It sends the same simulated records from
+ * WebSocketOutputStrategy to one local client as text messages and as batched binary frames,
+ * each with and without permessage-deflate, and reports the CPU time of the whole process
+ * and the bytes the client read from its socket per record.
+ * Not part of the unit tests, run it with the test classpath and the Java-WebSocket and slf4j-api jars:
+ * java -cp target/classes:target/test-classes:&lt;jars&gt; data_management.WebSocketWireBenchmark
+ */
+public class WebSocketWireBenchmark {
+
+    private static final int RECORDS = 200_000;
+    private static final int PATIENTS = 100;
+
+    public static void main(String[] args) throws Exception {
+        // warm up the JIT before measuring
+        run(false, WebSocketCompression.OFF, RECORDS / 4, true);
+        run(true, WebSocketCompression.DEFAULT_THRESHOLD, RECORDS / 4, true);
+
+        System.out.println("mode                   | CPU ns/record | wire bytes/record");
+        run(false, WebSocketCompression.OFF, RECORDS, false);
+        run(false, 0, RECORDS, false);
+        run(true, WebSocketCompression.OFF, RECORDS, false);
+        run(true, WebSocketCompression.DEFAULT_THRESHOLD, RECORDS, false);
+    }
+
+    private static void run(boolean binary, int compressThreshold, int records, boolean warmUp) throws Exception {
+        int port = freePort();
+        WebSocketOutputStrategy output = new WebSocketOutputStrategy(port, 0, compressThreshold);
+        AtomicLong received = new AtomicLong();
+        AtomicLong wireBytes = new AtomicLong();
+        Map<String, String> headers = binary ? RecordFrames.handshakeHeaders() : new HashMap<>();
+        WebSocketClient client = new WebSocketClient(new URI("ws://localhost:" + port),
+                WebSocketCompression.draft(compressThreshold), headers) {
+            @Override
+            public void onOpen(ServerHandshake handshake) {
+            }
+
+            @Override
+            public void onMessage(String message) {
+                received.incrementAndGet();
+            }
+
+            @Override
+            public void onMessage(ByteBuffer bytes) {
+                received.addAndGet(RecordFrames.decode(bytes, (patientId, value, type, timestamp) -> { }));
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+            }
+
+            @Override
+            public void onError(Exception ex) {
+                ex.printStackTrace();
+            }
+        };
+        client.setSocketFactory(new CountingSocketFactory(wireBytes));
+        boolean connected = client.connectBlocking();
+        for (int i = 0; !connected && i < 50; i++) { // the server starts listening in the background
+            Thread.sleep(100);
+            connected = client.reconnectBlocking();
+        }
+        if (!connected) {
+            throw new IllegalStateException("Could not connect to port " + port);
+        }
+        Thread.sleep(200); // let the server finish opening the connection
+        wireBytes.set(0);
+
+        String[] types = { "ECG", "Saturation", "SystolicPressure", "DiastolicPressure" };
+        Random random = new Random(1);
+        com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        long cpuBefore = os.getProcessCpuTime();
+        long timestamp = 1_700_000_000_000L;
+        for (int i = 0; i < records; i++) {
+            String type = types[i % 7 < 4 ? i % 7 : 0]; // ECG is the most frequent
+            String data;
+            switch (type) {
+                case "Saturation":
+                    data = (90 + random.nextInt(10)) + "%";
+                    break;
+                case "SystolicPressure":
+                case "DiastolicPressure":
+                    data = Double.toString(70 + random.nextInt(60));
+                    break;
+                default:
+                    data = Double.toString(random.nextGaussian());
+            }
+            output.output(1 + i % PATIENTS, timestamp + i, type, data);
+        }
+        output.flush();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (received.get() < records && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        long cpu = os.getProcessCpuTime() - cpuBefore;
+        if (!warmUp) {
+            String mode = (binary ? "batched" : "text") + (compressThreshold < 0 ? "" : " + deflate>=" + compressThreshold);
+            System.out.printf("%-22s | %13.1f | %17.1f%s%n", mode, (double) cpu / records,
+                    (double) wireBytes.get() / records, received.get() < records ? " (incomplete)" : "");
+        }
+        client.closeBlocking();
+        output.close();
+    }
+
+    /**
+     * Creates sockets that count the bytes read from them.
+     */
+    private static final class CountingSocketFactory extends SocketFactory {
+        private final AtomicLong bytes;
+
+        CountingSocketFactory(AtomicLong bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public Socket createSocket() {
+            return new Socket() {
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    return new FilterInputStream(super.getInputStream()) {
+                        @Override
+                        public int read(byte[] buffer, int offset, int length) throws IOException {
+                            int read = super.read(buffer, offset, length);
+                            if (read > 0) {
+                                bytes.addAndGet(read);
+                            }
+                            return read;
+                        }
+                    };
+                }
+            };
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
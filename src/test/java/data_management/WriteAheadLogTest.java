@@ -0,0 +1,103 @@
+package data_management;
+
+import com.data_management.DataStorage;
+import com.data_management.WriteAheadLog;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteAheadLogTest {
+
+    @TempDir
+    Path directory;
+
+    private final DataStorage storage = DataStorage.getInstance();
+
+    @AfterEach
+    void tearDown() {
+        storage.clearDataForTesting();
+    }
+
+    @Test
+    void recordsSurviveRestartThroughReplay() throws Exception {
+        storage.clearDataForTesting();
+        // a small buffer makes appends write full buffers themselves between fsyncs
+        WriteAheadLog log = new WriteAheadLog(directory, 3_600_000L, 50L, 256);
+        storage.enableWriteAheadLog(log);
+        for (int i = 0; i < 500; i++) {
+            storage.addPatientData(1 + i % 5, i, "ECG", 1_000L + i);
+        }
+        storage.addPatientData(1, -1.0, "ECG", 1_000L); // update of an earlier record
+        storage.disableWriteAheadLog().close();
+
+        // simulate the restart
+        storage.clearDataForTesting();
+        assertTrue(storage.getRecords(1, 0L, 10_000L).isEmpty());
+        try (WriteAheadLog reopened = new WriteAheadLog(directory, 3_600_000L, 50L)) {
+            assertEquals(501, storage.enableWriteAheadLog(reopened));
+            assertEquals(100, storage.getRecords(1, 0L, 10_000L).size());
+            assertEquals(-1.0, storage.getRecords(1, 1_000L, 1_000L).get(0).getMeasurementValue());
+            storage.disableWriteAheadLog();
+        }
+    }
+
+    @Test
+    void replayStopsAtTornWrite() throws Exception {
+        try (WriteAheadLog log = new WriteAheadLog(directory, 3_600_000L, 1_000L)) {
+            log.append(7, 98.5, "Saturation", 5_000L);
+            log.append(7, 97.5, "Saturation", 6_000L);
+        }
+        File[] segments = directory.toFile().listFiles();
+        assertNotNull(segments);
+        assertEquals(1, segments.length);
+        // half of a record header, as left behind by a crash during a write
+        Files.write(segments[0].toPath(), new byte[] {0, 0, 0}, StandardOpenOption.APPEND);
+
+        List<Double> values = new ArrayList<>();
+        try (WriteAheadLog log = new WriteAheadLog(directory, 3_600_000L, 1_000L)) {
+            long replayed = log.replay((patientId, value, recordType, timestamp) -> {
+                assertEquals(7, patientId);
+                assertEquals("Saturation", recordType);
+                values.add(value);
+            });
+            assertEquals(2, replayed);
+        }
+        assertEquals(List.of(98.5, 97.5), values);
+    }
+
+    @Test
+    void rejectsLongTypesAndStopsReplayAtABadTypeLength() throws Exception {
+        String longType = String.join("", Collections.nCopies(40_000, "x"));
+        try (WriteAheadLog log = new WriteAheadLog(directory, 3_600_000L, 1_000L)) {
+            log.append(7, 98.5, "Saturation", 5_000L);
+            assertThrows(IllegalArgumentException.class, () -> log.append(7, 97.5, longType, 6_000L));
+        }
+        File[] segments = directory.toFile().listFiles();
+        assertNotNull(segments);
+
+        // a record with a valid checksum whose type length went negative in a short
+        ByteBuffer body = ByteBuffer.allocate(4 + 8 + 8 + 2 + 4);
+        body.putInt(7).putLong(6_000L).putDouble(97.5).putShort((short) 40_000).put("xxxx".getBytes()).flip();
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        ByteBuffer record = ByteBuffer.allocate(8 + body.remaining());
+        record.putInt(body.remaining()).putInt((int) crc.getValue()).put(body);
+        Files.write(segments[0].toPath(), record.array(), StandardOpenOption.APPEND);
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, 3_600_000L, 1_000L)) {
+            assertEquals(1, log.replay((patientId, value, recordType, timestamp) -> assertEquals(98.5, value)));
+        }
+    }
+}